@@ -0,0 +1,130 @@
+package com.github.manimovassagh.uploader.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.controller.FileDownloadHandler;
+import com.github.manimovassagh.uploader.service.DownloadCache;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * Download path for one stored file: resolving it with {@link FileStorageService#resolveStoredFile}
+ * and writing it out through {@link FileDownloadHandler} with and without the off-heap cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DownloadBenchmark {
+
+    private static final String FILENAME = "1700000000000-photo.jpg";
+
+    @Param({"1024", "65536", "1048576"})
+    int fileSize;
+
+    private Path storageDir;
+    private Path storedFile;
+    private FileStorageService fileStorageService;
+    private FileDownloadHandler uncachedHandler;
+    private FileDownloadHandler cachedHandler;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        storageDir = Files.createTempDirectory("download-benchmark");
+        byte[] content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        Files.write(storageDir.resolve(FILENAME), content);
+        fileStorageService = TestServices.fileStorageService(storageDir);
+        storedFile = fileStorageService.resolveStoredFile(FILENAME);
+        uncachedHandler = new FileDownloadHandler(new DownloadCache(0, 0), new FileMetrics(new SimpleMeterRegistry()));
+        cachedHandler = new FileDownloadHandler(new DownloadCache(64L * 1024 * 1024, 4L * 1024 * 1024),
+            new FileMetrics(new SimpleMeterRegistry()));
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        fileStorageService.close();
+        BenchmarkFiles.deleteRecursively(storageDir);
+    }
+
+    @Benchmark
+    public Path resolveStoredFile() {
+        return fileStorageService.resolveStoredFile(FILENAME);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse downloadFromDisk() throws IOException {
+        return download(uncachedHandler);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse downloadFromCache() throws IOException {
+        return download(cachedHandler);
+    }
+
+    private MockHttpServletResponse download(FileDownloadHandler handler) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/" + FILENAME);
+        MockHttpServletResponse response = new DiscardingResponse();
+        handler.handle(storedFile, FILENAME, request, response);
+        return response;
+    }
+
+    /**
+     * The mock response copies its body byte by byte into a buffer, which would dominate the
+     * measurement, so the body is dropped instead.
+     */
+    private static class DiscardingResponse extends MockHttpServletResponse {
+
+        private final ServletOutputStream body = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return body;
+        }
+    }
+}
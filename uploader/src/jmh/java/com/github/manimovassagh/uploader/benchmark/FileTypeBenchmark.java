@@ -0,0 +1,83 @@
+package com.github.manimovassagh.uploader.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.service.ContentSniffer;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+
+/**
+ * Cost of the declared-type allowlist check and of sniffing the leading bytes of an upload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTypeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class DeclaredType {
+
+        @Param({"image/jpeg", "text/plain", "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "video/mp4"})
+        String contentType;
+
+        private Path storageDir;
+        private FileStorageService fileStorageService;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            storageDir = Files.createTempDirectory("type-benchmark");
+            fileStorageService = TestServices.fileStorageService(storageDir);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            fileStorageService.close();
+            BenchmarkFiles.deleteRecursively(storageDir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Heads {
+
+        private final ContentSniffer contentSniffer = new ContentSniffer(List.of(FileUploadConfig.DEFAULT_ALLOWED_TYPES.split(",")));
+        private final byte[] pdf = ("%PDF-1.7\n" + "x".repeat(ContentSniffer.SNIFF_LENGTH - 9)).getBytes(StandardCharsets.US_ASCII);
+        private final byte[] text = "plain text line\n".repeat(ContentSniffer.SNIFF_LENGTH / 16).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public boolean isValidFileType(DeclaredType state) {
+        return state.fileStorageService.isValidFileType(state.contentType);
+    }
+
+    @Benchmark
+    public String detectBinarySignature(Heads heads) {
+        return heads.contentSniffer.detect(heads.pdf, heads.pdf.length);
+    }
+
+    @Benchmark
+    public String detectText(Heads heads) {
+        return heads.contentSniffer.detect(heads.text, heads.text.length);
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.manimovassagh.uploader.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.service.FileIndex;
+import com.github.manimovassagh.uploader.service.FlatStorageBackend;
+import com.github.manimovassagh.uploader.service.MetadataLog;
+
+/**
+ * Time to a populated index on startup: scanning the storage directory, against replaying the
+ * snapshot of the metadata log. The target is well under a second for 1M entries replayed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexStartupBenchmark {
+
+    @Param({"100000", "1000000"})
+    int entries;
+
+    private Path storageDir;
+    private Path metadataDir;
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        storageDir = Files.createTempDirectory("startup-benchmark");
+        metadataDir = storageDir.resolve(".meta");
+        MetadataLog metadataLog = new MetadataLog(metadataDir);
+        FileIndex fileIndex = new FileIndex(new FlatStorageBackend(storageDir), metadataLog);
+        metadataLog.load(fileIndex);
+
+        long uploadTime = 1_700_000_000_000L;
+        for (int i = 0; i < entries; i++) {
+            String filename = (uploadTime + i) + "-file" + i + ".txt";
+            Files.write(storageDir.resolve(filename), new byte[i % 64]);
+            FileMetadata metadata = new FileMetadata(filename, "file" + i + ".txt", i % 64, "text/plain",
+                Instant.ofEpochMilli(uploadTime + i));
+            fileIndex.put(metadata);
+        }
+        // Closing compacts, leaving only the snapshot
+        metadataLog.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        BenchmarkFiles.deleteRecursively(storageDir);
+    }
+
+    @Benchmark
+    public FileIndex scanDirectory() throws IOException {
+        FileIndex fileIndex = new FileIndex(storageDir);
+        fileIndex.rebuild();
+        return fileIndex;
+    }
+
+    @Benchmark
+    public FileIndex replaySnapshot() throws IOException {
+        FileIndex fileIndex = new FileIndex(storageDir);
+        try (MetadataLog metadataLog = new MetadataLog(metadataDir)) {
+            metadataLog.load(fileIndex);
+        }
+        return fileIndex;
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.manimovassagh.uploader.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.service.FileIndex;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+
+/**
+ * Listing cost against directories of 10k, 100k and 1M entries: the full name list that
+ * {@code GET /api/files} returned before pagination, and the paged, sorted and prefix-filtered
+ * views served from the index. Populating the 1M directory takes a while and needs the inodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListFilesBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"10000", "100000", "1000000"})
+    int entries;
+
+    private Path storageDir;
+    private FileStorageService fileStorageService;
+
+    @Setup(Level.Trial)
+    public void populate() throws IOException {
+        storageDir = Files.createTempDirectory("list-benchmark");
+        long uploadTime = 1_700_000_000_000L;
+        for (int i = 0; i < entries; i++) {
+            Files.write(storageDir.resolve((uploadTime + i) + "-file" + i + ".txt"), new byte[i % 64]);
+        }
+        fileStorageService = TestServices.fileStorageService(storageDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        fileStorageService.close();
+        BenchmarkFiles.deleteRecursively(storageDir);
+    }
+
+    @Benchmark
+    public List<String> listAll() {
+        return fileStorageService.listFiles();
+    }
+
+    @Benchmark
+    public FileIndex.Page firstPageByName() {
+        return fileStorageService.listFiles(null, FileIndex.SortField.NAME, false, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public FileIndex.Page deepPageByName() {
+        return fileStorageService.listFiles(null, FileIndex.SortField.NAME, false, entries / 2, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public FileIndex.Page largestFirst() {
+        return fileStorageService.listFiles(null, FileIndex.SortField.SIZE, true, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public FileIndex.Page prefixByName() {
+        return fileStorageService.listFiles("17000000055", FileIndex.SortField.NAME, false, 0, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.manimovassagh.uploader.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+
+/**
+ * Throughput of {@link FileStorageService#storeFiles} from 1KB to the 5MB limit and from a single
+ * file to the default {@code max-files} batch, with content sniffing on and off and with either
+ * index store. The service is configured as the application is, with only the parameters
+ * overriding the defaults, and the uploads are PDFs that pass sniffing. Every invocation uploads
+ * the same bytes, so the content-addressed mode measures the re-upload case it is meant for. Each
+ * iteration starts from an empty directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreFilesBenchmark {
+
+    @Param({"1024", "65536", "1048576", "5242880"})
+    int fileSize;
+
+    @Param({"1", "5"})
+    int batchSize;
+
+    @Param({"sequential", "parallel", "content-addressed"})
+    String mode;
+
+    @Param({"true", "false"})
+    boolean contentSniffing;
+
+    @Param({"log", "scan"})
+    String indexStore;
+
+    private MultipartFile[] files;
+    private Path storageDir;
+    private FileStorageService fileStorageService;
+
+    @Setup(Level.Trial)
+    public void createFiles() {
+        Random random = new Random(42);
+        files = new MultipartFile[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            byte[] content = new byte[fileSize];
+            random.nextBytes(content);
+            byte[] header = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(header, 0, content, 0, header.length);
+            files[i] = new MockMultipartFile("files", "file" + i + ".pdf", "application/pdf", content);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createService() throws IOException {
+        storageDir = Files.createTempDirectory("store-benchmark");
+        FileUploadConfig config = TestServices.fileUploadConfig(Map.of(
+            "file.upload.dir", storageDir.toString(),
+            "file.upload.parallel-writes", "parallel".equals(mode),
+            "file.storage.mode", "content-addressed".equals(mode) ? "content-addressed" : "plain",
+            "file.upload.content-sniffing", contentSniffing,
+            "file.index.store", indexStore));
+        fileStorageService = TestServices.fileStorageService(config);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteStoredFiles() throws IOException {
+        fileStorageService.close();
+        BenchmarkFiles.deleteRecursively(storageDir);
+    }
+
+    @Benchmark
+    public FileUploadResponse storeFiles() {
+        return fileStorageService.storeFiles(files);
+    }
+}
@@ -1,14 +1,14 @@
 package com.github.manimovassagh.uploader.config;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.multipart.MultipartResolver;
-import org.springframework.web.multipart.support.StandardServletMultipartResolver;
 
 @Configuration
 public class FileUploadConfig {
 
+    public static final String DEFAULT_ALLOWED_TYPES = "image/jpeg,image/png,image/gif,application/pdf,application/msword,"
+        + "application/vnd.openxmlformats-officedocument.wordprocessingml.document,text/plain";
+
     @Value("${file.upload.max-size:5242880}") // 5MB in bytes
     private long maxFileSize;
 
@@ -18,10 +18,131 @@ public class FileUploadConfig {
     @Value("${file.upload.dir:uploads}")
     private String uploadDir;
 
-    @Bean
-    public MultipartResolver multipartResolver() {
-        return new StandardServletMultipartResolver();
-    }
+    @Value("${file.upload.allowed-types:" + DEFAULT_ALLOWED_TYPES + "}")
+    private String[] allowedTypes;
+
+    @Value("${file.upload.content-sniffing:true}")
+    private boolean contentSniffing;
+
+    @Value("${file.upload.chunked.max-size:10737418240}") // 10GB per file for /api/uploads
+    private long chunkedMaxSize;
+
+    @Value("${file.upload.chunked.session-ttl-seconds:86400}") // 0 keeps unfinished uploads forever
+    private long chunkedSessionTtlSeconds;
+
+    @Value("${file.upload.chunked.max-sessions:100}") // 0 for no limit
+    private int chunkedMaxSessions;
+
+    @Value("${file.upload.parallel-writes:false}")
+    private boolean parallelWrites;
+
+    @Value("${file.upload.write-concurrency:16}")
+    private int writeConcurrency;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${file.upload.digests:sha-256}") // sha-256, crc32c or both; returned for uploads and sent as Repr-Digest
+    private String[] digests;
+
+    @Value("${file.index.watch-enabled:true}")
+    private boolean indexWatchEnabled;
+
+    @Value("${file.index.reconcile-interval-seconds:60}") // re-reads the directory where it cannot be watched; 0 only at startup
+    private long indexReconcileIntervalSeconds;
+
+    @Value("${file.index.store:log}") // scan | log (metadata kept in an append-only log, replayed on startup)
+    private String indexStore;
+
+    @Value("${file.storage.mode:plain}") // plain | content-addressed
+    private String storageMode;
+
+    @Value("${file.storage.layout:flat}") // flat | sharded
+    private String storageLayout;
+
+    @Value("${file.storage.compression:none}") // none | gzip (text and Word documents are stored compressed)
+    private String storageCompression;
+
+    @Value("${file.storage.durability:none}") // none | fsync | group-commit
+    private String storageDurability;
+
+    @Value("${file.thumbnails.sizes:128,512}") // longest side in pixels, empty disables thumbnails
+    private int[] thumbnailSizes;
+
+    @Value("${file.thumbnails.workers:2}")
+    private int thumbnailWorkers;
+
+    @Value("${file.admission.requests-per-second:0}") // per client, 0 disables the limit
+    private double admissionRequestsPerSecond;
+
+    @Value("${file.admission.request-burst:0}") // 0 allows one second's worth
+    private double admissionRequestBurst;
+
+    @Value("${file.admission.bytes-per-second:0}") // per client, 0 disables the limit
+    private long admissionBytesPerSecond;
+
+    @Value("${file.admission.byte-burst:0}") // 0 allows one second's worth
+    private long admissionByteBurst;
+
+    @Value("${file.admission.max-in-flight-bytes:0}") // all uploads together, 0 disables the limit
+    private long admissionMaxInFlightBytes;
+
+    @Value("${file.admission.client-header:}") // empty keys clients by remote address
+    private String admissionClientHeader;
+
+    @Value("${file.download.cache-max-age:31536000}") // seconds clients and CDNs may reuse a download, 0 makes them revalidate
+    private long downloadCacheMaxAge;
+
+    @Value("${file.cache.max-bytes:67108864}") // 64MB off-heap, 0 disables the download cache
+    private long cacheMaxBytes;
+
+    @Value("${file.cache.max-entry-size:262144}")
+    private long cacheMaxEntrySize;
+
+    @Value("${file.retention.max-age-seconds:0}") // 0 keeps stored files forever
+    private long retentionMaxAgeSeconds;
+
+    @Value("${file.retention.max-total-bytes:0}") // oldest files are evicted above it, 0 disables the quota
+    private long retentionMaxTotalBytes;
+
+    @Value("${file.scrubber.interval-seconds:3600}") // 0 disables background passes
+    private long scrubberIntervalSeconds;
+
+    @Value("${file.scrubber.verify:false}") // re-hash stored files and compare them with their recorded digests; opt-in, it reads every file
+    private boolean scrubberVerify;
+
+    @Value("${file.scrubber.bytes-per-second:33554432}") // read budget of verification, 0 is unlimited
+    private long scrubberBytesPerSecond;
+
+    @Value("${file.scrubber.batch-size:500}")
+    private int scrubberBatchSize;
+
+    @Value("${file.scrubber.batch-pause-millis:100}")
+    private long scrubberBatchPauseMillis;
+
+    @Value("${file.cluster.nodes:}") // base URLs of all nodes, empty runs a single node
+    private String[] clusterNodes;
+
+    @Value("${file.cluster.self:}") // this node's entry in file.cluster.nodes
+    private String clusterSelf;
+
+    @Value("${file.cluster.replicas:2}") // copies of each file, including the primary
+    private int clusterReplicas;
+
+    @Value("${file.cluster.virtual-nodes:128}") // points per node on the hash ring
+    private int clusterVirtualNodes;
+
+    @Value("${file.cluster.rebalance-interval-seconds:300}") // 0 disables background rebalancing
+    private long clusterRebalanceIntervalSeconds;
+
+    @Value("${file.cluster.request-timeout-seconds:60}") // to send a copy to another node and get its answer, 0 waits forever
+    private long clusterRequestTimeoutSeconds;
+
+    @Value("${file.cluster.secret:}") // shared by the nodes and required on replica requests; cluster mode does not start without it
+    private String clusterSecret;
+
+    @Value("${file.s3.bucket:}") // bucket name of the S3-compatible API under /s3, off while empty
+    private String s3Bucket;
 
     public long getMaxFileSize() {
         return maxFileSize;
@@ -34,4 +155,188 @@ public class FileUploadConfig {
     public String getUploadDir() {
         return uploadDir;
     }
-} 
\ No newline at end of file
+
+    public String[] getAllowedTypes() {
+        return allowedTypes;
+    }
+
+    public boolean isContentSniffing() {
+        return contentSniffing;
+    }
+
+    public long getChunkedMaxSize() {
+        return chunkedMaxSize;
+    }
+
+    public long getChunkedSessionTtlSeconds() {
+        return chunkedSessionTtlSeconds;
+    }
+
+    public int getChunkedMaxSessions() {
+        return chunkedMaxSessions;
+    }
+
+    public boolean isParallelWrites() {
+        return parallelWrites;
+    }
+
+    public int getWriteConcurrency() {
+        return writeConcurrency;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public String[] getDigests() {
+        return digests;
+    }
+
+    public boolean isIndexWatchEnabled() {
+        return indexWatchEnabled;
+    }
+
+    public long getIndexReconcileIntervalSeconds() {
+        return indexReconcileIntervalSeconds;
+    }
+
+    public String getIndexStore() {
+        return indexStore;
+    }
+
+    public boolean isIndexLog() {
+        return "log".equalsIgnoreCase(indexStore);
+    }
+
+    public String getStorageMode() {
+        return storageMode;
+    }
+
+    public boolean isContentAddressed() {
+        return "content-addressed".equalsIgnoreCase(storageMode);
+    }
+
+    public String getStorageLayout() {
+        return storageLayout;
+    }
+
+    public boolean isShardedLayout() {
+        return "sharded".equalsIgnoreCase(storageLayout);
+    }
+
+    public String getStorageCompression() {
+        return storageCompression;
+    }
+
+    public boolean isGzipCompression() {
+        return "gzip".equalsIgnoreCase(storageCompression);
+    }
+
+    public String getStorageDurability() {
+        return storageDurability;
+    }
+
+    public int[] getThumbnailSizes() {
+        return thumbnailSizes;
+    }
+
+    public int getThumbnailWorkers() {
+        return thumbnailWorkers;
+    }
+
+    public double getAdmissionRequestsPerSecond() {
+        return admissionRequestsPerSecond;
+    }
+
+    public double getAdmissionRequestBurst() {
+        return admissionRequestBurst;
+    }
+
+    public long getAdmissionBytesPerSecond() {
+        return admissionBytesPerSecond;
+    }
+
+    public long getAdmissionByteBurst() {
+        return admissionByteBurst;
+    }
+
+    public long getAdmissionMaxInFlightBytes() {
+        return admissionMaxInFlightBytes;
+    }
+
+    public String getAdmissionClientHeader() {
+        return admissionClientHeader;
+    }
+
+    public long getDownloadCacheMaxAge() {
+        return downloadCacheMaxAge;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public long getCacheMaxEntrySize() {
+        return cacheMaxEntrySize;
+    }
+
+    public long getRetentionMaxAgeSeconds() {
+        return retentionMaxAgeSeconds;
+    }
+
+    public long getRetentionMaxTotalBytes() {
+        return retentionMaxTotalBytes;
+    }
+
+    public long getScrubberIntervalSeconds() {
+        return scrubberIntervalSeconds;
+    }
+
+    public boolean isScrubberVerify() {
+        return scrubberVerify;
+    }
+
+    public long getScrubberBytesPerSecond() {
+        return scrubberBytesPerSecond;
+    }
+
+    public int getScrubberBatchSize() {
+        return scrubberBatchSize;
+    }
+
+    public long getScrubberBatchPauseMillis() {
+        return scrubberBatchPauseMillis;
+    }
+
+    public String[] getClusterNodes() {
+        return clusterNodes;
+    }
+
+    public String getClusterSelf() {
+        return clusterSelf;
+    }
+
+    public int getClusterReplicas() {
+        return clusterReplicas;
+    }
+
+    public int getClusterVirtualNodes() {
+        return clusterVirtualNodes;
+    }
+
+    public long getClusterRebalanceIntervalSeconds() {
+        return clusterRebalanceIntervalSeconds;
+    }
+
+    public long getClusterRequestTimeoutSeconds() {
+        return clusterRequestTimeoutSeconds;
+    }
+
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public String getS3Bucket() {
+        return s3Bucket;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.github.manimovassagh.uploader.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+
+@Configuration
+public class MultipartConfig {
+
+    @Bean
+    public MultipartResolver multipartResolver() {
+        // Parts are only parsed when a handler asks for them, so /api/upload/stream can read the raw body
+        StandardServletMultipartResolver resolver = new StandardServletMultipartResolver();
+        resolver.setResolveLazily(true);
+        return resolver;
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.TooManyRequestsException;
+import com.github.manimovassagh.uploader.service.AdmissionControl;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Puts uploads and downloads through {@link AdmissionControl} ahead of multipart parsing and the
+ * controllers, so a request over a limit is answered with 429 before its body is read. Downloads
+ * are charged the bytes {@link FileDownloadHandler} sent or handed to the connector for sendfile;
+ * archives, which are streamed without it, only count against the request rate.
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    private final AdmissionControl admissionControl;
+    private final String clientHeader;
+
+    public AdmissionFilter(AdmissionControl admissionControl, FileUploadConfig fileUploadConfig) {
+        this.admissionControl = admissionControl;
+        String header = fileUploadConfig.getAdmissionClientHeader();
+        this.clientHeader = header == null || header.isBlank() ? null : header.trim();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return AdmissionControl.kindOf(request.getMethod(), request.getRequestURI()) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String client = clientKey(request);
+        AdmissionControl.Permit permit = null;
+        try {
+            if (AdmissionControl.kindOf(request.getMethod(), request.getRequestURI()) == AdmissionControl.Kind.UPLOAD) {
+                permit = admissionControl.admitUpload(client, request.getContentLengthLong());
+            } else {
+                admissionControl.admitDownload(client);
+            }
+        } catch (TooManyRequestsException ex) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Too many requests: " + ex.getMessage());
+            return;
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (permit != null) {
+                permit.release();
+            } else {
+                if (request.getAttribute(FileDownloadHandler.BYTES_SENT_ATTRIBUTE) instanceof Long bytes) {
+                    admissionControl.charge(client, bytes);
+                }
+            }
+        }
+    }
+
+    private String clientKey(HttpServletRequest request) {
+        if (clientHeader != null) {
+            String value = request.getHeader(clientHeader);
+            if (value != null && !value.isBlank()) {
+                // In a list such as X-Forwarded-For only the entry added by the nearest proxy is trusted
+                return value.substring(value.lastIndexOf(',') + 1).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+}
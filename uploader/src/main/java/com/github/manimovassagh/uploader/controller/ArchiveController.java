@@ -0,0 +1,52 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.manimovassagh.uploader.service.ZipArchiveService;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Downloads several stored files in one ZIP archive, picked by name or by prefix. Long lists of
+ * names can be posted as a JSON array instead of going into the query string.
+ */
+@RestController
+@RequestMapping("/api/archive")
+public class ArchiveController {
+
+    static final String ARCHIVE_NAME = "files.zip";
+
+    private final ZipArchiveService zipArchiveService;
+
+    public ArchiveController(ZipArchiveService zipArchiveService) {
+        this.zipArchiveService = zipArchiveService;
+    }
+
+    @GetMapping
+    public void downloadArchive(@RequestParam(required = false) List<String> files, @RequestParam(required = false) String prefix,
+                                HttpServletResponse response) throws IOException {
+        send(zipArchiveService.resolve(files, prefix), response);
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void downloadArchive(@RequestBody List<String> files, HttpServletResponse response) throws IOException {
+        send(zipArchiveService.resolve(files, null), response);
+    }
+
+    private void send(List<Path> files, HttpServletResponse response) throws IOException {
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + ARCHIVE_NAME + "\"");
+        zipArchiveService.write(files, response.getOutputStream());
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a body sent with {@code Content-Encoding: aws-chunked}, as S3 clients do for streaming
+ * uploads: chunks of {@code <hex size>[;chunk-signature=...]\r\n<data>\r\n}, ending with a
+ * zero-size chunk and optional trailer headers. Chunk signatures and trailing checksums are
+ * skipped, not checked.
+ */
+class AwsChunkedInputStream extends FilterInputStream {
+
+    private static final int MAX_LINE = 4096;
+
+    private long remaining;
+    private boolean finished;
+
+    AwsChunkedInputStream(InputStream in) {
+        super(in);
+    }
+
+    static boolean isAwsChunked(String contentEncoding, String contentSha256) {
+        return (contentEncoding != null && contentEncoding.contains("aws-chunked"))
+            || (contentSha256 != null && contentSha256.startsWith("STREAMING-"));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0 && !nextChunk()) {
+            return -1;
+        }
+        int read = in.read(b, off, (int) Math.min(len, remaining));
+        if (read == -1) {
+            throw new EOFException("Body ended inside an aws-chunked chunk");
+        }
+        remaining -= read;
+        if (remaining == 0) {
+            expectLineEnd();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        int read;
+        while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1) {
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(remaining, in.available());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (finished) {
+            return false;
+        }
+        String header = readLine();
+        int extensions = header.indexOf(';');
+        String size = (extensions < 0 ? header : header.substring(0, extensions)).trim();
+        try {
+            remaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Malformed aws-chunked chunk header " + header);
+        }
+        if (remaining < 0) {
+            throw new IOException("Malformed aws-chunked chunk header " + header);
+        }
+        if (remaining == 0) {
+            // Trailers such as x-amz-checksum-crc32 up to the empty line that ends the body
+            while (!readLine().isEmpty()) {
+                // Not checked
+            }
+            finished = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void expectLineEnd() throws IOException {
+        if (!readLine().isEmpty()) {
+            throw new IOException("Malformed aws-chunked body: chunk longer than its header says");
+        }
+    }
+
+    // A CRLF or LF terminated line; the end of the stream ends the last line as well
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (line.length() == MAX_LINE) {
+                throw new IOException("Malformed aws-chunked body: line too long");
+            }
+            line.append((char) c);
+        }
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            line.setLength(end - 1);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.manimovassagh.uploader.model.ChunkedUploadStatus;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.ChunkedUploadService;
+import com.github.manimovassagh.uploader.service.ClusterService;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Resumable uploads for files beyond the multipart limits: create an upload, {@code PUT} its
+ * chunks at byte offsets in any order, check which ranges have arrived, then commit it.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class ChunkedUploadController {
+
+    private final ChunkedUploadService chunkedUploadService;
+    private final ThumbnailService thumbnailService;
+    private final ClusterService clusterService;
+
+    public ChunkedUploadController(ChunkedUploadService chunkedUploadService, ThumbnailService thumbnailService,
+                                   ClusterService clusterService) {
+        this.chunkedUploadService = chunkedUploadService;
+        this.thumbnailService = thumbnailService;
+        this.clusterService = clusterService;
+    }
+
+    @PostMapping
+    public ResponseEntity<ChunkedUploadStatus> initiateUpload(
+            @RequestParam String filename,
+            @RequestParam long size,
+            @RequestParam(required = false) String contentType) throws IOException {
+        if (contentType == null) {
+            contentType = MediaTypeFactory.getMediaType(filename)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                .toString();
+        }
+        ChunkedUploadStatus status = chunkedUploadService.initiate(filename, contentType, size);
+        return ResponseEntity.created(URI.create("/api/uploads/" + status.getId())).body(status);
+    }
+
+    @PutMapping("/{id}")
+    public ResponseEntity<ChunkedUploadStatus> uploadChunk(@PathVariable String id, @RequestParam long offset,
+                                                           HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok(chunkedUploadService.writeChunk(id, offset, request.getInputStream()));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<ChunkedUploadStatus> getUpload(@PathVariable String id) {
+        return ResponseEntity.ok(chunkedUploadService.getStatus(id));
+    }
+
+    /**
+     * Stores a complete upload. With a {@code Repr-Digest} header the assembled file has to match
+     * it, or the upload is discarded.
+     */
+    @PostMapping("/{id}/commit")
+    public ResponseEntity<FileUploadResponse> commitUpload(
+            @PathVariable String id,
+            @RequestHeader(value = ContentDigest.REPR_DIGEST, required = false) String expectedDigest) throws IOException {
+        FileUploadResponse response = chunkedUploadService.commit(id, expectedDigest);
+        clusterService.replicate(response);
+        thumbnailService.enqueue(response);
+        return ResponseEntity.ok(response);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String id) throws IOException {
+        chunkedUploadService.abort(id);
+        return ResponseEntity.noContent().build();
+    }
+}
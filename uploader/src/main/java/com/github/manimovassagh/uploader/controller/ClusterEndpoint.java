@@ -0,0 +1,34 @@
+package com.github.manimovassagh.uploader.controller;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import com.github.manimovassagh.uploader.service.ClusterService;
+
+/**
+ * Membership and replication state of this node at {@code /actuator/cluster}; a POST starts a
+ * rebalance without waiting for the next interval.
+ */
+@Component
+@Endpoint(id = "cluster")
+public class ClusterEndpoint {
+
+    private final ClusterService clusterService;
+
+    public ClusterEndpoint(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    @ReadOperation
+    public ClusterService.Status status() {
+        return clusterService.status();
+    }
+
+    @WriteOperation
+    public ClusterService.Status rebalance() {
+        clusterService.trigger();
+        return clusterService.status();
+    }
+}
@@ -1,73 +1,221 @@
 package com.github.manimovassagh.uploader.controller;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Locale;
 
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.FileDetails;
+import com.github.manimovassagh.uploader.model.FileMetadata;
 import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.ClusterService;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.FileIndex;
+import com.github.manimovassagh.uploader.service.FileMetrics;
 import com.github.manimovassagh.uploader.service.FileStorageService;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.Part;
 
 @RestController
 @RequestMapping("/api")
 public class FileController {
 
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+
     private final FileStorageService fileStorageService;
     private final FileUploadConfig fileUploadConfig;
+    private final FileDownloadHandler fileDownloadHandler;
+    private final FileMetrics fileMetrics;
+    private final ThumbnailService thumbnailService;
+    private final ClusterService clusterService;
 
-    public FileController(FileStorageService fileStorageService, FileUploadConfig fileUploadConfig) {
+    public FileController(FileStorageService fileStorageService, FileUploadConfig fileUploadConfig,
+                          FileDownloadHandler fileDownloadHandler, FileMetrics fileMetrics, ThumbnailService thumbnailService,
+                          ClusterService clusterService) {
         this.fileStorageService = fileStorageService;
         this.fileUploadConfig = fileUploadConfig;
+        this.fileDownloadHandler = fileDownloadHandler;
+        this.fileMetrics = fileMetrics;
+        this.thumbnailService = thumbnailService;
+        this.clusterService = clusterService;
     }
 
+    /**
+     * Stores uploaded files. A file part may carry a {@code Repr-Digest} header, which the stored
+     * content has to match.
+     */
     @PostMapping("/upload")
-    public ResponseEntity<FileUploadResponse> uploadFiles(@RequestParam("files") MultipartFile[] files) {
+    public ResponseEntity<FileUploadResponse> uploadFiles(@RequestParam("files") MultipartFile[] files, HttpServletRequest request)
+            throws IOException, ServletException {
+        long validateStart = System.nanoTime();
         if (files.length == 0) {
-            return ResponseEntity.badRequest().body(new FileUploadResponse("No files uploaded", List.of()));
+            return reject(UploadRejectedException.Reason.EMPTY, "No files uploaded");
         }
 
         if (files.length > fileUploadConfig.getMaxFiles()) {
-            return ResponseEntity.badRequest().body(new FileUploadResponse(
-                "Too many files. Maximum is " + fileUploadConfig.getMaxFiles() + " files.", 
-                List.of()
-            ));
+            return reject(UploadRejectedException.Reason.TOO_MANY_FILES,
+                "Too many files. Maximum is " + fileUploadConfig.getMaxFiles() + " files.");
         }
 
         for (MultipartFile file : files) {
             if (file.getSize() > fileUploadConfig.getMaxFileSize()) {
-                return ResponseEntity.badRequest().body(new FileUploadResponse(
-                    "File too large. Maximum size is " + (fileUploadConfig.getMaxFileSize() / (1024 * 1024)) + "MB.", 
-                    List.of()
-                ));
+                return reject(UploadRejectedException.Reason.TOO_LARGE,
+                    "File too large. Maximum size is " + (fileUploadConfig.getMaxFileSize() / (1024 * 1024)) + "MB.");
             }
 
             if (!fileStorageService.isValidFileType(file.getContentType())) {
-                return ResponseEntity.badRequest().body(new FileUploadResponse("Invalid file type. Only images, PDFs, and documents are allowed.", List.of()));
+                return reject(UploadRejectedException.Reason.INVALID_TYPE, "Invalid file type. Only images, PDFs, and documents are allowed.");
+            }
+        }
+        fileMetrics.recordStage(FileMetrics.Stage.VALIDATE, System.nanoTime() - validateStart);
+
+        FileUploadResponse response = fileStorageService.storeFiles(files, expectedDigests(request, files.length));
+        clusterService.replicate(response);
+        thumbnailService.enqueue(response);
+        return ResponseEntity.ok(response);
+    }
+
+    // MultipartFile does not expose part headers, so they are read from the parts, which come in the same order
+    private static String[] expectedDigests(HttpServletRequest request, int count) throws IOException, ServletException {
+        String[] digests = new String[count];
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return digests;
+        }
+        int i = 0;
+        for (Part part : request.getParts()) {
+            if (i < count && "files".equals(part.getName()) && part.getSubmittedFileName() != null) {
+                digests[i++] = part.getHeader(ContentDigest.REPR_DIGEST);
             }
         }
+        return digests;
+    }
 
-        return ResponseEntity.ok(fileStorageService.storeFiles(files));
+    private ResponseEntity<FileUploadResponse> reject(UploadRejectedException.Reason reason, String message) {
+        fileMetrics.recordRejection(reason);
+        return ResponseEntity.badRequest().body(new FileUploadResponse(message, List.of()));
+    }
+
+    @PostMapping(value = "/upload/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<FileUploadResponse> uploadFilesStreaming(HttpServletRequest request) throws IOException {
+        String boundary = MediaType.parseMediaType(request.getContentType()).getParameter("boundary");
+        if (boundary == null) {
+            return reject(UploadRejectedException.Reason.EMPTY, "No files uploaded");
+        }
+
+        FileUploadResponse response = fileStorageService.storeMultipartStream(
+            request.getInputStream(),
+            boundary,
+            fileUploadConfig.getMaxFiles(),
+            fileUploadConfig.getMaxFileSize()
+        );
+        clusterService.replicate(response);
+        thumbnailService.enqueue(response);
+        return ResponseEntity.ok(response);
     }
 
     @GetMapping("/files")
-    public ResponseEntity<List<String>> listFiles() {
-        return ResponseEntity.ok(fileStorageService.listFiles());
+    public ResponseEntity<List<String>> listFiles(
+            @RequestParam(required = false) String prefix,
+            @RequestParam(defaultValue = "name") String sort,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new BadRequestException("offset must be >= 0 and limit between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        FileIndex.Page page = fileStorageService.listFiles(
+            prefix, FileIndex.SortField.fromParameter(sort), "desc".equalsIgnoreCase(order), offset, limit);
+        return ResponseEntity.ok()
+            .header(TOTAL_COUNT_HEADER, String.valueOf(page.total()))
+            .body(page.items().stream().map(FileMetadata::getFilename).toList());
     }
 
+    /**
+     * Downloads a stored file, or with {@code size} the thumbnail of a stored image in that size.
+     * In a cluster a file that is stored on other nodes is redirected to one of them.
+     */
     @GetMapping("/files/{filename:.+}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String filename) {
-        Resource resource = fileStorageService.loadFileAsResource(filename);
-        return ResponseEntity.ok()
-            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"")
-            .body(resource);
+    public void downloadFile(@PathVariable String filename, @RequestParam(required = false) Integer size,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String owner = ownerLocation(filename, request);
+        if (owner != null) {
+            response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+            response.setHeader(HttpHeaders.LOCATION, owner);
+            return;
+        }
+        Path file = size == null ? fileStorageService.resolveStoredFile(filename) : thumbnailService.getThumbnail(filename, size);
+        ContentDigest digest = fileStorageService.getDigest(filename);
+        FileMetadata metadata = size == null ? fileStorageService.resolveMetadata(filename) : null;
+        String entityTag = null;
+        String reprDigest = null;
+        if (digest != null) {
+            entityTag = size == null ? digest.getSha256() : digest.getSha256() + "-" + size;
+            // A thumbnail is a different representation, with digests of its own that are not kept
+            reprDigest = size == null ? digest.toHeader(fileStorageService.getDigestAlgorithms()) : null;
+        }
+        fileDownloadHandler.handle(file, file.getFileName().toString(), metadata, entityTag, reprDigest, request, response);
+    }
+
+    /**
+     * Answers {@code HEAD} for a stored file from the index and a {@code stat}, without opening
+     * the file. Thumbnails, ranges and files whose encoding is not recorded yet take the download
+     * path, which answers {@code HEAD} as well.
+     */
+    @RequestMapping(value = "/files/{filename:.+}", method = RequestMethod.HEAD)
+    public void headFile(@PathVariable String filename, @RequestParam(required = false) Integer size,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileMetadata metadata = size == null && request.getHeader(HttpHeaders.RANGE) == null && clusterService.locate(filename) == null
+            ? fileStorageService.getMetadata(filename)
+            : null;
+        if (metadata == null || !fileDownloadHandler.head(fileStorageService.resolveStoredFile(filename), metadata,
+                fileStorageService.getDigestAlgorithms(), request, response)) {
+            downloadFile(filename, size, request, response);
+        }
+    }
+
+    /**
+     * Returns what is recorded about a stored file, answered from the index alone.
+     */
+    @GetMapping("/files/{filename:.+}/metadata")
+    public ResponseEntity<FileDetails> getFileDetails(@PathVariable String filename, HttpServletRequest request) {
+        String owner = ownerLocation(filename, request);
+        if (owner != null) {
+            return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT).header(HttpHeaders.LOCATION, owner).build();
+        }
+        return ResponseEntity.ok(fileStorageService.getDetails(filename));
+    }
+
+    // The same request on a node that holds the file, or null if this node can answer it
+    private String ownerLocation(String filename, HttpServletRequest request) {
+        String owner = clusterService.locate(filename);
+        if (owner == null) {
+            return null;
+        }
+        String query = request.getQueryString();
+        return owner + request.getRequestURI() + (query == null ? "" : "?" + query);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,448 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.service.ContentCompression;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.DownloadCache;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+import com.github.manimovassagh.uploader.service.FileMetrics.DownloadSource;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Writes stored files to the response with {@code FileChannel} transfers and HTTP range support.
+ * When Tomcat advertises sendfile support, full and single-range responses are handed to the
+ * connector so the bytes never pass through the JVM heap. Small files held by the
+ * {@link DownloadCache} are written straight from its off-heap buffers without touching the disk.
+ * Files stored gzip-compressed, as their index entry records, are sent as is with
+ * {@code Content-Encoding: gzip}, and only decompressed for clients that do not accept it.
+ * <p>
+ * Responses carry a strong {@code ETag} built from the content hash recorded when the file was
+ * stored, with a suffix for the gzip encoding so each representation has its own, and a
+ * {@code Cache-Control} max age. The uploaded representation also carries its recorded digests
+ * as {@code Repr-Digest}. Conditional requests are answered with 304 or 412 before the file is
+ * opened.
+ */
+@Component
+public class FileDownloadHandler {
+
+    static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+    // Body bytes a download sent, or handed to the connector to send, for the AdmissionFilter to charge
+    static final String BYTES_SENT_ATTRIBUTE = FileDownloadHandler.class.getName() + ".bytesSent";
+
+    private static final int MAX_RANGES = 32;
+    private static final String CRLF = "\r\n";
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+    private static final String REVALIDATE = CacheControl.noCache().getHeaderValue();
+
+    private final DownloadCache downloadCache;
+    private final FileMetrics fileMetrics;
+    private final String cacheControl;
+
+    @Autowired
+    public FileDownloadHandler(DownloadCache downloadCache, FileMetrics fileMetrics, FileUploadConfig fileUploadConfig) {
+        this(downloadCache, fileMetrics, fileUploadConfig.getDownloadCacheMaxAge());
+    }
+
+    // Overloaded constructor for testability
+    public FileDownloadHandler(DownloadCache downloadCache, FileMetrics fileMetrics) {
+        this(downloadCache, fileMetrics, 0);
+    }
+
+    public FileDownloadHandler(DownloadCache downloadCache, FileMetrics fileMetrics, long cacheMaxAgeSeconds) {
+        this.downloadCache = downloadCache;
+        this.fileMetrics = fileMetrics;
+        // Names of uploads are never reused for other content, so a cached copy never has to be revalidated
+        this.cacheControl = cacheMaxAgeSeconds > 0
+            ? CacheControl.maxAge(Duration.ofSeconds(cacheMaxAgeSeconds)).cachePublic().immutable().getHeaderValue()
+            : REVALIDATE;
+    }
+
+    public void handle(Path file, String downloadName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        handle(file, downloadName, null, null, null, request, response);
+    }
+
+    /**
+     * Files uploaded through {@code /api} may be cached for the configured max age without being
+     * revalidated; objects written over S3 can be replaced, so they are sent with {@code no-cache}.
+     *
+     * @param metadata the index entry of the file, which tells whether it is stored compressed
+     * and its length as uploaded, or {@code null} for content that is sent as it is, such as a
+     * thumbnail
+     * @param entityTag the opaque part of the {@code ETag} of the file's content as uploaded, or
+     * {@code null} to send none
+     * @param reprDigest the {@code Repr-Digest} of the file's content as uploaded, or {@code null}
+     * to send none
+     */
+    public void handle(Path file, String downloadName, FileMetadata metadata, String entityTag, String reprDigest,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        handle(file, downloadName, metadata, entityTag, reprDigest, cacheControl(file), request, response);
+    }
+
+    /**
+     * Like {@link #handle(Path, String, FileMetadata, String, String, HttpServletRequest, HttpServletResponse)},
+     * with a {@code Cache-Control} value of its own for content that may be replaced under the
+     * same name.
+     */
+    void handle(Path file, String downloadName, FileMetadata metadata, String entityTag, String reprDigest, String cacheControl,
+                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long start = System.nanoTime();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        try (DownloadCache.Lease lease = isHead(request) ? null : downloadCache.get(file, attributes.size(), attributes.lastModifiedTime())) {
+            handle(file, attributes, lease == null ? null : lease.content(), downloadName, metadata, entityTag, reprDigest, cacheControl,
+                start, request, response);
+        }
+    }
+
+    private void handle(Path file, BasicFileAttributes attributes, ByteBuffer cached, String downloadName, FileMetadata metadata,
+                        String entityTag, String reprDigest, String cacheControl, long start, HttpServletRequest request,
+                        HttpServletResponse response) throws IOException {
+        long length = attributes.size();
+        Instant lastModified = attributes.lastModifiedTime().toInstant();
+        String contentType = MediaTypeFactory.getMediaType(downloadName)
+            .orElse(MediaType.APPLICATION_OCTET_STREAM)
+            .toString();
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified.toEpochMilli());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadName + "\"");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+
+        boolean encoded = ContentCompression.isEncoded(metadata);
+        boolean sendEncoded = false;
+        if (encoded) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            sendEncoded = ContentCompression.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        }
+        String etag = entityTag == null ? null : "\"" + entityTag + (sendEncoded ? "-" + ContentCompression.GZIP : "") + "\"";
+        // Sets ETag and Last-Modified, and the 304 or 412 status if a condition says so
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified.toEpochMilli())) {
+            return;
+        }
+
+        if (reprDigest != null && !sendEncoded) {
+            // Digests cover the content as uploaded; for the gzip encoding they would have to be of the compressed bytes
+            response.setHeader(ContentDigest.REPR_DIGEST, reprDigest);
+        }
+        if (encoded && !sendEncoded) {
+            sendDecoded(file, contentType, metadata.getSize(), start, request, response);
+            return;
+        }
+        if (sendEncoded) {
+            // Ranges and lengths below refer to the compressed bytes, which is the representation being sent
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, ContentCompression.GZIP);
+        }
+
+        List<ByteRange> ranges = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            ranges = parseRanges(rangeHeader, length);
+        }
+
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            record(request, start, send(file, cached, 0, length, request, response), length);
+        } else if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setContentLength(0);
+        } else if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, range.contentRange(length));
+            response.setContentLengthLong(range.length());
+            record(request, start, send(file, cached, range.start(), range.length(), request, response), range.length());
+        } else {
+            long contentLength = sendMultipart(file, cached, contentType, length, ranges, request, response);
+            record(request, start, isHead(request) ? null : cached != null ? DownloadSource.CACHE : DownloadSource.DISK, contentLength);
+        }
+    }
+
+    /**
+     * Answers a {@code HEAD} request for a whole file from its index entry and a {@code stat},
+     * without opening it, with the headers a {@code GET} would get. A file whose encoding is not
+     * recorded yet is left to {@link #handle}.
+     *
+     * @return {@code false} if the request was not answered
+     */
+    public boolean head(Path file, FileMetadata metadata, Set<ContentDigest.Algorithm> algorithms, HttpServletRequest request,
+                        HttpServletResponse response) throws IOException {
+        if (metadata.getEncoding() == null) {
+            return false;
+        }
+        String downloadName = file.getFileName().toString();
+        String contentType = MediaTypeFactory.getMediaType(downloadName)
+            .orElse(MediaType.APPLICATION_OCTET_STREAM)
+            .toString();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Instant lastModified = attributes.lastModifiedTime().toInstant();
+        ContentDigest digest = metadata.getChecksum() == null ? null : new ContentDigest(metadata.getChecksum(), metadata.getCrc32c());
+
+        boolean encoded = ContentCompression.isEncoded(metadata);
+        boolean sendEncoded = encoded && ContentCompression.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, encoded && !sendEncoded ? "none" : "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified.toEpochMilli());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadName + "\"");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(file));
+        if (encoded) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        String etag = digest == null ? null : "\"" + digest.getSha256() + (sendEncoded ? "-" + ContentCompression.GZIP : "") + "\"";
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified.toEpochMilli())) {
+            return true;
+        }
+        String reprDigest = digest == null || sendEncoded ? null : digest.toHeader(algorithms);
+        if (reprDigest != null) {
+            response.setHeader(ContentDigest.REPR_DIGEST, reprDigest);
+        }
+        if (sendEncoded) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, ContentCompression.GZIP);
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(contentType);
+        response.setContentLengthLong(encoded && !sendEncoded ? metadata.getSize() : attributes.size());
+        return true;
+    }
+
+    /**
+     * Sends a file stored compressed to a client that does not accept gzip, decompressing it on
+     * the fly. The decoded length is known from the index, but ranges are not offered.
+     */
+    private void sendDecoded(Path file, String contentType, long decodedLength, long start, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(contentType);
+        response.setContentLengthLong(decodedLength);
+        if (isHead(request)) {
+            return;
+        }
+        long bytes;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file), DECODE_BUFFER_SIZE)) {
+            OutputStream out = response.getOutputStream();
+            bytes = in.transferTo(out);
+            out.flush();
+        }
+        record(request, start, DownloadSource.DISK, bytes);
+    }
+
+    private void record(HttpServletRequest request, long start, DownloadSource source, long bytes) {
+        if (source != null) {
+            fileMetrics.recordDownload(source, System.nanoTime() - start, bytes);
+            request.setAttribute(BYTES_SENT_ATTRIBUTE, bytes);
+        }
+    }
+
+    /**
+     * @return the length of the multipart body
+     */
+    private long sendMultipart(Path file, ByteBuffer cached, String contentType, long length, List<ByteRange> ranges,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String boundary = UUID.randomUUID().toString();
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            String partHeader = (i == 0 ? "" : CRLF) + "--" + boundary + CRLF
+                + HttpHeaders.CONTENT_TYPE + ": " + contentType + CRLF
+                + HttpHeaders.CONTENT_RANGE + ": " + range.contentRange(length) + CRLF + CRLF;
+            byte[] bytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(bytes);
+            contentLength += bytes.length + range.length();
+        }
+        byte[] closing = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (isHead(request)) {
+            return contentLength;
+        }
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = cached == null ? FileChannel.open(file, StandardOpenOption.READ) : null) {
+            for (int i = 0; i < ranges.size(); i++) {
+                out.write(partHeaders.get(i));
+                out.flush();
+                if (cached != null) {
+                    write(cached, ranges.get(i).start(), ranges.get(i).length(), target);
+                } else {
+                    transfer(channel, ranges.get(i).start(), ranges.get(i).length(), target);
+                }
+            }
+        }
+        out.write(closing);
+        out.flush();
+        return contentLength;
+    }
+
+    /**
+     * @return where the body was served from, or {@code null} if there was no body to send
+     */
+    private DownloadSource send(Path file, ByteBuffer cached, long start, long length, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (isHead(request) || length == 0) {
+            return null;
+        }
+        if (cached != null) {
+            OutputStream out = response.getOutputStream();
+            write(cached, start, length, Channels.newChannel(out));
+            out.flush();
+            return DownloadSource.CACHE;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, start + length);
+            return DownloadSource.SENDFILE;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            transfer(channel, start, length, Channels.newChannel(out));
+            out.flush();
+        }
+        return DownloadSource.DISK;
+    }
+
+    private void transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new IOException("File truncated while transferring");
+            }
+            position += transferred;
+        }
+    }
+
+    private void write(ByteBuffer content, long position, long count, WritableByteChannel target) throws IOException {
+        ByteBuffer slice = content.slice((int) position, (int) count);
+        while (slice.hasRemaining()) {
+            target.write(slice);
+        }
+    }
+
+    // Objects written over S3 can be replaced under the same name, so caches have to revalidate them
+    private String cacheControl(Path file) {
+        return FileStorageService.isUploadName(file.getFileName().toString()) ? cacheControl : REVALIDATE;
+    }
+
+    private boolean isHead(HttpServletRequest request) {
+        return HttpMethod.HEAD.matches(request.getMethod());
+    }
+
+    private boolean ifRangeMatches(String ifRange, String etag, Instant lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Only a strong comparison counts, so a weak tag never matches
+            return ifRange.equals(etag);
+        }
+        try {
+            Instant date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return date.getEpochSecond() == lastModified.getEpochSecond();
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a {@code Range} header against a representation of the given length.
+     *
+     * @return the satisfiable ranges, an empty list if none are satisfiable, or {@code null} if
+     * the header should be ignored and the full representation served
+     */
+    static List<ByteRange> parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    long suffix = Long.parseLong(last);
+                    if (suffix > 0 && length > 0) {
+                        ranges.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+                    }
+                    continue;
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+                if (start < 0 || end < start) {
+                    return null;
+                }
+                if (start < length) {
+                    ranges.add(new ByteRange(start, Math.min(end, length - 1)));
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    record ByteRange(long start, long end) {
+
+        long length() {
+            return end - start + 1;
+        }
+
+        String contentRange(long total) {
+            return "bytes " + start + "-" + end + "/" + total;
+        }
+    }
+}
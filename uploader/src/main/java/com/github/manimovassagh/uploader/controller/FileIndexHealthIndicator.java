@@ -0,0 +1,37 @@
+package com.github.manimovassagh.uploader.controller;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import com.github.manimovassagh.uploader.service.FileIndex;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+
+/**
+ * How the file index follows changes made to the upload directory behind the service's back, as
+ * {@code fileIndex} under {@code /actuator/health}. It is down when re-reading the directory
+ * failed, so the index may be missing such changes.
+ */
+@Component
+public class FileIndexHealthIndicator implements HealthIndicator {
+
+    private final FileStorageService fileStorageService;
+
+    public FileIndexHealthIndicator(FileStorageService fileStorageService) {
+        this.fileStorageService = fileStorageService;
+    }
+
+    @Override
+    public Health health() {
+        FileIndex.WatchStatus status = fileStorageService.getIndexWatchStatus();
+        Health.Builder health = status.error() == null ? Health.up() : Health.down().withDetail("error", status.error());
+        health.withDetail("mode", status.mode());
+        if (status.lastReconciled() != null) {
+            health.withDetail("lastReconciled", status.lastReconciled());
+        }
+        if (status.fallbackReason() != null) {
+            health.withDetail("fallbackReason", status.fallbackReason());
+        }
+        return health.build();
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.ClusterService;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Node-to-node endpoints through which the {@link ClusterService} of another node checks for and
+ * sends copies of stored files. They are not meant for clients, require the cluster secret and
+ * answer {@code 404} while clustering is off.
+ */
+@RestController
+@RequestMapping("/internal/replicas")
+public class ReplicaController {
+
+    private final FileStorageService fileStorageService;
+    private final ClusterService clusterService;
+    private final ThumbnailService thumbnailService;
+    // A copy may be of a resumable upload, which can be larger than a multipart one
+    private final long maxReplicaSize;
+
+    public ReplicaController(FileStorageService fileStorageService, ClusterService clusterService, ThumbnailService thumbnailService,
+                             FileUploadConfig fileUploadConfig) {
+        this.fileStorageService = fileStorageService;
+        this.clusterService = clusterService;
+        this.thumbnailService = thumbnailService;
+        this.maxReplicaSize = Math.max(fileUploadConfig.getMaxFileSize(), fileUploadConfig.getChunkedMaxSize());
+    }
+
+    @RequestMapping(value = "/{filename:.+}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> hasReplica(@PathVariable String filename,
+                                           @RequestHeader(value = ClusterService.SECRET_HEADER, required = false) String secret) {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!clusterService.isAuthorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return fileStorageService.getMetadata(filename) != null
+            ? ResponseEntity.ok().build()
+            : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Stores a copy under the name it was given on the node that received the upload. Sending
+     * a copy that is already here is answered with {@code 200} and leaves it as it is; a copy
+     * whose {@code Repr-Digest} differs from what is stored under that name gets {@code 409}. The
+     * type and size are checked as for an upload.
+     */
+    @PutMapping("/{filename:.+}")
+    public ResponseEntity<Void> putReplica(@PathVariable String filename,
+                                           @RequestHeader(value = ClusterService.SECRET_HEADER, required = false) String secret,
+                                           @RequestHeader(value = ContentDigest.REPR_DIGEST, required = false) String expectedDigest,
+                                           HttpServletRequest request) throws IOException {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!clusterService.isAuthorized(secret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        FileUploadResponse.FileInfo stored = fileStorageService.storeReplica(filename, request.getContentType(),
+            request.getInputStream(), maxReplicaSize, expectedDigest);
+        if (stored == null) {
+            return ResponseEntity.ok().build();
+        }
+        thumbnailService.enqueue(new FileUploadResponse("Replica stored", List.of(stored)));
+        return ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+}
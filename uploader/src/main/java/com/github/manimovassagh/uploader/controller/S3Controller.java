@@ -0,0 +1,514 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.EmptyFileException;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.ClusterService;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+import com.github.manimovassagh.uploader.service.S3ObjectService;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A subset of the S3 REST API over the same storage as {@code /api}, for tools that speak S3:
+ * path-style requests to one bucket whose object keys are the stored file names. Supported are
+ * ListBuckets, HeadBucket, GetBucketLocation, ListObjectsV2, PutObject, GetObject and HeadObject
+ * with ranges, DeleteObject and multipart uploads. Requests are not authenticated, like the rest
+ * of the API, so signatures are accepted without being checked; instead, files uploaded through
+ * {@code /api} can be read but not replaced or deleted over S3, as their names can never be keys
+ * of objects written here.
+ * <p>
+ * In cluster mode the bucket is read-only. Objects are stored under their keys, which are not
+ * stored names the cluster can place, and replacing or deleting one on a single node would be
+ * undone by the next rebalance; writes are answered with {@code NotImplemented}.
+ */
+@RestController
+@RequestMapping("/s3")
+public class S3Controller {
+
+    static final String NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final int MAX_KEYS = 1000;
+    // Keys can be replaced, so cached copies are revalidated against the ETag
+    private static final String CACHE_CONTROL = CacheControl.noCache().getHeaderValue();
+
+    private final FileStorageService fileStorageService;
+    private final S3ObjectService s3ObjectService;
+    private final FileDownloadHandler fileDownloadHandler;
+    private final ThumbnailService thumbnailService;
+    private final ClusterService clusterService;
+    private final FileMetrics fileMetrics;
+    private final String bucket;
+
+    public S3Controller(FileStorageService fileStorageService, S3ObjectService s3ObjectService, FileDownloadHandler fileDownloadHandler,
+                        ThumbnailService thumbnailService, ClusterService clusterService, FileMetrics fileMetrics,
+                        FileUploadConfig fileUploadConfig) {
+        this.fileStorageService = fileStorageService;
+        this.s3ObjectService = s3ObjectService;
+        this.fileDownloadHandler = fileDownloadHandler;
+        this.thumbnailService = thumbnailService;
+        this.clusterService = clusterService;
+        this.fileMetrics = fileMetrics;
+        this.bucket = fileUploadConfig.getS3Bucket();
+    }
+
+    /**
+     * An error in the shape S3 clients parse, {@code <Error><Code>...}.
+     */
+    static class S3Exception extends RuntimeException {
+
+        private final HttpStatus status;
+        private final String code;
+
+        S3Exception(HttpStatus status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<String> listBuckets() {
+        checkEnabled();
+        Xml xml = new Xml("ListAllMyBucketsResult")
+            .open("Owner").element("ID", "uploader").close()
+            .open("Buckets").open("Bucket")
+            .element("Name", bucket)
+            .element("CreationDate", Instant.EPOCH.toString())
+            .close().close();
+        return xml(HttpStatus.OK, xml);
+    }
+
+    @RequestMapping(value = "/{bucket}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> headBucket(@PathVariable("bucket") String name) {
+        checkBucket(name);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * ListObjectsV2, or GetBucketLocation with {@code ?location}. The continuation token is the
+     * position after the last returned entry, encoded.
+     */
+    @GetMapping("/{bucket}")
+    public ResponseEntity<String> listObjects(@PathVariable("bucket") String name,
+                                              @RequestParam Map<String, String> params) {
+        checkBucket(name);
+        if (params.containsKey("location")) {
+            return xml(HttpStatus.OK, new Xml("LocationConstraint"));
+        }
+        if (!"2".equals(params.get("list-type"))) {
+            throw new S3Exception(HttpStatus.NOT_IMPLEMENTED, "NotImplemented", "Only ListObjectsV2 (list-type=2) is supported");
+        }
+        String prefix = params.getOrDefault("prefix", "");
+        String delimiter = params.get("delimiter");
+        String startAfter = params.get("start-after");
+        String token = params.get("continuation-token");
+        int maxKeys = parseMaxKeys(params.get("max-keys"));
+        boolean urlEncoded = "url".equals(params.get("encoding-type"));
+
+        String after = startAfter;
+        if (token != null) {
+            try {
+                after = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException ex) {
+                throw new S3Exception(HttpStatus.BAD_REQUEST, "InvalidArgument", "The continuation token provided is incorrect");
+            }
+        }
+        S3ObjectService.Listing listing = s3ObjectService.list(prefix, delimiter, after, maxKeys);
+
+        Xml xml = new Xml("ListBucketResult")
+            .element("Name", bucket)
+            .element("Prefix", encode(prefix, urlEncoded))
+            .element("KeyCount", Integer.toString(listing.contents().size() + listing.commonPrefixes().size()))
+            .element("MaxKeys", Integer.toString(maxKeys))
+            .element("IsTruncated", Boolean.toString(listing.truncated()));
+        if (delimiter != null) {
+            xml.element("Delimiter", encode(delimiter, urlEncoded));
+        }
+        if (urlEncoded) {
+            xml.element("EncodingType", "url");
+        }
+        if (startAfter != null) {
+            xml.element("StartAfter", encode(startAfter, urlEncoded));
+        }
+        if (token != null) {
+            xml.element("ContinuationToken", token);
+        }
+        if (listing.nextAfter() != null) {
+            xml.element("NextContinuationToken",
+                Base64.getUrlEncoder().withoutPadding().encodeToString(listing.nextAfter().getBytes(StandardCharsets.UTF_8)));
+        }
+        for (FileMetadata metadata : listing.contents()) {
+            xml.open("Contents")
+                .element("Key", encode(metadata.getFilename(), urlEncoded))
+                .element("LastModified", metadata.getUploadTime().truncatedTo(ChronoUnit.MILLIS).toString());
+            if (metadata.getChecksum() != null) {
+                xml.element("ETag", "\"" + metadata.getChecksum() + "\"");
+            }
+            xml.element("Size", Long.toString(metadata.getSize()))
+                .element("StorageClass", "STANDARD")
+                .close();
+        }
+        for (String commonPrefix : listing.commonPrefixes()) {
+            xml.open("CommonPrefixes").element("Prefix", encode(commonPrefix, urlEncoded)).close();
+        }
+        return xml(HttpStatus.OK, xml);
+    }
+
+    /**
+     * PutObject, or UploadPart with {@code ?partNumber&uploadId}. An expected
+     * {@code x-amz-checksum-sha256} or {@code x-amz-checksum-crc32c} is checked before the
+     * object is stored.
+     */
+    @PutMapping("/{bucket}/{key:.+}")
+    public ResponseEntity<Void> putObject(@PathVariable("bucket") String name, @PathVariable String key,
+                                          @RequestParam(required = false) Integer partNumber,
+                                          @RequestParam(required = false) String uploadId,
+                                          HttpServletRequest request) throws IOException {
+        checkBucket(name);
+        checkWritable();
+        if (request.getHeader("x-amz-copy-source") != null) {
+            throw new S3Exception(HttpStatus.NOT_IMPLEMENTED, "NotImplemented", "CopyObject is not supported");
+        }
+        if (uploadId != null) {
+            if (partNumber == null) {
+                throw new BadRequestException("UploadPart needs a partNumber");
+            }
+            String etag = s3ObjectService.uploadPart(uploadId, partNumber, body(request));
+            return ResponseEntity.ok().eTag("\"" + etag + "\"").build();
+        }
+        FileUploadResponse.FileInfo info = published(fileStorageService.storeObject(key, contentType(key, request.getContentType()),
+            body(request), s3ObjectService.getMaxSize(), expectedDigest(request)));
+        return ResponseEntity.ok().eTag("\"" + stored(info) + "\"").build();
+    }
+
+    /**
+     * GetObject and, through the implicit {@code HEAD} mapping, HeadObject.
+     */
+    @GetMapping("/{bucket}/{key:.+}")
+    public void getObject(@PathVariable("bucket") String name, @PathVariable String key,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        checkBucket(name);
+        FileStorageService.checkObjectKey(key);
+        String owner = clusterService.locate(key);
+        if (owner != null) {
+            String query = request.getQueryString();
+            response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+            response.setHeader(HttpHeaders.LOCATION, owner + request.getRequestURI() + (query == null ? "" : "?" + query));
+            return;
+        }
+        Path file = fileStorageService.resolveStoredFile(key);
+        ContentDigest digest = fileStorageService.getDigest(key);
+        fileDownloadHandler.handle(file, key, fileStorageService.resolveMetadata(key), digest.getSha256(),
+            digest.toHeader(fileStorageService.getDigestAlgorithms()), CACHE_CONTROL, request, response);
+    }
+
+    /**
+     * DeleteObject, or AbortMultipartUpload with {@code ?uploadId}. Deleting a key that does not
+     * exist succeeds, as in S3.
+     */
+    @DeleteMapping("/{bucket}/{key:.+}")
+    public ResponseEntity<Void> deleteObject(@PathVariable("bucket") String name, @PathVariable String key,
+                                             @RequestParam(required = false) String uploadId) throws IOException {
+        checkBucket(name);
+        checkWritable();
+        if (uploadId != null) {
+            s3ObjectService.abortMultipart(uploadId);
+        } else {
+            FileStorageService.checkWritableKey(key);
+            if (fileStorageService.deleteFile(key)) {
+                thumbnailService.deleteThumbnails(key);
+            }
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * CreateMultipartUpload with {@code ?uploads}, or CompleteMultipartUpload with
+     * {@code ?uploadId}.
+     */
+    @PostMapping("/{bucket}/{key:.+}")
+    public ResponseEntity<String> postObject(@PathVariable("bucket") String name, @PathVariable String key,
+                                             @RequestParam Map<String, String> params,
+                                             HttpServletRequest request) throws IOException {
+        checkBucket(name);
+        checkWritable();
+        if (params.containsKey("uploads")) {
+            String uploadId = s3ObjectService.initiateMultipart(key, contentType(key, request.getContentType()));
+            return xml(HttpStatus.OK, new Xml("InitiateMultipartUploadResult")
+                .element("Bucket", bucket)
+                .element("Key", key)
+                .element("UploadId", uploadId));
+        }
+        String uploadId = params.get("uploadId");
+        if (uploadId == null) {
+            throw new S3Exception(HttpStatus.NOT_IMPLEMENTED, "NotImplemented", "POST on an object needs ?uploads or ?uploadId");
+        }
+        List<S3ObjectService.Part> parts;
+        try (InputStream in = request.getInputStream()) {
+            parts = parseParts(in);
+        }
+        FileUploadResponse.FileInfo info = published(s3ObjectService.completeMultipart(uploadId, parts));
+        return xml(HttpStatus.OK, new Xml("CompleteMultipartUploadResult")
+            .element("Location", request.getRequestURL().toString())
+            .element("Bucket", bucket)
+            .element("Key", info.getFilename())
+            .element("ETag", "\"" + stored(info) + "\""));
+    }
+
+    @ExceptionHandler(S3Exception.class)
+    public ResponseEntity<String> handleS3Exception(S3Exception ex, HttpServletRequest request) {
+        return error(ex.status, ex.code, ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(FileNotFoundException.class)
+    public ResponseEntity<String> handleFileNotFoundException(FileNotFoundException ex, HttpServletRequest request) {
+        String code = request.getParameter("uploadId") != null ? "NoSuchUpload" : "NoSuchKey";
+        return error(HttpStatus.NOT_FOUND, code, ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(UploadRejectedException.class)
+    public ResponseEntity<String> handleUploadRejectedException(UploadRejectedException ex, HttpServletRequest request) {
+        fileMetrics.recordRejection(ex.getReason());
+        String code = switch (ex.getReason()) {
+            case DIGEST_MISMATCH -> "BadDigest";
+            case TOO_LARGE -> "EntityTooLarge";
+            default -> "InvalidArgument";
+        };
+        return error(HttpStatus.BAD_REQUEST, code, ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(EmptyFileException.class)
+    public ResponseEntity<String> handleEmptyFileException(EmptyFileException ex, HttpServletRequest request) {
+        fileMetrics.recordRejection(UploadRejectedException.Reason.EMPTY);
+        return error(HttpStatus.BAD_REQUEST, "InvalidArgument", "Empty objects are not supported", request);
+    }
+
+    @ExceptionHandler(BadRequestException.class)
+    public ResponseEntity<String> handleBadRequestException(BadRequestException ex, HttpServletRequest request) {
+        return error(HttpStatus.BAD_REQUEST, "InvalidArgument", ex.getMessage(), request);
+    }
+
+    private void checkEnabled() {
+        if (bucket == null || bucket.isEmpty()) {
+            throw new S3Exception(HttpStatus.NOT_FOUND, "NoSuchBucket", "The S3 API is disabled");
+        }
+    }
+
+    private void checkBucket(String name) {
+        checkEnabled();
+        if (!bucket.equals(name)) {
+            throw new S3Exception(HttpStatus.NOT_FOUND, "NoSuchBucket", "The specified bucket does not exist");
+        }
+    }
+
+    private void checkWritable() {
+        if (clusterService.isEnabled()) {
+            throw new S3Exception(HttpStatus.NOT_IMPLEMENTED, "NotImplemented", "The bucket is read-only in cluster mode");
+        }
+    }
+
+    private static int parseMaxKeys(String value) {
+        if (value == null) {
+            return MAX_KEYS;
+        }
+        try {
+            int maxKeys = Integer.parseInt(value);
+            if (maxKeys >= 0) {
+                return Math.min(maxKeys, MAX_KEYS);
+            }
+        } catch (NumberFormatException ex) {
+            // Reported below
+        }
+        throw new BadRequestException("max-keys must be a non-negative number");
+    }
+
+    private String stored(FileUploadResponse.FileInfo info) {
+        FileMetadata metadata = fileStorageService.getMetadata(info.getFilename());
+        return metadata != null && metadata.getChecksum() != null ? metadata.getChecksum() : "";
+    }
+
+    private FileUploadResponse.FileInfo published(FileUploadResponse.FileInfo info) {
+        thumbnailService.enqueue(new FileUploadResponse("Files uploaded successfully", List.of(info)));
+        return info;
+    }
+
+    // S3 clients send no type or a generic one unless told otherwise, so the key's extension decides
+    private static String contentType(String key, String declared) {
+        if (declared == null || declared.startsWith(MediaType.APPLICATION_OCTET_STREAM_VALUE) || declared.startsWith("binary/octet-stream")) {
+            return MediaTypeFactory.getMediaType(key).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+        }
+        return declared;
+    }
+
+    private static InputStream body(HttpServletRequest request) throws IOException {
+        InputStream in = request.getInputStream();
+        return AwsChunkedInputStream.isAwsChunked(request.getHeader(HttpHeaders.CONTENT_ENCODING), request.getHeader("x-amz-content-sha256"))
+            ? new AwsChunkedInputStream(in)
+            : in;
+    }
+
+    // The base64 S3 checksum headers carry the same values as Repr-Digest members
+    private static String expectedDigest(HttpServletRequest request) {
+        List<String> members = new ArrayList<>();
+        String sha256 = request.getHeader("x-amz-checksum-sha256");
+        if (sha256 != null) {
+            members.add(ContentDigest.Algorithm.SHA_256.key() + "=:" + sha256.trim() + ":");
+        }
+        String crc32c = request.getHeader("x-amz-checksum-crc32c");
+        if (crc32c != null) {
+            members.add(ContentDigest.Algorithm.CRC32C.key() + "=:" + crc32c.trim() + ":");
+        }
+        return members.isEmpty() ? null : String.join(", ", members);
+    }
+
+    static List<S3ObjectService.Part> parseParts(InputStream in) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setNamespaceAware(true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(in);
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new S3Exception(HttpStatus.BAD_REQUEST, "MalformedXML", "The XML you provided was not well-formed");
+        }
+        List<S3ObjectService.Part> parts = new ArrayList<>();
+        NodeList elements = document.getDocumentElement().getElementsByTagNameNS("*", "Part");
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element part = (Element) elements.item(i);
+            String number = text(part, "PartNumber");
+            if (number == null) {
+                throw new S3Exception(HttpStatus.BAD_REQUEST, "MalformedXML", "Every Part needs a PartNumber");
+            }
+            try {
+                parts.add(new S3ObjectService.Part(Integer.parseInt(number), text(part, "ETag")));
+            } catch (NumberFormatException ex) {
+                throw new S3Exception(HttpStatus.BAD_REQUEST, "MalformedXML", "Invalid PartNumber " + number);
+            }
+        }
+        return parts;
+    }
+
+    private static String text(Element parent, String name) {
+        NodeList nodes = parent.getElementsByTagNameNS("*", name);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent().trim();
+    }
+
+    private static String encode(String value, boolean urlEncoded) {
+        return urlEncoded ? URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20") : value;
+    }
+
+    private static ResponseEntity<String> error(HttpStatus status, String code, String message, HttpServletRequest request) {
+        Xml xml = new Xml("Error")
+            .element("Code", code)
+            .element("Message", message)
+            .element("Resource", request.getRequestURI());
+        return xml(status, xml);
+    }
+
+    private static ResponseEntity<String> xml(HttpStatus status, Xml xml) {
+        return ResponseEntity.status(status).contentType(MediaType.APPLICATION_XML).body(xml.toString());
+    }
+
+    /**
+     * Just enough of an XML writer for the flat documents of the S3 API.
+     */
+    static final class Xml {
+
+        private final StringBuilder out = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        private final List<String> open = new ArrayList<>();
+
+        Xml(String root) {
+            out.append('<').append(root).append(" xmlns=\"").append(NAMESPACE).append("\">");
+            open.add(root);
+        }
+
+        Xml open(String name) {
+            out.append('<').append(name).append('>');
+            open.add(name);
+            return this;
+        }
+
+        Xml element(String name, String value) {
+            out.append('<').append(name).append('>').append(escape(value)).append("</").append(name).append('>');
+            return this;
+        }
+
+        Xml close() {
+            out.append("</").append(open.remove(open.size() - 1)).append('>');
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder document = new StringBuilder(out);
+            for (int i = open.size() - 1; i >= 0; i--) {
+                document.append("</").append(open.get(i)).append('>');
+            }
+            return document.toString();
+        }
+
+        private static String escape(String value) {
+            StringBuilder escaped = new StringBuilder(value.length());
+            for (char c : value.toCharArray()) {
+                switch (c) {
+                    case '<' -> escaped.append("&lt;");
+                    case '>' -> escaped.append("&gt;");
+                    case '&' -> escaped.append("&amp;");
+                    case '"' -> escaped.append("&quot;");
+                    case '\'' -> escaped.append("&apos;");
+                    default -> escaped.append(c);
+                }
+            }
+            return escaped.toString();
+        }
+    }
+}
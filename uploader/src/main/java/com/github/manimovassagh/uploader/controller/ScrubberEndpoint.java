@@ -0,0 +1,34 @@
+package com.github.manimovassagh.uploader.controller;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import com.github.manimovassagh.uploader.service.StorageScrubber;
+
+/**
+ * Progress of the storage scrubber at {@code /actuator/scrubber}; a POST starts a pass without
+ * waiting for the next interval.
+ */
+@Component
+@Endpoint(id = "scrubber")
+public class ScrubberEndpoint {
+
+    private final StorageScrubber storageScrubber;
+
+    public ScrubberEndpoint(StorageScrubber storageScrubber) {
+        this.storageScrubber = storageScrubber;
+    }
+
+    @ReadOperation
+    public StorageScrubber.Status status() {
+        return storageScrubber.status();
+    }
+
+    @WriteOperation
+    public StorageScrubber.Status runPass() {
+        storageScrubber.trigger();
+        return storageScrubber.status();
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.manimovassagh.uploader.exception;
+
+/**
+ * A request parameter or name the client sent is invalid. Only this is answered with 400; other
+ * {@code IllegalArgumentException}s are bugs and answered as such.
+ */
+public class BadRequestException extends IllegalArgumentException {
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
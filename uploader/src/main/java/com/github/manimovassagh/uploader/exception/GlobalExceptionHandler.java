@@ -1,14 +1,26 @@
 package com.github.manimovassagh.uploader.exception;
 
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
+    private final FileMetrics fileMetrics;
+
+    public GlobalExceptionHandler(FileMetrics fileMetrics) {
+        this.fileMetrics = fileMetrics;
+    }
+
     @ExceptionHandler(FileNotFoundException.class)
     public ResponseEntity<String> handleFileNotFoundException(FileNotFoundException ex) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND)
@@ -17,12 +29,47 @@ public class GlobalExceptionHandler {
 
     @ExceptionHandler(EmptyFileException.class)
     public ResponseEntity<String> handleEmptyFileException(EmptyFileException ex) {
+        fileMetrics.recordRejection(UploadRejectedException.Reason.EMPTY);
         return ResponseEntity.status(HttpStatus.BAD_REQUEST)
             .body("Failed to store empty file: " + ex.getMessage());
     }
 
+    @ExceptionHandler(UploadRejectedException.class)
+    public ResponseEntity<FileUploadResponse> handleUploadRejectedException(UploadRejectedException ex) {
+        fileMetrics.recordRejection(ex.getReason());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+            .body(new FileUploadResponse(ex.getMessage(), List.of()));
+    }
+
+    @ExceptionHandler(UploadIncompleteException.class)
+    public ResponseEntity<String> handleUploadIncompleteException(UploadIncompleteException ex) {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+            .body(ex.getMessage());
+    }
+
+    @ExceptionHandler(ReplicaConflictException.class)
+    public ResponseEntity<String> handleReplicaConflictException(ReplicaConflictException ex) {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+            .body(ex.getMessage());
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<String> handleTooManyRequestsException(TooManyRequestsException ex) {
+        fileMetrics.recordShed(ex.getLimit());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+            .body("Too many requests: " + ex.getMessage());
+    }
+
+    @ExceptionHandler(BadRequestException.class)
+    public ResponseEntity<String> handleBadRequestException(BadRequestException ex) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+            .body("Invalid request: " + ex.getMessage());
+    }
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<String> handleMaxSizeException(MaxUploadSizeExceededException ex) {
+        fileMetrics.recordRejection(UploadRejectedException.Reason.TOO_LARGE);
         return ResponseEntity.status(HttpStatus.BAD_REQUEST)
             .body("File size exceeds maximum limit");
     }
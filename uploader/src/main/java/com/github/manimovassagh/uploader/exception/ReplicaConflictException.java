@@ -0,0 +1,11 @@
+package com.github.manimovassagh.uploader.exception;
+
+/**
+ * A copy of a file sent by another node has a name that is already taken here by different
+ * content.
+ */
+public class ReplicaConflictException extends RuntimeException {
+    public ReplicaConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.manimovassagh.uploader.exception;
+
+public class TooManyRequestsException extends RuntimeException {
+
+    public enum Limit {
+        REQUESTS, BANDWIDTH, IN_FLIGHT, SESSIONS
+    }
+
+    private final Limit limit;
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(Limit limit, long retryAfterSeconds, String message) {
+        super(message);
+        this.limit = limit;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
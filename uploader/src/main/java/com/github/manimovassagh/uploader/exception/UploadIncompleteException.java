@@ -0,0 +1,7 @@
+package com.github.manimovassagh.uploader.exception;
+
+public class UploadIncompleteException extends RuntimeException {
+    public UploadIncompleteException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.manimovassagh.uploader.exception;
+
+public class UploadRejectedException extends RuntimeException {
+
+    public enum Reason {
+        TOO_MANY_FILES, TOO_LARGE, INVALID_TYPE, EMPTY, DIGEST_MISMATCH, MALFORMED_DIGEST
+    }
+
+    private final Reason reason;
+
+    public UploadRejectedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
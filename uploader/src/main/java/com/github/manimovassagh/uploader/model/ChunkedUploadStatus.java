@@ -0,0 +1,98 @@
+package com.github.manimovassagh.uploader.model;
+
+import java.util.List;
+
+public class ChunkedUploadStatus {
+    private String id;
+    private String filename;
+    private long size;
+    private String mimeType;
+    private long received;
+    private List<Range> ranges;
+
+    public ChunkedUploadStatus(String id, String filename, long size, String mimeType, long received, List<Range> ranges) {
+        this.id = id;
+        this.filename = filename;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.received = received;
+        this.ranges = ranges;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public void setReceived(long received) {
+        this.received = received;
+    }
+
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<Range> ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * A received byte range; both ends are inclusive, as in {@code Content-Range}.
+     */
+    public static class Range {
+        private long start;
+        private long end;
+
+        public Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public void setStart(long start) {
+            this.start = start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public void setEnd(long end) {
+            this.end = end;
+        }
+    }
+}
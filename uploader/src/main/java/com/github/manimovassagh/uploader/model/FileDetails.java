@@ -0,0 +1,27 @@
+package com.github.manimovassagh.uploader.model;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * What the index records about a stored file, as returned by
+ * {@code GET /api/files/{filename}/metadata}. The size is the length of the content as uploaded,
+ * the same as in the upload's response, whether or not the file is stored compressed.
+ */
+public class FileDetails extends FileUploadResponse.FileInfo {
+    private Instant uploadTime;
+
+    public FileDetails(String filename, String originalName, long size, String mimeType, Map<String, String> digests,
+                       Instant uploadTime) {
+        super(filename, originalName, size, mimeType, digests);
+        this.uploadTime = uploadTime;
+    }
+
+    public Instant getUploadTime() {
+        return uploadTime;
+    }
+
+    public void setUploadTime(Instant uploadTime) {
+        this.uploadTime = uploadTime;
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.manimovassagh.uploader.model;
+
+import java.time.Instant;
+
+public class FileMetadata {
+    private final String filename;
+    private final String originalName;
+    private final long size;
+    private final String mimeType;
+    private final Instant uploadTime;
+    private final String checksum;
+    private final String crc32c;
+    private final long storedSize;
+    private final String encoding;
+
+    public FileMetadata(String filename, String originalName, long size, String mimeType, Instant uploadTime) {
+        this(filename, originalName, size, mimeType, uploadTime, null);
+    }
+
+    public FileMetadata(String filename, String originalName, long size, String mimeType, Instant uploadTime, String checksum) {
+        this(filename, originalName, size, mimeType, uploadTime, checksum, null, size, null);
+    }
+
+    public FileMetadata(String filename, String originalName, long size, String mimeType, Instant uploadTime, String checksum,
+                        String crc32c, long storedSize, String encoding) {
+        this.filename = filename;
+        this.originalName = originalName;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.uploadTime = uploadTime;
+        this.checksum = checksum;
+        this.crc32c = crc32c;
+        this.storedSize = storedSize;
+        this.encoding = encoding;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getOriginalName() {
+        return originalName;
+    }
+
+    /**
+     * Length of the content as it was uploaded.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public Instant getUploadTime() {
+        return uploadTime;
+    }
+
+    /**
+     * Hex SHA-256 of the content, or {@code null} if it was not computed when the file was stored.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Hex CRC32C of the content, or {@code null} if it was not computed when the file was stored.
+     */
+    public String getCrc32c() {
+        return crc32c;
+    }
+
+    /**
+     * Bytes the file takes on disk, fewer than its size if it is stored compressed.
+     */
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    /**
+     * How the content is stored, {@code gzip} or {@code identity}, or {@code null} if that was not
+     * recorded, as for a file found on disk by a scan.
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public FileMetadata withDigests(String checksum, String crc32c) {
+        return new FileMetadata(filename, originalName, size, mimeType, uploadTime, checksum, crc32c, storedSize, encoding);
+    }
+
+    public FileMetadata withEncoding(String encoding, long size) {
+        return new FileMetadata(filename, originalName, size, mimeType, uploadTime, checksum, crc32c, storedSize, encoding);
+    }
+
+    public FileMetadata withStoredSize(long storedSize) {
+        // A change on disk means the content was modified behind our back, so everything learnt from it is stale
+        return storedSize == this.storedSize
+            ? this
+            : new FileMetadata(filename, originalName, storedSize, mimeType, uploadTime, null, null, storedSize, null);
+    }
+}
@@ -1,6 +1,9 @@
 package com.github.manimovassagh.uploader.model;
 
 import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
 
 public class FileUploadResponse {
     private String message;
@@ -32,12 +35,19 @@ public class FileUploadResponse {
         private String originalName;
         private long size;
         private String mimeType;
+        private Map<String, String> digests;
 
         public FileInfo(String filename, String originalName, long size, String mimeType) {
+            this(filename, originalName, size, mimeType, null);
+        }
+
+        @JsonCreator
+        public FileInfo(String filename, String originalName, long size, String mimeType, Map<String, String> digests) {
             this.filename = filename;
             this.originalName = originalName;
             this.size = size;
             this.mimeType = mimeType;
+            this.digests = digests;
         }
 
         public String getFilename() {
@@ -71,5 +81,16 @@ public class FileUploadResponse {
         public void setMimeType(String mimeType) {
             this.mimeType = mimeType;
         }
+
+        /**
+         * Hex digests of the uploaded content by algorithm name, such as {@code sha-256}.
+         */
+        public Map<String, String> getDigests() {
+            return digests;
+        }
+
+        public void setDigests(Map<String, String> digests) {
+            this.digests = digests;
+        }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,240 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.TooManyRequestsException;
+
+/**
+ * Decides whether an upload or download may start, before any of its body is read. Each client
+ * has a request rate and a bandwidth limit, and all uploads together may only hold so many bytes
+ * in flight; a request over any of them is refused with the time after which a retry can succeed.
+ * <p>
+ * The rate limits are token buckets kept as a single timestamp each, the time at which the bucket
+ * would be full again (the generic cell rate algorithm), so taking tokens is one compare-and-set
+ * with no lock and no refill task. A bucket that is full again is indistinguishable from a new one,
+ * which lets idle clients be dropped from the table without losing anything. Uploads are charged
+ * their declared length up front; downloads are charged what they sent once they are done, so a
+ * client that has overdrawn its bandwidth is refused until it has paid the debt back. A single
+ * request larger than the burst is let through when the client's bucket is full.
+ */
+@Component
+public class AdmissionControl {
+
+    public enum Kind {
+        UPLOAD, DOWNLOAD
+    }
+
+    private static final long MAX_CLIENTS = 100_000;
+    private static final Duration CLIENT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+    private final Rate requestRate;
+    private final Rate byteRate;
+    private final long maxInFlightBytes;
+    private final long unknownLengthBytes;
+    private final FileMetrics fileMetrics;
+    private final LongSupplier nanoClock;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final Cache<String, Client> clients;
+
+    @Autowired
+    public AdmissionControl(FileUploadConfig fileUploadConfig, FileMetrics fileMetrics) {
+        this(fileUploadConfig.getAdmissionRequestsPerSecond(), fileUploadConfig.getAdmissionRequestBurst(),
+            fileUploadConfig.getAdmissionBytesPerSecond(), fileUploadConfig.getAdmissionByteBurst(),
+            fileUploadConfig.getAdmissionMaxInFlightBytes(), fileUploadConfig.getMaxFileSize(), fileMetrics, System::nanoTime);
+    }
+
+    public AdmissionControl(double requestsPerSecond, double requestBurst, long bytesPerSecond, long byteBurst,
+                            long maxInFlightBytes, long unknownLengthBytes, FileMetrics fileMetrics, LongSupplier nanoClock) {
+        this.requestRate = Rate.of(requestsPerSecond, requestBurst);
+        this.byteRate = Rate.of(bytesPerSecond, byteBurst);
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.unknownLengthBytes = Math.max(1, unknownLengthBytes);
+        this.fileMetrics = fileMetrics;
+        this.nanoClock = nanoClock;
+        this.clients = requestRate != null || byteRate != null
+            ? Caffeine.newBuilder()
+                .maximumSize(MAX_CLIENTS)
+                .expireAfterAccess(CLIENT_IDLE_TIMEOUT)
+                .executor(Runnable::run)
+                .build()
+            : null;
+    }
+
+    /**
+     * @return what the request to {@code path} is subject to, or {@code null} if it is neither an
+     * upload nor a download
+     */
+    public static Kind kindOf(String method, String path) {
+        boolean write = "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+        if (path.startsWith("/api/upload")) {
+            return write ? Kind.UPLOAD : null;
+        }
+        if ("/api/archive".equals(path)) {
+            return Kind.DOWNLOAD;
+        }
+        if (path.startsWith("/s3/")) {
+            return write ? Kind.UPLOAD : "GET".equals(method) ? Kind.DOWNLOAD : null;
+        }
+        if (path.startsWith("/internal/")) {
+            // Copies sent by other cluster nodes take disk and memory like any upload
+            return write ? Kind.UPLOAD : null;
+        }
+        return "GET".equals(method) && path.startsWith("/api/files/") ? Kind.DOWNLOAD : null;
+    }
+
+    /**
+     * Admits an upload of {@code contentLength} bytes, or of up to the maximum file size if its
+     * length is not known.
+     *
+     * @return the permit to {@link Permit#release() release} once the upload is finished
+     * @throws TooManyRequestsException if a limit is reached
+     */
+    public Permit admitUpload(String clientKey, long contentLength) {
+        long bytes = contentLength >= 0 ? contentLength : unknownLengthBytes;
+        long now = nanoClock.getAsLong();
+        Client client = client(clientKey);
+        take(client == null ? null : client.requests, requestRate, 1, now);
+
+        Permit permit = reserve(bytes);
+        try {
+            take(client == null ? null : client.bytes, byteRate, bytes, now);
+        } catch (TooManyRequestsException ex) {
+            permit.release();
+            throw ex;
+        }
+        return permit;
+    }
+
+    /**
+     * Admits a download. Its bytes are {@link #charge charged} once it is sent.
+     *
+     * @throws TooManyRequestsException if a limit is reached
+     */
+    public void admitDownload(String clientKey) {
+        long now = nanoClock.getAsLong();
+        Client client = client(clientKey);
+        if (client == null) {
+            return;
+        }
+        take(client.requests, requestRate, 1, now);
+        take(client.bytes, byteRate, 0, now);
+    }
+
+    /**
+     * Charges bytes that have been sent to the client's bandwidth, whether or not it has any left.
+     */
+    public void charge(String clientKey, long bytes) {
+        Client client = client(clientKey);
+        if (client == null || byteRate == null || bytes <= 0) {
+            return;
+        }
+        long cost = byteRate.cost(bytes);
+        long now = nanoClock.getAsLong();
+        client.bytes.getAndUpdate(full -> Math.max(full, now) + cost);
+    }
+
+    long inFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    private Client client(String clientKey) {
+        return clients == null ? null : clients.get(clientKey, key -> new Client());
+    }
+
+    private void take(AtomicLong bucket, Rate rate, long amount, long now) {
+        if (rate == null) {
+            return;
+        }
+        long cost = rate.cost(amount);
+        // Anything up to the burst has to fit, a larger request only into a full bucket
+        long limit = now + rate.burstNanos() - Math.min(cost, rate.burstNanos());
+        while (true) {
+            long full = bucket.get();
+            if (full > limit) {
+                TooManyRequestsException.Limit exceeded = rate == requestRate
+                    ? TooManyRequestsException.Limit.REQUESTS
+                    : TooManyRequestsException.Limit.BANDWIDTH;
+                fileMetrics.recordShed(exceeded);
+                throw new TooManyRequestsException(exceeded, retryAfterSeconds(full - limit),
+                    exceeded == TooManyRequestsException.Limit.REQUESTS ? "Request rate limit reached" : "Bandwidth limit reached");
+            }
+            if (bucket.compareAndSet(full, Math.max(full, now) + cost)) {
+                return;
+            }
+        }
+    }
+
+    private Permit reserve(long bytes) {
+        if (maxInFlightBytes <= 0) {
+            return new Permit(0);
+        }
+        while (true) {
+            long current = inFlightBytes.get();
+            // A single upload larger than the cap still gets in alone
+            if (current > 0 && current + bytes > maxInFlightBytes) {
+                fileMetrics.recordShed(TooManyRequestsException.Limit.IN_FLIGHT);
+                throw new TooManyRequestsException(TooManyRequestsException.Limit.IN_FLIGHT, 1, "Too many uploads in progress");
+            }
+            if (inFlightBytes.compareAndSet(current, current + bytes)) {
+                return new Permit(bytes);
+            }
+        }
+    }
+
+    private static long retryAfterSeconds(long nanos) {
+        return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * A rate as the time each unit adds to a bucket, and the burst as how far ahead of now a
+     * bucket may be filled.
+     */
+    private record Rate(double nanosPerUnit, long burstNanos) {
+
+        static Rate of(double perSecond, double burst) {
+            if (perSecond <= 0) {
+                return null;
+            }
+            double nanosPerUnit = TimeUnit.SECONDS.toNanos(1) / perSecond;
+            return new Rate(nanosPerUnit, (long) (Math.max(burst > 0 ? burst : perSecond, 1) * nanosPerUnit));
+        }
+
+        long cost(long amount) {
+            return (long) Math.min(amount * nanosPerUnit, Long.MAX_VALUE / 4);
+        }
+    }
+
+    // Each bucket holds the time at which it is full again
+    private static final class Client {
+        final AtomicLong requests = new AtomicLong(Long.MIN_VALUE / 2);
+        final AtomicLong bytes = new AtomicLong(Long.MIN_VALUE / 2);
+    }
+
+    /**
+     * Upload bytes held in flight, given back by {@link #release()}.
+     */
+    public final class Permit {
+
+        private long bytes;
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public void release() {
+            if (bytes > 0) {
+                inFlightBytes.addAndGet(-bytes);
+                bytes = 0;
+            }
+        }
+    }
+}
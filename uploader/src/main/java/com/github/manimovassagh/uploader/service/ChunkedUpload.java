@@ -0,0 +1,299 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.ChunkedUploadStatus;
+
+/**
+ * One resumable upload in progress. The content goes into a part file that is sized up front,
+ * so chunks arriving in any order, or at the same time, are positional writes straight into
+ * their final place. Every write is appended to a range log next to the part file, which is
+ * replayed to resume the upload after a restart. Under a durability mode other than {@code none}
+ * the written bytes are forced before their range is appended, and the range before the chunk is
+ * acknowledged, so a replayed range never claims bytes that were lost in a crash.
+ */
+class ChunkedUpload {
+
+    static final String META_SUFFIX = ".properties";
+    private static final String PART_SUFFIX = ".part";
+    private static final String RANGES_SUFFIX = ".ranges";
+    private static final int RANGE_RECORD_SIZE = 2 * Long.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String id;
+    private final String filename;
+    private final String contentType;
+    private final long size;
+    private final Path partFile;
+    private final Path metaFile;
+    private final Path rangeLogFile;
+    private final FileChannel content;
+    private final FileChannel rangeLog;
+    private final Durability durability;
+    // Chunk writes share the lock, commit and abort take it exclusively
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Start to exclusive end of each received run, kept merged
+    private final TreeMap<Long, Long> received = new TreeMap<>();
+    private long receivedBytes;
+    private volatile long lastActivity;
+    private volatile boolean closed;
+
+    private ChunkedUpload(Path directory, String id, String filename, String contentType, long size,
+            Durability durability) throws IOException {
+        this.id = id;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.size = size;
+        this.partFile = directory.resolve(id + PART_SUFFIX);
+        this.metaFile = directory.resolve(id + META_SUFFIX);
+        this.rangeLogFile = directory.resolve(id + RANGES_SUFFIX);
+        this.durability = durability;
+        this.content = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.rangeLog = FileChannel.open(rangeLogFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException ex) {
+            content.close();
+            throw ex;
+        }
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts a new upload. The part file is extended to the full size so that chunk writes never
+     * grow it; on most filesystems this reserves the length without allocating blocks yet.
+     */
+    static ChunkedUpload create(Path directory, String id, String filename, String contentType, long size,
+            Durability durability) throws IOException {
+        ChunkedUpload upload = new ChunkedUpload(directory, id, filename, contentType, size, durability);
+        try {
+            upload.content.truncate(0);
+            upload.content.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            upload.rangeLog.truncate(0);
+            durability.syncFile(upload.partFile);
+
+            // Written last, an upload without its properties file was never acknowledged
+            Properties meta = new Properties();
+            meta.setProperty("filename", filename);
+            meta.setProperty("contentType", contentType);
+            meta.setProperty("size", Long.toString(size));
+            try (Writer writer = Files.newBufferedWriter(upload.metaFile, StandardCharsets.UTF_8)) {
+                meta.store(writer, null);
+            }
+            durability.syncFile(upload.metaFile);
+            durability.syncShared(directory);
+        } catch (IOException ex) {
+            upload.delete();
+            throw ex;
+        }
+        return upload;
+    }
+
+    /**
+     * Reopens an upload left behind by a previous run and replays its range log.
+     */
+    static ChunkedUpload load(Path directory, String id, Durability durability) throws IOException {
+        Properties meta = new Properties();
+        try (Reader reader = Files.newBufferedReader(directory.resolve(id + META_SUFFIX), StandardCharsets.UTF_8)) {
+            meta.load(reader);
+        }
+        String filename = meta.getProperty("filename");
+        String contentType = meta.getProperty("contentType");
+        String size = meta.getProperty("size");
+        if (filename == null || contentType == null || size == null) {
+            throw new IOException("Incomplete metadata for upload " + id);
+        }
+
+        ChunkedUpload upload = new ChunkedUpload(directory, id, filename, contentType, Long.parseLong(size), durability);
+        try {
+            if (upload.content.size() != upload.size) {
+                throw new IOException("Part file of upload " + id + " is missing or truncated");
+            }
+            upload.replayRangeLog();
+            upload.lastActivity = Files.getLastModifiedTime(upload.partFile).toMillis();
+        } catch (IOException | RuntimeException ex) {
+            upload.close();
+            throw ex;
+        }
+        return upload;
+    }
+
+    private void replayRangeLog() throws IOException {
+        long records = rangeLog.size() / RANGE_RECORD_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(RANGE_RECORD_SIZE);
+        for (long i = 0; i < records; i++) {
+            record.clear();
+            while (record.hasRemaining() && rangeLog.read(record, i * RANGE_RECORD_SIZE + record.position()) > 0) {
+                // Keep reading until the record is complete
+            }
+            record.flip();
+            long start = record.getLong();
+            long end = record.getLong();
+            if (start >= 0 && start < end && end <= size) {
+                merge(start, end);
+            }
+        }
+        // Drop a record torn by a crash so new records stay aligned
+        rangeLog.truncate(records * RANGE_RECORD_SIZE);
+        rangeLog.position(records * RANGE_RECORD_SIZE);
+    }
+
+    /**
+     * Writes the bytes of {@code in} at {@code offset}. Whatever reaches the part file is recorded
+     * as received even if the stream fails halfway, so a client that was cut off only has to send
+     * the rest of the chunk.
+     *
+     * @return the number of bytes written
+     */
+    long write(long offset, InputStream in) throws IOException {
+        if (offset < 0 || offset >= size) {
+            throw new BadRequestException("Offset " + offset + " is outside the upload of " + size + " bytes");
+        }
+        byte[] array = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        long position = offset;
+        try {
+            int read;
+            while ((read = in.read(array)) != -1) {
+                if (read > size - position) {
+                    throw new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                        "Chunk at offset " + offset + " extends past the declared size of " + size + " bytes.");
+                }
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    position += content.write(buffer, position);
+                }
+            }
+        } finally {
+            if (position > offset) {
+                durability.syncChannel(content);
+                markReceived(offset, position);
+            }
+        }
+        return position - offset;
+    }
+
+    private synchronized void markReceived(long start, long end) throws IOException {
+        if (end <= start) {
+            return;
+        }
+        lastActivity = System.currentTimeMillis();
+        ByteBuffer record = ByteBuffer.allocate(RANGE_RECORD_SIZE).putLong(start).putLong(end).flip();
+        while (record.hasRemaining()) {
+            rangeLog.write(record);
+        }
+        durability.syncChannel(rangeLog);
+        merge(start, end);
+    }
+
+    private synchronized void merge(long start, long end) {
+        Map.Entry<Long, Long> before = received.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        for (Map.Entry<Long, Long> next = received.ceilingEntry(start); next != null && next.getKey() <= end;
+             next = received.ceilingEntry(start)) {
+            end = Math.max(end, next.getValue());
+            received.remove(next.getKey());
+        }
+        received.put(start, end);
+
+        long total = 0;
+        for (Map.Entry<Long, Long> run : received.entrySet()) {
+            total += run.getValue() - run.getKey();
+        }
+        receivedBytes = total;
+    }
+
+    synchronized boolean isComplete() {
+        return receivedBytes == size;
+    }
+
+    synchronized ChunkedUploadStatus status() {
+        List<ChunkedUploadStatus.Range> ranges = new ArrayList<>(received.size());
+        for (Map.Entry<Long, Long> run : received.entrySet()) {
+            ranges.add(new ChunkedUploadStatus.Range(run.getKey(), run.getValue() - 1));
+        }
+        return new ChunkedUploadStatus(id, filename, size, contentType, receivedBytes, ranges);
+    }
+
+    void close() {
+        closed = true;
+        try {
+            content.close();
+            rangeLog.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+    }
+
+    /**
+     * Closes the upload and removes whatever is left of its files.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(metaFile);
+        Files.deleteIfExists(partFile);
+        Files.deleteIfExists(rangeLogFile);
+    }
+
+    static String idOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    ReadWriteLock lock() {
+        return lock;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getFilename() {
+        return filename;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    Path getPartFile() {
+        return partFile;
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.EmptyFileException;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.exception.TooManyRequestsException;
+import com.github.manimovassagh.uploader.exception.UploadIncompleteException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.ChunkedUploadStatus;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Resumable uploads that arrive as chunks at arbitrary offsets. Uploads in progress live under
+ * {@code .uploads/} in the storage directory and survive restarts; once every byte has arrived
+ * the file is handed to {@link FileStorageService#storeAssembled} and stored like any other upload.
+ * As every upload in progress reserves its full size, only a limited number may be open at once.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final String SESSION_DIR = ".uploads";
+    private static final long SESSION_RETRY_AFTER_SECONDS = 60;
+
+    private final FileStorageService fileStorageService;
+    private final Path sessionDir;
+    private final long maxSize;
+    private final long sessionTtlMillis;
+    private final int maxSessions;
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+    // Uploads open or being created, reserved before the part file is
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    @Autowired
+    public ChunkedUploadService(FileStorageService fileStorageService, FileUploadConfig fileUploadConfig) {
+        this(fileStorageService, fileUploadConfig.getChunkedMaxSize(), fileUploadConfig.getChunkedSessionTtlSeconds(),
+            fileUploadConfig.getChunkedMaxSessions());
+    }
+
+    // Overloaded constructor for testability
+    public ChunkedUploadService(FileStorageService fileStorageService, long maxSize, long sessionTtlSeconds, int maxSessions) {
+        this.fileStorageService = fileStorageService;
+        this.maxSize = maxSize;
+        this.sessionTtlMillis = TimeUnit.SECONDS.toMillis(sessionTtlSeconds);
+        this.maxSessions = maxSessions;
+        try {
+            this.sessionDir = Files.createDirectories(fileStorageService.getStorageLocation().resolve(SESSION_DIR));
+            resume();
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not open the chunked upload directory.", ex);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        uploads.values().forEach(ChunkedUpload::close);
+    }
+
+    public ChunkedUploadStatus initiate(String filename, String contentType, long size) throws IOException {
+        String originalFilename = StringUtils.cleanPath(filename);
+        if (originalFilename.isEmpty() || originalFilename.contains("..") || originalFilename.contains("/")) {
+            throw new BadRequestException("Invalid file name " + filename);
+        }
+        if (size <= 0) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.EMPTY, "Failed to store empty file " + originalFilename);
+        }
+        if (maxSize > 0 && size > maxSize) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                "File too large. Maximum size is " + (maxSize / (1024 * 1024)) + "MB.");
+        }
+        if (!fileStorageService.isValidFileType(contentType)) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.INVALID_TYPE,
+                "Invalid file type. Only images, PDFs, and documents are allowed.");
+        }
+
+        expireStale();
+        if (sessions.incrementAndGet() > maxSessions && maxSessions > 0) {
+            sessions.decrementAndGet();
+            throw new TooManyRequestsException(TooManyRequestsException.Limit.SESSIONS, SESSION_RETRY_AFTER_SECONDS,
+                "Too many unfinished uploads");
+        }
+        String id = UUID.randomUUID().toString();
+        ChunkedUpload upload;
+        try {
+            upload = ChunkedUpload.create(sessionDir, id, originalFilename, contentType, size, fileStorageService.getDurability());
+        } catch (IOException | RuntimeException ex) {
+            sessions.decrementAndGet();
+            throw ex;
+        }
+        uploads.put(id, upload);
+        return upload.status();
+    }
+
+    /**
+     * Writes one chunk. Chunks may arrive in any order, overlap and be sent concurrently.
+     */
+    public ChunkedUploadStatus writeChunk(String id, long offset, InputStream in) throws IOException {
+        ChunkedUpload upload = find(id);
+        Lock lock = upload.lock().readLock();
+        lock.lock();
+        try {
+            if (upload.isClosed()) {
+                throw notFound(id);
+            }
+            upload.write(offset, in);
+            return upload.status();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ChunkedUploadStatus getStatus(String id) {
+        return find(id).status();
+    }
+
+    public FileUploadResponse commit(String id) throws IOException {
+        return commit(id, null);
+    }
+
+    /**
+     * @param expectedDigest a {@code Repr-Digest} value the assembled file has to match, or
+     * {@code null}
+     */
+    public FileUploadResponse commit(String id, String expectedDigest) throws IOException {
+        // A malformed header is rejected here, before it could cost the client its upload
+        ContentDigest.parse(expectedDigest);
+        ChunkedUpload upload = find(id);
+        Lock lock = upload.lock().writeLock();
+        lock.lock();
+        try {
+            if (upload.isClosed()) {
+                throw notFound(id);
+            }
+            if (!upload.isComplete()) {
+                throw new UploadIncompleteException("Upload " + id + " has received " + upload.getReceivedBytes()
+                    + " of " + upload.getSize() + " bytes");
+            }
+
+            FileUploadResponse.FileInfo info;
+            try {
+                info = fileStorageService.storeAssembled(upload.getPartFile(), upload.getFilename(), upload.getContentType(), null, expectedDigest);
+            } catch (UploadRejectedException | EmptyFileException ex) {
+                // The content is complete, so a retry would be rejected the same way
+                discard(upload);
+                throw ex;
+            }
+            discard(upload);
+            return new FileUploadResponse("Files uploaded successfully", List.of(info));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void abort(String id) throws IOException {
+        ChunkedUpload upload = find(id);
+        Lock lock = upload.lock().writeLock();
+        lock.lock();
+        try {
+            discard(upload);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ChunkedUpload find(String id) {
+        ChunkedUpload upload = uploads.get(id);
+        if (upload == null) {
+            throw notFound(id);
+        }
+        return upload;
+    }
+
+    private static FileNotFoundException notFound(String id) {
+        return new FileNotFoundException("Upload not found " + id);
+    }
+
+    private void discard(ChunkedUpload upload) throws IOException {
+        if (uploads.remove(upload.getId(), upload)) {
+            sessions.decrementAndGet();
+        }
+        upload.delete();
+    }
+
+    /**
+     * Drops uploads that have not received a chunk within the session TTL. Uploads that are
+     * being written or committed right now are left alone.
+     */
+    private void expireStale() {
+        if (sessionTtlMillis <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - sessionTtlMillis;
+        for (ChunkedUpload upload : uploads.values()) {
+            if (upload.getLastActivity() >= cutoff) {
+                continue;
+            }
+            Lock lock = upload.lock().writeLock();
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                discard(upload);
+                log.info("Expired unfinished upload {} of {}", upload.getId(), upload.getFilename());
+            } catch (IOException ex) {
+                log.warn("Could not remove expired upload {}", upload.getId(), ex);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reopens the uploads of a previous run and removes files of uploads that were never fully
+     * created or cannot be read back.
+     */
+    private void resume() throws IOException {
+        try (Stream<Path> files = Files.list(sessionDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String id = ChunkedUpload.idOf(file);
+                if (uploads.containsKey(id)) {
+                    continue;
+                }
+                if (!Files.exists(sessionDir.resolve(id + ChunkedUpload.META_SUFFIX))) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                try {
+                    uploads.put(id, ChunkedUpload.load(sessionDir, id, fileStorageService.getDurability()));
+                    sessions.incrementAndGet();
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("Discarding unreadable upload {}", id, ex);
+                    Files.deleteIfExists(sessionDir.resolve(id + ChunkedUpload.META_SUFFIX));
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        expireStale();
+    }
+}
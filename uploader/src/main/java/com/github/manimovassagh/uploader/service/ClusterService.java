@@ -0,0 +1,376 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriUtils;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Spreads stored files over the nodes listed in {@code file.cluster.nodes}. Each file has
+ * {@code file.cluster.replicas} owners picked by a {@link HashRing} from its stored name. The node
+ * that receives an upload stores it, sends a copy to every other owner over HTTP and drops its
+ * own copy once they all have one if it is not an owner itself. Requests for a file a node does
+ * not hold are redirected to an owner.
+ * <p>
+ * Copies that could not be sent, and files whose owners changed because a node joined or left,
+ * are put right by a rebalance that runs every interval: it walks the local files, sends each
+ * to the owners that lack it and hands off the ones this node no longer owns.
+ * <p>
+ * Each node hands out upload times in a slot of its own, so a stored name is never given to two
+ * different uploads on different nodes.
+ */
+@Service
+public class ClusterService {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterService.class);
+    public static final String REPLICA_PATH = "/internal/replicas/";
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    // Lets the other nodes finish starting after a restart that changed the member list
+    private static final long STARTUP_DELAY_SECONDS = 30;
+    private static final int REBALANCE_BATCH_SIZE = 500;
+
+    public record Status(boolean enabled, String self, List<String> nodes, int replicas, List<String> unreachable,
+                         boolean rebalancing, Instant lastRebalanceFinished, long replicated, long handedOff, long failures) {
+    }
+
+    private final FileStorageService fileStorageService;
+    private final ThumbnailService thumbnailService;
+    private final HashRing ring;
+    private final String self;
+    private final int replicas;
+    private final byte[] secret;
+    private final Duration requestTimeout;
+    private final HttpClient http;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+    private final Set<String> unreachable = ConcurrentHashMap.newKeySet();
+    private final AtomicLong replicated = new AtomicLong();
+    private final AtomicLong handedOff = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Instant lastRebalanceFinished;
+
+    @Autowired
+    public ClusterService(FileStorageService fileStorageService, ThumbnailService thumbnailService, FileUploadConfig fileUploadConfig) {
+        this(fileStorageService, thumbnailService,
+            fileUploadConfig.getClusterNodes() == null ? List.of() : Arrays.asList(fileUploadConfig.getClusterNodes()),
+            fileUploadConfig.getClusterSelf(), fileUploadConfig.getClusterReplicas(), fileUploadConfig.getClusterVirtualNodes(),
+            fileUploadConfig.getClusterSecret(), fileUploadConfig.getClusterRebalanceIntervalSeconds(),
+            fileUploadConfig.getClusterRequestTimeoutSeconds());
+    }
+
+    // Overloaded constructor for testability
+    public ClusterService(FileStorageService fileStorageService, ThumbnailService thumbnailService, List<String> nodes, String self,
+                          int replicas, int virtualNodes, String secret, long rebalanceIntervalSeconds, long requestTimeoutSeconds) {
+        this.fileStorageService = fileStorageService;
+        this.thumbnailService = thumbnailService;
+        Set<String> members = new LinkedHashSet<>();
+        for (String node : nodes) {
+            if (!node.isBlank()) {
+                members.add(normalize(node));
+            }
+        }
+        if (members.isEmpty()) {
+            this.ring = null;
+            this.self = null;
+        } else {
+            this.self = self == null ? "" : normalize(self);
+            if (!members.contains(this.self)) {
+                throw new IllegalArgumentException("file.cluster.self must be one of file.cluster.nodes, got '" + self + "'");
+            }
+            if (secret == null || secret.isEmpty()) {
+                throw new IllegalArgumentException("file.cluster.secret must be set when file.cluster.nodes is");
+            }
+            this.ring = new HashRing(members, virtualNodes);
+            // Every node sorts the same member list, so each ends up with a different slot
+            List<String> sorted = members.stream().sorted().toList();
+            fileStorageService.setUploadTimeSlot(sorted.indexOf(this.self), sorted.size());
+        }
+        this.replicas = Math.max(1, replicas);
+        this.secret = secret == null || secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.requestTimeout = requestTimeoutSeconds > 0 ? Duration.ofSeconds(requestTimeoutSeconds) : null;
+        this.http = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (ring != null && rebalanceIntervalSeconds > 0) {
+            executor.scheduleWithFixedDelay(this::rebalance, Math.min(STARTUP_DELAY_SECONDS, rebalanceIntervalSeconds),
+                rebalanceIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    /**
+     * @return the nodes that should hold {@code filename}, the primary first; empty when running
+     * as a single node
+     */
+    public List<String> owners(String filename) {
+        return ring == null ? List.of() : ring.owners(filename, replicas);
+    }
+
+    /**
+     * Picks the node to redirect a request for a file to, preferring owners that answered the
+     * last time they were contacted.
+     *
+     * @return the base URL of the node, or {@code null} if the request is to be served here
+     * because the file is stored here, this node is one of its owners or clustering is off
+     */
+    public String locate(String filename) {
+        if (ring == null || fileStorageService.getMetadata(filename) != null) {
+            return null;
+        }
+        List<String> owners = owners(filename);
+        if (owners.contains(self)) {
+            return null;
+        }
+        return owners.stream().filter(owner -> !unreachable.contains(owner)).findFirst().orElse(owners.get(0));
+    }
+
+    /**
+     * Checks the shared secret sent with a replica request. Without clustering there is no secret
+     * and nothing is authorized.
+     */
+    public boolean isAuthorized(String presented) {
+        return secret != null && presented != null && MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends the files of a finished upload to their other owners, concurrently, and waits for
+     * them, at most the request timeout for each. Copies that fail or time out are left to the
+     * next rebalance; the upload itself has been stored either way.
+     */
+    public void replicate(FileUploadResponse response) {
+        if (ring == null) {
+            return;
+        }
+        for (FileUploadResponse.FileInfo file : response.getFiles()) {
+            place(file.getFilename(), false);
+        }
+    }
+
+    /**
+     * Starts a rebalance in the background unless one is already running.
+     *
+     * @return {@code false} if one was already running or clustering is off
+     */
+    public boolean trigger() {
+        if (ring == null || rebalancing.get()) {
+            return false;
+        }
+        try {
+            executor.execute(this::rebalance);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Walks the files stored here in name order, making sure every owner of each has a copy and
+     * handing off the files this node does not own. Runs on the calling thread.
+     */
+    public void rebalance() {
+        if (ring == null || !rebalancing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            String cursor = null;
+            List<FileMetadata> batch;
+            while (!(batch = fileStorageService.listFilesAfter(cursor, REBALANCE_BATCH_SIZE)).isEmpty()) {
+                for (FileMetadata metadata : batch) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    place(metadata.getFilename(), true);
+                    cursor = metadata.getFilename();
+                }
+            }
+            lastRebalanceFinished = Instant.now();
+        } catch (RuntimeException ex) {
+            // Thrown out of a scheduled task it would cancel every later rebalance
+            log.error("Rebalance failed", ex);
+        } finally {
+            rebalancing.set(false);
+        }
+    }
+
+    public Status status() {
+        return new Status(ring != null, self, ring == null ? List.of() : ring.getNodes(), replicas, List.copyOf(unreachable),
+            rebalancing.get(), lastRebalanceFinished, replicated.get(), handedOff.get(), failures.get());
+    }
+
+    /**
+     * Makes sure every other owner of a local file has a copy, and deletes the local one if this
+     * node is not an owner and they all do.
+     *
+     * @param check ask the owners whether they have the file before sending it
+     */
+    private void place(String filename, boolean check) {
+        FileMetadata metadata = fileStorageService.getMetadata(filename);
+        if (metadata == null) {
+            return;
+        }
+        List<String> owners = owners(filename);
+        List<CompletableFuture<Boolean>> copies = new ArrayList<>(owners.size());
+        String reprDigest = null;
+        for (String owner : owners) {
+            if (owner.equals(self)) {
+                continue;
+            }
+            if (check && has(owner, filename)) {
+                copies.add(CompletableFuture.completedFuture(true));
+                continue;
+            }
+            if (reprDigest == null) {
+                reprDigest = reprDigest(metadata);
+                if (reprDigest == null) {
+                    return;
+                }
+            }
+            copies.add(send(owner, metadata, reprDigest));
+        }
+        boolean complete = copies.stream().allMatch(CompletableFuture::join);
+        if (complete && !owners.contains(self)) {
+            try {
+                fileStorageService.deleteFile(filename);
+                thumbnailService.deleteThumbnails(filename);
+                handedOff.incrementAndGet();
+                log.debug("Handed off {} to {}", filename, owners);
+            } catch (IOException ex) {
+                log.warn("Could not remove {} after handing it off", filename, ex);
+            }
+        }
+    }
+
+    private String reprDigest(FileMetadata metadata) {
+        try {
+            return fileStorageService.getDigest(metadata.getFilename()).toHeader(EnumSet.allOf(ContentDigest.Algorithm.class));
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Could not read {} to replicate it", metadata.getFilename(), ex);
+            failures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private boolean has(String node, String filename) {
+        HttpRequest request = request(node, filename).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        try {
+            int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            reachable(node);
+            return status == 200;
+        } catch (IOException ex) {
+            unreachable(node, ex);
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private CompletableFuture<Boolean> send(String node, FileMetadata metadata, String reprDigest) {
+        String filename = metadata.getFilename();
+        HttpRequest.Builder request = request(node, filename)
+            .header(ContentDigest.REPR_DIGEST, reprDigest)
+            .PUT(HttpRequest.BodyPublishers.ofInputStream(() -> {
+                try {
+                    return fileStorageService.openContent(filename);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }));
+        // Files found on disk have no recorded type, and the owner checks the type of every copy
+        String contentType = metadata.getMimeType() != null
+            ? metadata.getMimeType()
+            : MediaTypeFactory.getMediaType(filename).map(MediaType::toString).orElse(null);
+        if (contentType != null) {
+            request.header("Content-Type", contentType);
+        }
+        return http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString()).handle((response, ex) -> {
+            if (ex != null) {
+                unreachable(node, ex);
+                failures.incrementAndGet();
+                return false;
+            }
+            reachable(node);
+            if (response.statusCode() / 100 != 2) {
+                log.warn("{} refused a copy of {}: {} {}", node, filename, response.statusCode(), response.body());
+                failures.incrementAndGet();
+                return false;
+            }
+            replicated.incrementAndGet();
+            return true;
+        });
+    }
+
+    private HttpRequest.Builder request(String node, String filename) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+            URI.create(node + REPLICA_PATH + UriUtils.encodePathSegment(filename, StandardCharsets.UTF_8)));
+        if (requestTimeout != null) {
+            // Includes sending the body, so an owner that stops reading cannot hold an upload forever
+            request.timeout(requestTimeout);
+        }
+        if (secret != null) {
+            request.header(SECRET_HEADER, new String(secret, StandardCharsets.UTF_8));
+        }
+        return request;
+    }
+
+    private void reachable(String node) {
+        unreachable.remove(node);
+    }
+
+    private void unreachable(String node, Throwable cause) {
+        if (unreachable.add(node)) {
+            log.warn("Cluster node {} is unreachable: {}", node, cause.toString());
+        }
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps one blob per unique content under {@code .blobs/}, named by its SHA-256. User-visible
+ * files are hard links to their blob, so downloads, listings and the index work exactly as for
+ * plain files while identical uploads share the same disk blocks. A blob is removed once no
+ * visible file links to it any more. Content stored gzip-compressed has blobs of its own, so the
+ * encoding recorded for a file is that of the blob it ends up linked to.
+ */
+public class ContentAddressedStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentAddressedStore.class);
+    private static final String BLOB_DIR = ".blobs";
+    private static final String TEMP_DIR = "tmp";
+    private static final String ENCODED_SUFFIX = ".gz";
+
+    private final Path blobRoot;
+    private final Path tempDir;
+
+    public ContentAddressedStore(Path storageRoot) throws IOException {
+        this.blobRoot = storageRoot.resolve(BLOB_DIR);
+        this.tempDir = Files.createDirectories(blobRoot.resolve(TEMP_DIR));
+    }
+
+    public Path newTempFile() throws IOException {
+        return Files.createTempFile(tempDir, "upload-", ".tmp");
+    }
+
+    /**
+     * Moves the fully written temp file into the store, or discards it if the content is already
+     * there, and links the blob at {@code target}.
+     *
+     * @return {@code true} if the content was already stored and the upload was deduplicated
+     * @throws java.nio.file.FileAlreadyExistsException if {@code target} exists; the temp file is
+     * left in place so the caller can retry with another name
+     */
+    public boolean commit(Path tempFile, String sha256, boolean encoded, Path target) throws IOException {
+        Path blob = blobPath(sha256, encoded);
+        if (Files.exists(blob)) {
+            try {
+                Files.createLink(target, blob);
+                Files.deleteIfExists(tempFile);
+                return true;
+            } catch (NoSuchFileException ex) {
+                // The blob was released between the check and the link; store this copy instead
+            }
+        }
+        if (Files.exists(tempFile)) {
+            Files.createDirectories(blob.getParent());
+            Files.move(tempFile, blob, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.createLink(target, blob);
+        return false;
+    }
+
+    /**
+     * Deletes the blob for the given content and encoding if no stored file links to it any more.
+     */
+    public void release(String sha256, boolean encoded) throws IOException {
+        Path blob = blobPath(sha256, encoded);
+        try {
+            if (linkCount(blob) <= 1) {
+                Files.deleteIfExists(blob);
+            }
+        } catch (NoSuchFileException ex) {
+            // Already gone
+        }
+    }
+
+    /**
+     * Removes blobs that lost their last link and temp files left behind by interrupted uploads.
+     */
+    public void collectOrphans() throws IOException {
+        try (Stream<Path> files = Files.walk(blobRoot)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                try {
+                    if (file.startsWith(tempDir) || linkCount(file) <= 1) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException ex) {
+                    log.warn("Could not collect blob {}", file, ex);
+                }
+            }
+        }
+    }
+
+    Path blobPath(String sha256, boolean encoded) {
+        return blobRoot.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(encoded ? sha256 + ENCODED_SUFFIX : sha256);
+    }
+
+    private static int linkCount(Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, "unix:nlink");
+    }
+}
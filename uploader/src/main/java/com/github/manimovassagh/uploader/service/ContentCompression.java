@@ -0,0 +1,101 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.manimovassagh.uploader.model.FileMetadata;
+
+/**
+ * Gzip compression at rest. Compressible uploads are stored as a gzip stream under their usual
+ * name, and the encoding is recorded in the file's index entry with the length as uploaded, so
+ * it holds even if compression is switched off later. Only a file indexed without an encoding,
+ * such as one found on disk by a scan, is told by its leading bytes.
+ */
+public final class ContentCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String IDENTITY = "identity";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte MAGIC_1 = (byte) 0x1f;
+    private static final byte MAGIC_2 = (byte) 0x8b;
+
+    private ContentCompression() {
+    }
+
+    /**
+     * Whether content of this type is worth compressing. JPEG, PNG, GIF, PDF and DOCX are
+     * compressed formats already.
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.startsWith("application/msword");
+    }
+
+    public static OutputStream encode(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+
+    public static String encodingOf(boolean encoded) {
+        return encoded ? GZIP : IDENTITY;
+    }
+
+    public static boolean isEncoded(FileMetadata metadata) {
+        return metadata != null && GZIP.equals(metadata.getEncoding());
+    }
+
+    /**
+     * Whether a file starts with the gzip magic, for files whose encoding was not recorded.
+     */
+    public static boolean startsWithMagic(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = in.readNBytes(2);
+            return head.length == 2 && head[0] == MAGIC_1 && head[1] == MAGIC_2;
+        }
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} header admits gzip, either by name or through {@code *},
+     * with a non-zero quality.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] params = entry.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = quality(params) > 0;
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                return accepted;
+            }
+            if (coding.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private static double quality(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,244 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+
+/**
+ * Digests of the content of an upload as it was sent, before any compression at rest. They are
+ * computed by a {@link Sink} in the same pass that writes the file, so nothing is read back to
+ * hash it. SHA-256 is always computed, since it names content-addressed blobs and makes the
+ * {@code ETag}; CRC32C only when it is asked for.
+ * <p>
+ * On the wire digests use the {@code Repr-Digest} field of RFC 9530, a dictionary of algorithm
+ * names to base64 byte sequences such as {@code sha-256=:X48E9q...=:, crc32c=:6Hb3Xw==:}.
+ */
+public final class ContentDigest {
+
+    public static final String REPR_DIGEST = "Repr-Digest";
+
+    public enum Algorithm {
+        SHA_256("sha-256"), CRC32C("crc32c");
+
+        private final String key;
+
+        Algorithm(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        static Algorithm fromKey(String key) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.key.equals(key)) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String sha256;
+    private final String crc32c;
+
+    /**
+     * @param sha256 hex SHA-256
+     * @param crc32c hex CRC32C, or {@code null} if it was not computed
+     */
+    public ContentDigest(String sha256, String crc32c) {
+        this.sha256 = sha256;
+        this.crc32c = crc32c;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public String getCrc32c() {
+        return crc32c;
+    }
+
+    /**
+     * Parses a configured list of algorithm names such as {@code sha-256,crc32c}.
+     */
+    public static Set<Algorithm> algorithms(String[] names) {
+        Set<Algorithm> algorithms = EnumSet.noneOf(Algorithm.class);
+        if (names != null) {
+            for (String name : names) {
+                if (name.isBlank()) {
+                    continue;
+                }
+                Algorithm algorithm = Algorithm.fromKey(name.trim().toLowerCase(Locale.ROOT));
+                if (algorithm == null) {
+                    throw new IllegalArgumentException("Unknown digest algorithm " + name.trim() + ", expected sha-256 or crc32c");
+                }
+                algorithms.add(algorithm);
+            }
+        }
+        return Collections.unmodifiableSet(algorithms);
+    }
+
+    /**
+     * Parses the digests a client expects an upload to have. Algorithms other than SHA-256 and
+     * CRC32C are ignored, as RFC 9530 asks of a recipient that does not support them.
+     *
+     * @return the expected values by algorithm, empty if {@code header} is {@code null}
+     * @throws UploadRejectedException if the header is malformed
+     */
+    public static Map<Algorithm, byte[]> parse(String header) {
+        Map<Algorithm, byte[]> expected = new EnumMap<>(Algorithm.class);
+        if (header == null || header.isBlank()) {
+            return expected;
+        }
+        for (String member : header.split(",")) {
+            int equals = member.indexOf('=');
+            if (equals < 0) {
+                throw malformed(header);
+            }
+            Algorithm algorithm = Algorithm.fromKey(member.substring(0, equals).trim().toLowerCase(Locale.ROOT));
+            String value = member.substring(equals + 1);
+            int parameters = value.indexOf(';');
+            value = (parameters < 0 ? value : value.substring(0, parameters)).trim();
+            if (value.length() < 2 || value.charAt(0) != ':' || value.charAt(value.length() - 1) != ':') {
+                throw malformed(header);
+            }
+            if (algorithm == null) {
+                continue;
+            }
+            try {
+                expected.put(algorithm, Base64.getDecoder().decode(value.substring(1, value.length() - 1)));
+            } catch (IllegalArgumentException ex) {
+                throw malformed(header);
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Checks the digests against what the client expected.
+     *
+     * @throws UploadRejectedException if any of them differs
+     */
+    public void verify(Map<Algorithm, byte[]> expected) {
+        for (Map.Entry<Algorithm, byte[]> entry : expected.entrySet()) {
+            byte[] actual = bytes(entry.getKey());
+            if (actual == null || !MessageDigest.isEqual(actual, entry.getValue())) {
+                throw new UploadRejectedException(UploadRejectedException.Reason.DIGEST_MISMATCH,
+                    "Content does not match the " + entry.getKey().key() + " digest in " + REPR_DIGEST);
+            }
+        }
+    }
+
+    /**
+     * @return the hex digests in {@code algorithms} by algorithm name, as returned for an upload
+     */
+    public Map<String, String> toMap(Set<Algorithm> algorithms) {
+        Map<String, String> digests = new LinkedHashMap<>();
+        for (Algorithm algorithm : Algorithm.values()) {
+            String value = algorithm == Algorithm.SHA_256 ? sha256 : crc32c;
+            if (algorithms.contains(algorithm) && value != null) {
+                digests.put(algorithm.key(), value);
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * @return the {@code Repr-Digest} value with the digests in {@code algorithms}, or
+     * {@code null} if there are none
+     */
+    public String toHeader(Set<Algorithm> algorithms) {
+        StringBuilder header = new StringBuilder();
+        for (Algorithm algorithm : Algorithm.values()) {
+            byte[] value = bytes(algorithm);
+            if (algorithms.contains(algorithm) && value != null) {
+                if (!header.isEmpty()) {
+                    header.append(", ");
+                }
+                header.append(algorithm.key()).append("=:").append(Base64.getEncoder().encodeToString(value)).append(':');
+            }
+        }
+        return header.isEmpty() ? null : header.toString();
+    }
+
+    private byte[] bytes(Algorithm algorithm) {
+        String value = algorithm == Algorithm.SHA_256 ? sha256 : crc32c;
+        return value == null ? null : HexFormat.of().parseHex(value);
+    }
+
+    private static UploadRejectedException malformed(String header) {
+        return new UploadRejectedException(UploadRejectedException.Reason.MALFORMED_DIGEST, "Malformed " + REPR_DIGEST + " header: " + header);
+    }
+
+    /**
+     * Passes writes through to the wrapped stream while digesting them, whole buffers at a time.
+     */
+    public static final class Sink extends FilterOutputStream {
+
+        private final MessageDigest sha256;
+        private final CRC32C crc32c;
+
+        public Sink(OutputStream out, boolean crc32c) {
+            super(out);
+            try {
+                this.sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("SHA-256 is not available", ex);
+            }
+            this.crc32c = crc32c ? new CRC32C() : null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            sha256.update((byte) b);
+            if (crc32c != null) {
+                crc32c.update(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            sha256.update(b, off, len);
+            if (crc32c != null) {
+                crc32c.update(b, off, len);
+            }
+        }
+
+        /**
+         * Digests bytes that reach the file some other way, leaving {@code buffer} as it was.
+         */
+        public void update(ByteBuffer buffer) {
+            sha256.update(buffer.duplicate());
+            if (crc32c != null) {
+                crc32c.update(buffer.duplicate());
+            }
+        }
+
+        /**
+         * @return the digests of everything written so far; only to be called once
+         */
+        public ContentDigest digest() {
+            String crc = crc32c == null ? null : HexFormat.of().formatHex(ByteBuffer.allocate(Integer.BYTES).putInt((int) crc32c.getValue()).array());
+            return new ContentDigest(HexFormat.of().formatHex(sha256.digest()), crc);
+        }
+    }
+}
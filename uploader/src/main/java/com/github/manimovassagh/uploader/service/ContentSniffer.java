@@ -0,0 +1,158 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+
+/**
+ * Identifies uploads from their leading bytes instead of the client-supplied {@code Content-Type}.
+ * The allowed types are fixed at construction: they become a set for declared-type checks and a
+ * table of magic-number signatures indexed by first byte, holding only the signatures of allowed
+ * types, so detection is a single array lookup and a handful of byte comparisons.
+ */
+public class ContentSniffer {
+
+    /** How many leading bytes are buffered before a part is written. */
+    public static final int SNIFF_LENGTH = 4096;
+
+    static final String DOCX = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    static final String TEXT = "text/plain";
+
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    private static final byte[] OOXML_CONTENT_TYPES = "[Content_Types].xml".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WORD_PART = "word/".getBytes(StandardCharsets.US_ASCII);
+
+    private record Signature(String mimeType, byte[] magic) {
+    }
+
+    private static final List<Signature> SIGNATURES = List.of(
+        new Signature("image/jpeg", new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}),
+        new Signature("image/png", new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}),
+        new Signature("image/gif", "GIF87a".getBytes(StandardCharsets.US_ASCII)),
+        new Signature("image/gif", "GIF89a".getBytes(StandardCharsets.US_ASCII)),
+        new Signature("application/pdf", "%PDF-".getBytes(StandardCharsets.US_ASCII)),
+        new Signature("application/msword", new byte[] {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1}),
+        new Signature(DOCX, ZIP_MAGIC)
+    );
+
+    private final Set<String> allowedTypes;
+    private final Signature[][] signaturesByFirstByte = new Signature[256][];
+    private final boolean textAllowed;
+
+    public ContentSniffer(Collection<String> allowedTypes) {
+        this.allowedTypes = allowedTypes.stream()
+            .map(ContentSniffer::normalize)
+            .filter(type -> !type.isEmpty())
+            .collect(Collectors.toUnmodifiableSet());
+        this.textAllowed = this.allowedTypes.contains(TEXT);
+
+        List<List<Signature>> buckets = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) {
+            buckets.add(new ArrayList<>(1));
+        }
+        for (Signature signature : SIGNATURES) {
+            if (this.allowedTypes.contains(signature.mimeType())) {
+                buckets.get(signature.magic()[0] & 0xFF).add(signature);
+            }
+        }
+        for (int i = 0; i < 256; i++) {
+            signaturesByFirstByte[i] = buckets.get(i).isEmpty() ? null : buckets.get(i).toArray(Signature[]::new);
+        }
+    }
+
+    public boolean isAllowed(String contentType) {
+        return contentType != null && allowedTypes.contains(normalize(contentType));
+    }
+
+    /**
+     * Checks the leading bytes of an upload against the type the client declared.
+     *
+     * @return the detected type
+     * @throws UploadRejectedException if the content is not of an allowed type or is of another
+     * type than the declared one
+     */
+    public String verify(String filename, String declaredType, byte[] head, int length) {
+        String detected = detect(head, length);
+        if (detected == null) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.INVALID_TYPE, "Invalid file type. Only images, PDFs, and documents are allowed.");
+        }
+        if (declaredType == null || !detected.equals(normalize(declaredType))) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.INVALID_TYPE,
+                "Content of " + filename + " is " + detected + " but was declared as " + declaredType + ".");
+        }
+        return detected;
+    }
+
+    /**
+     * @return the allowed type the content was recognised as, or {@code null} if it matches none
+     */
+    public String detect(byte[] head, int length) {
+        if (length == 0) {
+            return null;
+        }
+        Signature[] candidates = signaturesByFirstByte[head[0] & 0xFF];
+        if (candidates != null) {
+            for (Signature signature : candidates) {
+                if (startsWith(head, length, signature.magic())
+                    && (signature.magic() != ZIP_MAGIC || isWordDocument(head, length))) {
+                    return signature.mimeType();
+                }
+            }
+        }
+        return textAllowed && isText(head, length) ? TEXT : null;
+    }
+
+    private static boolean isWordDocument(byte[] head, int length) {
+        return indexOf(head, length, OOXML_CONTENT_TYPES) >= 0 && indexOf(head, length, WORD_PART) >= 0;
+    }
+
+    /**
+     * Treats the head as text if it has no NUL bytes and decodes as UTF-8. The decoder is told more
+     * input may follow, so a multi-byte sequence cut off at the end of the buffer is not an error.
+     */
+    private static boolean isText(byte[] head, int length) {
+        for (int i = 0; i < length; i++) {
+            if (head[i] == 0) {
+                return false;
+            }
+        }
+        CoderResult result = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT)
+            .decode(ByteBuffer.wrap(head, 0, length), CharBuffer.allocate(length), false);
+        return !result.isError();
+    }
+
+    private static boolean startsWith(byte[] head, int length, byte[] magic) {
+        return length >= magic.length && Arrays.equals(head, 0, magic.length, magic, 0, magic.length);
+    }
+
+    private static int indexOf(byte[] head, int length, byte[] needle) {
+        outer:
+        for (int i = 0; i <= length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (head[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String normalize(String contentType) {
+        int parameters = contentType.indexOf(';');
+        return (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Keeps the bytes of small, frequently downloaded files in direct buffers, outside the Java heap,
+ * under a total byte budget. A file is only copied in on its second request while a doorkeeper of
+ * recently requested names still remembers the first, so one-off downloads never allocate a
+ * buffer. From there admission and eviction follow Caffeine's W-TinyLFU policy, so a burst of
+ * downloads does not push out the files that are fetched all the time. Entries are checked against
+ * the file's size and modification time on every hit, so a file replaced on disk is never served
+ * stale. Hit, miss and eviction counts are published as {@code cache.*} meters tagged
+ * {@code cache=downloads}.
+ * <p>
+ * Buffers are sized in whole pages. The buffer of an entry that is evicted, rejected or replaced
+ * goes back to a pool, bounded to a quarter of the budget, once the last download reading it has
+ * closed its {@link Lease}, and is reused for the next entry of the same size instead of waiting
+ * for the garbage collector to free it.
+ */
+@Component
+public class DownloadCache implements MeterBinder {
+
+    static final String CACHE_NAME = "downloads";
+    static final int PAGE_SIZE = 4096;
+
+    private final Cache<Path, Entry> cache;
+    private final Cache<Path, Boolean> doorkeeper;
+    private final long maxEntrySize;
+    private final long maxPooledBytes;
+    private final Map<Integer, Queue<ByteBuffer>> pool = new ConcurrentHashMap<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    @Autowired
+    public DownloadCache(FileUploadConfig fileUploadConfig) {
+        this(fileUploadConfig.getCacheMaxBytes(), fileUploadConfig.getCacheMaxEntrySize());
+    }
+
+    public DownloadCache(long maxBytes, long maxEntrySize) {
+        this.maxEntrySize = Math.min(maxEntrySize, Integer.MAX_VALUE - PAGE_SIZE);
+        this.maxPooledBytes = maxBytes / 4;
+        boolean enabled = maxBytes > 0 && maxEntrySize > 0;
+        this.cache = enabled
+            ? Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .<Path, Entry>weigher((file, entry) -> entry.buffer.capacity())
+                .removalListener((Path file, Entry entry, RemovalCause cause) -> release(entry))
+                .recordStats()
+                // Maintenance is a few map operations, cheaper inline than handed to the common pool
+                .executor(Runnable::run)
+                .build()
+            : null;
+        // Remembers a few times as many names as the cache has room for, at a few dozen bytes each
+        this.doorkeeper = enabled
+            ? Caffeine.newBuilder()
+                .maximumSize(Math.max(1024, 4 * maxBytes / Math.max(PAGE_SIZE, Math.min(maxEntrySize, maxBytes))))
+                .executor(Runnable::run)
+                .build()
+            : null;
+    }
+
+    /**
+     * The cached content of one file, held for as long as a download reads it. The buffer is
+     * only reused once every lease on it is closed.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return a read-only view of the file's content positioned at zero
+         */
+        public ByteBuffer content() {
+            return entry.content.asReadOnlyBuffer();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                entry.owner.release(entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final DownloadCache owner;
+        private final ByteBuffer buffer;
+        private final ByteBuffer content;
+        private final long size;
+        private final FileTime lastModified;
+        // One for the cache while it holds the entry, one per open lease
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Entry(DownloadCache owner, ByteBuffer buffer, FileTime lastModified) {
+            this.owner = owner;
+            this.buffer = buffer;
+            this.content = buffer.slice(0, buffer.limit());
+            this.size = buffer.limit();
+            this.lastModified = lastModified;
+        }
+
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @return a lease on the file's content, to be closed once it has been written, or
+     * {@code null} if the file is not cached and should be read from disk
+     */
+    public Lease get(Path file, long size, FileTime lastModified) throws IOException {
+        if (cache == null || size == 0 || size > maxEntrySize) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(file);
+        if (entry != null && (entry.size != size || !entry.lastModified.equals(lastModified))) {
+            cache.asMap().remove(file, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            if (doorkeeper.asMap().putIfAbsent(file, Boolean.TRUE) == null) {
+                return null;
+            }
+            doorkeeper.invalidate(file);
+            Entry loaded = load(file, size, lastModified);
+            entry = cache.asMap().putIfAbsent(file, loaded);
+            if (entry == null) {
+                entry = loaded;
+            } else {
+                // Another download loaded it first
+                release(loaded);
+            }
+        }
+        return entry.size == size && entry.retain() ? new Lease(entry) : null;
+    }
+
+    public void invalidate(Path file) {
+        if (cache != null) {
+            cache.invalidate(file);
+        }
+    }
+
+    public long getWeightedSize() {
+        return cache == null ? 0 : cache.policy().eviction().orElseThrow().weightedSize().orElse(0);
+    }
+
+    /**
+     * @return the bytes of released buffers kept for reuse
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (cache == null) {
+            return;
+        }
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        Gauge.builder("cache.weight", this, DownloadCache::getWeightedSize)
+            .tag("cache", CACHE_NAME)
+            .baseUnit("bytes")
+            .description("Bytes held by the download cache")
+            .register(registry);
+    }
+
+    private Entry load(Path file, long size, FileTime lastModified) throws IOException {
+        ByteBuffer buffer = acquire((int) size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    // Shrunk since it was stat'ed; the size check on the next hit replaces this entry
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            recycle(buffer);
+            throw ex;
+        }
+        buffer.flip();
+        return new Entry(this, buffer, lastModified);
+    }
+
+    private ByteBuffer acquire(int size) {
+        int capacity = (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+        Queue<ByteBuffer> free = pool.get(capacity);
+        ByteBuffer buffer = free == null ? null : free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            pooledBytes.addAndGet(-capacity);
+        }
+        return buffer.clear().limit(size);
+    }
+
+    private void release(Entry entry) {
+        if (entry.references.decrementAndGet() == 0) {
+            recycle(entry.buffer);
+        }
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            // Left to the garbage collector
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        pool.computeIfAbsent(capacity, key -> new ConcurrentLinkedQueue<>()).add(buffer);
+    }
+}
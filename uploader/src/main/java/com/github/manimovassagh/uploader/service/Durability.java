@@ -0,0 +1,187 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * How far a stored file is pushed to the device before its upload is acknowledged. Files are
+ * always written under a temp name and renamed into place, so a crash never leaves a truncated
+ * file under a stored name; the modes add the fsyncs that make the file and its name survive a
+ * power loss as well.
+ * <ul>
+ *   <li>{@code none}: the page cache decides when data reaches the disk.</li>
+ *   <li>{@code fsync}: the file is synced before the rename and its directory after it.</li>
+ *   <li>{@code group-commit}: as {@code fsync}, but directory syncs requested while one is in
+ *   progress are done together in the next round, so concurrent uploads into the same directory
+ *   share one sync instead of queueing for one each.</li>
+ * </ul>
+ */
+class Durability {
+
+    enum Mode {
+        NONE, FSYNC, GROUP_COMMIT;
+
+        static Mode fromConfig(String value) {
+            if (value == null || value.isBlank()) {
+                return NONE;
+            }
+            return switch (value.trim().toLowerCase(Locale.ROOT)) {
+                case "none" -> NONE;
+                case "fsync" -> FSYNC;
+                case "group-commit" -> GROUP_COMMIT;
+                default -> throw new IllegalArgumentException("Unknown durability mode " + value + ". Use none, fsync or group-commit.");
+            };
+        }
+    }
+
+    private final Mode mode;
+    private final FileMetrics fileMetrics;
+    private final Object lock = new Object();
+    private Set<Path> pendingDirectories = new LinkedHashSet<>();
+    private CompletableFuture<Void> pendingRound = new CompletableFuture<>();
+    private boolean closed;
+
+    Durability(Mode mode, FileMetrics fileMetrics) {
+        this.mode = mode;
+        this.fileMetrics = fileMetrics;
+        if (mode == Mode.GROUP_COMMIT) {
+            Thread.ofPlatform().name("storage-group-commit").daemon().start(this::commitRounds);
+        }
+    }
+
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Forces the content of a written file to the device. Done by the writing thread, as file
+     * syncs of concurrent uploads proceed in parallel on the device anyway.
+     */
+    void syncFile(Path file) throws IOException {
+        if (mode == Mode.NONE) {
+            return;
+        }
+        long start = System.nanoTime();
+        force(file);
+        fileMetrics.recordStage(FileMetrics.Stage.FSYNC, System.nanoTime() - start);
+    }
+
+    /**
+     * Forces what has been written through a channel that stays open, such as a chunk of a
+     * resumable upload, so that nothing recorded afterwards can refer to bytes still in memory.
+     */
+    void syncChannel(FileChannel channel) throws IOException {
+        if (mode == Mode.NONE) {
+            return;
+        }
+        long start = System.nanoTime();
+        channel.force(false);
+        fileMetrics.recordStage(FileMetrics.Stage.FSYNC, System.nanoTime() - start);
+    }
+
+    /**
+     * Makes the entries of a directory, such as a file just renamed into it, survive a crash.
+     * Also used for the metadata log, which uploads append to in the same way.
+     */
+    void syncShared(Path directory) throws IOException {
+        if (mode == Mode.NONE) {
+            return;
+        }
+        long start = System.nanoTime();
+        if (mode == Mode.FSYNC) {
+            forceShared(directory);
+        } else {
+            CompletableFuture<Void> round;
+            synchronized (lock) {
+                if (closed) {
+                    round = null;
+                } else {
+                    pendingDirectories.add(directory);
+                    round = pendingRound;
+                    lock.notifyAll();
+                }
+            }
+            if (round == null) {
+                forceShared(directory);
+            } else {
+                await(round);
+            }
+        }
+        fileMetrics.recordStage(FileMetrics.Stage.FSYNC, System.nanoTime() - start);
+    }
+
+    /**
+     * Syncs whatever directories have been requested since the previous round, one round at a
+     * time, until closed and drained.
+     */
+    private void commitRounds() {
+        while (true) {
+            Set<Path> directories;
+            CompletableFuture<Void> round;
+            synchronized (lock) {
+                while (pendingDirectories.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        closed = true;
+                    }
+                }
+                if (pendingDirectories.isEmpty()) {
+                    return;
+                }
+                directories = pendingDirectories;
+                round = pendingRound;
+                pendingDirectories = new LinkedHashSet<>();
+                pendingRound = new CompletableFuture<>();
+            }
+            try {
+                for (Path directory : directories) {
+                    forceShared(directory);
+                }
+                round.complete(null);
+            } catch (IOException | RuntimeException ex) {
+                round.completeExceptionally(ex);
+            }
+        }
+    }
+
+    private static void await(CompletableFuture<Void> round) throws IOException {
+        try {
+            round.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a directory sync", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Directory sync failed", ex.getCause());
+        }
+    }
+
+    // A log segment may have been synced and deleted by a compaction in the meantime
+    private static void forceShared(Path path) throws IOException {
+        try {
+            force(path);
+        } catch (NoSuchFileException ignored) {
+            // Nothing left to sync
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
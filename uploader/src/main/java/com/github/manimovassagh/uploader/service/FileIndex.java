@@ -0,0 +1,531 @@
+package com.github.manimovassagh.uploader.service;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+
+/**
+ * In-memory index of the files in the storage directory. It is built at startup, by scanning the
+ * directory or by replaying a {@link Journal} such as the {@link MetadataLog}, updated by every
+ * store and delete, and optionally kept in sync with changes made behind the service's back
+ * through a {@link WatchService} or by re-reading the directory periodically. Listings are served from sorted views so no directory scan is
+ * needed per request. Files are located through the {@link StorageBackend}, so the index is keyed
+ * by stored name whatever the directory layout.
+ */
+public class FileIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileIndex.class);
+    static final Pattern STORED_NAME = Pattern.compile("^(\\d{1,18})-(.+)$");
+
+    public enum SortField {
+        NAME, SIZE, UPLOAD_TIME;
+
+        public static SortField fromParameter(String value) {
+            return switch (value.toLowerCase(Locale.ROOT)) {
+                case "name" -> NAME;
+                case "size" -> SIZE;
+                case "uploadtime", "upload_time" -> UPLOAD_TIME;
+                default -> throw new BadRequestException("Unsupported sort field " + value);
+            };
+        }
+    }
+
+    public record Page(List<FileMetadata> items, int total) {
+    }
+
+    /**
+     * The entries of the index in each of its orders, the same instances in all three.
+     */
+    public record Contents(List<FileMetadata> byName, List<FileMetadata> bySize, List<FileMetadata> byUploadTime) {
+    }
+
+    /**
+     * How the index follows out-of-band changes: not at all, through file system events, or by
+     * re-reading the storage directory. For the latter, {@code fallbackReason} tells why events
+     * are not used, if they could not be, and {@code error} why the last pass failed.
+     */
+    public record WatchStatus(WatchMode mode, Instant lastReconciled, String fallbackReason, String error) {
+    }
+
+    public enum WatchMode {
+        OFF, EVENTS, RECONCILE
+    }
+
+    /**
+     * Receives every change to the index while the change is being applied, so changes to the
+     * same file reach it in the order they were made.
+     */
+    public interface Journal {
+
+        Journal NONE = new Journal() {
+            @Override
+            public void put(FileMetadata metadata) {
+            }
+
+            @Override
+            public void remove(String filename) {
+            }
+        };
+
+        void put(FileMetadata metadata);
+
+        void remove(String filename);
+    }
+
+    private final StorageBackend storage;
+    private final Journal journal;
+    // Changes share it, a checkpoint takes it exclusively to see the index between changes
+    private final ReadWriteLock changeLock = new ReentrantReadWriteLock();
+    // Replaced rather than refilled by load, so it is sized for the entries up front
+    private volatile ConcurrentHashMap<String, FileMetadata> byName = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, FileMetadata> sortedByName = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListSet<FileMetadata> sortedBySize = new ConcurrentSkipListSet<>(
+        Comparator.comparingLong(FileMetadata::getSize).thenComparing(FileMetadata::getFilename));
+    private final ConcurrentSkipListSet<FileMetadata> sortedByUploadTime = new ConcurrentSkipListSet<>(
+        Comparator.comparing(FileMetadata::getUploadTime).thenComparing(FileMetadata::getFilename));
+    private final AtomicLong totalSize = new AtomicLong();
+
+    private volatile WatchService watchService;
+    private volatile WatchStatus watchStatus = new WatchStatus(WatchMode.OFF, null, null, null);
+    private volatile ScheduledExecutorService reconciler;
+    private volatile boolean closed;
+    private long reconcileIntervalSeconds;
+
+    public FileIndex(Path root) {
+        this(new FlatStorageBackend(root));
+    }
+
+    public FileIndex(StorageBackend storage) {
+        this(storage, Journal.NONE);
+    }
+
+    public FileIndex(StorageBackend storage, Journal journal) {
+        this.storage = storage;
+        this.journal = journal;
+    }
+
+    public void put(FileMetadata metadata) {
+        Lock lock = changeLock.readLock();
+        lock.lock();
+        try {
+            byName.compute(metadata.getFilename(), (name, previous) -> {
+                journal.put(metadata);
+                return reindex(previous, metadata);
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(String filename) {
+        Lock lock = changeLock.readLock();
+        lock.lock();
+        try {
+            byName.computeIfPresent(filename, (name, previous) -> {
+                journal.remove(name);
+                return reindex(previous, null);
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with entries read back from a journal, without
+     * journaling them again. Each view is filled in its own order, which appends to the sorted
+     * maps instead of inserting at random and saves most of the comparisons.
+     */
+    public void load(Contents contents) {
+        Lock lock = changeLock.writeLock();
+        lock.lock();
+        try {
+            ConcurrentHashMap<String, FileMetadata> loaded = new ConcurrentHashMap<>(contents.byName().size());
+            sortedByName.clear();
+            sortedBySize.clear();
+            sortedByUploadTime.clear();
+            long size = 0;
+            for (FileMetadata metadata : contents.byName()) {
+                loaded.put(metadata.getFilename(), metadata);
+                sortedByName.put(metadata.getFilename(), metadata);
+                size += metadata.getStoredSize();
+            }
+            byName = loaded;
+            totalSize.set(size);
+            sortedBySize.addAll(contents.bySize());
+            sortedByUploadTime.addAll(contents.byUploadTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies a change read back from a journal without journaling it again.
+     *
+     * @param metadata the entry for {@code filename}, or {@code null} if it was removed
+     */
+    void restore(String filename, FileMetadata metadata) {
+        Lock lock = changeLock.readLock();
+        lock.lock();
+        try {
+            byName.compute(filename, (name, previous) -> reindex(previous, metadata));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code action} while no change is in progress and returns the contents as they were at
+     * that moment. A journal uses this to start a new segment that holds exactly the changes made
+     * after the returned contents.
+     */
+    public Contents checkpoint(Runnable action) {
+        Lock lock = changeLock.writeLock();
+        lock.lock();
+        try {
+            action.run();
+            return new Contents(new ArrayList<>(sortedByName.values()), new ArrayList<>(sortedBySize),
+                new ArrayList<>(sortedByUploadTime));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public FileMetadata get(String filename) {
+        return byName.get(filename);
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    /**
+     * @return the sum of the sizes of the indexed files, as stored on disk
+     */
+    public long totalSize() {
+        return totalSize.get();
+    }
+
+    public Page list(String prefix, SortField sort, boolean descending, int offset, int limit) {
+        boolean hasPrefix = prefix != null && !prefix.isEmpty();
+        Collection<FileMetadata> source = switch (sort) {
+            case NAME -> {
+                NavigableMap<String, FileMetadata> view = hasPrefix
+                    ? sortedByName.subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+                    : sortedByName;
+                yield (descending ? view.descendingMap() : view).values();
+            }
+            case SIZE -> descending ? sortedBySize.descendingSet() : sortedBySize;
+            case UPLOAD_TIME -> descending ? sortedByUploadTime.descendingSet() : sortedByUploadTime;
+        };
+        boolean filter = hasPrefix && sort != SortField.NAME;
+
+        List<FileMetadata> items = new ArrayList<>(Math.min(limit, 1024));
+        int total = 0;
+        for (FileMetadata metadata : source) {
+            if (filter && !metadata.getFilename().startsWith(prefix)) {
+                continue;
+            }
+            if (total >= offset && items.size() < limit) {
+                items.add(metadata);
+            }
+            total++;
+            if (!hasPrefix && items.size() == limit) {
+                // Without a filter the total is known, so there is no need to walk the rest
+                return new Page(items, byName.size());
+            }
+        }
+        return new Page(items, total);
+    }
+
+    /**
+     * Returns up to {@code limit} entries in name order that come after {@code filename}, or from
+     * the start if it is {@code null}. Unlike an offset, the position stays put when entries before
+     * it come and go, and the walk to it takes a single lookup.
+     */
+    public List<FileMetadata> listAfter(String filename, int limit) {
+        return listAfter(null, filename, limit);
+    }
+
+    /**
+     * Like {@link #listAfter(String, int)}, only including entries whose name starts with
+     * {@code prefix} unless it is {@code null}.
+     */
+    public List<FileMetadata> listAfter(String prefix, String filename, int limit) {
+        boolean hasPrefix = prefix != null && !prefix.isEmpty();
+        String from = hasPrefix ? prefix : null;
+        boolean inclusive = true;
+        if (filename != null && (from == null || filename.compareTo(from) >= 0)) {
+            from = filename;
+            inclusive = false;
+        }
+        String to = hasPrefix ? prefix + Character.MAX_VALUE : null;
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return List.of();
+        }
+        NavigableMap<String, FileMetadata> view = from == null ? sortedByName : sortedByName.tailMap(from, inclusive);
+        if (to != null) {
+            view = view.headMap(to, false);
+        }
+        List<FileMetadata> items = new ArrayList<>(Math.min(limit, 1024));
+        for (FileMetadata metadata : view.values()) {
+            if (items.size() == limit) {
+                break;
+            }
+            items.add(metadata);
+        }
+        return items;
+    }
+
+    /**
+     * Re-reads the storage directory, adding files that appeared and dropping entries whose file
+     * is gone. Entries that are still present keep the metadata recorded when they were stored.
+     * Stores go on while the directory is listed, so an entry the listing missed is checked on its
+     * own and only dropped if its file is really gone.
+     */
+    public void rebuild() throws IOException {
+        Set<String> seen = new HashSet<>();
+        try (Stream<Path> files = storage.files()) {
+            files.map(file -> file.getFileName().toString())
+                .filter(filename -> !isIgnored(filename))
+                .forEach(filename -> {
+                    seen.add(filename);
+                    refresh(filename);
+                });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        for (String filename : byName.keySet()) {
+            if (!seen.contains(filename)) {
+                refresh(filename);
+            }
+        }
+    }
+
+    public void refresh(String filename) {
+        if (isIgnored(filename)) {
+            return;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(storage.resolve(filename), BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            remove(filename);
+            return;
+        } catch (IOException ex) {
+            log.warn("Could not read attributes of {}", filename, ex);
+            return;
+        }
+        if (!attributes.isRegularFile()) {
+            remove(filename);
+            return;
+        }
+        Lock lock = changeLock.readLock();
+        lock.lock();
+        try {
+            byName.compute(filename, (name, previous) -> {
+                if (previous != null && previous.getStoredSize() == attributes.size()) {
+                    return previous;
+                }
+                FileMetadata next = previous != null ? previous.withStoredSize(attributes.size()) : fromDisk(filename, attributes);
+                journal.put(next);
+                return reindex(previous, next);
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts following out-of-band changes. In the flat layout only the storage directory is
+     * watched; nested layouts would need a watch per shard directory, which runs into the
+     * operating system's limit on watches, so their directory is re-read every
+     * {@code reconcileIntervalSeconds} instead. The index falls back to re-reading as well when
+     * the directory cannot be watched or stops being watched. Either way, entries whose file is
+     * gone, such as files deleted while the service was down, are dropped by a first
+     * {@link #rebuild} in the background rather than holding up startup.
+     */
+    public void startWatching(long reconcileIntervalSeconds) {
+        this.reconcileIntervalSeconds = reconcileIntervalSeconds;
+        if (!storage.isFlat()) {
+            reconcile(null);
+            return;
+        }
+        Thread.ofPlatform().name("file-index-watcher").daemon().start(() -> {
+            try {
+                watchService = storage.getRoot().getFileSystem().newWatchService();
+                if (closed) {
+                    closeWatchService();
+                    return;
+                }
+                storage.getRoot().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                // Files that landed before the directory was registered
+                rebuild();
+            } catch (ClosedWatchServiceException ex) {
+                return;
+            } catch (IOException | RuntimeException ex) {
+                closeWatchService();
+                reconcile("Could not watch the storage directory: " + ex.getMessage());
+                return;
+            }
+            watchStatus = new WatchStatus(WatchMode.EVENTS, null, null, null);
+            watch();
+        });
+    }
+
+    public WatchStatus getWatchStatus() {
+        return watchStatus;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeWatchService();
+        ScheduledExecutorService reconciler = this.reconciler;
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+    }
+
+    private void watch() {
+        Path root = storage.getRoot();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        rebuild();
+                    } else {
+                        refresh(event.context().toString());
+                    }
+                }
+                if (!key.reset()) {
+                    closeWatchService();
+                    reconcile("Storage directory " + root + " is no longer watched");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // Shutting down
+        } catch (IOException | RuntimeException ex) {
+            closeWatchService();
+            reconcile("File index watcher stopped: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Re-reads the storage directory now and then every {@code reconcileIntervalSeconds}, or only
+     * now if that is 0.
+     *
+     * @param problem why events are not used, or {@code null} if the layout does not allow them
+     */
+    private synchronized void reconcile(String problem) {
+        if (closed) {
+            return;
+        }
+        if (problem != null) {
+            log.warn("{}; re-reading it every {} seconds instead", problem, reconcileIntervalSeconds);
+        }
+        watchStatus = new WatchStatus(WatchMode.RECONCILE, null, problem, null);
+        reconciler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("file-index-reconciler").daemon().factory());
+        Runnable pass = () -> {
+            try {
+                rebuild();
+                watchStatus = new WatchStatus(WatchMode.RECONCILE, Instant.now(), problem, null);
+            } catch (IOException | RuntimeException ex) {
+                log.error("Could not re-read the storage directory", ex);
+                watchStatus = new WatchStatus(WatchMode.RECONCILE, watchStatus.lastReconciled(), problem, ex.toString());
+            }
+        };
+        if (reconcileIntervalSeconds > 0) {
+            reconciler.scheduleWithFixedDelay(pass, 0, reconcileIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            reconciler.execute(pass);
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService watchService = this.watchService;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    private FileMetadata reindex(FileMetadata previous, FileMetadata next) {
+        if (previous != null) {
+            sortedByName.remove(previous.getFilename());
+            sortedBySize.remove(previous);
+            sortedByUploadTime.remove(previous);
+            totalSize.addAndGet(-previous.getStoredSize());
+        }
+        if (next != null) {
+            sortedByName.put(next.getFilename(), next);
+            sortedBySize.add(next);
+            sortedByUploadTime.add(next);
+            totalSize.addAndGet(next.getStoredSize());
+        }
+        return next;
+    }
+
+    private static boolean isIgnored(String filename) {
+        return filename.startsWith(".");
+    }
+
+    static FileMetadata fromDisk(String filename, BasicFileAttributes attributes) {
+        String originalName = filename;
+        Instant uploadTime = attributes.lastModifiedTime().toInstant();
+        Matcher matcher = STORED_NAME.matcher(filename);
+        if (matcher.matches()) {
+            originalName = matcher.group(2);
+            uploadTime = Instant.ofEpochMilli(Long.parseLong(matcher.group(1)));
+        }
+        String mimeType = MediaTypeFactory.getMediaType(originalName).map(MediaType::toString).orElse(null);
+        return new FileMetadata(filename, originalName, attributes.size(), mimeType, uploadTime);
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.github.manimovassagh.uploader.exception.TooManyRequestsException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters for the upload and download paths. Every meter is registered up front and kept in an
+ * array indexed by enum ordinal, so recording is an array read and a lock-free update with no
+ * registry lookup, tag building or allocation per call.
+ */
+@Component
+public class FileMetrics {
+
+    public enum Stage {
+        /** Waiting for upload bytes to arrive from the client. */
+        RECEIVE,
+        /** Count, size, type and content checks. */
+        VALIDATE,
+        /** Writing to the storage directory, including the final link or rename. */
+        WRITE,
+        /** Forcing written data to the device. */
+        FSYNC
+    }
+
+    public enum DownloadSource {
+        DISK, CACHE, SENDFILE
+    }
+
+    private final Timer[] stageTimers;
+    private final Timer[] downloadTimers;
+    private final Counter[] rejections;
+    private final Counter[] shed;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+
+    public FileMetrics(MeterRegistry registry) {
+        Stage[] stages = Stage.values();
+        stageTimers = new Timer[stages.length];
+        for (Stage stage : stages) {
+            stageTimers[stage.ordinal()] = Timer.builder("upload.stage")
+                .description("Time spent in each stage of storing an uploaded file")
+                .tag("stage", tagValue(stage))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry);
+        }
+
+        DownloadSource[] sources = DownloadSource.values();
+        downloadTimers = new Timer[sources.length];
+        for (DownloadSource source : sources) {
+            downloadTimers[source.ordinal()] = Timer.builder("download.duration")
+                .description("Time to write a download response, by where the bytes came from")
+                .tag("source", tagValue(source))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry);
+        }
+
+        UploadRejectedException.Reason[] reasons = UploadRejectedException.Reason.values();
+        rejections = new Counter[reasons.length];
+        for (UploadRejectedException.Reason reason : reasons) {
+            rejections[reason.ordinal()] = Counter.builder("upload.rejections")
+                .description("Uploads rejected, by reason")
+                .tag("reason", tagValue(reason))
+                .register(registry);
+        }
+
+        TooManyRequestsException.Limit[] limits = TooManyRequestsException.Limit.values();
+        shed = new Counter[limits.length];
+        for (TooManyRequestsException.Limit limit : limits) {
+            shed[limit.ordinal()] = Counter.builder("admission.rejections")
+                .description("Uploads and downloads refused with 429, by the limit they hit")
+                .tag("limit", tagValue(limit))
+                .register(registry);
+        }
+
+        bytesIn = Counter.builder("upload.bytes")
+            .description("Bytes of uploaded file content stored")
+            .baseUnit("bytes")
+            .register(registry);
+        bytesOut = Counter.builder("download.bytes")
+            .description("Bytes of file content served")
+            .baseUnit("bytes")
+            .register(registry);
+    }
+
+    public void recordStage(Stage stage, long nanos) {
+        stageTimers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordStored(long bytes) {
+        bytesIn.increment(bytes);
+    }
+
+    public void recordDownload(DownloadSource source, long nanos, long bytes) {
+        downloadTimers[source.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        bytesOut.increment(bytes);
+    }
+
+    public void recordRejection(UploadRejectedException.Reason reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    public void recordShed(TooManyRequestsException.Limit limit) {
+        shed[limit.ordinal()].increment();
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
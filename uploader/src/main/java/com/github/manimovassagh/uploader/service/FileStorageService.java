@@ -1,119 +1,1075 @@
 package com.github.manimovassagh.uploader.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
 import com.github.manimovassagh.uploader.exception.EmptyFileException;
 import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.exception.ReplicaConflictException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.FileDetails;
+import com.github.manimovassagh.uploader.model.FileMetadata;
 import com.github.manimovassagh.uploader.model.FileUploadResponse;
 
+import jakarta.annotation.PreDestroy;
+
 @Service
 public class FileStorageService {
 
+    private static final String MULTIPART_FILES_FIELD = "files";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_NAME_ATTEMPTS = 1000;
+    // Dot-prefixed, so neither the index nor downloads ever see a file that is still being written
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final String METADATA_DIRECTORY = ".meta";
+
     private final Path fileStorageLocation;
+    private final StorageBackend storage;
+    private final ExecutorService writeExecutor;
+    private final Semaphore writePermits;
+    private final FileIndex fileIndex;
+    private final ContentAddressedStore contentStore;
+    private final DownloadCache downloadCache;
+    private final FileMetrics fileMetrics;
+    private final ContentSniffer contentSniffer;
+    private final boolean contentSniffing;
+    private final boolean compression;
+    private final Durability durability;
+    private final MetadataLog metadataLog;
+    private final Set<ContentDigest.Algorithm> digestAlgorithms;
+    // Upload time of the last stored name, so every store gets a timestamp of its own
+    private final AtomicLong lastUploadTime = new AtomicLong();
+    // Upload times are kept to those equal to the slot modulo the number of slots, one per cluster node
+    private volatile int uploadTimeSlot;
+    private volatile int uploadTimeSlots = 1;
 
     @Autowired
-    public FileStorageService(FileUploadConfig fileUploadConfig) {
-        this(Paths.get(fileUploadConfig.getUploadDir()).toAbsolutePath().normalize());
+    public FileStorageService(FileUploadConfig fileUploadConfig, DownloadCache downloadCache, FileMetrics fileMetrics) {
+        this(Paths.get(fileUploadConfig.getUploadDir()).toAbsolutePath().normalize(), fileUploadConfig, downloadCache, fileMetrics);
     }
 
-    // Overloaded constructor for testability
-    public FileStorageService(Path storageDir) {
+    public FileStorageService(Path storageDir, FileUploadConfig fileUploadConfig, DownloadCache downloadCache, FileMetrics fileMetrics) {
         this.fileStorageLocation = storageDir;
+        this.downloadCache = downloadCache;
+        this.fileMetrics = fileMetrics;
+        String[] allowedTypes = fileUploadConfig.getAllowedTypes();
+        this.contentSniffer = new ContentSniffer(List.of(allowedTypes != null
+            ? allowedTypes
+            : FileUploadConfig.DEFAULT_ALLOWED_TYPES.split(",")));
+        this.contentSniffing = fileUploadConfig.isContentSniffing();
+        this.compression = fileUploadConfig.isGzipCompression();
+        this.digestAlgorithms = ContentDigest.algorithms(fileUploadConfig.getDigests());
+        this.storage = fileUploadConfig.isShardedLayout()
+            ? new ShardedStorageBackend(storageDir)
+            : new FlatStorageBackend(storageDir);
         try {
-            Files.createDirectories(this.fileStorageLocation);
+            storage.open();
+            removeTempFiles();
         } catch (IOException ex) {
             throw new RuntimeException("Could not create the directory where the uploaded files will be stored.", ex);
         }
+        this.durability = new Durability(Durability.Mode.fromConfig(fileUploadConfig.getStorageDurability()), fileMetrics);
+
+        if (fileUploadConfig.isParallelWrites()) {
+            int writeConcurrency = Math.max(1, fileUploadConfig.getWriteConcurrency());
+            this.writeExecutor = fileUploadConfig.isVirtualThreads()
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("file-write-", 0).factory())
+                : Executors.newFixedThreadPool(writeConcurrency, Thread.ofPlatform().name("file-write-", 0).daemon().factory());
+            this.writePermits = new Semaphore(writeConcurrency);
+        } else {
+            this.writeExecutor = null;
+            this.writePermits = null;
+        }
+
+        try {
+            this.contentStore = fileUploadConfig.isContentAddressed() ? new ContentAddressedStore(this.fileStorageLocation) : null;
+            if (contentStore != null) {
+                contentStore.collectOrphans();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not initialise the content-addressed store.", ex);
+        }
+
+        try {
+            this.metadataLog = fileUploadConfig.isIndexLog()
+                ? new MetadataLog(fileStorageLocation.resolve(METADATA_DIRECTORY))
+                : null;
+            this.fileIndex = new FileIndex(storage, metadataLog != null ? metadataLog : FileIndex.Journal.NONE);
+            if (metadataLog == null || !metadataLog.load(fileIndex)) {
+                fileIndex.rebuild();
+                if (metadataLog != null) {
+                    metadataLog.compact();
+                }
+            }
+            if (fileUploadConfig.isIndexWatchEnabled()) {
+                fileIndex.startWatching(fileUploadConfig.getIndexReconcileIntervalSeconds());
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not index the upload directory.", ex);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+        }
+        durability.close();
+        try {
+            fileIndex.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+        if (metadataLog != null) {
+            try {
+                metadataLog.close();
+            } catch (IOException ignored) {
+                // The segments written since the last snapshot are replayed instead
+            }
+        }
     }
 
     public FileUploadResponse storeFiles(MultipartFile[] files) {
-        List<FileUploadResponse.FileInfo> uploadedFiles = new ArrayList<>();
+        return storeFiles(files, new String[files.length]);
+    }
 
-        for (MultipartFile file : files) {
-            String originalFilename = file.getOriginalFilename();
+    /**
+     * Stores the files of one request.
+     *
+     * @param expectedDigests the {@code Repr-Digest} sent with each file, or {@code null} for one
+     * that came without; a file that does not match it is rejected before it is stored
+     */
+    public FileUploadResponse storeFiles(MultipartFile[] files, String[] expectedDigests) {
+        List<Map<ContentDigest.Algorithm, byte[]>> expected = new ArrayList<>(files.length);
+        for (String header : expectedDigests) {
+            expected.add(ContentDigest.parse(header));
+        }
+        String[] originalFilenames = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            String originalFilename = files[i].getOriginalFilename();
             if (originalFilename == null) {
                 throw new EmptyFileException("File name cannot be null");
             }
             originalFilename = StringUtils.cleanPath(originalFilename);
-            String filename = System.currentTimeMillis() + "-" + originalFilename;
+            if (files[i].isEmpty()) {
+                throw new EmptyFileException("Failed to store empty file " + originalFilename);
+            }
+            originalFilenames[i] = originalFilename;
+        }
 
-            try {
-                if (file.isEmpty()) {
-                    throw new EmptyFileException("Failed to store empty file " + originalFilename);
+        List<FileUploadResponse.FileInfo> uploadedFiles = writeExecutor != null && files.length > 1
+            ? storeInParallel(files, originalFilenames, expected)
+            : storeSequentially(files, originalFilenames, expected);
+
+        return new FileUploadResponse("Files uploaded successfully", uploadedFiles);
+    }
+
+    private List<FileUploadResponse.FileInfo> storeSequentially(MultipartFile[] files, String[] originalFilenames,
+                                                                List<Map<ContentDigest.Algorithm, byte[]>> expectedDigests) {
+        List<FileUploadResponse.FileInfo> uploadedFiles = new ArrayList<>(files.length);
+        try {
+            for (int i = 0; i < files.length; i++) {
+                uploadedFiles.add(storeMultipartFile(files[i], originalFilenames[i], expectedDigests.get(i)));
+            }
+        } catch (RuntimeException ex) {
+            deleteStoredFiles(uploadedFiles);
+            throw ex;
+        }
+        return uploadedFiles;
+    }
+
+    /**
+     * Writes the files of one request concurrently, on virtual threads when they are enabled. The
+     * shared semaphore bounds how many writes run at once across all requests, the returned list
+     * keeps the request order, and a failure of any file removes the ones that were written.
+     */
+    private List<FileUploadResponse.FileInfo> storeInParallel(MultipartFile[] files, String[] originalFilenames,
+                                                              List<Map<ContentDigest.Algorithm, byte[]>> expectedDigests) {
+        List<Future<FileUploadResponse.FileInfo>> futures = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            MultipartFile file = files[i];
+            String originalFilename = originalFilenames[i];
+            Map<ContentDigest.Algorithm, byte[]> expected = expectedDigests.get(i);
+            futures.add(writeExecutor.submit(() -> {
+                writePermits.acquire();
+                try {
+                    return storeMultipartFile(file, originalFilename, expected);
+                } finally {
+                    writePermits.release();
                 }
+            }));
+        }
 
-                if (originalFilename.contains("..")) {
-                    throw new RuntimeException("Cannot store file with relative path outside current directory " + originalFilename);
+        List<FileUploadResponse.FileInfo> uploadedFiles = new ArrayList<>(files.length);
+        RuntimeException failure = null;
+        for (Future<FileUploadResponse.FileInfo> future : futures) {
+            try {
+                uploadedFiles.add(future.get());
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException runtimeException
+                        ? runtimeException
+                        : new RuntimeException("Could not store files", ex.getCause());
                 }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new RuntimeException("Interrupted while storing files", ex);
+                }
+            }
+        }
 
-                Path targetLocation = this.fileStorageLocation.resolve(filename);
-                Files.copy(file.getInputStream(), targetLocation);
+        if (failure != null) {
+            deleteStoredFiles(uploadedFiles);
+            throw failure;
+        }
+        return uploadedFiles;
+    }
 
-                uploadedFiles.add(new FileUploadResponse.FileInfo(
-                    filename,
-                    originalFilename,
-                    file.getSize(),
-                    file.getContentType()
-                ));
-            } catch (IOException ex) {
-                throw new RuntimeException("Could not store file " + originalFilename, ex);
+    private FileUploadResponse.FileInfo storeMultipartFile(MultipartFile file, String originalFilename,
+                                                           Map<ContentDigest.Algorithm, byte[]> expectedDigest) {
+        try {
+            return writeFile(originalFilename, file.getContentType(), file.getInputStream(), Long.MAX_VALUE, expectedDigest);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not store file " + originalFilename, ex);
+        }
+    }
+
+    /**
+     * Stores the file parts of a raw {@code multipart/form-data} body as they are read, without
+     * the servlet container buffering them first. Limits are enforced while the bytes arrive and
+     * files already written by this request are removed if any part is rejected. A part may carry a
+     * {@code Repr-Digest} header for its content to be checked against.
+     */
+    public FileUploadResponse storeMultipartStream(InputStream body, String boundary, int maxFiles, long maxFileSize) {
+        MultipartStreamParser parser = new MultipartStreamParser(body, boundary);
+        List<FileUploadResponse.FileInfo> uploadedFiles = new ArrayList<>();
+
+        try {
+            MultipartStreamParser.Part part;
+            while ((part = parser.nextPart()) != null) {
+                if (!MULTIPART_FILES_FIELD.equals(part.getName()) || part.getFilename() == null) {
+                    continue;
+                }
+                if (uploadedFiles.size() >= maxFiles) {
+                    throw new UploadRejectedException(UploadRejectedException.Reason.TOO_MANY_FILES, "Too many files. Maximum is " + maxFiles + " files.");
+                }
+                long validateStart = System.nanoTime();
+                boolean validType = isValidFileType(part.getContentType());
+                fileMetrics.recordStage(FileMetrics.Stage.VALIDATE, System.nanoTime() - validateStart);
+                if (!validType) {
+                    throw new UploadRejectedException(UploadRejectedException.Reason.INVALID_TYPE, "Invalid file type. Only images, PDFs, and documents are allowed.");
+                }
+                Map<ContentDigest.Algorithm, byte[]> expectedDigest = ContentDigest.parse(part.getHeaders().getFirst(ContentDigest.REPR_DIGEST));
+                String originalFilename = StringUtils.cleanPath(part.getFilename());
+                uploadedFiles.add(writeFile(originalFilename, part.getContentType(), part.getInputStream(), maxFileSize, expectedDigest));
             }
+        } catch (IOException ex) {
+            deleteStoredFiles(uploadedFiles);
+            throw new RuntimeException("Could not read multipart upload", ex);
+        } catch (RuntimeException ex) {
+            deleteStoredFiles(uploadedFiles);
+            throw ex;
         }
 
+        if (uploadedFiles.isEmpty()) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.EMPTY, "No files uploaded");
+        }
         return new FileUploadResponse("Files uploaded successfully", uploadedFiles);
     }
 
-    public List<String> listFiles() {
+    private FileUploadResponse.FileInfo writeFile(String originalFilename, String contentType, InputStream in, long maxSize,
+                                                  Map<ContentDigest.Algorithm, byte[]> expectedDigest) throws IOException {
+        if (originalFilename.contains("..")) {
+            throw new RuntimeException("Cannot store file with relative path outside current directory " + originalFilename);
+        }
+        long headReceiveNanos = 0;
+        if (contentSniffing) {
+            // Buffer the head so a spoofed type is rejected before anything reaches the disk
+            byte[] head;
+            try {
+                long receiveStart = System.nanoTime();
+                head = in.readNBytes(ContentSniffer.SNIFF_LENGTH);
+                long validateStart = System.nanoTime();
+                headReceiveNanos = validateStart - receiveStart;
+                if (head.length > 0) {
+                    contentType = contentSniffer.verify(originalFilename, contentType, head, head.length);
+                }
+                fileMetrics.recordStage(FileMetrics.Stage.VALIDATE, System.nanoTime() - validateStart);
+            } catch (IOException | RuntimeException ex) {
+                in.close();
+                throw ex;
+            }
+            in = new SequenceInputStream(new ByteArrayInputStream(head), in);
+        }
+        return contentStore != null
+            ? writeContentAddressed(originalFilename, contentType, in, maxSize, headReceiveNanos, expectedDigest)
+            : writePlain(originalFilename, contentType, in, maxSize, headReceiveNanos, expectedDigest);
+    }
+
+    private FileUploadResponse.FileInfo writePlain(String originalFilename, String contentType, InputStream in, long maxSize,
+                                                   long receiveNanos, Map<ContentDigest.Algorithm, byte[]> expectedDigest) throws IOException {
+        long uploadTime = nextUploadTime();
+        Path tempFile = newTempFile(storage.prepare(storedName(uploadTime, originalFilename)).getParent());
+        boolean compress = shouldCompress(contentType);
+        OutputStream out;
         try {
-            return Files.list(fileStorageLocation)
-                .map(Path::getFileName)
-                .map(Path::toString)
-                .collect(Collectors.toList());
+            out = Files.newOutputStream(tempFile, StandardOpenOption.WRITE);
+            if (compress) {
+                out = ContentCompression.encode(out);
+            }
         } catch (IOException ex) {
-            throw new RuntimeException("Could not list files", ex);
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+
+        // Digested on the way through, so neither the checks below nor downloads read the file again
+        ContentDigest.Sink sink = digestSink(out, expectedDigest);
+        long size = copy(in, sink, maxSize, tempFile, receiveNanos);
+        ContentDigest digest = sink.digest();
+        StoredName name;
+        long storedSize;
+        try {
+            if (size == 0) {
+                throw new EmptyFileException("Failed to store empty file " + originalFilename);
+            }
+            digest.verify(expectedDigest);
+            storedSize = compress ? Files.size(tempFile) : size;
+            durability.syncFile(tempFile);
+            name = publish(tempFile, uploadTime, originalFilename);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
         }
+        return indexStored(name, originalFilename, size, storedSize, compress, contentType, digest);
+    }
+
+    private ContentDigest.Sink digestSink(OutputStream out, Map<ContentDigest.Algorithm, byte[]> expectedDigest) {
+        return new ContentDigest.Sink(out, digestAlgorithms.contains(ContentDigest.Algorithm.CRC32C)
+            || expectedDigest.containsKey(ContentDigest.Algorithm.CRC32C));
+    }
+
+    private boolean shouldCompress(String contentType) {
+        return compression && ContentCompression.isCompressible(contentType);
     }
 
-    public Resource loadFileAsResource(String filename) {
+    /**
+     * Returns the current time, or one past the last upload time handed out if that is not
+     * earlier, so stored names of this process never collide however many uploads arrive within
+     * one millisecond. In a cluster the time is moved up to the next one in this node's slot, so
+     * no two nodes give the same name to different uploads.
+     */
+    private long nextUploadTime() {
+        long now = System.currentTimeMillis();
+        int slot = uploadTimeSlot;
+        int slots = uploadTimeSlots;
+        return lastUploadTime.accumulateAndGet(now, (last, current) -> {
+            long next = Math.max(last + 1, current);
+            return next + Math.floorMod(slot - next, slots);
+        });
+    }
+
+    /**
+     * Keeps the upload times, and so the stored names, this node hands out to those equal to
+     * {@code slot} modulo {@code slots}. Each node of a cluster is given a slot of its own.
+     */
+    public void setUploadTimeSlot(int slot, int slots) {
+        if (slots < 1 || slot < 0 || slot >= slots) {
+            throw new IllegalArgumentException("Upload time slot " + slot + " is not one of " + slots);
+        }
+        uploadTimeSlots = slots;
+        uploadTimeSlot = slot;
+    }
+
+    private static Path newTempFile(Path directory) throws IOException {
+        return Files.createTempFile(directory, TEMP_PREFIX, "");
+    }
+
+    /**
+     * Renames a fully written file to its stored name and syncs the directory as the durability
+     * mode asks. A rename within one filesystem is atomic, so the stored name shows either
+     * nothing or the complete file. The move refuses to replace an existing file, such as one
+     * left by a previous run with the clock set back, and the next upload time is tried instead.
+     */
+    private StoredName publish(Path file, long uploadTime, String originalFilename) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Path target = storage.prepare(storedName(uploadTime, originalFilename));
+            try {
+                Files.move(file, target);
+            } catch (FileAlreadyExistsException ex) {
+                if (attempt == MAX_NAME_ATTEMPTS) {
+                    throw ex;
+                }
+                uploadTime = nextUploadTime();
+                continue;
+            }
+            durability.syncShared(target.getParent());
+            return new StoredName(target, uploadTime);
+        }
+    }
+
+    /**
+     * Removes temp files of writes that were cut off by a crash. They live next to the stored
+     * files, in the top level or a shard directory; internal dot-directories clean up after
+     * themselves.
+     */
+    private void removeTempFiles() throws IOException {
+        Path root = storage.getRoot();
+        Files.walkFileTree(root, Set.of(), 3, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(root) || !dir.getFileName().toString().startsWith(".")
+                    ? FileVisitResult.CONTINUE
+                    : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && file.getFileName().toString().startsWith(TEMP_PREFIX)) {
+                    Files.deleteIfExists(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Adds a stored file to the index with its length as uploaded, its length on disk and whether
+     * it is stored compressed, so neither downloads nor listings have to look at the file for them.
+     */
+    private FileUploadResponse.FileInfo indexStored(StoredName name, String originalFilename, long size, long storedSize,
+                                                    boolean encoded, String contentType, ContentDigest digest) throws IOException {
+        String filename = name.path().getFileName().toString();
+        fileIndex.put(new FileMetadata(filename, originalFilename, size, contentType, Instant.ofEpochMilli(name.uploadTime()),
+            digest.getSha256(), digest.getCrc32c(), storedSize, ContentCompression.encodingOf(encoded)));
+        if (metadataLog != null) {
+            durability.syncShared(metadataLog.currentSegment());
+        }
+        fileMetrics.recordStored(size);
+        return new FileUploadResponse.FileInfo(filename, originalFilename, size, contentType, digest.toMap(digestAlgorithms));
+    }
+
+    /**
+     * Streams the upload into a temp file while hashing it, then hands it to the content store,
+     * which keeps it as a new blob or drops it in favour of the existing one. The visible file is
+     * a hard link to the blob.
+     */
+    private FileUploadResponse.FileInfo writeContentAddressed(String originalFilename, String contentType, InputStream in, long maxSize,
+                                                              long receiveNanos, Map<ContentDigest.Algorithm, byte[]> expectedDigest)
+            throws IOException {
+        Path tempFile = contentStore.newTempFile();
+        boolean compress = shouldCompress(contentType);
+        long size;
+        ContentDigest digest;
         try {
-            Path filePath = this.fileStorageLocation.resolve(filename).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
-            
-            if (resource.exists()) {
-                return resource;
+            OutputStream out = Files.newOutputStream(tempFile);
+            if (compress) {
+                out = ContentCompression.encode(out);
+            }
+            // The digest covers the uploaded bytes, so identical uploads share a blob whether or not they were compressed
+            ContentDigest.Sink sink = digestSink(out, expectedDigest);
+            size = copy(in, sink, maxSize, tempFile, receiveNanos);
+            if (size == 0) {
+                throw new EmptyFileException("Failed to store empty file " + originalFilename);
+            }
+            digest = sink.digest();
+            digest.verify(expectedDigest);
+            durability.syncFile(tempFile);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+
+        return linkContentAddressed(tempFile, digest, originalFilename, contentType, size, Files.size(tempFile), compress);
+    }
+
+    /**
+     * Commits a fully written and synced file to the content store under a fresh stored name. The
+     * file is consumed: it becomes the blob or is deleted in favour of the existing one.
+     */
+    private FileUploadResponse.FileInfo linkContentAddressed(Path file, ContentDigest digest, String originalFilename, String contentType,
+                                                             long size, long storedSize, boolean encoded) throws IOException {
+        String checksum = digest.getSha256();
+        for (int attempt = 1; ; attempt++) {
+            long uploadTime = nextUploadTime();
+            Path target = storage.prepare(storedName(uploadTime, originalFilename));
+            boolean deduplicated;
+            try {
+                deduplicated = contentStore.commit(file, checksum, encoded, target);
+            } catch (FileAlreadyExistsException ex) {
+                if (attempt < MAX_NAME_ATTEMPTS) {
+                    continue;
+                }
+                Files.deleteIfExists(file);
+                contentStore.release(checksum, encoded);
+                throw ex;
+            }
+            if (!deduplicated) {
+                durability.syncShared(contentStore.blobPath(checksum, encoded).getParent());
+            }
+            durability.syncShared(target.getParent());
+            return indexStored(new StoredName(target, uploadTime), originalFilename, size, storedSize, encoded, contentType, digest);
+        }
+    }
+
+    /**
+     * Places a file that was assembled elsewhere, such as a committed chunked upload, in the
+     * storage directory with the same naming, layout, type checks and index entry as
+     * {@link #storeFiles}. The source is moved rather than copied, so it has to be on the same
+     * filesystem as the storage directory; it is left in place if the file is rejected.
+     */
+    public FileUploadResponse.FileInfo storeAssembled(Path source, String originalFilename, String contentType) throws IOException {
+        return storeAssembled(source, originalFilename, contentType, null, null);
+    }
+
+    /**
+     * Like {@link #storeAssembled(Path, String, String)}, rejecting the file if it does not match
+     * {@code expectedDigest}, a {@code Repr-Digest} value, unless that is {@code null}.
+     *
+     * @param digest the digests of the source with CRC32C, if they were computed while it was
+     * written, or {@code null} to read the source for them
+     */
+    public FileUploadResponse.FileInfo storeAssembled(Path source, String originalFilename, String contentType, ContentDigest digest,
+                                                      String expectedDigest) throws IOException {
+        Map<ContentDigest.Algorithm, byte[]> expected = ContentDigest.parse(expectedDigest);
+        originalFilename = StringUtils.cleanPath(originalFilename);
+        if (originalFilename.contains("..")) {
+            throw new RuntimeException("Cannot store file with relative path outside current directory " + originalFilename);
+        }
+        long size = Files.size(source);
+        if (size == 0) {
+            throw new EmptyFileException("Failed to store empty file " + originalFilename);
+        }
+        if (contentSniffing) {
+            byte[] head;
+            try (InputStream in = Files.newInputStream(source)) {
+                head = in.readNBytes(ContentSniffer.SNIFF_LENGTH);
+            }
+            long validateStart = System.nanoTime();
+            contentType = contentSniffer.verify(originalFilename, contentType, head, head.length);
+            fileMetrics.recordStage(FileMetrics.Stage.VALIDATE, System.nanoTime() - validateStart);
+        }
+
+        long writeStart = System.nanoTime();
+        Path stored = source;
+        if (shouldCompress(contentType)) {
+            // Compressing needs a second file; the source stays in place until it is stored
+            stored = source.resolveSibling(source.getFileName() + ".gz");
+            try (InputStream in = Files.newInputStream(source);
+                 ContentDigest.Sink out = digestSink(ContentCompression.encode(Files.newOutputStream(stored)), expected)) {
+                in.transferTo(out);
+                digest = out.digest();
+            } catch (IOException ex) {
+                Files.deleteIfExists(stored);
+                throw ex;
+            }
+        } else if (digest == null) {
+            // Chunks may have arrived in any order, so the assembled file is digested in one read
+            try (InputStream in = Files.newInputStream(source);
+                 ContentDigest.Sink out = digestSink(OutputStream.nullOutputStream(), expected)) {
+                in.transferTo(out);
+                digest = out.digest();
+            }
+        }
+
+        FileUploadResponse.FileInfo info;
+        try {
+            long storedSize = Files.size(stored);
+            digest.verify(expected);
+            durability.syncFile(stored);
+            if (contentStore != null) {
+                info = linkContentAddressed(stored, digest, originalFilename, contentType, size, storedSize, stored != source);
             } else {
-                throw new FileNotFoundException("File not found " + filename);
+                info = indexStored(publish(stored, nextUploadTime(), originalFilename), originalFilename, size, storedSize,
+                    stored != source, contentType, digest);
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (stored != source) {
+                Files.deleteIfExists(stored);
+            }
+            throw ex;
+        }
+        if (stored != source) {
+            Files.deleteIfExists(source);
+        }
+        fileMetrics.recordStage(FileMetrics.Stage.WRITE, System.nanoTime() - writeStart);
+        return info;
+    }
+
+    /**
+     * Stores a copy of a file that was uploaded to another node, under the name it was given
+     * there, with the compression and layout of this node. A file already stored under that name
+     * with the same sha-256 is kept and the copy dropped, so the same replica can safely be sent
+     * more than once. The type and size are checked as for any other upload.
+     *
+     * @param expectedDigest a {@code Repr-Digest} value the content has to match, or {@code null}
+     * @return the stored file, or {@code null} if it was already stored
+     * @throws ReplicaConflictException if different content is stored under that name
+     */
+    public FileUploadResponse.FileInfo storeReplica(String filename, String contentType, InputStream in, long maxSize,
+                                                    String expectedDigest) throws IOException {
+        Matcher matcher = FileIndex.STORED_NAME.matcher(filename);
+        if (!isStoredName(filename) || !matcher.matches() || matcher.group(2).contains("..")) {
+            throw new BadRequestException("Invalid stored file name " + filename);
+        }
+        Map<ContentDigest.Algorithm, byte[]> expected = ContentDigest.parse(expectedDigest);
+        if (fileIndex.get(filename) != null) {
+            in.close();
+            checkSameReplica(filename, expected.get(ContentDigest.Algorithm.SHA_256));
+            return null;
+        }
+        CheckedContent content;
+        try {
+            content = checkContent(filename, contentType, in);
+        } catch (IOException | RuntimeException ex) {
+            in.close();
+            throw ex;
+        }
+        FileUploadResponse.FileInfo stored = storeNamed(filename, matcher.group(2), Long.parseLong(matcher.group(1)),
+            content.contentType(), content.in(), maxSize, expected, false);
+        if (stored == null) {
+            // Another copy got there first while this one was written, which has been digested by now
+            checkSameReplica(filename, expected.get(ContentDigest.Algorithm.SHA_256));
+        }
+        return stored;
+    }
+
+    /**
+     * @param sha256 the sha-256 of the copy that was sent, or {@code null} if it did not come
+     * with one, in which case the copy is taken to be the one stored
+     */
+    private void checkSameReplica(String filename, byte[] sha256) throws IOException {
+        if (sha256 == null) {
+            return;
+        }
+        String stored;
+        try {
+            stored = getDigest(filename).getSha256();
+        } catch (FileNotFoundException ex) {
+            // Deleted since; the sender tries again on its next rebalance
+            throw new ReplicaConflictException(filename + " was deleted while a copy of it was stored");
+        }
+        if (!stored.equals(HexFormat.of().formatHex(sha256))) {
+            throw new ReplicaConflictException(filename + " is already stored with other content");
+        }
+    }
+
+    /**
+     * Stores an object under a name picked by the client, such as the key of an S3
+     * {@code PutObject}, replacing whatever was stored under that name. The type is checked as for
+     * any other upload. Names of files uploaded through {@code /api} cannot be picked, so those are
+     * never replaced.
+     *
+     * @param expectedDigest a {@code Repr-Digest} value the content has to match, or {@code null}
+     */
+    public FileUploadResponse.FileInfo storeObject(String key, String contentType, InputStream in, long maxSize,
+                                                   String expectedDigest) throws IOException {
+        try {
+            checkWritableKey(key);
+            Map<ContentDigest.Algorithm, byte[]> expected = ContentDigest.parse(expectedDigest);
+            CheckedContent content = checkContent(key, contentType, in);
+            return storeNamed(key, key, nextUploadTime(), content.contentType(), content.in(), maxSize, expected, true);
+        } catch (IOException | RuntimeException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks the declared type of content stored under a given name and, with content sniffing
+     * on, its leading bytes, which are put back in front of the stream that is returned.
+     */
+    private CheckedContent checkContent(String filename, String contentType, InputStream in) throws IOException {
+        if (!isValidFileType(contentType)) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.INVALID_TYPE,
+                "Invalid file type. Only images, PDFs, and documents are allowed.");
+        }
+        if (!contentSniffing) {
+            return new CheckedContent(contentType, in);
+        }
+        byte[] head = in.readNBytes(ContentSniffer.SNIFF_LENGTH);
+        if (head.length > 0) {
+            contentType = contentSniffer.verify(filename, contentType, head, head.length);
+        }
+        return new CheckedContent(contentType, new SequenceInputStream(new ByteArrayInputStream(head), in));
+    }
+
+    private record CheckedContent(String contentType, InputStream in) {
+    }
+
+    /**
+     * Checks that a client-picked name can be stored as it is: a single path segment that is not
+     * hidden and does not reach outside the storage directory.
+     *
+     * @throws BadRequestException if it cannot
+     */
+    public static void checkObjectKey(String key) {
+        if (key == null || key.isEmpty() || key.length() > 255 || !isStoredName(key) || key.contains("..")
+            || key.chars().anyMatch(Character::isISOControl)) {
+            throw new BadRequestException("Invalid object key " + key + "; keys are single names without '/' or a leading '.'");
+        }
+    }
+
+    /**
+     * Checks that a client-picked name can be written or deleted: a valid object key that is not
+     * the name of a file uploaded through {@code /api}, which S3 clients may read but not change.
+     *
+     * @throws BadRequestException if it cannot
+     */
+    public static void checkWritableKey(String key) {
+        checkObjectKey(key);
+        if (isUploadName(key)) {
+            throw new BadRequestException("Object key " + key + " names an uploaded file, which is read-only over S3");
+        }
+    }
+
+    /**
+     * Whether a name has the {@code <millis>-<original name>} form files uploaded through
+     * {@code /api} are stored under. Such a name is never given to other content; any other name
+     * is an S3 key, which can be replaced.
+     */
+    public static boolean isUploadName(String filename) {
+        return FileIndex.STORED_NAME.matcher(filename).matches();
+    }
+
+    /**
+     * Writes content to a temp file and moves it to {@code filename}, or with {@code replace} over
+     * the file already there.
+     *
+     * @return the stored file, or {@code null} if {@code filename} exists and is not to be replaced
+     */
+    private FileUploadResponse.FileInfo storeNamed(String filename, String originalFilename, long uploadTime, String contentType,
+                                                   InputStream in, long maxSize, Map<ContentDigest.Algorithm, byte[]> expected,
+                                                   boolean replace) throws IOException {
+        Path target = storage.prepare(filename);
+        Path tempFile = contentStore != null ? contentStore.newTempFile() : newTempFile(target.getParent());
+        boolean compress = shouldCompress(contentType);
+        long size;
+        ContentDigest digest;
+        try {
+            OutputStream out = Files.newOutputStream(tempFile);
+            if (compress) {
+                out = ContentCompression.encode(out);
+            }
+            ContentDigest.Sink sink = digestSink(out, expected);
+            size = copy(in, sink, maxSize, tempFile, 0);
+            if (size == 0) {
+                throw new EmptyFileException("Failed to store empty file " + filename);
+            }
+            digest = sink.digest();
+            digest.verify(expected);
+            durability.syncFile(tempFile);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+
+        long storedSize = Files.size(tempFile);
+        FileMetadata previous = fileIndex.get(filename);
+        try {
+            if (contentStore != null) {
+                // Linked under a temp name first, so a replaced file is swapped by a rename
+                Path link = replace ? target.resolveSibling(TEMP_PREFIX + UUID.randomUUID()) : target;
+                if (!contentStore.commit(tempFile, digest.getSha256(), compress, link)) {
+                    durability.syncShared(contentStore.blobPath(digest.getSha256(), compress).getParent());
+                }
+                if (replace) {
+                    Files.move(link, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } else if (replace) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.move(tempFile, target);
+            }
+        } catch (FileAlreadyExistsException ex) {
+            // Another copy of the same replica got there first
+            Files.deleteIfExists(tempFile);
+            if (contentStore != null) {
+                contentStore.release(digest.getSha256(), compress);
+            }
+            return null;
+        }
+        durability.syncShared(target.getParent());
+        downloadCache.invalidate(target);
+        FileUploadResponse.FileInfo info = indexStored(new StoredName(target, uploadTime), originalFilename, size, storedSize, compress,
+            contentType, digest);
+        if (contentStore != null && previous != null && previous.getChecksum() != null) {
+            contentStore.release(previous.getChecksum(), ContentCompression.isEncoded(previous));
+        }
+        return info;
+    }
+
+    public Path getStorageLocation() {
+        return fileStorageLocation;
+    }
+
+    Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Copies {@code in} to {@code out}, closing both, and deletes {@code target} if the copy fails
+     * or exceeds {@code maxSize}. Time blocked on reads, on top of {@code receiveNanos} already
+     * spent reading the head, and time spent on writes are recorded as the receive and write stages.
+     */
+    private long copy(InputStream in, OutputStream out, long maxSize, Path target, long receiveNanos) throws IOException {
+        long size = 0;
+        long writeNanos = 0;
+        try (InputStream input = in; OutputStream output = out) {
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            long mark = System.nanoTime();
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                long readDone = System.nanoTime();
+                receiveNanos += readDone - mark;
+                size += read;
+                if (size > maxSize) {
+                    throw new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                        "File too large. Maximum size is " + (maxSize / (1024 * 1024)) + "MB.");
+                }
+                output.write(buffer, 0, read);
+                mark = System.nanoTime();
+                writeNanos += mark - readDone;
+            }
+            receiveNanos += System.nanoTime() - mark;
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(target);
+            throw ex;
+        }
+        fileMetrics.recordStage(FileMetrics.Stage.RECEIVE, receiveNanos);
+        fileMetrics.recordStage(FileMetrics.Stage.WRITE, writeNanos);
+        return size;
+    }
+
+    private record StoredName(Path path, long uploadTime) {
+    }
+
+    private static String storedName(long uploadTime, String originalFilename) {
+        return uploadTime + "-" + originalFilename;
+    }
+
+    void deleteStoredFiles(List<FileUploadResponse.FileInfo> storedFiles) {
+        for (FileUploadResponse.FileInfo info : storedFiles) {
+            try {
+                deleteFile(info.getFilename());
+            } catch (IOException ignored) {
+                // Best effort, the original failure is what gets reported
             }
-        } catch (MalformedURLException ex) {
+        }
+    }
+
+    /**
+     * Deletes a stored file and its index entry, releasing its blob if it was the last name for
+     * it in the content-addressed store.
+     *
+     * @return {@code false} if there was no such file
+     */
+    public boolean deleteFile(String filename) throws IOException {
+        if (!isStoredName(filename)) {
+            return false;
+        }
+        FileMetadata metadata = fileIndex.get(filename);
+        Path file = storage.resolve(filename);
+        boolean deleted = Files.deleteIfExists(file);
+        downloadCache.invalidate(file);
+        fileIndex.remove(filename);
+        if (contentStore != null && metadata != null && metadata.getChecksum() != null) {
+            contentStore.release(metadata.getChecksum(), ContentCompression.isEncoded(metadata));
+        }
+        if (metadataLog != null && metadata != null) {
+            durability.syncShared(metadataLog.currentSegment());
+        }
+        return deleted || metadata != null;
+    }
+
+    public List<String> listFiles() {
+        return listFiles(null, FileIndex.SortField.NAME, false, 0, Integer.MAX_VALUE).items().stream()
+            .map(FileMetadata::getFilename)
+            .collect(Collectors.toList());
+    }
+
+    public FileIndex.Page listFiles(String prefix, FileIndex.SortField sort, boolean descending, int offset, int limit) {
+        return fileIndex.list(prefix, sort, descending, offset, limit);
+    }
+
+    public List<FileMetadata> listFilesAfter(String filename, int limit) {
+        return fileIndex.listAfter(filename, limit);
+    }
+
+    public List<FileMetadata> listFilesAfter(String prefix, String filename, int limit) {
+        return fileIndex.listAfter(prefix, filename, limit);
+    }
+
+    public FileMetadata getMetadata(String filename) {
+        return fileIndex.get(filename);
+    }
+
+    /**
+     * Returns what the index records about a stored file, without touching the file itself.
+     * Digests that were not recorded when the file was stored are left out rather than computed.
+     *
+     * @throws FileNotFoundException if no such file is indexed
+     */
+    public FileDetails getDetails(String filename) {
+        FileMetadata metadata = isStoredName(filename) ? fileIndex.get(filename) : null;
+        if (metadata == null) {
             throw new FileNotFoundException("File not found " + filename);
         }
+        Map<String, String> digests = metadata.getChecksum() == null
+            ? Map.of()
+            : new ContentDigest(metadata.getChecksum(), metadata.getCrc32c()).toMap(digestAlgorithms);
+        return new FileDetails(metadata.getFilename(), metadata.getOriginalName(), metadata.getSize(), metadata.getMimeType(),
+            digests, metadata.getUploadTime());
+    }
+
+    /**
+     * @return the bytes taken by the stored files, counting a deduplicated blob once per name
+     */
+    public long getStoredBytes() {
+        return fileIndex.totalSize();
+    }
+
+    public FileIndex.WatchStatus getIndexWatchStatus() {
+        return fileIndex.getWatchStatus();
+    }
+
+    /**
+     * Returns the digests of a stored file's content as it was uploaded. Uploads are digested as
+     * they are written; a file indexed without them, such as one copied into the directory by
+     * hand, is read once on first use and the result kept in the index.
+     */
+    public ContentDigest getDigest(String filename) throws IOException {
+        Path file = resolveStoredFile(filename);
+        FileMetadata metadata = resolveMetadata(filename);
+        boolean crc32c = digestAlgorithms.contains(ContentDigest.Algorithm.CRC32C);
+        if (metadata.getChecksum() != null && (!crc32c || metadata.getCrc32c() != null)) {
+            return new ContentDigest(metadata.getChecksum(), metadata.getCrc32c());
+        }
+        ContentDigest digest;
+        try (InputStream in = openContent(file, metadata);
+             ContentDigest.Sink sink = new ContentDigest.Sink(OutputStream.nullOutputStream(), crc32c)) {
+            in.transferTo(sink);
+            digest = sink.digest();
+        }
+        if (fileIndex.get(filename) != null) {
+            fileIndex.put(metadata.withDigests(digest.getSha256(), digest.getCrc32c()));
+        }
+        return digest;
+    }
+
+    /**
+     * Returns the index entry of a stored file with its encoding known. Uploads record it when
+     * they are stored; a file indexed without it, such as one found on disk by a scan, is looked
+     * at once on first use and the result kept in the index. Only files of a type that is ever
+     * stored compressed are read for that.
+     *
+     * @throws FileNotFoundException if no such file is stored
+     */
+    public FileMetadata resolveMetadata(String filename) throws IOException {
+        FileMetadata metadata = isStoredName(filename) ? fileIndex.get(filename) : null;
+        if (metadata != null && metadata.getEncoding() != null) {
+            return metadata;
+        }
+        Path file = resolveStoredFile(filename);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        FileMetadata known = metadata != null ? metadata : FileIndex.fromDisk(filename, attributes);
+        FileMetadata resolved = known.withEncoding(ContentCompression.IDENTITY, attributes.size());
+        if (ContentCompression.isCompressible(known.getMimeType()) && attributes.size() > 0 && ContentCompression.startsWithMagic(file)) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+                resolved = known.withEncoding(ContentCompression.GZIP, in.transferTo(OutputStream.nullOutputStream()));
+            } catch (ZipException ex) {
+                // Uploaded as it is and happens to start like a gzip stream
+            }
+        }
+        if (metadata != null) {
+            fileIndex.put(resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * Opens the content of a stored file as it was uploaded, decompressing it if it is stored
+     * gzip-compressed.
+     */
+    public InputStream openContent(String filename) throws IOException {
+        return openContent(resolveStoredFile(filename), resolveMetadata(filename));
+    }
+
+    private static InputStream openContent(Path file, FileMetadata metadata) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        try {
+            return ContentCompression.isEncoded(metadata) ? new GZIPInputStream(in) : in;
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * The digests reported for uploads and sent with downloads.
+     */
+    public Set<ContentDigest.Algorithm> getDigestAlgorithms() {
+        return digestAlgorithms;
+    }
+
+    public Path resolveStoredFile(String filename) {
+        if (!isStoredName(filename)) {
+            throw new FileNotFoundException("File not found " + filename);
+        }
+        Path filePath = storage.resolve(filename).normalize();
+        if (!filePath.startsWith(this.fileStorageLocation) || !Files.isRegularFile(filePath)) {
+            throw new FileNotFoundException("File not found " + filename);
+        }
+        return filePath;
+    }
+
+    // Stored files are addressed by bare name; paths and internal dot-directories are not reachable
+    private static boolean isStoredName(String filename) {
+        return !filename.startsWith(".") && filename.indexOf('/') < 0 && filename.indexOf('\\') < 0;
     }
 
     public boolean isValidFileType(String contentType) {
-        List<String> allowedTypes = List.of(
-            "image/jpeg",
-            "image/png",
-            "image/gif",
-            "application/pdf",
-            "application/msword",
-            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
-            "text/plain"
-        );
-        return allowedTypes.contains(contentType);
+        return contentSniffer.isAllowed(contentType);
     }
 } 
\ No newline at end of file
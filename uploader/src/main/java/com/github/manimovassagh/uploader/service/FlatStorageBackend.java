@@ -0,0 +1,48 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Keeps every stored file directly in the upload directory.
+ */
+public class FlatStorageBackend implements StorageBackend {
+
+    private final Path root;
+
+    public FlatStorageBackend(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void open() throws IOException {
+        Files.createDirectories(root);
+    }
+
+    @Override
+    public Path resolve(String filename) {
+        return root.resolve(filename);
+    }
+
+    @Override
+    public Path prepare(String filename) {
+        return root.resolve(filename);
+    }
+
+    @Override
+    public Stream<Path> files() throws IOException {
+        return Files.list(root).filter(Files::isRegularFile);
+    }
+
+    @Override
+    public boolean isFlat() {
+        return true;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash placement of stored files on the nodes of a cluster. Every node is hashed onto
+ * a ring at a number of virtual points, and a file belongs to the first distinct nodes found
+ * clockwise from the hash of its stored name. Adding or removing a node only moves the files
+ * next to its points, about {@code 1/n} of them, instead of reshuffling everything.
+ * <p>
+ * The placement depends only on the node names and the file name, so every node built from the
+ * same member list agrees on the owners of a file without talking to the others.
+ */
+public final class HashRing {
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final List<String> nodes;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = List.copyOf(nodes);
+        int perNode = Math.max(1, virtualNodes);
+        for (String node : this.nodes) {
+            for (int i = 0; i < perNode; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return up to {@code count} distinct nodes for {@code key}, the primary owner first
+     */
+    public List<String> owners(String key, int count) {
+        int wanted = Math.min(count, nodes.size());
+        List<String> owners = new ArrayList<>(wanted);
+        if (wanted <= 0) {
+            return owners;
+        }
+        long hash = hash(key);
+        for (Map<Long, String> part : List.of(points.tailMap(hash, true), points.headMap(hash, false))) {
+            for (String node : part.values()) {
+                if (!owners.contains(node)) {
+                    owners.add(node);
+                    if (owners.size() == wanted) {
+                        return owners;
+                    }
+                }
+            }
+        }
+        return owners;
+    }
+
+    // The first eight bytes of SHA-256; spreads similar names evenly, unlike String.hashCode
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.manimovassagh.uploader.model.FileMetadata;
+
+/**
+ * Append-only record of the {@link FileIndex}, so the metadata of stored files survives restarts
+ * without a scan of the storage directory. Every change is appended to the current log segment as
+ * a length-prefixed, CRC32C-checked record. Once the segments hold a quarter as many records as
+ * the index has entries they are compacted: a new segment is started, the index as of that moment
+ * is written to a snapshot, and older segments are deleted. Startup reads the snapshot and replays
+ * the segments after it; a record torn by a crash ends the replay of its segment and is cut off.
+ * <p>
+ * The snapshot holds the entries in name order followed by their positions in size and in upload
+ * time order, so the index is refilled in the order of each view without sorting anything.
+ */
+public class MetadataLog implements FileIndex.Journal, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MetadataLog.class);
+    private static final String SNAPSHOT_NAME = "metadata.snapshot";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("^metadata-(\\d+)\\.log$");
+    private static final int SNAPSHOT_MAGIC = 0x464d5331;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_OVERHEAD = 1 + Integer.BYTES + Integer.BYTES;
+    private static final int MAX_PAYLOAD = 1 << 20;
+    private static final int MIN_COMPACTION_RECORDS = 10_000;
+    private static final int IO_BUFFER_SIZE = 1 << 20;
+
+    private final Path directory;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(
+        Thread.ofPlatform().name("metadata-compactor").daemon().factory());
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Object compactionLock = new Object();
+    private FileIndex index;
+    private FileChannel segment;
+    private long generation;
+    private long recordsSinceSnapshot;
+
+    public MetadataLog(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Loads the snapshot and the segments written after it into {@code index} and opens the last
+     * segment for appending. An unreadable snapshot is set aside with its segments, as they only
+     * make sense on top of it.
+     *
+     * @return {@code false} if there was nothing to load, or nothing usable, and the index has to
+     * be built from the storage directory instead
+     */
+    public boolean load(FileIndex index) throws IOException {
+        this.index = index;
+        TreeMap<Long, Path> segments = listSegments();
+        FileIndex.Contents contents = new FileIndex.Contents(List.of(), List.of(), List.of());
+        boolean found = !segments.isEmpty();
+        long firstGeneration = 0;
+
+        Path snapshot = directory.resolve(SNAPSHOT_NAME);
+        if (Files.exists(snapshot)) {
+            found = true;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), IO_BUFFER_SIZE))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a metadata snapshot");
+                }
+                firstGeneration = in.readLong();
+                contents = readContents(in);
+            } catch (IOException ex) {
+                log.warn("Metadata snapshot {} is unreadable, rebuilding from the storage directory", snapshot, ex);
+                Files.move(snapshot, snapshot.resolveSibling(SNAPSHOT_NAME + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+                generation = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+                for (Path stale : segments.values()) {
+                    Files.deleteIfExists(stale);
+                }
+                openSegment(0);
+                return false;
+            }
+        }
+
+        // Changes made after the snapshot, null for a removed file
+        Map<String, FileMetadata> changes = new HashMap<>();
+        long records = 0;
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            if (entry.getKey() < firstGeneration) {
+                // Left behind by a compaction that finished writing the snapshot
+                Files.deleteIfExists(entry.getValue());
+                continue;
+            }
+            generation = entry.getKey();
+            long[] counted;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(entry.getValue()), IO_BUFFER_SIZE)) {
+                counted = replay(new DataInputStream(in), Long.MAX_VALUE, changes::put);
+            }
+            records += counted[0];
+            if (counted[1] < Files.size(entry.getValue())) {
+                log.warn("Cutting off a torn record at byte {} of {}", counted[1], entry.getValue());
+                try (FileChannel channel = FileChannel.open(entry.getValue(), StandardOpenOption.WRITE)) {
+                    channel.truncate(counted[1]);
+                }
+            }
+        }
+        if (segments.isEmpty() || segments.lastKey() < firstGeneration) {
+            generation = firstGeneration;
+        }
+
+        index.load(contents);
+        changes.forEach(index::restore);
+        openSegment(records);
+        return found;
+    }
+
+    @Override
+    public void put(FileMetadata metadata) {
+        append(PUT, encode(metadata));
+    }
+
+    @Override
+    public void remove(String filename) {
+        append(REMOVE, filename.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the segment changes are currently appended to, for callers that sync it
+     */
+    public synchronized Path currentSegment() {
+        return segmentPath(generation);
+    }
+
+    /**
+     * Starts a new segment, writes the index as of that moment to a new snapshot and deletes the
+     * segments the snapshot replaces. Appends only wait for the switch of segments, not for the
+     * snapshot to be written.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            long[] snapshotGeneration = new long[1];
+            FileIndex.Contents contents = index.checkpoint(() -> {
+                try {
+                    snapshotGeneration[0] = rotate();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            writeSnapshot(contents, snapshotGeneration[0]);
+            for (Map.Entry<Long, Path> entry : listSegments().headMap(snapshotGeneration[0]).entrySet()) {
+                Files.deleteIfExists(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        synchronized (compactionLock) {
+            if (segment == null) {
+                return;
+            }
+            // Leave a snapshot behind, so the next start reads no segment at all
+            if (recordsSinceSnapshot() > 0) {
+                compact();
+            }
+            synchronized (this) {
+                segment.close();
+                segment = null;
+            }
+        }
+    }
+
+    private synchronized long recordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    private synchronized void append(byte type, byte[] payload) {
+        if (segment == null) {
+            throw new IllegalStateException("Metadata log is not open");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + payload.length)
+            .put(type)
+            .putInt(payload.length)
+            .put(payload)
+            .putInt((int) crc.getValue())
+            .flip();
+        try {
+            while (record.hasRemaining()) {
+                segment.write(record);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not append to the metadata log", ex);
+        }
+        recordsSinceSnapshot++;
+        if (recordsSinceSnapshot >= Math.max(MIN_COMPACTION_RECORDS, index.size() / 4) && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("Could not compact the metadata log", ex);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Syncs and closes the current segment and opens the next one.
+     *
+     * @return the generation of the new segment, the first one a snapshot taken now must not cover
+     */
+    private synchronized long rotate() throws IOException {
+        segment.force(false);
+        segment.close();
+        generation++;
+        openSegment(0);
+        return generation;
+    }
+
+    private void openSegment(long records) throws IOException {
+        segment = FileChannel.open(segmentPath(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordsSinceSnapshot = records;
+    }
+
+    private Path segmentPath(long segmentGeneration) {
+        return directory.resolve("metadata-" + segmentGeneration + ".log");
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                }
+            });
+        }
+        return segments;
+    }
+
+    /**
+     * Written to a temp file, synced and renamed over the previous snapshot, so there is always
+     * one complete snapshot on disk.
+     */
+    private void writeSnapshot(FileIndex.Contents contents, long snapshotGeneration) throws IOException {
+        Path tempFile = Files.createTempFile(directory, ".snapshot-", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), IO_BUFFER_SIZE));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(snapshotGeneration);
+                out.writeInt(contents.byName().size());
+                Map<FileMetadata, Integer> positions = new IdentityHashMap<>(contents.byName().size());
+                CRC32C crc = new CRC32C();
+                for (FileMetadata metadata : contents.byName()) {
+                    positions.put(metadata, positions.size());
+                    byte[] payload = encode(metadata);
+                    crc.reset();
+                    crc.update(PUT);
+                    crc.update(payload);
+                    out.writeByte(PUT);
+                    out.writeInt(payload.length);
+                    out.write(payload);
+                    out.writeInt((int) crc.getValue());
+                }
+                crc.reset();
+                for (List<FileMetadata> order : List.of(contents.bySize(), contents.byUploadTime())) {
+                    for (FileMetadata metadata : order) {
+                        int position = positions.get(metadata);
+                        crc.update(position >>> 24);
+                        crc.update(position >>> 16);
+                        crc.update(position >>> 8);
+                        crc.update(position);
+                        out.writeInt(position);
+                    }
+                }
+                out.writeInt((int) crc.getValue());
+                out.flush();
+                channel.force(false);
+            }
+            Files.move(tempFile, directory.resolve(SNAPSHOT_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    private static FileIndex.Contents readContents(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Snapshot holds a negative number of entries");
+        }
+        List<FileMetadata> byName = new ArrayList<>(count);
+        long[] read = replay(in, count, (filename, metadata) -> byName.add(metadata));
+        if (read[0] != count) {
+            throw new IOException("Snapshot holds " + read[0] + " of " + count + " entries");
+        }
+        CRC32C crc = new CRC32C();
+        List<FileMetadata> bySize = readOrder(in, byName, crc);
+        List<FileMetadata> byUploadTime = readOrder(in, byName, crc);
+        if (in.readInt() != (int) crc.getValue()) {
+            throw new IOException("Snapshot orders are damaged");
+        }
+        return new FileIndex.Contents(byName, bySize, byUploadTime);
+    }
+
+    private static List<FileMetadata> readOrder(DataInputStream in, List<FileMetadata> byName, CRC32C crc) throws IOException {
+        List<FileMetadata> order = new ArrayList<>(byName.size());
+        for (int i = 0; i < byName.size(); i++) {
+            int position = in.readInt();
+            if (position < 0 || position >= byName.size()) {
+                throw new IOException("Snapshot order points past its entries");
+            }
+            crc.update(position >>> 24);
+            crc.update(position >>> 16);
+            crc.update(position >>> 8);
+            crc.update(position);
+            order.add(byName.get(position));
+        }
+        return order;
+    }
+
+    /**
+     * Applies up to {@code limit} records, stopping early at the end of the stream or the first
+     * incomplete or damaged record. A removal is passed on with {@code null} metadata.
+     *
+     * @return the number of records applied and the length of the stream they take up
+     */
+    private static long[] replay(DataInputStream in, long limit, BiConsumer<String, FileMetadata> changes) throws IOException {
+        long records = 0;
+        long length = 0;
+        byte[] payload = new byte[256];
+        CRC32C crc = new CRC32C();
+        while (records < limit) {
+            byte type;
+            int size;
+            try {
+                type = in.readByte();
+                size = in.readInt();
+                if ((type != PUT && type != REMOVE) || size < 0 || size > MAX_PAYLOAD) {
+                    break;
+                }
+                if (payload.length < size) {
+                    payload = new byte[Math.max(size, payload.length * 2)];
+                }
+                in.readFully(payload, 0, size);
+                crc.reset();
+                crc.update(type);
+                crc.update(payload, 0, size);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+            } catch (EOFException ex) {
+                break;
+            }
+            if (type == PUT) {
+                FileMetadata metadata = decode(ByteBuffer.wrap(payload, 0, size));
+                changes.accept(metadata.getFilename(), metadata);
+            } else {
+                changes.accept(new String(payload, 0, size, StandardCharsets.UTF_8), null);
+            }
+            records++;
+            length += RECORD_OVERHEAD + size;
+        }
+        return new long[] {records, length};
+    }
+
+    private static byte[] encode(FileMetadata metadata) {
+        byte[] filename = utf8(metadata.getFilename());
+        byte[] originalName = utf8(metadata.getOriginalName());
+        byte[] mimeType = utf8(metadata.getMimeType());
+        byte[] checksum = utf8(metadata.getChecksum());
+        byte[] crc32c = utf8(metadata.getCrc32c());
+        byte[] encoding = utf8(metadata.getEncoding());
+        ByteBuffer buffer = ByteBuffer.allocate(6 * Integer.BYTES + 3 * Long.BYTES
+            + length(filename) + length(originalName) + length(mimeType) + length(checksum) + length(crc32c) + length(encoding));
+        putString(buffer, filename);
+        putString(buffer, originalName);
+        buffer.putLong(metadata.getSize());
+        putString(buffer, mimeType);
+        buffer.putLong(metadata.getUploadTime().toEpochMilli());
+        putString(buffer, checksum);
+        putString(buffer, crc32c);
+        buffer.putLong(metadata.getStoredSize());
+        putString(buffer, encoding);
+        return buffer.array();
+    }
+
+    private static FileMetadata decode(ByteBuffer buffer) {
+        String filename = getString(buffer);
+        String originalName = getString(buffer);
+        long size = buffer.getLong();
+        String mimeType = getString(buffer);
+        Instant uploadTime = Instant.ofEpochMilli(buffer.getLong());
+        String checksum = getString(buffer);
+        String crc32c = getString(buffer);
+        long storedSize = buffer.getLong();
+        String encoding = getString(buffer);
+        return new FileMetadata(filename, originalName, size, mimeType, uploadTime, checksum, crc32c, storedSize, encoding);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    // A length of -1 stands for null
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length).put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
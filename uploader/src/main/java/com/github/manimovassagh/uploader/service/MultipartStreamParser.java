@@ -0,0 +1,210 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Incremental parser for {@code multipart/form-data} bodies. Each part is exposed as an
+ * {@link InputStream} that reads straight from the underlying request stream, so nothing is
+ * spooled to memory or temp files.
+ */
+public class MultipartStreamParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private boolean finished;
+    private PartInputStream current;
+
+    public MultipartStreamParser(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+        // The first boundary is not preceded by CRLF, so seed one to match it like any other
+        this.buffer[0] = '\r';
+        this.buffer[1] = '\n';
+        this.tail = 2;
+    }
+
+    /**
+     * Advances to the next part, discarding whatever is left of the current one.
+     *
+     * @return the next part, or {@code null} once the closing boundary has been read
+     */
+    public Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        (current != null ? current : new PartInputStream()).transferTo(OutputStream.nullOutputStream());
+
+        int first = readByte();
+        int second = readByte();
+        if (first == '-' && second == '-') {
+            finished = true;
+            current = null;
+            return null;
+        }
+        while (first != '\r' || second != '\n') {
+            // Transport padding after the boundary is allowed before the line break
+            if (first != ' ' && first != '\t') {
+                throw new IOException("Malformed multipart boundary line");
+            }
+            first = second;
+            second = readByte();
+        }
+
+        HttpHeaders headers = readHeaders();
+        current = new PartInputStream();
+        return new Part(headers, current);
+    }
+
+    private HttpHeaders readHeaders() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int total = 0;
+        while (true) {
+            int b = readByte();
+            if (++total > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart part headers too large");
+            }
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+            String text = line.toString(StandardCharsets.UTF_8);
+            line.reset();
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            if (text.isEmpty()) {
+                return headers;
+            }
+            int colon = text.indexOf(':');
+            if (colon > 0) {
+                headers.add(text.substring(0, colon).trim(), text.substring(colon + 1).trim());
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (head == tail && fill() == -1) {
+            throw new IOException("Unexpected end of multipart stream");
+        }
+        return buffer[head++] & 0xff;
+    }
+
+    private int fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        int read = in.read(buffer, tail, buffer.length - tail);
+        if (read > 0) {
+            tail += read;
+        }
+        return read;
+    }
+
+    private int indexOfDelimiter() {
+        int last = tail - delimiter.length;
+        outer:
+        for (int i = head; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    public static class Part {
+        private final HttpHeaders headers;
+        private final InputStream inputStream;
+        private final ContentDisposition contentDisposition;
+
+        Part(HttpHeaders headers, InputStream inputStream) {
+            this.headers = headers;
+            this.inputStream = inputStream;
+            String disposition = headers.getFirst(HttpHeaders.CONTENT_DISPOSITION);
+            this.contentDisposition = disposition != null ? ContentDisposition.parse(disposition) : ContentDisposition.empty();
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        public String getName() {
+            return contentDisposition.getName();
+        }
+
+        public String getFilename() {
+            return contentDisposition.getFilename();
+        }
+
+        public String getContentType() {
+            return headers.getFirst(HttpHeaders.CONTENT_TYPE);
+        }
+
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+    }
+
+    private class PartInputStream extends InputStream {
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done || current != this && current != null) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int match = indexOfDelimiter();
+                int available;
+                if (match >= 0) {
+                    available = match - head;
+                    if (available == 0) {
+                        head += delimiter.length;
+                        done = true;
+                        return -1;
+                    }
+                } else {
+                    available = tail - head - (delimiter.length - 1);
+                }
+                if (available > 0) {
+                    int n = Math.min(len, available);
+                    System.arraycopy(buffer, head, b, off, n);
+                    head += n;
+                    return n;
+                }
+                if (fill() == -1) {
+                    throw new IOException("Unexpected end of multipart stream");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+/**
+ * The parts of the S3 object API that need more than a single call to
+ * {@link FileStorageService}: key listings with delimiters and continuation, and multipart
+ * uploads. Multipart uploads live under {@code .s3-multipart/<uploadId>/} in the storage
+ * directory, one file per part, and survive restarts; completing one streams its parts in order
+ * into {@link FileStorageService#storeObject}.
+ */
+@Service
+public class S3ObjectService {
+
+    private static final Logger log = LoggerFactory.getLogger(S3ObjectService.class);
+    private static final String MULTIPART_DIR = ".s3-multipart";
+    private static final String UPLOAD_FILE = "upload.properties";
+    private static final String ETAG_SUFFIX = ".etag";
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final int MAX_PART_NUMBER = 10_000;
+    private static final int LIST_BATCH = 1000;
+
+    private final FileStorageService fileStorageService;
+    private final Path multipartDir;
+    private final long maxSize;
+    private final long sessionTtlMillis;
+
+    public record Listing(List<FileMetadata> contents, List<String> commonPrefixes, boolean truncated, String nextAfter) {
+    }
+
+    public record Part(int partNumber, String etag) {
+    }
+
+    @Autowired
+    public S3ObjectService(FileStorageService fileStorageService, FileUploadConfig fileUploadConfig) {
+        this(fileStorageService, fileUploadConfig.getChunkedMaxSize(), fileUploadConfig.getChunkedSessionTtlSeconds());
+    }
+
+    // Overloaded constructor for testability
+    public S3ObjectService(FileStorageService fileStorageService, long maxSize, long sessionTtlSeconds) {
+        this.fileStorageService = fileStorageService;
+        this.maxSize = maxSize > 0 ? maxSize : Long.MAX_VALUE;
+        this.sessionTtlMillis = TimeUnit.SECONDS.toMillis(sessionTtlSeconds);
+        try {
+            this.multipartDir = Files.createDirectories(fileStorageService.getStorageLocation().resolve(MULTIPART_DIR));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not open the multipart upload directory.", ex);
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Lists keys in name order as {@code ListObjectsV2} does. With a delimiter, keys that contain
+     * it after the prefix are rolled up into one common prefix each, which counts as a single
+     * entry towards {@code maxKeys}.
+     *
+     * @param after the {@link Listing#nextAfter() position} to continue after, or {@code null} to
+     * start at the beginning
+     */
+    public Listing list(String prefix, String delimiter, String after, int maxKeys) {
+        String from = prefix == null ? "" : prefix;
+        boolean rollUp = delimiter != null && !delimiter.isEmpty();
+        List<FileMetadata> contents = new ArrayList<>();
+        List<String> commonPrefixes = new ArrayList<>();
+        String cursor = after;
+        while (contents.size() + commonPrefixes.size() < maxKeys) {
+            List<FileMetadata> batch = fileStorageService.listFilesAfter(from, cursor, LIST_BATCH);
+            if (batch.isEmpty()) {
+                return new Listing(contents, commonPrefixes, false, null);
+            }
+            for (FileMetadata metadata : batch) {
+                String key = metadata.getFilename();
+                int end = rollUp ? key.indexOf(delimiter, from.length()) : -1;
+                if (end >= 0) {
+                    String commonPrefix = key.substring(0, end + delimiter.length());
+                    commonPrefixes.add(commonPrefix);
+                    // Continue behind every key under this prefix
+                    cursor = commonPrefix + Character.MAX_VALUE;
+                    break;
+                }
+                contents.add(metadata);
+                cursor = key;
+                if (contents.size() + commonPrefixes.size() == maxKeys) {
+                    break;
+                }
+            }
+        }
+        boolean truncated = !fileStorageService.listFilesAfter(from, cursor, 1).isEmpty();
+        return new Listing(contents, commonPrefixes, truncated, truncated ? cursor : null);
+    }
+
+    /**
+     * Starts a multipart upload of {@code key}. Unfinished uploads older than the session TTL
+     * are dropped first.
+     *
+     * @return the upload id
+     */
+    public String initiateMultipart(String key, String contentType) throws IOException {
+        FileStorageService.checkWritableKey(key);
+        if (!fileStorageService.isValidFileType(contentType)) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.INVALID_TYPE,
+                "Invalid file type. Only images, PDFs, and documents are allowed.");
+        }
+        expireStale();
+        String uploadId = UUID.randomUUID().toString();
+        Path directory = Files.createDirectories(multipartDir.resolve(uploadId));
+        Properties upload = new Properties();
+        upload.setProperty("key", key);
+        upload.setProperty("contentType", contentType);
+        Path tempFile = Files.createTempFile(directory, TEMP_PREFIX, "");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            upload.store(writer, null);
+        }
+        Files.move(tempFile, directory.resolve(UPLOAD_FILE), StandardCopyOption.ATOMIC_MOVE);
+        return uploadId;
+    }
+
+    /**
+     * Stores one part, replacing an earlier part with the same number.
+     *
+     * @return the part's ETag, the hex SHA-256 of its content
+     */
+    public String uploadPart(String uploadId, int partNumber, InputStream in) throws IOException {
+        try (InputStream input = in) {
+            if (partNumber < 1 || partNumber > MAX_PART_NUMBER) {
+                throw new BadRequestException("Part number must be between 1 and " + MAX_PART_NUMBER);
+            }
+            Path directory = find(uploadId);
+            Path tempFile = Files.createTempFile(directory, TEMP_PREFIX, "");
+            try {
+                MessageDigest sha256 = sha256();
+                try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tempFile), sha256)) {
+                    byte[] buffer = new byte[64 * 1024];
+                    long size = 0;
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        size += read;
+                        if (size > maxSize) {
+                            throw new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                                "File too large. Maximum size is " + (maxSize / (1024 * 1024)) + "MB.");
+                        }
+                        out.write(buffer, 0, read);
+                    }
+                }
+                String etag = HexFormat.of().formatHex(sha256.digest());
+                // The ETag goes first, so a part file always has the ETag of its content or a newer one
+                Files.writeString(directory.resolve(partNumber + ETAG_SUFFIX), etag);
+                Files.move(tempFile, directory.resolve(Integer.toString(partNumber)), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                return etag;
+            } catch (NoSuchFileException ex) {
+                throw notFound(uploadId);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Stores the listed parts, in order, as the object and removes the upload.
+     *
+     * @throws BadRequestException if the list is empty, out of order, or names a part that
+     * was not uploaded or has another ETag
+     */
+    public FileUploadResponse.FileInfo completeMultipart(String uploadId, List<Part> parts) throws IOException {
+        Path directory = find(uploadId);
+        if (parts.isEmpty()) {
+            throw new BadRequestException("A multipart upload needs at least one part");
+        }
+        List<Path> files = new ArrayList<>(parts.size());
+        long size = 0;
+        int previous = 0;
+        for (Part part : parts) {
+            if (part.partNumber() <= previous) {
+                throw new BadRequestException("Parts must be listed in ascending order");
+            }
+            previous = part.partNumber();
+            Path file = directory.resolve(Integer.toString(part.partNumber()));
+            String etag;
+            try {
+                etag = Files.readString(directory.resolve(part.partNumber() + ETAG_SUFFIX)).trim();
+                size += Files.size(file);
+            } catch (NoSuchFileException ex) {
+                throw new BadRequestException("Part " + part.partNumber() + " was not uploaded");
+            }
+            if (part.etag() != null && !etag.equals(part.etag().replace("\"", "").trim())) {
+                throw new BadRequestException("Part " + part.partNumber() + " does not have the ETag " + part.etag());
+            }
+            files.add(file);
+        }
+        if (size > maxSize) {
+            throw new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                "File too large. Maximum size is " + (maxSize / (1024 * 1024)) + "MB.");
+        }
+
+        Properties upload = readUpload(directory);
+        InputStream in = new SequenceInputStream(Collections.enumeration(files.stream().map(S3ObjectService::lazyOpen).toList()));
+        FileUploadResponse.FileInfo info;
+        try {
+            info = fileStorageService.storeObject(upload.getProperty("key"), upload.getProperty("contentType"), in, maxSize, null);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        delete(directory);
+        return info;
+    }
+
+    public void abortMultipart(String uploadId) throws IOException {
+        delete(find(uploadId));
+    }
+
+    private Path find(String uploadId) {
+        try {
+            if (!UUID.fromString(uploadId).toString().equals(uploadId)) {
+                throw notFound(uploadId);
+            }
+        } catch (IllegalArgumentException ex) {
+            throw notFound(uploadId);
+        }
+        Path directory = multipartDir.resolve(uploadId);
+        if (!Files.exists(directory.resolve(UPLOAD_FILE))) {
+            throw notFound(uploadId);
+        }
+        return directory;
+    }
+
+    private static FileNotFoundException notFound(String uploadId) {
+        return new FileNotFoundException("Upload not found " + uploadId);
+    }
+
+    private static Properties readUpload(Path directory) throws IOException {
+        Properties upload = new Properties();
+        try (Reader reader = Files.newBufferedReader(directory.resolve(UPLOAD_FILE), StandardCharsets.UTF_8)) {
+            upload.load(reader);
+        }
+        return upload;
+    }
+
+    // Parts are opened one at a time as the sequence reaches them
+    private static InputStream lazyOpen(Path file) {
+        return new InputStream() {
+            private InputStream in;
+
+            private InputStream in() {
+                if (in == null) {
+                    try {
+                        in = Files.newInputStream(file);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+                return in;
+            }
+
+            @Override
+            public int read() throws IOException {
+                return in().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in().read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Drops multipart uploads that have not received a part within the session TTL.
+     */
+    private void expireStale() {
+        if (sessionTtlMillis <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - sessionTtlMillis;
+        try (Stream<Path> uploads = Files.list(multipartDir)) {
+            for (Path directory : (Iterable<Path>) uploads::iterator) {
+                try {
+                    if (Files.getLastModifiedTime(directory).toMillis() < cutoff) {
+                        delete(directory);
+                        log.info("Expired unfinished multipart upload {}", directory.getFileName());
+                    }
+                } catch (IOException ex) {
+                    log.warn("Could not remove expired multipart upload {}", directory.getFileName(), ex);
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Could not list multipart uploads", ex);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads stored files over two levels of 256 directories, {@code ab/cd/<name>}, chosen from a
+ * CRC32C of the name, so no directory grows past a few thousand entries even with hundreds of
+ * millions of files. Files left in the top level by the flat layout are moved into their shard
+ * when the backend is opened, and until then are still found where they are.
+ */
+public class ShardedStorageBackend implements StorageBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedStorageBackend.class);
+    private static final Pattern SHARD_NAME = Pattern.compile("^[0-9a-f]{2}$");
+
+    private final Path root;
+
+    public ShardedStorageBackend(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void open() throws IOException {
+        Files.createDirectories(root);
+        migrateFlatFiles();
+    }
+
+    @Override
+    public Path resolve(String filename) {
+        Path sharded = shardPath(filename);
+        if (!Files.exists(sharded, LinkOption.NOFOLLOW_LINKS)) {
+            Path flat = root.resolve(filename);
+            if (Files.exists(flat, LinkOption.NOFOLLOW_LINKS)) {
+                return flat;
+            }
+        }
+        return sharded;
+    }
+
+    @Override
+    public Path prepare(String filename) throws IOException {
+        Path sharded = shardPath(filename);
+        Files.createDirectories(sharded.getParent());
+        return sharded;
+    }
+
+    @Override
+    public Stream<Path> files() throws IOException {
+        return Files.list(root)
+            .flatMap(entry -> isShard(entry) ? children(entry).filter(this::isShard).flatMap(ShardedStorageBackend::children) : Stream.of(entry))
+            .filter(Files::isRegularFile);
+    }
+
+    @Override
+    public boolean isFlat() {
+        return false;
+    }
+
+    /**
+     * Moves the stored files in the top-level directory into their shard. A move within one
+     * filesystem is a rename, so this costs one metadata operation per file and keeps hard links
+     * to content-addressed blobs intact.
+     */
+    int migrateFlatFiles() throws IOException {
+        int moved = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path file : stream) {
+                String filename = file.getFileName().toString();
+                if (filename.startsWith(".") || !Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                Path target = prepare(filename);
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                    // A rename would silently replace it
+                    log.warn("Not migrating {}, a sharded file with the same name exists", filename);
+                    continue;
+                }
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                moved++;
+            }
+        }
+        if (moved > 0) {
+            log.info("Migrated {} files from the flat layout into shards", moved);
+        }
+        return moved;
+    }
+
+    Path shardPath(String filename) {
+        CRC32C crc = new CRC32C();
+        crc.update(filename.getBytes(StandardCharsets.UTF_8));
+        long hash = crc.getValue();
+        return root.resolve(String.format("%02x", (hash >>> 24) & 0xff))
+            .resolve(String.format("%02x", (hash >>> 16) & 0xff))
+            .resolve(filename);
+    }
+
+    private boolean isShard(Path entry) {
+        return SHARD_NAME.matcher(entry.getFileName().toString()).matches()
+            && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private static Stream<Path> children(Path directory) {
+        try {
+            return Files.list(directory);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Decides where a stored file lives below the upload directory. Stored names are unique and the
+ * layout is derived from the name alone, so callers only ever deal with names and the index, the
+ * controllers and the content store stay unaware of how the tree is organised.
+ */
+public interface StorageBackend {
+
+    Path getRoot();
+
+    /**
+     * Creates the directory structure and brings files written under another layout into this one.
+     */
+    void open() throws IOException;
+
+    /**
+     * @return the location of a stored file, which may not exist
+     */
+    Path resolve(String filename);
+
+    /**
+     * @return the location to create a new stored file at, with its parent directories in place
+     */
+    Path prepare(String filename) throws IOException;
+
+    /**
+     * @return every stored file; the caller must close the stream
+     */
+    Stream<Path> files() throws IOException;
+
+    /**
+     * @return whether stored files sit directly in the root, so watching that one directory sees
+     * every change to them
+     */
+    boolean isFlat();
+}
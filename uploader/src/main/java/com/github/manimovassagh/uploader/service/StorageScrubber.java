@@ -0,0 +1,365 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Background maintenance of the stored files, run as a pass every interval on a single
+ * low-priority thread. A pass deletes files older than the retention age, then evicts the oldest
+ * files while the total stored bytes are over the quota, and finally, if verification is turned
+ * on, re-hashes stored files and compares them with the digests recorded when they were uploaded,
+ * to catch bit rot.
+ * <p>
+ * The index is worked through in batches with a pause between them, and verification reads are
+ * paced to a byte budget, so a pass does not compete with uploads and downloads for the disk.
+ * Verification continues from where the previous pass stopped. Files that fail it are logged and
+ * reported, not deleted.
+ */
+@Service
+public class StorageScrubber {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageScrubber.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REPORTED_CORRUPT = 1000;
+
+    public record Status(boolean running, Instant lastPassStarted, Instant lastPassFinished,
+                         long expiredFiles, long expiredBytes, long evictedFiles, long evictedBytes,
+                         long verifiedFiles, long verifiedBytes, List<String> corruptFiles, String verifyCursor) {
+    }
+
+    private final FileStorageService fileStorageService;
+    private final ThumbnailService thumbnailService;
+    private final long maxAgeMillis;
+    private final long maxTotalBytes;
+    private final boolean verify;
+    private final long bytesPerSecond;
+    private final int batchSize;
+    private final long batchPauseMillis;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Instant lastPassStarted;
+    private volatile Instant lastPassFinished;
+    // Last file verified; the next pass starts after it
+    private volatile String verifyCursor;
+    private final AtomicLong expiredFiles = new AtomicLong();
+    private final AtomicLong expiredBytes = new AtomicLong();
+    private final AtomicLong evictedFiles = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private final AtomicLong verifiedFiles = new AtomicLong();
+    private final AtomicLong verifiedBytes = new AtomicLong();
+    private final Set<String> corruptFiles = new LinkedHashSet<>();
+
+    @Autowired
+    public StorageScrubber(FileStorageService fileStorageService, ThumbnailService thumbnailService, FileUploadConfig fileUploadConfig) {
+        this(fileStorageService, thumbnailService, fileUploadConfig.getRetentionMaxAgeSeconds(),
+            fileUploadConfig.getRetentionMaxTotalBytes(), fileUploadConfig.isScrubberVerify(),
+            fileUploadConfig.getScrubberBytesPerSecond(), fileUploadConfig.getScrubberBatchSize(),
+            fileUploadConfig.getScrubberBatchPauseMillis(), fileUploadConfig.getScrubberIntervalSeconds(),
+            System::currentTimeMillis);
+    }
+
+    // Overloaded constructor for testability
+    public StorageScrubber(FileStorageService fileStorageService, ThumbnailService thumbnailService, long maxAgeSeconds,
+                           long maxTotalBytes, boolean verify, long bytesPerSecond, int batchSize, long batchPauseMillis,
+                           long intervalSeconds, LongSupplier clock) {
+        this.fileStorageService = fileStorageService;
+        this.thumbnailService = thumbnailService;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        this.maxTotalBytes = maxTotalBytes;
+        this.verify = verify;
+        this.bytesPerSecond = bytesPerSecond;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchPauseMillis = batchPauseMillis;
+        this.clock = clock;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "storage-scrubber");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (intervalSeconds > 0) {
+            executor.scheduleWithFixedDelay(this::runPass, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts a pass in the background unless one is already running.
+     *
+     * @return {@code false} if a pass was already running
+     */
+    public boolean trigger() {
+        if (running.get()) {
+            return false;
+        }
+        try {
+            executor.execute(this::runPass);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs a pass on the calling thread, or does nothing if one is already running.
+     */
+    public void runPass() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        lastPassStarted = Instant.ofEpochMilli(clock.getAsLong());
+        try {
+            if (maxAgeMillis > 0) {
+                expire();
+            }
+            if (maxTotalBytes > 0) {
+                enforceQuota();
+            }
+            if (verify) {
+                verifyAll();
+            }
+            lastPassFinished = Instant.ofEpochMilli(clock.getAsLong());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            // Thrown out of a scheduled task it would cancel every later pass
+            log.error("Storage scrub failed", ex);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public Status status() {
+        List<String> corrupt;
+        synchronized (corruptFiles) {
+            corrupt = List.copyOf(corruptFiles);
+        }
+        return new Status(running.get(), lastPassStarted, lastPassFinished, expiredFiles.get(), expiredBytes.get(),
+            evictedFiles.get(), evictedBytes.get(), verifiedFiles.get(), verifiedBytes.get(), corrupt, verifyCursor);
+    }
+
+    private void expire() throws InterruptedException {
+        Instant cutoff = Instant.ofEpochMilli(clock.getAsLong() - maxAgeMillis);
+        // Files that could not be deleted stay at the front of the listing and are stepped over
+        int skipped = 0;
+        while (true) {
+            List<FileMetadata> batch = fileStorageService.listFiles(null, FileIndex.SortField.UPLOAD_TIME, false, skipped, batchSize).items();
+            boolean more = !batch.isEmpty();
+            for (FileMetadata metadata : batch) {
+                if (!metadata.getUploadTime().isBefore(cutoff)) {
+                    more = false;
+                    break;
+                }
+                if (delete(metadata)) {
+                    expiredFiles.incrementAndGet();
+                    expiredBytes.addAndGet(metadata.getStoredSize());
+                    log.info("Expired {} uploaded at {}", metadata.getFilename(), metadata.getUploadTime());
+                } else {
+                    skipped++;
+                }
+            }
+            if (!more) {
+                return;
+            }
+            pause();
+        }
+    }
+
+    private void enforceQuota() throws InterruptedException {
+        int skipped = 0;
+        while (fileStorageService.getStoredBytes() > maxTotalBytes) {
+            List<FileMetadata> batch = fileStorageService.listFiles(null, FileIndex.SortField.UPLOAD_TIME, false, skipped, batchSize).items();
+            if (batch.isEmpty()) {
+                return;
+            }
+            for (FileMetadata metadata : batch) {
+                if (fileStorageService.getStoredBytes() <= maxTotalBytes) {
+                    return;
+                }
+                if (delete(metadata)) {
+                    evictedFiles.incrementAndGet();
+                    evictedBytes.addAndGet(metadata.getStoredSize());
+                    log.info("Evicted {} to stay within {} bytes", metadata.getFilename(), maxTotalBytes);
+                } else {
+                    skipped++;
+                }
+            }
+            pause();
+        }
+    }
+
+    private boolean delete(FileMetadata metadata) {
+        String filename = metadata.getFilename();
+        try {
+            fileStorageService.deleteFile(filename);
+            thumbnailService.deleteThumbnails(filename);
+            synchronized (corruptFiles) {
+                corruptFiles.remove(filename);
+            }
+            return true;
+        } catch (IOException ex) {
+            log.warn("Could not delete {}", filename, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Verifies every indexed file once, starting after the cursor and wrapping around to it.
+     */
+    private void verifyAll() throws InterruptedException {
+        String start = verifyCursor;
+        String cursor = start;
+        boolean wrapped = start == null;
+        Throttle throttle = new Throttle(bytesPerSecond);
+        while (true) {
+            List<FileMetadata> batch = fileStorageService.listFilesAfter(cursor, batchSize);
+            if (batch.isEmpty()) {
+                if (wrapped) {
+                    return;
+                }
+                wrapped = true;
+                cursor = null;
+                continue;
+            }
+            for (FileMetadata metadata : batch) {
+                if (wrapped && start != null && metadata.getFilename().compareTo(start) >= 0) {
+                    return;
+                }
+                verify(metadata, throttle);
+                cursor = metadata.getFilename();
+                verifyCursor = cursor;
+            }
+            pause();
+        }
+    }
+
+    private void verify(FileMetadata metadata, Throttle throttle) throws InterruptedException {
+        String filename = metadata.getFilename();
+        if (metadata.getChecksum() == null) {
+            // Never digested, so there is nothing to compare with
+            return;
+        }
+        ContentDigest digest;
+        try {
+            try (InputStream in = fileStorageService.openContent(filename);
+                 ContentDigest.Sink sink = new ContentDigest.Sink(OutputStream.nullOutputStream(), metadata.getCrc32c() != null)) {
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    sink.write(buffer, 0, read);
+                    throttle.acquire(read);
+                }
+                digest = sink.digest();
+            }
+        } catch (FileNotFoundException | NoSuchFileException ex) {
+            // Deleted since it was listed
+            return;
+        } catch (IOException ex) {
+            if (!replaced(metadata)) {
+                reportCorrupt(filename, "it cannot be read: " + ex.getMessage());
+            }
+            return;
+        }
+        verifiedFiles.incrementAndGet();
+        verifiedBytes.addAndGet(metadata.getSize());
+        boolean sha256Matches = digest.getSha256().equals(metadata.getChecksum());
+        boolean crc32cMatches = metadata.getCrc32c() == null || digest.getCrc32c().equals(metadata.getCrc32c());
+        if ((!sha256Matches || !crc32cMatches) && replaced(metadata)) {
+            // Read the new content against the listed digests; the next pass checks it against its own
+            return;
+        }
+        if (!sha256Matches) {
+            reportCorrupt(filename, "its sha-256 is " + digest.getSha256() + " instead of " + metadata.getChecksum());
+        } else if (!crc32cMatches) {
+            reportCorrupt(filename, "its crc32c is " + digest.getCrc32c() + " instead of " + metadata.getCrc32c());
+        } else {
+            synchronized (corruptFiles) {
+                corruptFiles.remove(filename);
+            }
+        }
+    }
+
+    /**
+     * Tells whether the file was deleted or stored again under the same name since its batch was
+     * listed, in which case its content is not expected to match the listed digests.
+     */
+    private boolean replaced(FileMetadata listed) {
+        FileMetadata current = fileStorageService.getMetadata(listed.getFilename());
+        return current == null || !Objects.equals(current.getChecksum(), listed.getChecksum());
+    }
+
+    private void reportCorrupt(String filename, String reason) {
+        log.error("Stored file {} is corrupt, {}", filename, reason);
+        synchronized (corruptFiles) {
+            corruptFiles.remove(filename);
+            corruptFiles.add(filename);
+            if (corruptFiles.size() > MAX_REPORTED_CORRUPT) {
+                corruptFiles.remove(corruptFiles.iterator().next());
+            }
+        }
+    }
+
+    private void pause() throws InterruptedException {
+        if (batchPauseMillis > 0) {
+            Thread.sleep(batchPauseMillis);
+        }
+    }
+
+    /**
+     * Paces reads to a number of bytes per second over a whole pass, sleeping whenever they get
+     * ahead of it.
+     */
+    private static final class Throttle {
+
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int read) throws InterruptedException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytes += read;
+            long due = (long) (bytes * (1_000_000_000.0 / bytesPerSecond));
+            long ahead = due - (System.nanoTime() - start);
+            if (ahead > 0) {
+                TimeUnit.NANOSECONDS.sleep(ahead);
+            }
+        }
+    }
+}
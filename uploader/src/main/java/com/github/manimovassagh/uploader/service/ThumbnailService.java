@@ -0,0 +1,302 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Scaled-down copies of uploaded images in the configured sizes, kept under
+ * {@code .thumbnails/<size>/} in the storage directory. Stored images are queued for a small
+ * worker pool after the upload has been written; the queue is a directory of marker files, so
+ * work that was pending at shutdown is picked up again on the next start. A thumbnail that is
+ * asked for before it exists is made on the spot, and concurrent requests for it wait for the
+ * same generation instead of decoding the image again.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+    private static final String THUMBNAIL_DIR = ".thumbnails";
+    private static final String QUEUE_DIR = ".queue";
+    private static final int QUEUE_CAPACITY = 10_000;
+    // Decoding is subsampled, but the header of a bomb can still claim absurd dimensions
+    private static final long MAX_PIXELS = 200_000_000L;
+
+    private final FileStorageService fileStorageService;
+    private final int[] sizes;
+    private final Path thumbnailDir;
+    private final Path queueDir;
+    private final ThreadPoolExecutor workers;
+    private final Map<Path, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ThumbnailService(FileStorageService fileStorageService, FileUploadConfig fileUploadConfig) {
+        this(fileStorageService, fileUploadConfig.getThumbnailSizes(), fileUploadConfig.getThumbnailWorkers());
+    }
+
+    // Overloaded constructor for testability
+    public ThumbnailService(FileStorageService fileStorageService, int[] sizes, int workerCount) {
+        this.fileStorageService = fileStorageService;
+        this.sizes = sizes == null ? new int[0] : Arrays.stream(sizes).filter(size -> size > 0).sorted().distinct().toArray();
+        this.thumbnailDir = fileStorageService.getStorageLocation().resolve(THUMBNAIL_DIR);
+        this.queueDir = thumbnailDir.resolve(QUEUE_DIR);
+        int threads = Math.max(1, workerCount);
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "thumbnail-worker");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+        if (isEnabled()) {
+            try {
+                Files.createDirectories(queueDir);
+                resume();
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not open the thumbnail directory.", ex);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return sizes.length > 0;
+    }
+
+    public static boolean isSupportedType(String contentType) {
+        return "image/jpeg".equals(contentType) || "image/png".equals(contentType) || "image/gif".equals(contentType);
+    }
+
+    /**
+     * Queues the images of a finished upload. Only a marker file is written on the caller's
+     * thread; if the pool is saturated the marker stays behind for the next start, and the
+     * thumbnails are made on first request in the meantime.
+     */
+    public void enqueue(FileUploadResponse response) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (FileUploadResponse.FileInfo file : response.getFiles()) {
+            if (!isSupportedType(file.getMimeType())) {
+                continue;
+            }
+            String filename = file.getFilename();
+            try {
+                Files.createFile(queueDir.resolve(filename));
+            } catch (FileAlreadyExistsException ex) {
+                // Already queued
+            } catch (IOException ex) {
+                log.warn("Could not queue thumbnails of {}", filename, ex);
+                continue;
+            }
+            submit(filename);
+        }
+    }
+
+    /**
+     * Returns the thumbnail of a stored image in one of the configured sizes, making it first
+     * if it does not exist yet or is older than the image.
+     */
+    public Path getThumbnail(String filename, int size) throws IOException {
+        if (Arrays.binarySearch(sizes, size) < 0) {
+            throw new BadRequestException("Unsupported thumbnail size " + size + ". Available sizes are "
+                + Arrays.toString(sizes) + ".");
+        }
+        Path source = fileStorageService.resolveStoredFile(filename);
+        return derive(filename, source, size);
+    }
+
+    /**
+     * Removes the thumbnails of a file that has been deleted, along with its queue entry.
+     */
+    public void deleteThumbnails(String filename) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Files.deleteIfExists(queueDir.resolve(filename));
+        for (int size : sizes) {
+            Files.deleteIfExists(thumbnailDir.resolve(Integer.toString(size)).resolve(filename));
+        }
+    }
+
+    private void submit(String filename) {
+        try {
+            workers.execute(() -> generateAll(filename));
+        } catch (RejectedExecutionException ex) {
+            // Shutting down; the marker is kept for the next start
+        }
+    }
+
+    private void generateAll(String filename) {
+        Path marker = queueDir.resolve(filename);
+        try {
+            Path source = fileStorageService.resolveStoredFile(filename);
+            for (int size : sizes) {
+                derive(filename, source, size);
+            }
+        } catch (FileNotFoundException ex) {
+            // Removed before its turn came
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Could not create thumbnails of {}", filename, ex);
+        }
+        try {
+            Files.deleteIfExists(marker);
+        } catch (IOException ex) {
+            log.warn("Could not remove thumbnail queue entry {}", filename, ex);
+        }
+    }
+
+    private Path derive(String filename, Path source, int size) throws IOException {
+        Path target = thumbnailDir.resolve(Integer.toString(size)).resolve(filename);
+        if (isFresh(target, source)) {
+            return target;
+        }
+
+        CompletableFuture<Path> generation = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(target, generation);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            if (!isFresh(target, source)) {
+                generate(filename, source, size, target);
+            }
+            generation.complete(target);
+            return target;
+        } catch (IOException | RuntimeException ex) {
+            generation.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(target, generation);
+        }
+    }
+
+    private static Path await(CompletableFuture<Path> generation) throws IOException {
+        try {
+            return generation.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a thumbnail", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (ex.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private static boolean isFresh(Path target, Path source) throws IOException {
+        try {
+            return Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(source)) >= 0;
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+    }
+
+    private static void generate(String filename, Path source, int size, Path target) throws IOException {
+        BufferedImage image;
+        String format;
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new BadRequestException("Cannot create a thumbnail of " + filename);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_PIXELS) {
+                    throw new BadRequestException("Image " + filename + " is too large for a thumbnail");
+                }
+                // Skip pixels while decoding, keeping at least twice the target for a smooth scale
+                int step = Math.max(1, Math.max(width, height) / (size * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+                format = reader.getFormatName().toLowerCase(Locale.ROOT);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        BufferedImage thumbnail = scale(image, size, !format.equals("jpeg"));
+        Path directory = Files.createDirectories(target.getParent());
+        Path tempFile = Files.createTempFile(directory, ".tmp-", "");
+        try {
+            if (!ImageIO.write(thumbnail, format, tempFile.toFile())) {
+                throw new IllegalArgumentException("Cannot write a " + format + " thumbnail of " + filename);
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int size, boolean alpha) {
+        double factor = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Resubmits the uploads that were still queued when the previous run stopped.
+     */
+    private void resume() throws IOException {
+        try (Stream<Path> markers = Files.list(queueDir)) {
+            markers.map(marker -> marker.getFileName().toString()).forEach(this::submit);
+        }
+    }
+}
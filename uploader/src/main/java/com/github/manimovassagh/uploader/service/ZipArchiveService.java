@@ -0,0 +1,107 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+
+/**
+ * Streams several stored files as one ZIP archive. Entries are written straight from disk to the
+ * response as they are read, so the archive is never held in memory or spooled to a temp file.
+ * Every entry is deflated, but formats that are compressed already are written at level 0,
+ * which frames the bytes as they are. Unlike {@code STORED} entries these need no size and CRC
+ * ahead of the data, so every file is read once. Files stored gzip-compressed are unpacked into
+ * the archive.
+ */
+@Service
+public class ZipArchiveService {
+
+    public static final int MAX_ENTRIES = 10_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> COMPRESSED_TYPES = Set.of(MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE,
+        MediaType.IMAGE_GIF_VALUE, MediaType.APPLICATION_PDF_VALUE,
+        "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "application/zip", "application/gzip");
+
+    private final FileStorageService fileStorageService;
+
+    public ZipArchiveService(FileStorageService fileStorageService) {
+        this.fileStorageService = fileStorageService;
+    }
+
+    /**
+     * Resolves the files of an archive, either the given names or every file whose name starts
+     * with {@code prefix}. This is done before anything is written, so a name that does not exist
+     * fails the request with the usual {@link com.github.manimovassagh.uploader.exception.FileNotFoundException}
+     * rather than cutting off a response that has already started.
+     */
+    public List<Path> resolve(List<String> filenames, String prefix) {
+        boolean byName = filenames != null && !filenames.isEmpty();
+        if (byName == (prefix != null)) {
+            throw new BadRequestException("Either file names or a prefix must be given");
+        }
+
+        if (byName) {
+            LinkedHashSet<String> unique = new LinkedHashSet<>(filenames);
+            if (unique.size() > MAX_ENTRIES) {
+                throw new BadRequestException("At most " + MAX_ENTRIES + " files can be archived at once");
+            }
+            List<Path> files = new ArrayList<>(unique.size());
+            for (String filename : unique) {
+                files.add(fileStorageService.resolveStoredFile(filename));
+            }
+            return files;
+        }
+
+        FileIndex.Page page = fileStorageService.listFiles(prefix, FileIndex.SortField.NAME, false, 0, MAX_ENTRIES);
+        if (page.total() > MAX_ENTRIES) {
+            throw new BadRequestException(page.total() + " files match " + prefix + ", at most " + MAX_ENTRIES
+                + " can be archived at once");
+        }
+        List<Path> files = new ArrayList<>(page.items().size());
+        for (FileMetadata file : page.items()) {
+            files.add(fileStorageService.resolveStoredFile(file.getFilename()));
+        }
+        return files;
+    }
+
+    /**
+     * Writes the archive to {@code out}, which is left open.
+     */
+    public void write(List<Path> files, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            String contentType = MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+            ZipEntry entry = new ZipEntry(name);
+            entry.setLastModifiedTime(Files.getLastModifiedTime(file));
+            // Applies from the next entry on
+            zip.setLevel(COMPRESSED_TYPES.contains(contentType) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(entry);
+            try (InputStream in = fileStorageService.openContent(name)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    zip.write(buffer, 0, read);
+                }
+            }
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.TooManyRequestsException;
+import com.github.manimovassagh.uploader.service.AdmissionControl;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Puts uploads and downloads through {@link AdmissionControl} before the body is subscribed to,
+ * so a request over a limit is answered with 429 without reading it.
+ */
+@Component
+public class ReactiveAdmissionFilter implements WebFilter {
+
+    private final AdmissionControl admissionControl;
+    private final String clientHeader;
+
+    public ReactiveAdmissionFilter(AdmissionControl admissionControl, FileUploadConfig fileUploadConfig) {
+        this.admissionControl = admissionControl;
+        String header = fileUploadConfig.getAdmissionClientHeader();
+        this.clientHeader = header == null || header.isBlank() ? null : header.trim();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        AdmissionControl.Kind kind = AdmissionControl.kindOf(request.getMethod().name(), request.getPath().value());
+        if (kind == null) {
+            return chain.filter(exchange);
+        }
+
+        String client = clientKey(request);
+        AdmissionControl.Permit permit;
+        try {
+            if (kind == AdmissionControl.Kind.UPLOAD) {
+                permit = admissionControl.admitUpload(client, request.getHeaders().getContentLength());
+            } else {
+                admissionControl.admitDownload(client);
+                permit = null;
+            }
+        } catch (TooManyRequestsException ex) {
+            return reject(exchange.getResponse(), ex);
+        }
+
+        return chain.filter(exchange).doFinally(signal -> {
+            if (permit != null) {
+                permit.release();
+            } else {
+                admissionControl.charge(client, exchange.getResponse().getHeaders().getContentLength());
+            }
+        });
+    }
+
+    private static Mono<Void> reject(ServerHttpResponse response, TooManyRequestsException ex) {
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()));
+        response.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+        DataBuffer body = response.bufferFactory().wrap(("Too many requests: " + ex.getMessage()).getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
+    }
+
+    private String clientKey(ServerHttpRequest request) {
+        if (clientHeader != null) {
+            String value = request.getHeaders().getFirst(clientHeader);
+            if (value != null && !value.isBlank()) {
+                // In a list such as X-Forwarded-For only the entry added by the nearest proxy is trusted
+                return value.substring(value.lastIndexOf(',') + 1).trim();
+            }
+        }
+        InetSocketAddress remote = request.getRemoteAddress();
+        return remote == null ? "" : remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.manimovassagh.uploader.service.ZipArchiveService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * WebFlux counterpart of the servlet {@code ArchiveController}. The archive is written on a
+ * worker thread into a publisher that only produces as fast as the client reads.
+ */
+@RestController
+@RequestMapping("/api/archive")
+public class ReactiveArchiveController {
+
+    static final String ARCHIVE_NAME = "files.zip";
+
+    private final ZipArchiveService zipArchiveService;
+
+    public ReactiveArchiveController(ZipArchiveService zipArchiveService) {
+        this.zipArchiveService = zipArchiveService;
+    }
+
+    @GetMapping
+    public Mono<ResponseEntity<Flux<DataBuffer>>> downloadArchive(@RequestParam(required = false) List<String> files,
+                                                                  @RequestParam(required = false) String prefix) {
+        return send(files, prefix);
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<Flux<DataBuffer>>> downloadArchive(@RequestBody List<String> files) {
+        return send(files, null);
+    }
+
+    private Mono<ResponseEntity<Flux<DataBuffer>>> send(List<String> filenames, String prefix) {
+        return Mono.fromCallable(() -> zipArchiveService.resolve(filenames, prefix))
+            .subscribeOn(Schedulers.boundedElastic())
+            .map(files -> ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + ARCHIVE_NAME + "\"")
+                .body(archive(files)));
+    }
+
+    private Flux<DataBuffer> archive(List<Path> files) {
+        return Flux.from(DataBufferUtils.outputStreamPublisher(out -> {
+            try {
+                zipArchiveService.write(files, out);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, DefaultDataBufferFactory.sharedInstance, task -> Schedulers.boundedElastic().schedule(task)));
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.manimovassagh.uploader.controller;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.PartEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.model.FileDetails;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.ContentCompression;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.FileIndex;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+import com.github.manimovassagh.uploader.service.ReactiveFileStorageService;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * WebFlux counterpart of the servlet {@code FileController}, with the same endpoints and
+ * responses. Both upload endpoints stream parts to disk as they arrive.
+ */
+@RestController
+@RequestMapping("/api")
+public class ReactiveFileController {
+
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    private final FileStorageService fileStorageService;
+    private final ReactiveFileStorageService reactiveFileStorageService;
+    private final FileUploadConfig fileUploadConfig;
+    private final ThumbnailService thumbnailService;
+    private final String cacheControl;
+
+    public ReactiveFileController(FileStorageService fileStorageService, ReactiveFileStorageService reactiveFileStorageService,
+                                  FileUploadConfig fileUploadConfig, ThumbnailService thumbnailService) {
+        this.fileStorageService = fileStorageService;
+        this.reactiveFileStorageService = reactiveFileStorageService;
+        this.fileUploadConfig = fileUploadConfig;
+        this.thumbnailService = thumbnailService;
+        long cacheMaxAge = fileUploadConfig.getDownloadCacheMaxAge();
+        this.cacheControl = cacheMaxAge > 0
+            ? CacheControl.maxAge(Duration.ofSeconds(cacheMaxAge)).cachePublic().immutable().getHeaderValue()
+            : CacheControl.noCache().getHeaderValue();
+    }
+
+    @PostMapping(value = {"/upload", "/upload/stream"}, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<ResponseEntity<FileUploadResponse>> uploadFiles(@RequestBody Flux<PartEvent> parts) {
+        return reactiveFileStorageService.storeParts(parts, fileUploadConfig.getMaxFiles(), fileUploadConfig.getMaxFileSize())
+            .doOnNext(thumbnailService::enqueue)
+            .map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/files")
+    public ResponseEntity<List<String>> listFiles(
+            @RequestParam(required = false) String prefix,
+            @RequestParam(defaultValue = "name") String sort,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new BadRequestException("offset must be >= 0 and limit between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        FileIndex.Page page = fileStorageService.listFiles(
+            prefix, FileIndex.SortField.fromParameter(sort), "desc".equalsIgnoreCase(order), offset, limit);
+        return ResponseEntity.ok()
+            .header(TOTAL_COUNT_HEADER, String.valueOf(page.total()))
+            .body(page.items().stream().map(FileMetadata::getFilename).toList());
+    }
+
+    /**
+     * Serves a stored file. WebFlux answers {@code Range} requests for a {@link Resource} body and
+     * sends file regions with zero-copy transfers where the server supports them. Files stored
+     * compressed go out as is with {@code Content-Encoding: gzip}, or are decompressed on a worker
+     * thread for clients that do not accept it. With {@code size} the thumbnail of a stored image
+     * in that size is served instead. The {@code ETag}, {@code Last-Modified}, {@code Cache-Control}
+     * and {@code Repr-Digest} headers match the servlet download handler's, and WebFlux answers
+     * conditional requests on them with 304.
+     */
+    @GetMapping("/files/{filename:.+}")
+    public Mono<ResponseEntity<?>> downloadFile(@PathVariable String filename, @RequestParam(required = false) Integer size,
+                                                @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return Mono.fromCallable(() -> {
+            Path file = size == null ? fileStorageService.resolveStoredFile(filename) : thumbnailService.getThumbnail(filename, size);
+            ContentDigest digest = fileStorageService.getDigest(filename);
+            FileMetadata metadata = size == null ? fileStorageService.resolveMetadata(filename) : null;
+            String entityTag = size == null ? digest.getSha256() : digest.getSha256() + "-" + size;
+            MediaType contentType = contentType(file);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName() + "\"")
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl(filename))
+                .lastModified(Files.getLastModifiedTime(file).toInstant())
+                .contentType(contentType);
+            // A thumbnail is a different representation, with digests of its own that are not kept
+            String reprDigest = size == null ? digest.toHeader(fileStorageService.getDigestAlgorithms()) : null;
+            if (!ContentCompression.isEncoded(metadata)) {
+                return reprDigest(eTag(response, entityTag, ""), reprDigest).body(new FileSystemResource(file));
+            }
+            response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (ContentCompression.acceptsGzip(acceptEncoding)) {
+                return eTag(response, entityTag, "-" + ContentCompression.GZIP)
+                    .header(HttpHeaders.CONTENT_ENCODING, ContentCompression.GZIP).body(new FileSystemResource(file));
+            }
+            reprDigest(eTag(response, entityTag, ""), reprDigest);
+            Flux<DataBuffer> decoded = DataBufferUtils.readInputStream(
+                    () -> new GZIPInputStream(Files.newInputStream(file), DECODE_BUFFER_SIZE), DefaultDataBufferFactory.sharedInstance, DECODE_BUFFER_SIZE)
+                .subscribeOn(Schedulers.boundedElastic());
+            return response.header(HttpHeaders.ACCEPT_RANGES, "none").contentLength(metadata.getSize()).body(decoded);
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Answers {@code HEAD} for a stored file from the index and a {@code stat}, without opening
+     * the file, with the headers of {@link #downloadFile}. Thumbnails, ranges and files whose
+     * encoding is not recorded yet take the download path, which answers {@code HEAD} as well.
+     */
+    @RequestMapping(value = "/files/{filename:.+}", method = RequestMethod.HEAD)
+    public Mono<ResponseEntity<?>> headFile(@PathVariable String filename, @RequestParam(required = false) Integer size,
+                                            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range) {
+        FileMetadata metadata = size == null && range == null ? fileStorageService.getMetadata(filename) : null;
+        if (metadata == null || metadata.getEncoding() == null) {
+            return downloadFile(filename, size, acceptEncoding);
+        }
+        MediaType contentType = contentType(Path.of(filename));
+        boolean encoded = ContentCompression.isEncoded(metadata);
+        boolean sendEncoded = encoded && ContentCompression.acceptsGzip(acceptEncoding);
+        return Mono.<ResponseEntity<?>>fromCallable(() -> {
+            Path file = fileStorageService.resolveStoredFile(filename);
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName() + "\"")
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl(filename))
+                .header(HttpHeaders.ACCEPT_RANGES, encoded && !sendEncoded ? "none" : "bytes")
+                .lastModified(attributes.lastModifiedTime().toInstant())
+                .contentType(contentType)
+                .contentLength(encoded && !sendEncoded ? metadata.getSize() : attributes.size());
+            if (encoded) {
+                response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            if (sendEncoded) {
+                response.header(HttpHeaders.CONTENT_ENCODING, ContentCompression.GZIP);
+            }
+            if (metadata.getChecksum() != null) {
+                ContentDigest digest = new ContentDigest(metadata.getChecksum(), metadata.getCrc32c());
+                eTag(response, digest.getSha256(), sendEncoded ? "-" + ContentCompression.GZIP : "");
+                reprDigest(response, sendEncoded ? null : digest.toHeader(fileStorageService.getDigestAlgorithms()));
+            }
+            return response.build();
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Returns what is recorded about a stored file, answered from the index alone.
+     */
+    @GetMapping("/files/{filename:.+}/metadata")
+    public ResponseEntity<FileDetails> getFileDetails(@PathVariable String filename) {
+        return ResponseEntity.ok(fileStorageService.getDetails(filename));
+    }
+
+    // Objects written over S3 can be replaced under the same name, so caches have to revalidate them
+    private String cacheControl(String filename) {
+        return FileStorageService.isUploadName(filename) ? cacheControl : CacheControl.noCache().getHeaderValue();
+    }
+
+    private static ResponseEntity.BodyBuilder eTag(ResponseEntity.BodyBuilder response, String entityTag, String suffix) {
+        return response.eTag("\"" + entityTag + suffix + "\"");
+    }
+
+    // Digests cover the content as uploaded, so the gzip encoding goes without
+    private static ResponseEntity.BodyBuilder reprDigest(ResponseEntity.BodyBuilder response, String reprDigest) {
+        return reprDigest == null ? response : response.header(ContentDigest.REPR_DIGEST, reprDigest);
+    }
+
+    private static MediaType contentType(Path file) {
+        return MediaTypeFactory.getMediaType(file.getFileName().toString()).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.manimovassagh.uploader.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePartEvent;
+import org.springframework.http.codec.multipart.PartEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Stores multipart uploads as a stream of {@link PartEvent}s. File content goes from the
+ * connection to an {@code AsynchronousFileChannel} one {@link DataBuffer} at a time, and the next
+ * buffer is only requested once the previous one is on disk, so a slow disk slows the client
+ * down instead of filling memory. Finished files are placed by
+ * {@link FileStorageService#storeAssembled} on a worker thread, exactly as the servlet build does.
+ */
+@Service
+public class ReactiveFileStorageService {
+
+    private static final String MULTIPART_FILES_FIELD = "files";
+    private static final String INCOMING_DIR = ".incoming";
+
+    private final FileStorageService fileStorageService;
+    private final FileMetrics fileMetrics;
+    private final Path incomingDir;
+
+    public ReactiveFileStorageService(FileStorageService fileStorageService, FileMetrics fileMetrics) {
+        this.fileStorageService = fileStorageService;
+        this.fileMetrics = fileMetrics;
+        try {
+            this.incomingDir = Files.createDirectories(fileStorageService.getStorageLocation().resolve(INCOMING_DIR));
+            // Left behind by uploads that were in flight when the service stopped
+            try (Stream<Path> files = Files.list(incomingDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not create the directory for incoming uploads.", ex);
+        }
+    }
+
+    /**
+     * Stores the parts named {@code files}, one after another in request order. Files already
+     * stored by this request are removed if a later part is rejected. A part may carry a
+     * {@code Repr-Digest} header for its content to be checked against.
+     */
+    public Mono<FileUploadResponse> storeParts(Flux<PartEvent> parts, int maxFiles, long maxFileSize) {
+        List<FileUploadResponse.FileInfo> uploadedFiles = new CopyOnWriteArrayList<>();
+        AtomicInteger fileCount = new AtomicInteger();
+
+        return parts.windowUntil(PartEvent::isLast)
+            .concatMap(partEvents -> partEvents.switchOnFirst((signal, events) -> {
+                if (!(signal.get() instanceof FilePartEvent first) || !MULTIPART_FILES_FIELD.equals(first.name())) {
+                    return events.doOnNext(event -> DataBufferUtils.release(event.content())).then(Mono.<FileUploadResponse.FileInfo>empty());
+                }
+                if (fileCount.incrementAndGet() > maxFiles) {
+                    return Mono.error(new UploadRejectedException(UploadRejectedException.Reason.TOO_MANY_FILES,
+                        "Too many files. Maximum is " + maxFiles + " files."));
+                }
+                MediaType mediaType = first.headers().getContentType();
+                String contentType = mediaType != null ? mediaType.toString() : null;
+                long validateStart = System.nanoTime();
+                boolean validType = fileStorageService.isValidFileType(contentType);
+                fileMetrics.recordStage(FileMetrics.Stage.VALIDATE, System.nanoTime() - validateStart);
+                if (!validType) {
+                    return Mono.error(new UploadRejectedException(UploadRejectedException.Reason.INVALID_TYPE,
+                        "Invalid file type. Only images, PDFs, and documents are allowed."));
+                }
+                return storeFile(first.filename(), contentType, first.headers().getFirst(ContentDigest.REPR_DIGEST),
+                    events.map(PartEvent::content), maxFileSize);
+            }))
+            .doOnNext(uploadedFiles::add)
+            .then(Mono.defer(() -> uploadedFiles.isEmpty()
+                ? Mono.<FileUploadResponse>error(new UploadRejectedException(UploadRejectedException.Reason.EMPTY, "No files uploaded"))
+                : Mono.just(new FileUploadResponse("Files uploaded successfully", List.copyOf(uploadedFiles)))))
+            .onErrorResume(ex -> Mono.fromRunnable(() -> fileStorageService.deleteStoredFiles(uploadedFiles))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then(Mono.error(ex)));
+    }
+
+    private Mono<FileUploadResponse.FileInfo> storeFile(String filename, String contentType, String expectedDigest,
+                                                        Flux<DataBuffer> content, long maxSize) {
+        String originalFilename = StringUtils.cleanPath(filename);
+        AtomicLong size = new AtomicLong();
+        // Buffers are digested on their way to the file, so storing it needs no second read
+        ContentDigest.Sink digest = new ContentDigest.Sink(OutputStream.nullOutputStream(), true);
+        Flux<DataBuffer> limited = content.handle((buffer, sink) -> {
+            if (size.addAndGet(buffer.readableByteCount()) > maxSize) {
+                DataBufferUtils.release(buffer);
+                sink.error(new UploadRejectedException(UploadRejectedException.Reason.TOO_LARGE,
+                    "File too large. Maximum size is " + (maxSize / (1024 * 1024)) + "MB."));
+            } else {
+                try (DataBuffer.ByteBufferIterator buffers = buffer.readableByteBuffers()) {
+                    buffers.forEachRemaining(digest::update);
+                }
+                sink.next(buffer);
+            }
+        });
+
+        return Mono.fromCallable(() -> Files.createTempFile(incomingDir, "upload-", ".tmp"))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMap(tempFile -> {
+                long receiveStart = System.nanoTime();
+                return DataBufferUtils.write(limited, tempFile, StandardOpenOption.WRITE)
+                    .then(Mono.fromCallable(() -> {
+                        fileMetrics.recordStage(FileMetrics.Stage.RECEIVE, System.nanoTime() - receiveStart);
+                        try {
+                            return fileStorageService.storeAssembled(tempFile, originalFilename, contentType, digest.digest(), expectedDigest);
+                        } finally {
+                            Files.deleteIfExists(tempFile);
+                        }
+                    }).subscribeOn(Schedulers.boundedElastic()))
+                    .onErrorResume(ex -> Mono.fromCallable(() -> Files.deleteIfExists(tempFile))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .then(Mono.error(ex)));
+            });
+    }
+}
@@ -0,0 +1,259 @@
+package com.github.manimovassagh.uploader.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.GlobalExceptionHandler;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+import com.github.manimovassagh.uploader.service.ReactiveFileStorageService;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReactiveFileControllerTest {
+
+    private WebTestClient webTestClient;
+    private FileStorageService fileStorageService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        FileUploadConfig fileUploadConfig = mock(FileUploadConfig.class);
+        when(fileUploadConfig.getMaxFileSize()).thenReturn(5L * 1024 * 1024); // 5MB
+        when(fileUploadConfig.getMaxFiles()).thenReturn(5);
+        when(fileUploadConfig.getDownloadCacheMaxAge()).thenReturn(3600L);
+        meterRegistry = new SimpleMeterRegistry();
+        FileMetrics fileMetrics = new FileMetrics(meterRegistry);
+        fileStorageService = TestServices.fileStorageService(tempDir);
+        ReactiveFileController controller = new ReactiveFileController(
+            fileStorageService, new ReactiveFileStorageService(fileStorageService, fileMetrics), fileUploadConfig,
+            new ThumbnailService(fileStorageService, null, 1));
+        webTestClient = WebTestClient.bindToController(controller)
+            .controllerAdvice(new GlobalExceptionHandler(fileMetrics))
+            .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileStorageService.close();
+    }
+
+    @Test
+    void uploadFiles_ShouldReturnSuccess_WhenValidFilesProvided() throws IOException {
+        // Arrange
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "test image content".getBytes()).filename("test1.jpg").contentType(MediaType.IMAGE_JPEG);
+        body.part("files", "test pdf content".getBytes()).filename("test2.pdf").contentType(MediaType.APPLICATION_PDF);
+
+        // Act
+        FileUploadResponse response = upload(body)
+            .expectStatus().isOk()
+            .expectBody(FileUploadResponse.class)
+            .returnResult()
+            .getResponseBody();
+
+        // Assert
+        assertNotNull(response);
+        assertEquals("Files uploaded successfully", response.getMessage());
+        assertEquals(2, response.getFiles().size());
+        assertEquals(2, fileStorageService.listFiles().size());
+        assertEquals(0, countIncoming());
+    }
+
+    @Test
+    void uploadFiles_ShouldReturnBadRequest_WhenNoFilesProvided() {
+        // Arrange
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("description", "no files here");
+
+        // Act & Assert
+        upload(body)
+            .expectStatus().isBadRequest()
+            .expectBody()
+            .jsonPath("$.message").isEqualTo("No files uploaded")
+            .jsonPath("$.files").isEmpty();
+    }
+
+    @Test
+    void uploadFiles_ShouldReturnBadRequest_WhenTooManyFilesProvided() {
+        // Arrange
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        for (int i = 0; i < 6; i++) {
+            body.part("files", "test content".getBytes()).filename("test" + i + ".txt").contentType(MediaType.TEXT_PLAIN);
+        }
+
+        // Act
+        upload(body)
+            .expectStatus().isBadRequest()
+            .expectBody()
+            .jsonPath("$.message").isEqualTo("Too many files. Maximum is 5 files.");
+
+        // Assert
+        assertTrue(fileStorageService.listFiles().isEmpty());
+        assertEquals(1, meterRegistry.get("upload.rejections").tag("reason", "too_many_files").counter().count());
+    }
+
+    @Test
+    void uploadFiles_ShouldReturnBadRequest_WhenFileTypeIsInvalid() {
+        // Arrange
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "test content".getBytes()).filename("test.js").contentType(MediaType.parseMediaType("application/javascript"));
+
+        // Act & Assert
+        upload(body)
+            .expectStatus().isBadRequest()
+            .expectBody()
+            .jsonPath("$.message").isEqualTo("Invalid file type. Only images, PDFs, and documents are allowed.");
+    }
+
+    @Test
+    void listFiles_ShouldReturnListOfFiles() throws IOException {
+        // Arrange
+        Files.writeString(tempDir.resolve("file1.jpg"), "one");
+        Files.writeString(tempDir.resolve("file2.pdf"), "two");
+        Files.writeString(tempDir.resolve("file3.txt"), "three");
+        FileStorageService indexedService = TestServices.fileStorageService(tempDir);
+        WebTestClient client = WebTestClient.bindToController(new ReactiveFileController(
+                indexedService, mock(ReactiveFileStorageService.class), mock(FileUploadConfig.class),
+                mock(ThumbnailService.class)))
+            .build();
+
+        try {
+            // Act & Assert
+            client.get().uri("/api/files?limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Total-Count", "3")
+                .expectBody(new ParameterizedTypeReference<List<String>>() { })
+                .isEqualTo(List.of("file1.jpg", "file2.pdf"));
+        } finally {
+            indexedService.close();
+        }
+    }
+
+    @Test
+    void listFiles_ShouldRejectUnknownSortField() {
+        webTestClient.get().uri("/api/files?sort=colour")
+            .exchange()
+            .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void uploadFiles_ShouldRejectPartThatDoesNotMatchItsReprDigest() throws IOException {
+        // Arrange
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "abc".getBytes()).filename("abc.txt").contentType(MediaType.TEXT_PLAIN)
+            .header("Repr-Digest", "crc32c=:AAAAAA==:");
+
+        // Act
+        upload(body).expectStatus().isBadRequest();
+
+        // Assert
+        assertTrue(fileStorageService.listFiles().isEmpty());
+        assertEquals(0, countIncoming());
+    }
+
+    @Test
+    void downloadFile_ShouldWriteFileToResponse() throws IOException {
+        // Arrange
+        Files.writeString(tempDir.resolve("test.jpg"), "test content");
+
+        // Act & Assert
+        webTestClient.get().uri("/api/files/test.jpg")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentType(MediaType.IMAGE_JPEG)
+            .expectHeader().valueEquals("Content-Disposition", "attachment; filename=\"test.jpg\"")
+            .expectHeader().valueEquals("Cache-Control", "no-cache")
+            .expectBody(String.class).isEqualTo("test content");
+    }
+
+    @Test
+    void downloadFile_ShouldReturn304_WhenIfNoneMatchMatchesETag() throws IOException {
+        // Arrange
+        Files.writeString(tempDir.resolve("test.jpg"), "test content");
+        String etag = webTestClient.get().uri("/api/files/test.jpg")
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(String.class)
+            .getResponseHeaders().getETag();
+
+        // Act & Assert
+        assertNotNull(etag);
+        webTestClient.get().uri("/api/files/test.jpg")
+            .header("If-None-Match", etag)
+            .exchange()
+            .expectStatus().isNotModified()
+            .expectBody().isEmpty();
+    }
+
+    @Test
+    void headFile_ShouldAnswerFromIndex_AndMetadataShouldReturnDetails() {
+        // Arrange
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "test image content".getBytes()).filename("test.png").contentType(MediaType.IMAGE_PNG);
+        FileUploadResponse response = upload(body)
+            .expectStatus().isOk()
+            .expectBody(FileUploadResponse.class)
+            .returnResult()
+            .getResponseBody();
+        assertNotNull(response);
+        String filename = response.getFiles().get(0).getFilename();
+
+        // Act & Assert
+        webTestClient.head().uri("/api/files/" + filename)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentType(MediaType.IMAGE_PNG)
+            .expectHeader().contentLength("test image content".length())
+            .expectHeader().exists("ETag")
+            .expectHeader().valueEquals("Cache-Control", "max-age=3600, public, immutable")
+            .expectBody().isEmpty();
+        webTestClient.get().uri("/api/files/" + filename + "/metadata")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.originalName").isEqualTo("test.png")
+            .jsonPath("$.size").isEqualTo("test image content".length())
+            .jsonPath("$.uploadTime").exists();
+        webTestClient.get().uri("/api/files/missing.png/metadata")
+            .exchange()
+            .expectStatus().isNotFound();
+    }
+
+    private WebTestClient.ResponseSpec upload(MultipartBodyBuilder body) {
+        return webTestClient.post().uri("/api/upload")
+            .contentType(MediaType.MULTIPART_FORM_DATA)
+            .body(BodyInserters.fromMultipartData(body.build()))
+            .exchange();
+    }
+
+    private long countIncoming() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir.resolve(".incoming"))) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.github.manimovassagh.uploader.integration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest
+@AutoConfigureWebTestClient
+class ReactiveFileUploadIntegrationTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @TempDir
+    static Path tempUploadDir;
+
+    @DynamicPropertySource
+    static void setUploadDir(DynamicPropertyRegistry registry) {
+        registry.add("file.upload.dir", () -> tempUploadDir.toString());
+    }
+
+    @Test
+    void shouldUploadAndDownloadFile() throws Exception {
+        String filename = "test.txt";
+        String content = "Hello, World!";
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", content.getBytes()).filename(filename).contentType(MediaType.TEXT_PLAIN);
+
+        // Upload file
+        byte[] uploadResponse = upload("/api/upload", body)
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Files uploaded successfully")
+                .jsonPath("$.files[0].originalName").isEqualTo(filename)
+                .returnResult()
+                .getResponseBody();
+        JsonNode root = new ObjectMapper().readTree(uploadResponse);
+        String storedFilename = root.get("files").get(0).get("filename").asText();
+
+        // List files
+        webTestClient.get().uri(uri -> uri.path("/api/files").queryParam("prefix", storedFilename).build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Total-Count", "1")
+                .expectBody()
+                .jsonPath("$[0]").isEqualTo(storedFilename);
+
+        // Download file using stored filename
+        String downloaded = webTestClient.get().uri("/api/files/" + storedFilename)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists("Content-Disposition")
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+        assertEquals(content, downloaded);
+    }
+
+    @Test
+    void shouldRejectInvalidFileType() {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "console.log('test')".getBytes()).filename("test.js")
+            .contentType(MediaType.parseMediaType("application/javascript"));
+
+        upload("/api/upload", body)
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Invalid file type. Only images, PDFs, and documents are allowed.");
+    }
+
+    @Test
+    void shouldRejectFileWhoseContentDoesNotMatchItsType() {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "this is plain text".getBytes()).filename("report.pdf").contentType(MediaType.APPLICATION_PDF);
+
+        upload("/api/upload", body)
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Content of report.pdf is text/plain but was declared as application/pdf.");
+    }
+
+    @Test
+    void shouldRejectTooManyFiles() {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        for (int i = 0; i < 6; i++) {
+            body.part("files", "test content".getBytes()).filename("many" + i + ".txt").contentType(MediaType.TEXT_PLAIN);
+        }
+
+        upload("/api/upload", body)
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Too many files. Maximum is 5 files.");
+        webTestClient.get().uri(uri -> uri.path("/api/files").queryParam("prefix", "many").build())
+                .exchange()
+                .expectBody()
+                .jsonPath("$").isEmpty();
+    }
+
+    @Test
+    void shouldRejectEmptyFile() {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", new byte[0]).filename("empty.txt").contentType(MediaType.TEXT_PLAIN);
+
+        upload("/api/upload", body)
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void shouldStreamUploadAndDownloadFile() throws Exception {
+        String content = "Streamed content";
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", content.getBytes()).filename("streamed.txt").contentType(MediaType.TEXT_PLAIN);
+
+        byte[] uploadResponse = upload("/api/upload/stream", body)
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.files[0].originalName").isEqualTo("streamed.txt")
+                .jsonPath("$.files[0].size").isEqualTo(content.length())
+                .returnResult()
+                .getResponseBody();
+        String storedFilename = new ObjectMapper().readTree(uploadResponse).get("files").get(0).get("filename").asText();
+
+        webTestClient.get().uri("/api/files/" + storedFilename)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo(content);
+    }
+
+    @Test
+    void shouldServeByteRangeOfStoredFile() throws Exception {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "0123456789".getBytes()).filename("range.txt").contentType(MediaType.TEXT_PLAIN);
+        byte[] uploadResponse = upload("/api/upload", body)
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+        String storedFilename = new ObjectMapper().readTree(uploadResponse).get("files").get(0).get("filename").asText();
+
+        webTestClient.get().uri("/api/files/" + storedFilename)
+                .header("Range", "bytes=2-4")
+                .exchange()
+                .expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals("Content-Range", "bytes 2-4/10")
+                .expectHeader().valueEquals("Accept-Ranges", "bytes")
+                .expectBody(String.class).isEqualTo("234");
+    }
+
+    @Test
+    void shouldDownloadSeveralFilesAsZip() throws Exception {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("files", "first".getBytes()).filename("first.txt").contentType(MediaType.TEXT_PLAIN);
+        body.part("files", "second".getBytes()).filename("second.txt").contentType(MediaType.TEXT_PLAIN);
+        byte[] uploadResponse = upload("/api/upload", body)
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+        JsonNode stored = new ObjectMapper().readTree(uploadResponse).get("files");
+        String firstName = stored.get(0).get("filename").asText();
+        String secondName = stored.get(1).get("filename").asText();
+
+        byte[] archive = webTestClient.get().uri(uri -> uri.path("/api/archive").queryParam("files", firstName, secondName).build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType("application/zip")
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            assertEquals(firstName, zip.getNextEntry().getName());
+            assertEquals("first", new String(zip.readAllBytes()));
+            assertEquals(secondName, zip.getNextEntry().getName());
+            assertEquals("second", new String(zip.readAllBytes()));
+            assertNull(zip.getNextEntry());
+        }
+
+        webTestClient.post().uri("/api/archive")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(firstName, "missing.txt"))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void shouldRejectInvalidListingParameters() {
+        webTestClient.get().uri("/api/files?sort=colour")
+                .exchange()
+                .expectStatus().isBadRequest();
+        webTestClient.get().uri("/api/files?limit=0")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void shouldReturn404ForNonExistentFile() {
+        webTestClient.get().uri("/api/files/nonexistent.txt")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    private WebTestClient.ResponseSpec upload(String path, MultipartBodyBuilder body) {
+        return webTestClient.post().uri(path)
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(body.build()))
+                .exchange();
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.manimovassagh.uploader;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.service.DownloadCache;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Wires services the way the application context would, with the download cache disabled and
+ * metrics going to a registry of their own, for tests and benchmarks that build them by hand.
+ */
+public final class TestServices {
+
+    private TestServices() {
+    }
+
+    public static FileStorageService fileStorageService(Path storageDir) {
+        return new FileStorageService(storageDir, new FileUploadConfig(), new DownloadCache(0, 0), new FileMetrics(new SimpleMeterRegistry()));
+    }
+
+    public static FileStorageService fileStorageService(FileUploadConfig fileUploadConfig) {
+        return new FileStorageService(Paths.get(fileUploadConfig.getUploadDir()).toAbsolutePath().normalize(), fileUploadConfig,
+            new DownloadCache(0, 0), new FileMetrics(new SimpleMeterRegistry()));
+    }
+
+    /**
+     * Binds a {@link FileUploadConfig} as the application does, so settings not given in
+     * {@code properties} keep their defaults instead of a mock's zeros and nulls.
+     */
+    public static FileUploadConfig fileUploadConfig(Map<String, Object> properties) {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", properties));
+            context.register(FileUploadConfig.class);
+            context.refresh();
+            return context.getBean(FileUploadConfig.class);
+        }
+    }
+}
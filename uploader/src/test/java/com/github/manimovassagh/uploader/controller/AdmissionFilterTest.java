@@ -0,0 +1,74 @@
+package com.github.manimovassagh.uploader.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.service.AdmissionControl;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletException;
+
+class AdmissionFilterTest {
+
+    private AdmissionFilter admissionFilter;
+
+    @BeforeEach
+    void setUp() {
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getAdmissionClientHeader()).thenReturn("X-Forwarded-For");
+        AdmissionControl admissionControl = new AdmissionControl(1, 1, 0, 0, 0, 1000,
+            new FileMetrics(new SimpleMeterRegistry()), System::nanoTime);
+        admissionFilter = new AdmissionFilter(admissionControl, config);
+    }
+
+    @Test
+    void doFilter_ShouldAnswer429WithRetryAfter_WithoutCallingTheHandler() throws ServletException, IOException {
+        // Arrange
+        admissionFilter.doFilter(upload("10.0.0.1"), new MockHttpServletResponse(), new MockFilterChain());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        // Act
+        admissionFilter.doFilter(upload("spoofed, 10.0.0.1"), response, chain);
+
+        // Assert
+        assertEquals(429, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+        assertNull(chain.getRequest());
+    }
+
+    @Test
+    void doFilter_ShouldPassOtherClientsAndUnlimitedPaths() throws ServletException, IOException {
+        // Arrange
+        admissionFilter.doFilter(upload("10.0.0.1"), new MockHttpServletResponse(), new MockFilterChain());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        // Act
+        admissionFilter.doFilter(upload("10.0.0.2"), response, chain);
+        for (int i = 0; i < 5; i++) {
+            admissionFilter.doFilter(new MockHttpServletRequest("GET", "/api/files"), new MockHttpServletResponse(), new MockFilterChain());
+        }
+
+        // Assert
+        assertEquals(200, response.getStatus());
+        assertNotNull(chain.getRequest());
+    }
+
+    private static MockHttpServletRequest upload(String forwardedFor) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/upload");
+        request.addHeader("X-Forwarded-For", forwardedFor);
+        request.setContent(new byte[10]);
+        return request;
+    }
+}
@@ -3,27 +3,59 @@ package com.github.manimovassagh.uploader.controller;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.mock.web.MockMultipartHttpServletRequest;
+import org.springframework.mock.web.MockPart;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.GlobalExceptionHandler;
+import com.github.manimovassagh.uploader.model.FileDetails;
+import com.github.manimovassagh.uploader.model.FileMetadata;
 import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.github.manimovassagh.uploader.service.ClusterService;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.DownloadCache;
+import com.github.manimovassagh.uploader.service.FileIndex;
+import com.github.manimovassagh.uploader.service.FileMetrics;
 import com.github.manimovassagh.uploader.service.FileStorageService;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletException;
 
 class FileControllerTest {
 
     private FileController fileController;
     private FileStorageService fileStorageService;
     private FileUploadConfig fileUploadConfig;
+    private ThumbnailService thumbnailService;
+    private ClusterService clusterService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @TempDir
+    Path tempDir;
 
     @BeforeEach
     void setUp() {
@@ -31,11 +63,16 @@ class FileControllerTest {
         fileUploadConfig = mock(FileUploadConfig.class);
         when(fileUploadConfig.getMaxFileSize()).thenReturn(5L * 1024 * 1024); // 5MB
         when(fileUploadConfig.getMaxFiles()).thenReturn(5);
-        fileController = new FileController(fileStorageService, fileUploadConfig);
+        meterRegistry = new SimpleMeterRegistry();
+        thumbnailService = mock(ThumbnailService.class);
+        clusterService = mock(ClusterService.class);
+        FileMetrics fileMetrics = new FileMetrics(meterRegistry);
+        fileController = new FileController(fileStorageService, fileUploadConfig, new FileDownloadHandler(new DownloadCache(0, 0), fileMetrics),
+            fileMetrics, thumbnailService, clusterService);
     }
 
     @Test
-    void uploadFiles_ShouldReturnSuccess_WhenValidFilesProvided() {
+    void uploadFiles_ShouldReturnSuccess_WhenValidFilesProvided() throws IOException, ServletException {
         // Arrange
         MockMultipartFile file1 = new MockMultipartFile(
             "files",
@@ -69,25 +106,27 @@ class FileControllerTest {
         );
 
         when(fileStorageService.isValidFileType(any())).thenReturn(true);
-        when(fileStorageService.storeFiles(any())).thenReturn(expectedResponse);
+        when(fileStorageService.storeFiles(any(), any())).thenReturn(expectedResponse);
 
         // Act
-        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files);
+        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files, new MockHttpServletRequest());
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertNotNull(response.getBody());
         assertEquals("Files uploaded successfully", response.getBody().getMessage());
         assertEquals(2, response.getBody().getFiles().size());
+        verify(clusterService).replicate(expectedResponse);
+        verify(thumbnailService).enqueue(expectedResponse);
     }
 
     @Test
-    void uploadFiles_ShouldReturnBadRequest_WhenNoFilesProvided() {
+    void uploadFiles_ShouldReturnBadRequest_WhenNoFilesProvided() throws IOException, ServletException {
         // Arrange
         MockMultipartFile[] files = new MockMultipartFile[0];
 
         // Act
-        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files);
+        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files, new MockHttpServletRequest());
 
         // Assert
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -97,7 +136,7 @@ class FileControllerTest {
     }
 
     @Test
-    void uploadFiles_ShouldReturnBadRequest_WhenTooManyFilesProvided() {
+    void uploadFiles_ShouldReturnBadRequest_WhenTooManyFilesProvided() throws IOException, ServletException {
         // Arrange
         MockMultipartFile[] files = new MockMultipartFile[6];
         for (int i = 0; i < 6; i++) {
@@ -110,17 +149,18 @@ class FileControllerTest {
         }
 
         // Act
-        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files);
+        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files, new MockHttpServletRequest());
 
         // Assert
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertNotNull(response.getBody());
         assertEquals("Too many files. Maximum is 5 files.", response.getBody().getMessage());
         assertTrue(response.getBody().getFiles().isEmpty());
+        assertEquals(1, meterRegistry.get("upload.rejections").tag("reason", "too_many_files").counter().count());
     }
 
     @Test
-    void uploadFiles_ShouldReturnBadRequest_WhenFileTypeIsInvalid() {
+    void uploadFiles_ShouldReturnBadRequest_WhenFileTypeIsInvalid() throws IOException, ServletException {
         // Arrange
         MockMultipartFile file = new MockMultipartFile(
             "files",
@@ -133,7 +173,7 @@ class FileControllerTest {
         when(fileStorageService.isValidFileType(any())).thenReturn(false);
 
         // Act
-        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files);
+        ResponseEntity<FileUploadResponse> response = fileController.uploadFiles(files, new MockHttpServletRequest());
 
         // Assert
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -142,42 +182,163 @@ class FileControllerTest {
         assertTrue(response.getBody().getFiles().isEmpty());
     }
 
+    @Test
+    void uploadFiles_ShouldPassReprDigestOfEachPart() throws IOException, ServletException {
+        // Arrange
+        MockMultipartFile[] files = {
+            new MockMultipartFile("files", "a.txt", "text/plain", "a".getBytes()),
+            new MockMultipartFile("files", "b.txt", "text/plain", "b".getBytes())
+        };
+        MockMultipartHttpServletRequest request = new MockMultipartHttpServletRequest();
+        request.setContentType("multipart/form-data; boundary=x");
+        MockPart first = new MockPart("files", "a.txt", "a".getBytes());
+        first.getHeaders().set("Repr-Digest", "sha-256=:ypeBEsobvcr6wjGzmiPcTaeG7/gUfE5yuYB3ha/uSLs=:");
+        request.addPart(first);
+        request.addPart(new MockPart("description", "not a file".getBytes()));
+        request.addPart(new MockPart("files", "b.txt", "b".getBytes()));
+        when(fileStorageService.isValidFileType(any())).thenReturn(true);
+        when(fileStorageService.storeFiles(any(), any())).thenReturn(new FileUploadResponse("Files uploaded successfully", List.of()));
+
+        // Act
+        fileController.uploadFiles(files, request);
+
+        // Assert
+        verify(fileStorageService).storeFiles(files, new String[] {"sha-256=:ypeBEsobvcr6wjGzmiPcTaeG7/gUfE5yuYB3ha/uSLs=:", null});
+    }
+
     @Test
     void listFiles_ShouldReturnListOfFiles() {
         // Arrange
         List<String> expectedFiles = Arrays.asList("file1.jpg", "file2.pdf");
-        when(fileStorageService.listFiles()).thenReturn(expectedFiles);
+        FileIndex.Page page = new FileIndex.Page(List.of(
+            new FileMetadata("file1.jpg", "file1.jpg", 10L, "image/jpeg", Instant.EPOCH),
+            new FileMetadata("file2.pdf", "file2.pdf", 20L, "application/pdf", Instant.EPOCH)
+        ), 7);
+        when(fileStorageService.listFiles(null, FileIndex.SortField.NAME, false, 0, 2)).thenReturn(page);
 
         // Act
-        ResponseEntity<List<String>> response = fileController.listFiles();
+        ResponseEntity<List<String>> response = fileController.listFiles(null, "name", "asc", 0, 2);
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertNotNull(response.getBody());
         assertEquals(2, response.getBody().size());
         assertEquals(expectedFiles, response.getBody());
+        assertEquals("7", response.getHeaders().getFirst("X-Total-Count"));
+    }
+
+    @Test
+    void listFiles_ShouldRejectUnknownSortField() {
+        assertThrows(BadRequestException.class, () -> fileController.listFiles(null, "colour", "asc", 0, 10));
     }
 
     @Test
-    void downloadFile_ShouldReturnFileResource() {
+    void listFiles_ShouldAnswer500_WhenAnInternalIllegalArgumentExceptionEscapes() throws Exception {
+        // Arrange
+        when(fileStorageService.listFiles(any(), any(), anyBoolean(), anyInt(), anyInt()))
+            .thenThrow(new IllegalArgumentException("internal"));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(fileController)
+            .setControllerAdvice(new GlobalExceptionHandler(new FileMetrics(meterRegistry)))
+            .build();
+
+        // Act & Assert
+        mockMvc.perform(get("/api/files"))
+            .andExpect(status().isInternalServerError());
+        mockMvc.perform(get("/api/files").param("sort", "colour"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void downloadFile_ShouldWriteFileToResponse() throws IOException {
         // Arrange
         String filename = "test.jpg";
-        Resource resource = new ByteArrayResource("test content".getBytes()) {
-            @Override
-            public String getFilename() {
-                return filename;
-            }
-        };
-        when(fileStorageService.loadFileAsResource(filename)).thenReturn(resource);
+        Path file = Files.write(tempDir.resolve(filename), "test content".getBytes());
+        when(fileStorageService.resolveStoredFile(filename)).thenReturn(file);
+        MockHttpServletResponse response = new MockHttpServletResponse();
 
         // Act
-        ResponseEntity<Resource> response = fileController.downloadFile(filename);
+        fileController.downloadFile(filename, null, new MockHttpServletRequest("GET", "/api/files/" + filename), response);
 
         // Assert
-        assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertNotNull(response.getBody());
-        assertTrue(response.getHeaders().containsKey("Content-Disposition"));
+        assertEquals(HttpStatus.OK.value(), response.getStatus());
+        assertEquals("test content", response.getContentAsString());
+        assertEquals(12, response.getContentLengthLong());
+        assertEquals("image/jpeg", response.getContentType());
         assertEquals("attachment; filename=\"" + filename + "\"", 
-            response.getHeaders().getFirst("Content-Disposition"));
+            response.getHeader("Content-Disposition"));
+    }
+
+    @Test
+    void downloadFile_ShouldSendETagAndReprDigest() throws IOException {
+        // Arrange
+        String filename = "test.jpg";
+        Path file = Files.write(tempDir.resolve(filename), "test content".getBytes());
+        when(fileStorageService.resolveStoredFile(filename)).thenReturn(file);
+        when(fileStorageService.getDigest(filename)).thenReturn(new ContentDigest("6ae8a75555209fd6c44157c0aed8016e763ff435a19cf186f76863140143ff72", "00000001"));
+        when(fileStorageService.getDigestAlgorithms()).thenReturn(EnumSet.allOf(ContentDigest.Algorithm.class));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileController.downloadFile(filename, null, new MockHttpServletRequest("GET", "/api/files/" + filename), response);
+
+        // Assert
+        assertEquals("\"6ae8a75555209fd6c44157c0aed8016e763ff435a19cf186f76863140143ff72\"", response.getHeader("ETag"));
+        assertEquals("sha-256=:auinVVUgn9bEQVfArtgBbnY/9DWhnPGG92hjFAFD/3I=:, crc32c=:AAAAAQ==:", response.getHeader("Repr-Digest"));
+    }
+
+    @Test
+    void downloadFile_ShouldRedirectToOwner_WhenFileIsStoredOnAnotherNode() throws IOException {
+        // Arrange
+        String filename = "1700000000000-test.jpg";
+        when(clusterService.locate(filename)).thenReturn("http://node-b:8080");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/" + filename);
+        request.setQueryString("size=128");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileController.downloadFile(filename, 128, request, response);
+
+        // Assert
+        assertEquals(HttpStatus.TEMPORARY_REDIRECT.value(), response.getStatus());
+        assertEquals("http://node-b:8080/api/files/" + filename + "?size=128", response.getHeader("Location"));
+        verify(fileStorageService, never()).resolveStoredFile(any());
+    }
+
+    @Test
+    void headFile_ShouldAnswerFromIndex_WithoutComputingDigests() throws IOException {
+        // Arrange
+        String filename = "test.jpg";
+        Path file = Files.write(tempDir.resolve(filename), "test content".getBytes());
+        when(fileStorageService.resolveStoredFile(filename)).thenReturn(file);
+        when(fileStorageService.getMetadata(filename)).thenReturn(new FileMetadata(filename, filename, 12, "image/jpeg",
+            Instant.now(), "6ae8a75555209fd6c44157c0aed8016e763ff435a19cf186f76863140143ff72", null, 12, "identity"));
+        when(fileStorageService.getDigestAlgorithms()).thenReturn(EnumSet.of(ContentDigest.Algorithm.SHA_256));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileController.headFile(filename, null, new MockHttpServletRequest("HEAD", "/api/files/" + filename), response);
+
+        // Assert
+        assertEquals(HttpStatus.OK.value(), response.getStatus());
+        assertEquals(12, response.getContentLengthLong());
+        assertEquals("\"6ae8a75555209fd6c44157c0aed8016e763ff435a19cf186f76863140143ff72\"", response.getHeader("ETag"));
+        assertEquals(0, response.getContentAsByteArray().length);
+        verify(fileStorageService, never()).getDigest(any());
+    }
+
+    @Test
+    void getFileDetails_ShouldReturnIndexedDetails() {
+        // Arrange
+        String filename = "1700000000000-test.jpg";
+        FileDetails details = new FileDetails(filename, "test.jpg", 12, "image/jpeg", Map.of(), Instant.ofEpochMilli(1700000000000L));
+        when(fileStorageService.getDetails(filename)).thenReturn(details);
+
+        // Act
+        ResponseEntity<FileDetails> response = fileController.getFileDetails(filename,
+            new MockHttpServletRequest("GET", "/api/files/" + filename + "/metadata"));
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertSame(details, response.getBody());
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,399 @@
+package com.github.manimovassagh.uploader.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.service.ContentDigest;
+import com.github.manimovassagh.uploader.service.DownloadCache;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FileDownloadHandlerTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @TempDir
+    Path tempDir;
+
+    private FileDownloadHandler fileDownloadHandler;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fileDownloadHandler = new FileDownloadHandler(new DownloadCache(0, 0), new FileMetrics(new SimpleMeterRegistry()));
+        file = Files.writeString(tempDir.resolve("test.txt"), CONTENT);
+    }
+
+    @Test
+    void handle_ShouldServeFullFile_WhenNoRangeRequested() throws IOException {
+        // Arrange
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", get(), response);
+
+        // Assert
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals(CONTENT.length(), response.getContentLengthLong());
+        assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    @Test
+    void handle_ShouldServeRangesFromCache_WhenCacheIsEnabled() throws IOException {
+        // Arrange
+        FileDownloadHandler cachingHandler = new FileDownloadHandler(new DownloadCache(64 * 1024, 1024),
+            new FileMetrics(new SimpleMeterRegistry()));
+        // Admitted on the second request
+        cachingHandler.handle(file, "test.txt", get(), new MockHttpServletResponse());
+        cachingHandler.handle(file, "test.txt", get(), new MockHttpServletResponse());
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=5-9");
+        request.setAttribute(FileDownloadHandler.SENDFILE_SUPPORT_ATTRIBUTE, Boolean.TRUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        cachingHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(206, response.getStatus());
+        assertEquals("56789", response.getContentAsString());
+        assertNull(request.getAttribute(FileDownloadHandler.SENDFILE_FILENAME_ATTRIBUTE));
+    }
+
+    @Test
+    void handle_ShouldServeSingleRange() throws IOException {
+        // Arrange
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=5-9");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 5-9/20", response.getHeader("Content-Range"));
+        assertEquals(5, response.getContentLengthLong());
+        assertEquals("56789", response.getContentAsString());
+    }
+
+    @Test
+    void handle_ShouldServeSuffixRange() throws IOException {
+        // Arrange
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=-4");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 16-19/20", response.getHeader("Content-Range"));
+        assertEquals("ghij", response.getContentAsString());
+    }
+
+    @Test
+    void handle_ShouldServeMultipleRangesAsMultipart() throws IOException {
+        // Arrange
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=0-1, 18-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = response.getContentAsString();
+        assertEquals(body.length(), response.getContentLengthLong());
+        assertTrue(body.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 18-19/20\r\n\r\nij\r\n"));
+    }
+
+    @Test
+    void handle_ShouldReturn416_WhenRangeNotSatisfiable() throws IOException {
+        // Arrange
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=100-200");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void handle_ShouldIgnoreRange_WhenIfRangeDoesNotMatch() throws IOException {
+        // Arrange
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=0-1");
+        request.addHeader("If-Range", "Wed, 21 Oct 2015 07:28:00 GMT");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    @Test
+    void handle_ShouldHonourRange_WhenIfRangeMatchesLastModified() throws IOException {
+        // Arrange
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=0-1");
+        request.addHeader("If-Range", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            Files.getLastModifiedTime(file).toInstant().atZone(ZoneOffset.UTC)));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(206, response.getStatus());
+        assertEquals("01", response.getContentAsString());
+    }
+
+    @Test
+    void handle_ShouldDelegateToSendfile_WhenContainerSupportsIt() throws IOException {
+        // Arrange
+        MockHttpServletRequest request = get();
+        request.setAttribute(FileDownloadHandler.SENDFILE_SUPPORT_ATTRIBUTE, Boolean.TRUE);
+        request.addHeader("Range", "bytes=2-5");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", request, response);
+
+        // Assert
+        assertEquals(206, response.getStatus());
+        assertEquals(file.toAbsolutePath().toString(), request.getAttribute(FileDownloadHandler.SENDFILE_FILENAME_ATTRIBUTE));
+        assertEquals(2L, request.getAttribute(FileDownloadHandler.SENDFILE_START_ATTRIBUTE));
+        assertEquals(6L, request.getAttribute(FileDownloadHandler.SENDFILE_END_ATTRIBUTE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void handle_ShouldSendGzipAsIs_WhenClientAcceptsIt() throws IOException {
+        // Arrange
+        byte[] encoded = gzip(CONTENT);
+        Path compressed = Files.write(tempDir.resolve("compressed.txt"), encoded);
+        MockHttpServletRequest request = get();
+        request.addHeader("Accept-Encoding", "gzip, deflate");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(compressed, "compressed.txt", gzipped(compressed), null, null, request, response);
+
+        // Assert
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertArrayEquals(encoded, response.getContentAsByteArray());
+    }
+
+    @Test
+    void handle_ShouldDecompress_WhenClientDoesNotAcceptGzip() throws IOException {
+        // Arrange
+        Path compressed = Files.write(tempDir.resolve("compressed.txt"), gzip(CONTENT));
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=0-4");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(compressed, "compressed.txt", gzipped(compressed), null, null, request, response);
+
+        // Assert
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("none", response.getHeader("Accept-Ranges"));
+        assertEquals(CONTENT.length(), response.getContentLengthLong());
+        assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    @Test
+    void handle_ShouldReturn304_WhenIfNoneMatchMatchesETag() throws IOException {
+        // Arrange
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        fileDownloadHandler.handle(file, "test.txt", null, "abc", null, get(), first);
+        MockHttpServletRequest request = get();
+        request.addHeader("If-None-Match", first.getHeader("ETag"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(file, "test.txt", null, "abc", null, request, response);
+
+        // Assert
+        assertEquals("\"abc\"", first.getHeader("ETag"));
+        assertEquals("no-cache", first.getHeader("Cache-Control"));
+        assertEquals(304, response.getStatus());
+        assertEquals("\"abc\"", response.getHeader("ETag"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void handle_ShouldReturn304_WhenNotModifiedSinceLastModified() throws IOException {
+        // Arrange
+        Path uploaded = Files.writeString(tempDir.resolve("1700000000000-test.txt"), CONTENT);
+        FileDownloadHandler longLivedHandler = new FileDownloadHandler(new DownloadCache(0, 0),
+            new FileMetrics(new SimpleMeterRegistry()), 3600);
+        MockHttpServletRequest request = get();
+        request.addHeader("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            Files.getLastModifiedTime(uploaded).toInstant().atZone(ZoneOffset.UTC)));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        longLivedHandler.handle(uploaded, "test.txt", null, "abc", null, request, response);
+
+        // Assert
+        assertEquals(304, response.getStatus());
+        assertEquals("max-age=3600, public, immutable", response.getHeader("Cache-Control"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void handleAndHead_ShouldAskForRevalidation_OfFilesNotUploadedThroughTheApi() throws IOException {
+        // Arrange
+        FileDownloadHandler longLivedHandler = new FileDownloadHandler(new DownloadCache(0, 0),
+            new FileMetrics(new SimpleMeterRegistry()), 3600);
+        Path compressed = Files.write(tempDir.resolve("object.txt"), gzip(CONTENT));
+        MockHttpServletResponse downloaded = new MockHttpServletResponse();
+        MockHttpServletResponse headed = new MockHttpServletResponse();
+
+        // Act
+        longLivedHandler.handle(file, "test.txt", null, "abc", null, get(), downloaded);
+        longLivedHandler.head(compressed, gzipped(compressed), Set.of(), new MockHttpServletRequest("HEAD", "/api/files/object.txt"),
+            headed);
+
+        // Assert
+        assertEquals("no-cache", downloaded.getHeader("Cache-Control"));
+        assertEquals("no-cache", headed.getHeader("Cache-Control"));
+    }
+
+    @Test
+    void handle_ShouldTagAndDigestGzipRepresentationSeparately_AndHonourIfRangeWithIt() throws IOException {
+        // Arrange
+        Path compressed = Files.write(tempDir.resolve("compressed.txt"), gzip(CONTENT));
+        MockHttpServletResponse decoded = new MockHttpServletResponse();
+        fileDownloadHandler.handle(compressed, "compressed.txt", gzipped(compressed), "abc", "sha-256=:AAAA:", get(), decoded);
+        MockHttpServletRequest request = get();
+        request.addHeader("Accept-Encoding", "gzip");
+        request.addHeader("Range", "bytes=0-1");
+        request.addHeader("If-Range", "\"abc-gzip\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.handle(compressed, "compressed.txt", gzipped(compressed), "abc", "sha-256=:AAAA:", request, response);
+
+        // Assert
+        assertEquals("\"abc\"", decoded.getHeader("ETag"));
+        assertEquals("sha-256=:AAAA:", decoded.getHeader("Repr-Digest"));
+        assertEquals(206, response.getStatus());
+        assertEquals("\"abc-gzip\"", response.getHeader("ETag"));
+        assertNull(response.getHeader("Repr-Digest"));
+        request.removeHeader("If-Range");
+        request.addHeader("If-Range", "\"abc\"");
+        MockHttpServletResponse stale = new MockHttpServletResponse();
+        fileDownloadHandler.handle(compressed, "compressed.txt", gzipped(compressed), "abc", "sha-256=:AAAA:", request, stale);
+        assertEquals(200, stale.getStatus());
+    }
+
+    @Test
+    void head_ShouldAnswerFromMetadata_UnlessTheEncodingIsNotRecorded() throws IOException {
+        // Arrange
+        Path image = Files.write(tempDir.resolve("photo.png"), new byte[] {1, 2, 3, 4, 5});
+        String sha256 = "ab".repeat(32);
+        FileMetadata metadata = new FileMetadata("photo.png", "photo.png", 5, "image/png", Instant.now(), sha256, null, 5, "identity");
+        MockHttpServletRequest request = new MockHttpServletRequest("HEAD", "/api/files/photo.png");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        boolean answered = fileDownloadHandler.head(image, metadata, Set.of(ContentDigest.Algorithm.SHA_256), request, response);
+        boolean answeredText = fileDownloadHandler.head(file, new FileMetadata("test.txt", "test.txt", 20, "text/plain", Instant.now()),
+            Set.of(), get(), new MockHttpServletResponse());
+
+        // Assert
+        assertTrue(answered);
+        assertEquals(200, response.getStatus());
+        assertEquals(5, response.getContentLengthLong());
+        assertEquals("image/png", response.getContentType());
+        assertEquals("\"" + sha256 + "\"", response.getHeader("ETag"));
+        assertNotNull(response.getHeader("Repr-Digest"));
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertFalse(answeredText);
+    }
+
+    @Test
+    void parseRanges_ShouldIgnoreMalformedHeaders() {
+        assertNull(FileDownloadHandler.parseRanges("items=0-1", 20));
+        assertNull(FileDownloadHandler.parseRanges("bytes=5-2", 20));
+        assertNull(FileDownloadHandler.parseRanges("bytes=abc", 20));
+        assertEquals(List.of(new FileDownloadHandler.ByteRange(10, 19)), FileDownloadHandler.parseRanges("bytes=10-500", 20));
+    }
+
+    @Test
+    void head_ShouldReportTheLengthOfTheRepresentationSent_ForFilesStoredCompressed() throws IOException {
+        // Arrange
+        Path compressed = Files.write(tempDir.resolve("compressed.txt"), gzip(CONTENT));
+        MockHttpServletRequest gzipRequest = new MockHttpServletRequest("HEAD", "/api/files/compressed.txt");
+        gzipRequest.addHeader("Accept-Encoding", "gzip");
+        MockHttpServletResponse encoded = new MockHttpServletResponse();
+        MockHttpServletResponse decoded = new MockHttpServletResponse();
+
+        // Act
+        fileDownloadHandler.head(compressed, gzipped(compressed), Set.of(), gzipRequest, encoded);
+        fileDownloadHandler.head(compressed, gzipped(compressed), Set.of(), new MockHttpServletRequest("HEAD", "/api/files/compressed.txt"),
+            decoded);
+
+        // Assert
+        assertEquals("gzip", encoded.getHeader("Content-Encoding"));
+        assertEquals(Files.size(compressed), encoded.getContentLengthLong());
+        assertNull(decoded.getHeader("Content-Encoding"));
+        assertEquals(CONTENT.length(), decoded.getContentLengthLong());
+        assertEquals("Accept-Encoding", decoded.getHeader("Vary"));
+    }
+
+    private static FileMetadata gzipped(Path file) throws IOException {
+        return new FileMetadata(file.getFileName().toString(), file.getFileName().toString(), CONTENT.length(), "text/plain",
+            Instant.now(), null, null, Files.size(file), "gzip");
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return buffer.toByteArray();
+    }
+
+    private MockHttpServletRequest get() {
+        return new MockHttpServletRequest("GET", "/api/files/test.txt");
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.manimovassagh.uploader.controller;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.service.ClusterService;
+import com.github.manimovassagh.uploader.service.DownloadCache;
+import com.github.manimovassagh.uploader.service.FileMetrics;
+import com.github.manimovassagh.uploader.service.FileStorageService;
+import com.github.manimovassagh.uploader.service.S3ObjectService;
+import com.github.manimovassagh.uploader.service.ThumbnailService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class S3ControllerTest {
+
+    private MockMvc mockMvc;
+    private FileStorageService fileStorageService;
+    private S3ObjectService s3ObjectService;
+    private ClusterService clusterService;
+
+    @BeforeEach
+    void setUp() {
+        fileStorageService = mock(FileStorageService.class);
+        s3ObjectService = mock(S3ObjectService.class);
+        clusterService = mock(ClusterService.class);
+        when(clusterService.isEnabled()).thenReturn(true);
+        FileUploadConfig fileUploadConfig = mock(FileUploadConfig.class);
+        when(fileUploadConfig.getS3Bucket()).thenReturn("photos");
+        FileMetrics fileMetrics = new FileMetrics(new SimpleMeterRegistry());
+        mockMvc = MockMvcBuilders.standaloneSetup(new S3Controller(fileStorageService, s3ObjectService,
+                new FileDownloadHandler(new DownloadCache(0, 0), fileMetrics), mock(ThumbnailService.class), clusterService,
+                fileMetrics, fileUploadConfig))
+            .build();
+    }
+
+    @Test
+    void writes_ShouldBeRefused_InClusterMode() throws Exception {
+        // Act & Assert
+        mockMvc.perform(put("/s3/photos/notes.txt").contentType(MediaType.TEXT_PLAIN).content("content"))
+            .andExpect(status().isNotImplemented())
+            .andExpect(content().string(containsString("<Code>NotImplemented</Code>")));
+        mockMvc.perform(delete("/s3/photos/notes.txt"))
+            .andExpect(status().isNotImplemented());
+        mockMvc.perform(post("/s3/photos/notes.txt").param("uploads", ""))
+            .andExpect(status().isNotImplemented());
+        verify(fileStorageService, never()).storeObject(any(), any(), any(), anyLong(), any());
+        verify(fileStorageService, never()).deleteFile(any());
+        verifyNoInteractions(s3ObjectService);
+    }
+
+    @Test
+    void uploadedFiles_ShouldBeReadOnly() throws Exception {
+        // Arrange
+        when(clusterService.isEnabled()).thenReturn(false);
+
+        // Act & Assert
+        mockMvc.perform(delete("/s3/photos/1700000000000-report.pdf"))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().string(containsString("<Code>InvalidArgument</Code>")));
+        mockMvc.perform(delete("/s3/photos/report.pdf"))
+            .andExpect(status().isNoContent());
+        verify(fileStorageService).deleteFile("report.pdf");
+        verify(fileStorageService, never()).deleteFile("1700000000000-report.pdf");
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.manimovassagh.uploader.integration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs downloads through a real Tomcat, where a file that is not cached is handed to the connector
+ * for sendfile and the response is only committed after the filter chain has returned.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class AdmissionIntegrationTest {
+
+    private static final int FILE_SIZE = 200 * 1024;
+
+    @TempDir
+    static Path tempUploadDir;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @DynamicPropertySource
+    static void setProperties(DynamicPropertyRegistry registry) {
+        registry.add("file.upload.dir", () -> tempUploadDir.toString());
+        registry.add("file.cache.max-bytes", () -> "0");
+        registry.add("file.admission.client-header", () -> "X-Api-Key");
+        registry.add("file.admission.bytes-per-second", () -> String.valueOf(FILE_SIZE / 4));
+    }
+
+    @Test
+    void shouldChargeDownloadsSentWithSendfile() throws Exception {
+        // Arrange
+        String boundary = "admission-boundary";
+        String body = "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"large.txt\"\r\n"
+            + "Content-Type: text/plain\r\n\r\n"
+            + "a".repeat(FILE_SIZE) + "\r\n"
+            + "--" + boundary + "--\r\n";
+        HttpResponse<String> upload = client.send(HttpRequest.newBuilder(uri("/api/upload"))
+                .header("X-Api-Key", "uploader")
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, upload.statusCode());
+        String filename = new ObjectMapper().readTree(upload.body()).get("files").get(0).get("filename").asText();
+        HttpRequest get = HttpRequest.newBuilder(uri("/api/files/" + filename)).header("X-Api-Key", "downloader").build();
+
+        // Act
+        HttpResponse<byte[]> first = client.send(get, HttpResponse.BodyHandlers.ofByteArray());
+        HttpResponse<byte[]> second = client.send(get, HttpResponse.BodyHandlers.ofByteArray());
+
+        // Assert
+        assertEquals(200, first.statusCode());
+        assertEquals(FILE_SIZE, first.body().length);
+        assertEquals(1, meterRegistry.get("download.duration").tag("source", "sendfile").timer().count());
+        assertEquals(429, second.statusCode());
+        assertTrue(second.headers().firstValue("Retry-After").isPresent());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
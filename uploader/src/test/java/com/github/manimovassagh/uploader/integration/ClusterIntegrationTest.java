@@ -0,0 +1,147 @@
+package com.github.manimovassagh.uploader.integration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.manimovassagh.uploader.UploadPhotosApplication;
+import com.github.manimovassagh.uploader.service.ClusterService;
+
+/**
+ * Runs two real nodes of a cluster on localhost, each holding its own files, so uploads are
+ * copied over the replica endpoints and downloads sent to the wrong node are redirected.
+ */
+class ClusterIntegrationTest {
+
+    private static final String SECRET = "cluster-test-secret";
+    private static final String ABC_DIGEST = "sha-256=:ungWv48Bz+pBQUDeXa4iI7ADYaOWF3qctBD/YfIAFa0=:";
+    private static final String XYZ_DIGEST = "sha-256=:Ngi8oeROpsTSaOttsCJgJpiSwLQrhrvx53pvoWw8koI=:";
+
+    @TempDir
+    static Path tempDir;
+
+    private static String[] nodes;
+    private static ConfigurableApplicationContext[] contexts;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void startNodes() throws IOException {
+        nodes = new String[] {"http://localhost:" + freePort(), "http://localhost:" + freePort()};
+        contexts = new ConfigurableApplicationContext[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            contexts[i] = new SpringApplicationBuilder(UploadPhotosApplication.class).run(
+                "--server.port=" + URI.create(nodes[i]).getPort(),
+                "--file.upload.dir=" + tempDir.resolve("node-" + i),
+                "--file.cluster.nodes=" + String.join(",", nodes),
+                "--file.cluster.self=" + nodes[i],
+                "--file.cluster.replicas=1",
+                "--file.cluster.rebalance-interval-seconds=0",
+                "--file.cluster.secret=" + SECRET);
+        }
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        for (ConfigurableApplicationContext context : contexts) {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    @Test
+    void shouldStoreUploadOnItsOwner_AndRedirectDownloadsFromTheOtherNode() throws Exception {
+        // Arrange
+        String boundary = "cluster-boundary";
+        String body = "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"notes.txt\"\r\n"
+            + "Content-Type: text/plain\r\n\r\n"
+            + "clustered content\r\n"
+            + "--" + boundary + "--\r\n";
+        HttpResponse<String> upload = client.send(HttpRequest.newBuilder(URI.create(nodes[0] + "/api/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, upload.statusCode());
+        String filename = new ObjectMapper().readTree(upload.body()).get("files").get(0).get("filename").asText();
+        int owner = hasReplica(nodes[0], filename) == 200 ? 0 : 1;
+        String other = nodes[1 - owner];
+
+        // Act
+        HttpResponse<String> redirected = client.send(HttpRequest.newBuilder(URI.create(other + "/api/files/" + filename)).build(),
+            HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> served = client.send(HttpRequest.newBuilder(URI.create(redirected.headers().firstValue("Location")
+            .orElseThrow())).build(), HttpResponse.BodyHandlers.ofString());
+
+        // Assert
+        assertEquals(200, hasReplica(nodes[owner], filename));
+        assertEquals(404, hasReplica(other, filename));
+        assertEquals(307, redirected.statusCode());
+        assertEquals(nodes[owner] + "/api/files/" + filename, redirected.headers().firstValue("Location").orElseThrow());
+        assertEquals(200, served.statusCode());
+        assertEquals("clustered content", served.body());
+    }
+
+    @Test
+    void shouldStoreReplicasSentWithTheSecret_AndRefuseOthers() throws Exception {
+        // Arrange
+        String filename = "1700000000000-replica.txt";
+
+        // Act
+        int withoutSecret = putReplica(filename, "text/plain", "abc", ABC_DIGEST, null);
+        int stored = putReplica(filename, "text/plain", "abc", ABC_DIGEST, SECRET);
+        int again = putReplica(filename, "text/plain", "abc", ABC_DIGEST, SECRET);
+        int conflicting = putReplica(filename, "text/plain", "xyz", XYZ_DIGEST, SECRET);
+        int wrongType = putReplica("1700000000000-run.sh", "application/x-sh", "#!/bin/sh", null, SECRET);
+
+        // Assert
+        assertEquals(403, withoutSecret);
+        assertEquals(201, stored);
+        assertEquals(200, again);
+        assertEquals(409, conflicting);
+        assertEquals(400, wrongType);
+        assertEquals(200, hasReplica(nodes[0], filename));
+    }
+
+    private int hasReplica(String node, String filename) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(node + ClusterService.REPLICA_PATH + filename))
+                .header(ClusterService.SECRET_HEADER, SECRET)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private int putReplica(String filename, String contentType, String content, String reprDigest, String secret)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(nodes[0] + ClusterService.REPLICA_PATH + filename))
+            .header("Content-Type", contentType)
+            .PUT(HttpRequest.BodyPublishers.ofString(content));
+        if (reprDigest != null) {
+            request.header("Repr-Digest", reprDigest);
+        }
+        if (secret != null) {
+            request.header(ClusterService.SECRET_HEADER, secret);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
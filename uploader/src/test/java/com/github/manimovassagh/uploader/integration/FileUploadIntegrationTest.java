@@ -1,14 +1,22 @@
 package com.github.manimovassagh.uploader.integration;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.nio.file.Path;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
@@ -22,6 +30,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 @SpringBootTest
 @AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
 class FileUploadIntegrationTest {
 
     @Autowired
@@ -65,6 +74,10 @@ class FileUploadIntegrationTest {
         mockMvc.perform(get("/api/files"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0]").exists());
+        mockMvc.perform(get("/api/files").param("prefix", storedFilename))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "1"))
+                .andExpect(jsonPath("$[0]").value(storedFilename));
 
         // Download file using stored filename
         MvcResult downloadResult = mockMvc.perform(get("/api/files/" + storedFilename))
@@ -92,6 +105,20 @@ class FileUploadIntegrationTest {
                 .andExpect(jsonPath("$.message").value("Invalid file type. Only images, PDFs, and documents are allowed."));
     }
 
+    @Test
+    void shouldRejectFileWhoseContentDoesNotMatchItsType() throws Exception {
+        MockMultipartFile file = new MockMultipartFile(
+            "files",
+            "report.pdf",
+            "application/pdf",
+            "this is plain text".getBytes()
+        );
+
+        mockMvc.perform(multipart("/api/upload").file(file))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Content of report.pdf is text/plain but was declared as application/pdf."));
+    }
+
     @Test
     void shouldRejectTooManyFiles() throws Exception {
         MockMultipartFile[] files = new MockMultipartFile[6];
@@ -129,6 +156,245 @@ class FileUploadIntegrationTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void shouldStreamUploadAndDownloadFile() throws Exception {
+        String boundary = "----IntegrationBoundary";
+        String content = "Streamed content";
+        String body = "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"streamed.txt\"\r\n"
+            + "Content-Type: text/plain\r\n\r\n"
+            + content + "\r\n"
+            + "--" + boundary + "--\r\n";
+
+        MvcResult uploadResult = mockMvc.perform(post("/api/upload/stream")
+                .contentType("multipart/form-data; boundary=" + boundary)
+                .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.files[0].originalName").value("streamed.txt"))
+                .andExpect(jsonPath("$.files[0].size").value(content.length()))
+                .andReturn();
+
+        String storedFilename = new ObjectMapper().readTree(uploadResult.getResponse().getContentAsString())
+            .get("files").get(0).get("filename").asText();
+
+        MvcResult downloadResult = mockMvc.perform(get("/api/files/" + storedFilename))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertEquals(content, downloadResult.getResponse().getContentAsString());
+    }
+
+    @Test
+    void shouldRejectInvalidFileTypeOnStreamingUpload() throws Exception {
+        String boundary = "----IntegrationBoundary";
+        String body = "--" + boundary + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"test.js\"\r\n"
+            + "Content-Type: application/javascript\r\n\r\n"
+            + "console.log('test')\r\n"
+            + "--" + boundary + "--\r\n";
+
+        mockMvc.perform(post("/api/upload/stream")
+                .contentType("multipart/form-data; boundary=" + boundary)
+                .content(body))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Invalid file type. Only images, PDFs, and documents are allowed."));
+    }
+
+    @Test
+    void shouldServeByteRangeOfStoredFile() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("files", "range.txt", "text/plain", "0123456789".getBytes());
+        MvcResult uploadResult = mockMvc.perform(multipart("/api/upload").file(file))
+                .andExpect(status().isOk())
+                .andReturn();
+        String storedFilename = new ObjectMapper().readTree(uploadResult.getResponse().getContentAsString())
+            .get("files").get(0).get("filename").asText();
+
+        mockMvc.perform(get("/api/files/" + storedFilename).header("Range", "bytes=2-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 2-4/10"))
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(content().string("234"));
+    }
+
+    @Test
+    void shouldServeRepeatedDownloadsFromCache() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("files", "hot.txt", "text/plain", "hot".getBytes());
+        MvcResult uploadResult = mockMvc.perform(multipart("/api/upload").file(file))
+                .andExpect(status().isOk())
+                .andReturn();
+        String storedFilename = new ObjectMapper().readTree(uploadResult.getResponse().getContentAsString())
+            .get("files").get(0).get("filename").asText();
+
+        for (int i = 0; i < 4; i++) {
+            mockMvc.perform(get("/api/files/" + storedFilename))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string("hot"));
+        }
+
+        MvcResult metrics = mockMvc.perform(get("/actuator/metrics/cache.gets")
+                .param("tag", "cache:downloads")
+                .param("tag", "result:hit"))
+                .andExpect(status().isOk())
+                .andReturn();
+        double hits = new ObjectMapper().readTree(metrics.getResponse().getContentAsString())
+            .get("measurements").get(0).get("value").asDouble();
+        assertTrue(hits >= 2);
+    }
+
+    @Test
+    void shouldExposeUploadMetricsForPrometheus() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("files", "metrics.txt", "text/plain", "measured".getBytes());
+        MockMultipartFile script = new MockMultipartFile("files", "script.js", "application/javascript", "alert(1)".getBytes());
+
+        mockMvc.perform(multipart("/api/upload").file(file))
+                .andExpect(status().isOk());
+        mockMvc.perform(multipart("/api/upload").file(script))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("upload_stage_seconds_bucket{stage=\"write\"")))
+                .andExpect(content().string(containsString("upload_rejections_total{reason=\"invalid_type\"")))
+                .andExpect(content().string(containsString("download_duration_seconds_bucket")));
+    }
+
+    @Test
+    void shouldReportHowTheIndexFollowsTheUploadDirectory() throws Exception {
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.components.fileIndex.status").value("UP"))
+                .andExpect(jsonPath("$.components.fileIndex.details.mode").exists());
+    }
+
+    @Test
+    void shouldUploadFileInChunks() throws Exception {
+        MvcResult created = mockMvc.perform(post("/api/uploads")
+                .param("filename", "chunked.txt")
+                .param("size", "12"))
+                .andExpect(status().isCreated())
+                .andExpect(header().exists("Location"))
+                .andExpect(jsonPath("$.mimeType").value("text/plain"))
+                .andReturn();
+        String id = new ObjectMapper().readTree(created.getResponse().getContentAsString()).get("id").asText();
+
+        mockMvc.perform(put("/api/uploads/" + id).param("offset", "6").content("World!".getBytes()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(6));
+        mockMvc.perform(post("/api/uploads/" + id + "/commit"))
+                .andExpect(status().isConflict());
+        mockMvc.perform(put("/api/uploads/" + id).param("offset", "0").content("Hello ".getBytes()))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/uploads/" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ranges[0].start").value(0))
+                .andExpect(jsonPath("$.ranges[0].end").value(11));
+
+        MvcResult committed = mockMvc.perform(post("/api/uploads/" + id + "/commit"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.files[0].originalName").value("chunked.txt"))
+                .andReturn();
+        String storedFilename = new ObjectMapper().readTree(committed.getResponse().getContentAsString())
+            .get("files").get(0).get("filename").asText();
+
+        mockMvc.perform(get("/api/files/" + storedFilename))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Hello World!"));
+        mockMvc.perform(get("/api/uploads/" + id))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldServeThumbnailOfUploadedImage() throws Exception {
+        BufferedImage image = new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        MockMultipartFile file = new MockMultipartFile("files", "wide.png", "image/png", png.toByteArray());
+        MvcResult uploadResult = mockMvc.perform(multipart("/api/upload").file(file))
+                .andExpect(status().isOk())
+                .andReturn();
+        String storedFilename = new ObjectMapper().readTree(uploadResult.getResponse().getContentAsString())
+            .get("files").get(0).get("filename").asText();
+
+        MvcResult thumbnail = mockMvc.perform(get("/api/files/" + storedFilename).param("size", "128"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "image/png"))
+                .andReturn();
+        BufferedImage scaled = ImageIO.read(new ByteArrayInputStream(thumbnail.getResponse().getContentAsByteArray()));
+        assertEquals(128, scaled.getWidth());
+        assertEquals(64, scaled.getHeight());
+
+        mockMvc.perform(get("/api/files/" + storedFilename).param("size", "100"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldAnswerHeadAndMetadataFromTheIndex() throws Exception {
+        BufferedImage image = new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        MockMultipartFile file = new MockMultipartFile("files", "small.png", "image/png", png.toByteArray());
+        MvcResult uploadResult = mockMvc.perform(multipart("/api/upload").file(file))
+                .andExpect(status().isOk())
+                .andReturn();
+        JsonNode uploaded = new ObjectMapper().readTree(uploadResult.getResponse().getContentAsString()).get("files").get(0);
+        String storedFilename = uploaded.get("filename").asText();
+
+        MvcResult head = mockMvc.perform(head("/api/files/" + storedFilename))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", png.size()))
+                .andExpect(header().string("Content-Type", "image/png"))
+                .andExpect(header().string("ETag", "\"" + uploaded.get("digests").get("sha-256").asText() + "\""))
+                .andReturn();
+        assertEquals(0, head.getResponse().getContentAsByteArray().length);
+        mockMvc.perform(head("/api/files/" + storedFilename).header("If-None-Match", head.getResponse().getHeader("ETag")))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(get("/api/files/" + storedFilename + "/metadata"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.filename").value(storedFilename))
+                .andExpect(jsonPath("$.originalName").value("small.png"))
+                .andExpect(jsonPath("$.size").value(png.size()))
+                .andExpect(jsonPath("$.mimeType").value("image/png"))
+                .andExpect(jsonPath("$.uploadTime").exists())
+                .andExpect(jsonPath("$.digests.sha-256").value(uploaded.get("digests").get("sha-256").asText()));
+        mockMvc.perform(get("/api/files/missing.png/metadata"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldDownloadSeveralFilesAsZip() throws Exception {
+        MockMultipartFile first = new MockMultipartFile("files", "first.txt", "text/plain", "first".getBytes());
+        MockMultipartFile second = new MockMultipartFile("files", "second.txt", "text/plain", "second".getBytes());
+        MvcResult uploadResult = mockMvc.perform(multipart("/api/upload").file(first).file(second))
+                .andExpect(status().isOk())
+                .andReturn();
+        JsonNode stored = new ObjectMapper().readTree(uploadResult.getResponse().getContentAsString()).get("files");
+        String firstName = stored.get(0).get("filename").asText();
+        String secondName = stored.get(1).get("filename").asText();
+
+        MvcResult archive = mockMvc.perform(get("/api/archive").param("files", firstName, secondName))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/zip"))
+                .andReturn();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.getResponse().getContentAsByteArray()))) {
+            assertEquals(firstName, zip.getNextEntry().getName());
+            assertEquals("first", new String(zip.readAllBytes()));
+            assertEquals(secondName, zip.getNextEntry().getName());
+            assertEquals("second", new String(zip.readAllBytes()));
+            assertNull(zip.getNextEntry());
+        }
+
+        mockMvc.perform(post("/api/archive").contentType("application/json").content("[\"" + firstName + "\", \"missing.txt\"]"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldRejectInvalidListingParameters() throws Exception {
+        mockMvc.perform(get("/api/files").param("sort", "colour"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/files").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void shouldReturn404ForNonExistentFile() throws Exception {
         mockMvc.perform(get("/api/files/nonexistent.txt"))
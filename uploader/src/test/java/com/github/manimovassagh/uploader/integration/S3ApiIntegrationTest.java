@@ -0,0 +1,154 @@
+package com.github.manimovassagh.uploader.integration;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
+class S3ApiIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @TempDir
+    static Path tempUploadDir;
+
+    @DynamicPropertySource
+    static void setUploadDir(DynamicPropertyRegistry registry) {
+        registry.add("file.upload.dir", () -> tempUploadDir.toString());
+        registry.add("file.s3.bucket", () -> "photos");
+    }
+
+    @Test
+    void shouldPutGetListAndDeleteObjects() throws Exception {
+        String content = "Hello, S3!";
+        String sha256 = sha256(content);
+
+        // PutObject replaces the key on a second put
+        mockMvc.perform(put("/s3/photos/hello.txt").contentType(MediaType.TEXT_PLAIN).content("old content"))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/s3/photos/hello.txt").contentType(MediaType.TEXT_PLAIN).content(content)
+                        .header("x-amz-checksum-sha256", Base64.getEncoder().encodeToString(HexFormat.of().parseHex(sha256))))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + sha256 + "\""));
+        mockMvc.perform(put("/s3/photos/other.txt").contentType(MediaType.TEXT_PLAIN).content("other"))
+                .andExpect(status().isOk());
+
+        // GetObject, ranged and HEAD
+        mockMvc.perform(get("/s3/photos/hello.txt"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + sha256 + "\""))
+                .andExpect(content().string(content));
+        mockMvc.perform(get("/s3/photos/hello.txt").header("Range", "bytes=7-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("S3!"));
+        mockMvc.perform(head("/s3/photos/hello.txt"))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", content.length()));
+
+        // ListObjectsV2, one key per page
+        String firstPage = mockMvc.perform(get("/s3/photos").param("list-type", "2").param("max-keys", "1"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("<Key>hello.txt</Key>")))
+                .andExpect(content().string(containsString("<IsTruncated>true</IsTruncated>")))
+                .andReturn().getResponse().getContentAsString();
+        String token = firstPage.replaceAll("(?s).*<NextContinuationToken>(.*)</NextContinuationToken>.*", "$1");
+        mockMvc.perform(get("/s3/photos").param("list-type", "2").param("max-keys", "1").param("continuation-token", token))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("<Key>other.txt</Key>")))
+                .andExpect(content().string(not(containsString("<Key>hello.txt</Key>"))));
+
+        // DeleteObject, twice
+        mockMvc.perform(delete("/s3/photos/hello.txt"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(delete("/s3/photos/hello.txt"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/s3/photos/hello.txt"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string(containsString("<Code>NoSuchKey</Code>")));
+        mockMvc.perform(get("/s3/photos").param("list-type", "2"))
+                .andExpect(content().string(not(containsString("hello.txt"))));
+    }
+
+    @Test
+    void shouldAssembleMultipartUploadAndDecodeAwsChunkedBodies() throws Exception {
+        String initiated = mockMvc.perform(post("/s3/photos/parts.txt").param("uploads", "").contentType(MediaType.TEXT_PLAIN))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String uploadId = initiated.replaceAll("(?s).*<UploadId>(.*)</UploadId>.*", "$1");
+
+        String firstEtag = mockMvc.perform(put("/s3/photos/parts.txt").param("partNumber", "1").param("uploadId", uploadId)
+                        .content("first part, "))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        // Sent the way streaming S3 clients do, framed in signed chunks with a trailing checksum
+        String chunked = "7;chunk-signature=abc\r\nsecond \r\n4;chunk-signature=def\r\npart\r\n0;chunk-signature=0\r\n"
+            + "x-amz-checksum-crc32:AAAAAA==\r\n\r\n";
+        String secondEtag = mockMvc.perform(put("/s3/photos/parts.txt").param("partNumber", "2").param("uploadId", uploadId)
+                        .header("Content-Encoding", "aws-chunked")
+                        .header("x-amz-content-sha256", "STREAMING-UNSIGNED-PAYLOAD-TRAILER")
+                        .content(chunked))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"" + sha256("second part") + "\""))
+                .andReturn().getResponse().getHeader("ETag");
+
+        String complete = "<CompleteMultipartUpload xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">"
+            + "<Part><PartNumber>1</PartNumber><ETag>" + firstEtag + "</ETag></Part>"
+            + "<Part><PartNumber>2</PartNumber><ETag>" + secondEtag + "</ETag></Part>"
+            + "</CompleteMultipartUpload>";
+        mockMvc.perform(post("/s3/photos/parts.txt").param("uploadId", uploadId).contentType(MediaType.APPLICATION_XML).content(complete))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("<ETag>&quot;" + sha256("first part, second part") + "&quot;</ETag>")));
+
+        mockMvc.perform(get("/s3/photos/parts.txt"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("first part, second part"));
+        mockMvc.perform(delete("/s3/photos/parts.txt").param("uploadId", uploadId))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string(containsString("<Code>NoSuchUpload</Code>")));
+    }
+
+    @Test
+    void shouldAnswerWithS3Errors() throws Exception {
+        mockMvc.perform(get("/s3/other").param("list-type", "2"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().string(containsString("<Code>NoSuchBucket</Code>")));
+        mockMvc.perform(put("/s3/photos/bad.txt").contentType(MediaType.TEXT_PLAIN).content("content")
+                        .header("x-amz-checksum-sha256", Base64.getEncoder().encodeToString(new byte[32])))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("<Code>BadDigest</Code>")));
+        mockMvc.perform(put("/s3/photos/bad.txt").contentType(MediaType.TEXT_PLAIN).content("content")
+                        .header("x-amz-checksum-sha256", "not base64!"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("<Code>InvalidArgument</Code>")));
+        mockMvc.perform(put("/s3/photos/.hidden").contentType(MediaType.TEXT_PLAIN).content("content"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("<Code>InvalidArgument</Code>")));
+        mockMvc.perform(put("/s3/photos/copy.txt").header("x-amz-copy-source", "/photos/other.txt"))
+                .andExpect(status().isNotImplemented());
+    }
+
+    private static String sha256(String content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.manimovassagh.uploader.integration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.manimovassagh.uploader.UploadPhotosApplication;
+
+/**
+ * Compares slow-client uploads on Tomcat's platform thread pool against virtual threads. Each
+ * client trickles a small multipart body over about a second, which is what holds request threads
+ * hostage in production. Run with {@code ./mvnw test -Pload-test}; the report is written to
+ * {@code target/load-test/virtual-threads.json}.
+ */
+@Tag("load")
+class VirtualThreadLoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadLoadTest.class);
+    private static final int PLATFORM_MAX_THREADS = 32;
+    private static final int[] CONCURRENCY_LEVELS = {32, 128, 512};
+    private static final int CHUNKS = 10;
+    private static final long CHUNK_DELAY_MILLIS = 100;
+    private static final String BOUNDARY = "----LoadTestBoundary";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compareSlowUploadsOnPlatformAndVirtualThreads() throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("platformMaxThreads", PLATFORM_MAX_THREADS);
+        report.put("uploadDurationMillis", CHUNKS * CHUNK_DELAY_MILLIS);
+        report.put("platform", runMode(false));
+        report.put("virtual", runMode(true));
+
+        Path reportFile = Paths.get("target", "load-test", "virtual-threads.json");
+        Files.createDirectories(reportFile.getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile.toFile(), report);
+        log.info("Load test report written to {}:\n{}", reportFile.toAbsolutePath(), Files.readString(reportFile));
+    }
+
+    private List<Map<String, Object>> runMode(boolean virtualThreads) throws Exception {
+        Path uploadDir = Files.createDirectories(tempDir.resolve(virtualThreads ? "virtual" : "platform"));
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(UploadPhotosApplication.class)
+                .properties(
+                    "server.port=0",
+                    "spring.threads.virtual.enabled=" + virtualThreads,
+                    "server.tomcat.threads.max=" + PLATFORM_MAX_THREADS,
+                    "server.tomcat.accept-count=1000",
+                    // Every client is localhost here; the comparison is of thread pools, not admission
+                    "file.admission.requests-per-second=0",
+                    "file.admission.max-in-flight-bytes=0",
+                    "file.upload.dir=" + uploadDir,
+                    "logging.level.com.github.manimovassagh.uploader=INFO")
+                .run()) {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (int concurrency : CONCURRENCY_LEVELS) {
+                results.add(runLevel(port, concurrency));
+            }
+            return results;
+        }
+    }
+
+    private Map<String, Object> runLevel(int port, int concurrency) throws Exception {
+        List<Future<Long>> futures = new ArrayList<>(concurrency);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                int client = i;
+                futures.add(clients.submit(() -> slowUpload(port, "load-" + client + ".txt")));
+            }
+        }
+
+        long[] latencies = new long[concurrency];
+        int failures = 0;
+        for (int i = 0; i < concurrency; i++) {
+            long latency = futures.get(i).get();
+            if (latency < 0) {
+                failures++;
+            }
+            latencies[i] = Math.abs(latency);
+        }
+        Arrays.sort(latencies);
+        long ideal = CHUNKS * CHUNK_DELAY_MILLIS;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("concurrency", concurrency);
+        result.put("failures", failures);
+        result.put("p50Millis", percentile(latencies, 0.50));
+        result.put("p99Millis", percentile(latencies, 0.99));
+        result.put("maxMillis", latencies[latencies.length - 1]);
+        // Uploads served without queueing behind other clients finish close to the trickle time
+        result.put("concurrentWithinTwiceIdeal", Arrays.stream(latencies).filter(l -> l <= 2 * ideal).count());
+        assertTrue(failures < concurrency, "every upload failed at concurrency " + concurrency);
+        return result;
+    }
+
+    /**
+     * @return the latency in milliseconds, negated if the upload did not succeed
+     */
+    private long slowUpload(int port, String filename) throws InterruptedException {
+        byte[] chunk = "0123456789abcdef".repeat(64).getBytes(StandardCharsets.US_ASCII);
+        String head = "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"" + filename + "\"\r\n"
+            + "Content-Type: text/plain\r\n\r\n";
+        String tail = "\r\n--" + BOUNDARY + "--\r\n";
+        long contentLength = head.length() + (long) chunk.length * CHUNKS + tail.length();
+
+        long start = System.nanoTime();
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(60_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /api/upload HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n"
+                + "Content-Length: " + contentLength + "\r\n"
+                + "Connection: close\r\n\r\n"
+                + head).getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < CHUNKS; i++) {
+                out.flush();
+                Thread.sleep(CHUNK_DELAY_MILLIS);
+                out.write(chunk);
+            }
+            out.write(tail.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String statusLine = reader.readLine();
+            long latency = (System.nanoTime() - start) / 1_000_000;
+            return statusLine != null && statusLine.contains(" 200") ? latency : -latency;
+        } catch (IOException ex) {
+            return -Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
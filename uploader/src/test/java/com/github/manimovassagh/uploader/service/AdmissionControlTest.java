@@ -0,0 +1,146 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.manimovassagh.uploader.exception.TooManyRequestsException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AdmissionControlTest {
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void admitUpload_ShouldRefuseAfterBurst_UntilTokensRefill() {
+        // Arrange
+        AdmissionControl admissionControl = admissionControl(2, 3, 0, 0, 0);
+        for (int i = 0; i < 3; i++) {
+            admissionControl.admitUpload("client", 10).release();
+        }
+
+        // Act
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class, () -> admissionControl.admitUpload("client", 10));
+
+        // Assert
+        assertEquals(TooManyRequestsException.Limit.REQUESTS, ex.getLimit());
+        assertEquals(1, ex.getRetryAfterSeconds());
+        assertEquals(1, registry.get("admission.rejections").tag("limit", "requests").counter().count());
+        admissionControl.admitUpload("other", 10).release();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        admissionControl.admitUpload("client", 10).release();
+    }
+
+    @Test
+    void admitDownload_ShouldRefuseUntilChargedBytesArePaidBack() {
+        // Arrange
+        AdmissionControl admissionControl = admissionControl(0, 0, 1000, 1000, 0);
+        admissionControl.admitDownload("client");
+
+        // Act
+        admissionControl.charge("client", 5000);
+
+        // Assert
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class, () -> admissionControl.admitDownload("client"));
+        assertEquals(TooManyRequestsException.Limit.BANDWIDTH, ex.getLimit());
+        assertEquals(4, ex.getRetryAfterSeconds());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(4));
+        admissionControl.admitDownload("client");
+    }
+
+    @Test
+    void admitUpload_ShouldLetOversizedUploadIntoFullBucketOnly() {
+        // Arrange
+        AdmissionControl admissionControl = admissionControl(0, 0, 1000, 1000, 0);
+
+        // Act
+        admissionControl.admitUpload("client", 3000).release();
+
+        // Assert
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class, () -> admissionControl.admitUpload("client", 1));
+        assertEquals(3, ex.getRetryAfterSeconds());
+    }
+
+    @Test
+    void admitUpload_ShouldCapBytesInFlight_AndReleaseThem() {
+        // Arrange
+        AdmissionControl admissionControl = admissionControl(0, 0, 0, 0, 100);
+        AdmissionControl.Permit first = admissionControl.admitUpload("a", 60);
+
+        // Act
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class, () -> admissionControl.admitUpload("b", 60));
+        first.release();
+        first.release();
+
+        // Assert
+        assertEquals(TooManyRequestsException.Limit.IN_FLIGHT, ex.getLimit());
+        assertEquals(0, admissionControl.inFlightBytes());
+        AdmissionControl.Permit oversized = admissionControl.admitUpload("b", 500);
+        assertEquals(500, admissionControl.inFlightBytes());
+        oversized.release();
+    }
+
+    @Test
+    void admitUpload_ShouldHandOutExactlyTheBurst_WhenRacedByManyThreads() throws Exception {
+        // Arrange
+        AdmissionControl admissionControl = admissionControl(1, 1000, 0, 0, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        // Act
+        for (int t = 0; t < 8; t++) {
+            results.add(executor.submit(() -> {
+                int admitted = 0;
+                for (int i = 0; i < 500; i++) {
+                    try {
+                        admissionControl.admitUpload("client", 1).release();
+                        admitted++;
+                    } catch (TooManyRequestsException ex) {
+                        // Over the burst
+                    }
+                }
+                return admitted;
+            }));
+        }
+
+        // Assert
+        int admitted = 0;
+        for (Future<Integer> result : results) {
+            admitted += result.get();
+        }
+        executor.shutdown();
+        assertEquals(1000, admitted);
+    }
+
+    @Test
+    void kindOf_ShouldClassifyUploadsAndDownloads() {
+        // Act & Assert
+        assertEquals(AdmissionControl.Kind.UPLOAD, AdmissionControl.kindOf("POST", "/api/upload"));
+        assertEquals(AdmissionControl.Kind.UPLOAD, AdmissionControl.kindOf("PUT", "/api/uploads/abc"));
+        assertEquals(AdmissionControl.Kind.DOWNLOAD, AdmissionControl.kindOf("GET", "/api/files/a.txt"));
+        assertEquals(AdmissionControl.Kind.DOWNLOAD, AdmissionControl.kindOf("POST", "/api/archive"));
+        assertEquals(AdmissionControl.Kind.UPLOAD, AdmissionControl.kindOf("PUT", "/s3/uploads/a.txt"));
+        assertEquals(AdmissionControl.Kind.DOWNLOAD, AdmissionControl.kindOf("GET", "/s3/uploads/a.txt"));
+        assertNull(AdmissionControl.kindOf("DELETE", "/s3/uploads/a.txt"));
+        assertEquals(AdmissionControl.Kind.UPLOAD, AdmissionControl.kindOf("PUT", "/internal/replicas/1700000000000-a.txt"));
+        assertNull(AdmissionControl.kindOf("HEAD", "/internal/replicas/1700000000000-a.txt"));
+        assertNull(AdmissionControl.kindOf("GET", "/api/files"));
+        assertNull(AdmissionControl.kindOf("GET", "/api/uploads/abc"));
+    }
+
+    private AdmissionControl admissionControl(double requestsPerSecond, double requestBurst, long bytesPerSecond, long byteBurst,
+                                              long maxInFlightBytes) {
+        return new AdmissionControl(requestsPerSecond, requestBurst, bytesPerSecond, byteBurst, maxInFlightBytes, 1000,
+            new FileMetrics(registry), clock::get);
+    }
+}
@@ -0,0 +1,279 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.exception.TooManyRequestsException;
+import com.github.manimovassagh.uploader.exception.UploadIncompleteException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.ChunkedUploadStatus;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+class ChunkedUploadServiceTest {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageService fileStorageService;
+    private ChunkedUploadService chunkedUploadService;
+
+    @BeforeEach
+    void setUp() {
+        fileStorageService = TestServices.fileStorageService(tempDir);
+        chunkedUploadService = new ChunkedUploadService(fileStorageService, 1024, 0, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        chunkedUploadService.close();
+        fileStorageService.close();
+    }
+
+    @Test
+    void commit_ShouldStoreFile_WhenChunksArriveOutOfOrder() throws IOException {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+        chunkedUploadService.writeChunk(id, 20, chunk(20, 36));
+        chunkedUploadService.writeChunk(id, 0, chunk(0, 10));
+        chunkedUploadService.writeChunk(id, 10, chunk(10, 20));
+
+        // Act
+        FileUploadResponse response = chunkedUploadService.commit(id);
+
+        // Assert
+        FileUploadResponse.FileInfo info = response.getFiles().get(0);
+        assertTrue(info.getFilename().matches("\\d+-notes\\.txt"));
+        assertEquals(CONTENT.length(), info.getSize());
+        assertEquals(CONTENT, Files.readString(tempDir.resolve(info.getFilename())));
+        assertEquals(List.of(info.getFilename()), fileStorageService.listFiles());
+        assertEquals(0, countSessionFiles());
+        assertThrows(FileNotFoundException.class, () -> chunkedUploadService.getStatus(id));
+    }
+
+    @Test
+    void writeChunk_ShouldMergeReceivedRanges() throws IOException {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+
+        // Act
+        chunkedUploadService.writeChunk(id, 0, chunk(0, 5));
+        chunkedUploadService.writeChunk(id, 10, chunk(10, 15));
+        ChunkedUploadStatus status = chunkedUploadService.writeChunk(id, 3, chunk(3, 12));
+
+        // Assert
+        assertEquals(15, status.getReceived());
+        assertEquals(1, status.getRanges().size());
+        assertEquals(0, status.getRanges().get(0).getStart());
+        assertEquals(14, status.getRanges().get(0).getEnd());
+    }
+
+    @Test
+    void writeChunk_ShouldAcceptConcurrentChunks() throws Exception {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<ChunkedUploadStatus>> futures = new ArrayList<>();
+
+        // Act
+        try {
+            for (int start = 0; start < CONTENT.length(); start += 4) {
+                int offset = start;
+                futures.add(executor.submit(() -> chunkedUploadService.writeChunk(id, offset, chunk(offset, offset + 4))));
+            }
+            for (Future<ChunkedUploadStatus> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        FileUploadResponse response = chunkedUploadService.commit(id);
+
+        // Assert
+        assertEquals(CONTENT, Files.readString(tempDir.resolve(response.getFiles().get(0).getFilename())));
+    }
+
+    @Test
+    void commit_ShouldKeepUploadOnMalformedDigest_AndDiscardItOnMismatch() throws IOException {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+        chunkedUploadService.writeChunk(id, 0, chunk(0, CONTENT.length()));
+
+        // Act & Assert
+        assertThrows(UploadRejectedException.class, () -> chunkedUploadService.commit(id, "sha-256=abc"));
+        assertEquals(CONTENT.length(), chunkedUploadService.getStatus(id).getReceived());
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class, () -> chunkedUploadService.commit(id, "crc32c=:AAAAAA==:"));
+        assertEquals(UploadRejectedException.Reason.DIGEST_MISMATCH, ex.getReason());
+        assertThrows(FileNotFoundException.class, () -> chunkedUploadService.getStatus(id));
+    }
+
+    @Test
+    void commit_ShouldThrowException_WhenBytesAreMissing() throws IOException {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+        chunkedUploadService.writeChunk(id, 0, chunk(0, 30));
+
+        // Act & Assert
+        assertThrows(UploadIncompleteException.class, () -> chunkedUploadService.commit(id));
+        assertEquals(30, chunkedUploadService.getStatus(id).getReceived());
+    }
+
+    @Test
+    void writeChunk_ShouldRejectChunk_WhenItExtendsPastTheDeclaredSize() throws IOException {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", 10).getId();
+
+        // Act & Assert
+        assertThrows(UploadRejectedException.class, () -> chunkedUploadService.writeChunk(id, 5, chunk(0, 10)));
+        assertThrows(IllegalArgumentException.class, () -> chunkedUploadService.writeChunk(id, 10, chunk(0, 1)));
+    }
+
+    @Test
+    void initiate_ShouldRejectInvalidUploads() {
+        // Act & Assert
+        assertThrows(UploadRejectedException.class, () -> chunkedUploadService.initiate("big.txt", "text/plain", 2048));
+        assertThrows(UploadRejectedException.class, () -> chunkedUploadService.initiate("empty.txt", "text/plain", 0));
+        assertThrows(UploadRejectedException.class, () -> chunkedUploadService.initiate("script.js", "application/javascript", 10));
+        assertThrows(IllegalArgumentException.class, () -> chunkedUploadService.initiate("../escape.txt", "text/plain", 10));
+    }
+
+    @Test
+    void constructor_ShouldResumeUploads_AfterRestart() throws IOException {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+        chunkedUploadService.writeChunk(id, 0, chunk(0, 20));
+        chunkedUploadService.close();
+        Files.writeString(tempDir.resolve(".uploads").resolve("orphan.part"), "never acknowledged");
+
+        // Act
+        ChunkedUploadService restarted = new ChunkedUploadService(fileStorageService, 1024, 0, 0);
+        try {
+            restarted.writeChunk(id, 20, chunk(20, 36));
+            FileUploadResponse response = restarted.commit(id);
+
+            // Assert
+            assertEquals(CONTENT, Files.readString(tempDir.resolve(response.getFiles().get(0).getFilename())));
+            assertEquals(0, countSessionFiles());
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    void commit_ShouldDiscardUpload_WhenContentDoesNotMatchDeclaredType() throws IOException {
+        // Arrange
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getUploadDir()).thenReturn(tempDir.toString());
+        when(config.isContentSniffing()).thenReturn(true);
+        FileStorageService sniffingService = TestServices.fileStorageService(config);
+        ChunkedUploadService service = new ChunkedUploadService(sniffingService, 1024, 0, 0);
+        String id = service.initiate("photo.jpg", "image/jpeg", CONTENT.length()).getId();
+        service.writeChunk(id, 0, chunk(0, 36));
+
+        // Act & Assert
+        try {
+            assertThrows(UploadRejectedException.class, () -> service.commit(id));
+            assertThrows(FileNotFoundException.class, () -> service.getStatus(id));
+            assertTrue(sniffingService.listFiles().isEmpty());
+            assertEquals(0, countSessionFiles());
+        } finally {
+            service.close();
+            sniffingService.close();
+        }
+    }
+
+    @Test
+    void abort_ShouldRemoveUpload() throws IOException {
+        // Arrange
+        String id = chunkedUploadService.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+        chunkedUploadService.writeChunk(id, 0, chunk(0, 10));
+
+        // Act
+        chunkedUploadService.abort(id);
+
+        // Assert
+        assertThrows(FileNotFoundException.class, () -> chunkedUploadService.writeChunk(id, 10, chunk(10, 20)));
+        assertEquals(0, countSessionFiles());
+    }
+
+    @Test
+    void initiate_ShouldRefuseUploads_WhileTheSessionLimitIsReached() throws IOException {
+        // Arrange
+        ChunkedUploadService limited = new ChunkedUploadService(fileStorageService, 1024, 0, 2);
+        try {
+            limited.initiate("one.txt", "text/plain", CONTENT.length());
+            String id = limited.initiate("two.txt", "text/plain", CONTENT.length()).getId();
+
+            // Act
+            TooManyRequestsException ex = assertThrows(TooManyRequestsException.class,
+                () -> limited.initiate("three.txt", "text/plain", CONTENT.length()));
+            limited.abort(id);
+
+            // Assert
+            assertEquals(TooManyRequestsException.Limit.SESSIONS, ex.getLimit());
+            assertNotNull(limited.initiate("three.txt", "text/plain", CONTENT.length()).getId());
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    void commit_ShouldStoreFile_WhenChunksAreSyncedAsTheyArrive() throws IOException {
+        // Arrange
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getUploadDir()).thenReturn(tempDir.toString());
+        when(config.getStorageDurability()).thenReturn("fsync");
+        FileStorageService syncingService = TestServices.fileStorageService(config);
+        ChunkedUploadService service = new ChunkedUploadService(syncingService, 1024, 0, 0);
+
+        try {
+            String id = service.initiate("notes.txt", "text/plain", CONTENT.length()).getId();
+            service.writeChunk(id, 0, chunk(0, 20));
+            service.close();
+            ChunkedUploadService restarted = new ChunkedUploadService(syncingService, 1024, 0, 0);
+            restarted.writeChunk(id, 20, chunk(20, 36));
+
+            // Act
+            FileUploadResponse response = restarted.commit(id);
+
+            // Assert
+            assertEquals(CONTENT, Files.readString(tempDir.resolve(response.getFiles().get(0).getFilename())));
+            restarted.close();
+        } finally {
+            service.close();
+            syncingService.close();
+        }
+    }
+
+    private static InputStream chunk(int start, int end) {
+        return new ByteArrayInputStream(CONTENT.substring(start, end).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long countSessionFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir.resolve(".uploads"))) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.exception.ReplicaConflictException;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs two nodes on localhost: the one under test, which is never contacted, and a peer whose
+ * replica endpoints are served by a plain HTTP server in front of its own storage.
+ */
+class ClusterServiceTest {
+
+    private static final String SELF = "http://localhost:1";
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageService localStorage;
+    private FileStorageService peerStorage;
+    private HttpServer peer;
+    private String peerUrl;
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        localStorage = TestServices.fileStorageService(Files.createDirectory(tempDir.resolve("local")));
+        peerStorage = TestServices.fileStorageService(Files.createDirectory(tempDir.resolve("peer")));
+        thumbnailService = mock(ThumbnailService.class);
+        peer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        peer.createContext(ClusterService.REPLICA_PATH, this::handleReplica);
+        peer.start();
+        peerUrl = "http://localhost:" + peer.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        peer.stop(0);
+        localStorage.close();
+        peerStorage.close();
+    }
+
+    @Test
+    void replicate_ShouldCopyUploadToEveryOtherOwner() throws IOException {
+        // Arrange
+        ClusterService cluster = new ClusterService(localStorage, thumbnailService, List.of(SELF, peerUrl), SELF, 2, 16, "s3cret", 0, 60);
+        FileUploadResponse response = localStorage.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "notes copy.txt", "text/plain", "replicated content".getBytes())
+        });
+        String filename = response.getFiles().get(0).getFilename();
+
+        // Act
+        cluster.replicate(response);
+
+        // Assert
+        assertNotNull(localStorage.getMetadata(filename));
+        assertNotNull(peerStorage.getMetadata(filename));
+        try (InputStream in = peerStorage.openContent(filename)) {
+            assertEquals("replicated content", new String(in.readAllBytes()));
+        }
+        assertEquals(localStorage.getDigest(filename).getSha256(), peerStorage.getMetadata(filename).getChecksum());
+        assertEquals(1, cluster.status().replicated());
+        cluster.close();
+    }
+
+    @Test
+    void rebalance_ShouldHandOffFilesOwnedByAnotherNode_AndKeepTheRest() {
+        // Arrange
+        ClusterService cluster = new ClusterService(localStorage, thumbnailService, List.of(SELF, peerUrl), SELF, 1, 16, "s3cret", 0, 60);
+        MultipartFile[] files = new MultipartFile[20];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new MockMultipartFile("files", "file" + i + ".txt", "text/plain", ("content " + i).getBytes());
+        }
+        List<String> stored = localStorage.storeFiles(files).getFiles().stream().map(FileUploadResponse.FileInfo::getFilename).toList();
+
+        // Act
+        cluster.rebalance();
+
+        // Assert
+        List<String> handedOff = new ArrayList<>();
+        for (String filename : stored) {
+            boolean local = localStorage.getMetadata(filename) != null;
+            boolean onPeer = peerStorage.getMetadata(filename) != null;
+            assertNotEquals(local, onPeer, filename);
+            assertEquals(local ? SELF : peerUrl, cluster.owners(filename).get(0));
+            if (onPeer) {
+                handedOff.add(filename);
+                assertEquals(peerUrl, cluster.locate(filename));
+            } else {
+                assertNull(cluster.locate(filename));
+            }
+        }
+        assertFalse(handedOff.isEmpty());
+        assertEquals(handedOff.size(), cluster.status().handedOff());
+        cluster.close();
+    }
+
+    @Test
+    void replicate_ShouldGiveUpOnAnOwnerThatDoesNotAnswer_AndKeepTheUpload() throws IOException {
+        // Arrange
+        CountDownLatch released = new CountDownLatch(1);
+        HttpServer stalled = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        stalled.createContext(ClusterService.REPLICA_PATH, exchange -> {
+            try {
+                released.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        stalled.start();
+        String stalledUrl = "http://localhost:" + stalled.getAddress().getPort();
+        ClusterService cluster = new ClusterService(localStorage, thumbnailService, List.of(SELF, stalledUrl), SELF, 2, 16, "s3cret", 0, 1);
+        FileUploadResponse response = localStorage.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "notes.txt", "text/plain", "never acknowledged".getBytes())
+        });
+
+        try {
+            // Act
+            long start = System.nanoTime();
+            cluster.replicate(response);
+
+            // Assert
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+            assertNotNull(localStorage.getMetadata(response.getFiles().get(0).getFilename()));
+            assertEquals(0, cluster.status().replicated());
+            assertEquals(1, cluster.status().failures());
+        } finally {
+            released.countDown();
+            stalled.stop(0);
+            cluster.close();
+        }
+    }
+
+    @Test
+    void constructor_ShouldRejectSelfThatIsNotAMember() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new ClusterService(localStorage, thumbnailService, List.of(peerUrl), SELF, 2, 16, "s3cret", 0, 60));
+    }
+
+    @Test
+    void constructor_ShouldRequireASecret_InClusterMode() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new ClusterService(localStorage, thumbnailService, List.of(SELF, peerUrl), SELF, 2, 16, "", 0, 60));
+    }
+
+    // What ReplicaController does on a real node
+    private void handleReplica(HttpExchange exchange) throws IOException {
+        String filename = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(ClusterService.REPLICA_PATH.length()),
+            StandardCharsets.UTF_8);
+        int status;
+        try {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                status = peerStorage.getMetadata(filename) != null ? 200 : 404;
+            } else {
+                status = peerStorage.storeReplica(filename, exchange.getRequestHeaders().getFirst("Content-Type"),
+                    exchange.getRequestBody(), Long.MAX_VALUE, exchange.getRequestHeaders().getFirst(ContentDigest.REPR_DIGEST)) != null
+                    ? 201 : 200;
+            }
+        } catch (ReplicaConflictException ex) {
+            status = 409;
+        } catch (RuntimeException ex) {
+            status = 400;
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+}
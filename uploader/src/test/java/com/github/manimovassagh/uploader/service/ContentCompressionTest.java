@@ -0,0 +1,51 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ContentCompressionTest {
+
+    @Test
+    void acceptsGzip_ShouldHonourQualityAndWildcard() {
+        // Act & Assert
+        assertTrue(ContentCompression.acceptsGzip("gzip, deflate, br"));
+        assertTrue(ContentCompression.acceptsGzip("br;q=1.0, gzip;q=0.5"));
+        assertTrue(ContentCompression.acceptsGzip("*"));
+        assertFalse(ContentCompression.acceptsGzip(null));
+        assertFalse(ContentCompression.acceptsGzip("identity"));
+        assertFalse(ContentCompression.acceptsGzip("gzip;q=0"));
+        assertFalse(ContentCompression.acceptsGzip("*, gzip;q=0"));
+    }
+
+    @Test
+    void isCompressible_ShouldSkipFormatsThatAreCompressedAlready() {
+        // Act & Assert
+        assertTrue(ContentCompression.isCompressible("text/plain"));
+        assertTrue(ContentCompression.isCompressible("application/msword"));
+        assertFalse(ContentCompression.isCompressible("image/jpeg"));
+        assertFalse(ContentCompression.isCompressible("application/pdf"));
+        assertFalse(ContentCompression.isCompressible(null));
+    }
+
+    @Test
+    void startsWithMagic_ShouldRecogniseGzipStream(@TempDir Path tempDir) throws IOException {
+        // Arrange
+        Path encoded = tempDir.resolve("encoded.txt");
+        try (OutputStream out = ContentCompression.encode(Files.newOutputStream(encoded))) {
+            out.write("text".getBytes(StandardCharsets.UTF_8));
+        }
+        Path plain = Files.writeString(tempDir.resolve("plain.txt"), "text");
+
+        // Act & Assert
+        assertTrue(ContentCompression.startsWithMagic(encoded));
+        assertFalse(ContentCompression.startsWithMagic(plain));
+    }
+}
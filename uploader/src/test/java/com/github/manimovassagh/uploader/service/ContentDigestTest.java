@@ -0,0 +1,74 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+
+class ContentDigestTest {
+
+    private static final String ABC_SHA_256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Test
+    void sink_ShouldDigestWhatPassesThrough() throws IOException {
+        // Arrange
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        // Act
+        ContentDigest digest;
+        try (ContentDigest.Sink sink = new ContentDigest.Sink(target, true)) {
+            sink.write('a');
+            sink.write("bc".getBytes(StandardCharsets.UTF_8));
+            digest = sink.digest();
+        }
+
+        // Assert
+        assertEquals("abc", target.toString(StandardCharsets.UTF_8));
+        assertEquals(ABC_SHA_256, digest.getSha256());
+        assertEquals("364b3fb7", digest.getCrc32c());
+        assertEquals("sha-256=:ungWv48Bz+pBQUDeXa4iI7ADYaOWF3qctBD/YfIAFa0=:, crc32c=:Nks/tw==:",
+            digest.toHeader(Set.of(ContentDigest.Algorithm.SHA_256, ContentDigest.Algorithm.CRC32C)));
+    }
+
+    @Test
+    void sink_ShouldDigestBuffersWithoutConsumingThem() {
+        // Arrange
+        ContentDigest.Sink sink = new ContentDigest.Sink(null, false);
+        ByteBuffer buffer = ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8));
+
+        // Act
+        sink.update(buffer);
+
+        // Assert
+        assertEquals(3, buffer.remaining());
+        ContentDigest digest = sink.digest();
+        assertEquals(ABC_SHA_256, digest.getSha256());
+        assertNull(digest.getCrc32c());
+        assertEquals(Map.of("sha-256", ABC_SHA_256), digest.toMap(ContentDigest.algorithms(new String[] {"SHA-256", "crc32c"})));
+    }
+
+    @Test
+    void verify_ShouldAcceptMatchingAndRejectDifferingDigests() {
+        // Arrange
+        ContentDigest digest = new ContentDigest(ABC_SHA_256, "364b3fb7");
+
+        // Act & Assert
+        digest.verify(ContentDigest.parse("sha-256=:ungWv48Bz+pBQUDeXa4iI7ADYaOWF3qctBD/YfIAFa0=:, md5=:kAFQmDzST7DWlj99KOF/cg==:"));
+        digest.verify(ContentDigest.parse("crc32c=:Nks/tw==:;note=\"trailing parameter\""));
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class,
+            () -> digest.verify(ContentDigest.parse("crc32c=:AAAAAA==:")));
+        assertEquals(UploadRejectedException.Reason.DIGEST_MISMATCH, ex.getReason());
+        ex = assertThrows(UploadRejectedException.class, () -> ContentDigest.parse("sha-256=ungWv48B"));
+        assertEquals(UploadRejectedException.Reason.MALFORMED_DIGEST, ex.getReason());
+        assertThrows(UploadRejectedException.class, () -> ContentDigest.parse("sha-256=:not base64!:"));
+        assertTrue(ContentDigest.parse(null).isEmpty());
+    }
+}
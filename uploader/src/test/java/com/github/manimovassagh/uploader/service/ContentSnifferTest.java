@@ -0,0 +1,88 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+
+class ContentSnifferTest {
+
+    private final ContentSniffer contentSniffer = new ContentSniffer(List.of(FileUploadConfig.DEFAULT_ALLOWED_TYPES.split(",")));
+
+    @Test
+    void detect_ShouldRecogniseSignatures() throws IOException {
+        // Act & Assert
+        assertEquals("image/jpeg", detect(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0}));
+        assertEquals("image/png", detect(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0}));
+        assertEquals("image/gif", detect("GIF89a\u0001\u0000".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals("application/pdf", detect("%PDF-1.7\n%âã".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(ContentSniffer.DOCX, detect(zip("[Content_Types].xml", "word/document.xml")));
+        assertEquals("text/plain", detect("plain text, café".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void detect_ShouldRejectUnknownBinaryAndPlainZip() throws IOException {
+        // Act & Assert
+        assertNull(detect(new byte[] {0x7F, 'E', 'L', 'F', 2, 1, 1, 0}));
+        assertNull(detect(zip("payload.exe")));
+    }
+
+    @Test
+    void detect_ShouldAcceptUtf8CutOffAtBufferEnd() {
+        // Arrange
+        byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+        byte[] head = {'a', 'b', euro[0], euro[1]};
+
+        // Act & Assert
+        assertEquals("text/plain", detect(head));
+    }
+
+    @Test
+    void verify_ShouldRejectDeclaredTypeMismatch() {
+        // Arrange
+        byte[] pdf = "%PDF-1.4".getBytes(StandardCharsets.US_ASCII);
+
+        // Act & Assert
+        assertEquals("application/pdf", contentSniffer.verify("a.pdf", "application/pdf", pdf, pdf.length));
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class,
+            () -> contentSniffer.verify("a.jpg", "image/jpeg", pdf, pdf.length));
+        assertTrue(ex.getMessage().contains("application/pdf"));
+    }
+
+    @Test
+    void constructor_ShouldOnlyDetectConfiguredTypes() {
+        // Arrange
+        ContentSniffer imagesOnly = new ContentSniffer(List.of("image/png", "IMAGE/JPEG"));
+        byte[] pdf = "%PDF-1.4".getBytes(StandardCharsets.US_ASCII);
+
+        // Act & Assert
+        assertTrue(imagesOnly.isAllowed("image/jpeg; charset=binary"));
+        assertFalse(imagesOnly.isAllowed("text/plain"));
+        assertNull(imagesOnly.detect(pdf, pdf.length));
+    }
+
+    private String detect(byte[] head) {
+        return contentSniffer.detect(head, head.length);
+    }
+
+    private static byte[] zip(String... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (String entry : entries) {
+                zip.putNextEntry(new ZipEntry(entry));
+                zip.write("<xml/>".getBytes(StandardCharsets.US_ASCII));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DownloadCacheTest {
+
+    private static final long BUDGET = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void get_ShouldServeOffHeapCopyFromTheSecondRequestOnAndCountHits() throws IOException {
+        // Arrange
+        DownloadCache cache = new DownloadCache(BUDGET, 256);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        Path file = Files.writeString(tempDir.resolve("hot.txt"), "hot content");
+
+        // Act
+        ByteBuffer first = read(cache, file);
+        ByteBuffer second = read(cache, file);
+        ByteBuffer third = read(cache, file);
+
+        // Assert
+        assertNull(first);
+        assertTrue(third.isDirect());
+        assertEquals("hot content", StandardCharsets.UTF_8.decode(third).toString());
+        assertEquals(second.capacity(), third.capacity());
+        assertEquals(2.0, registry.get("cache.gets").tag("cache", "downloads").tag("result", "miss").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "downloads").tag("result", "hit").functionCounter().count());
+        assertEquals(DownloadCache.PAGE_SIZE, registry.get("cache.weight").gauge().value());
+    }
+
+    @Test
+    void get_ShouldReload_WhenFileChangedOnDisk() throws IOException {
+        // Arrange
+        DownloadCache cache = new DownloadCache(BUDGET, 256);
+        Path file = Files.writeString(tempDir.resolve("changing.txt"), "old");
+        read(cache, file);
+        read(cache, file);
+
+        // Act
+        Files.writeString(file, "newer");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+        read(cache, file);
+        ByteBuffer content = read(cache, file);
+
+        // Assert
+        assertEquals("newer", StandardCharsets.UTF_8.decode(content).toString());
+    }
+
+    @Test
+    void invalidate_ShouldPoolTheBuffer_OnceTheLastLeaseIsClosed() throws IOException {
+        // Arrange
+        DownloadCache cache = new DownloadCache(BUDGET, 256);
+        Path file = Files.writeString(tempDir.resolve("pooled.txt"), "pooled");
+        read(cache, file);
+        DownloadCache.Lease lease = get(cache, file);
+
+        // Act
+        cache.invalidate(file);
+        long pooledWhileLeased = cache.getPooledBytes();
+        String content = StandardCharsets.UTF_8.decode(lease.content()).toString();
+        lease.close();
+
+        // Assert
+        assertEquals(0, pooledWhileLeased);
+        assertEquals("pooled", content);
+        assertEquals(DownloadCache.PAGE_SIZE, cache.getPooledBytes());
+        read(cache, file);
+        assertNotNull(read(cache, file));
+        assertEquals(0, cache.getPooledBytes());
+    }
+
+    @Test
+    void get_ShouldSkipFilesOverEntryLimit() throws IOException {
+        // Arrange
+        DownloadCache cache = new DownloadCache(BUDGET, 4);
+        Path file = Files.writeString(tempDir.resolve("large.txt"), "too large");
+
+        // Act & Assert
+        assertNull(read(cache, file));
+        assertNull(read(cache, file));
+        assertEquals(0, cache.getWeightedSize());
+    }
+
+    @Test
+    void invalidate_ShouldDropEntry() throws IOException {
+        // Arrange
+        DownloadCache cache = new DownloadCache(BUDGET, 256);
+        Path file = Files.writeString(tempDir.resolve("gone.txt"), "gone");
+        read(cache, file);
+        read(cache, file);
+
+        // Act
+        cache.invalidate(file);
+
+        // Assert
+        assertEquals(0, cache.getWeightedSize());
+    }
+
+    @Test
+    void get_ShouldReturnNull_WhenDisabled() throws IOException {
+        // Arrange
+        DownloadCache cache = new DownloadCache(0, 0);
+        Path file = Files.writeString(tempDir.resolve("any.txt"), "any");
+
+        // Act & Assert
+        assertFalse(cache.isEnabled());
+        assertNull(read(cache, file));
+    }
+
+    private static DownloadCache.Lease get(DownloadCache cache, Path file) throws IOException {
+        return cache.get(file, Files.size(file), Files.getLastModifiedTime(file));
+    }
+
+    private static ByteBuffer read(DownloadCache cache, Path file) throws IOException {
+        try (DownloadCache.Lease lease = get(cache, file)) {
+            return lease == null ? null : lease.content();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.manimovassagh.uploader.model.FileMetadata;
+
+class FileIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileIndex fileIndex;
+
+    @BeforeEach
+    void setUp() {
+        fileIndex = new FileIndex(tempDir);
+        fileIndex.put(new FileMetadata("300-c.txt", "c.txt", 10, "text/plain", Instant.ofEpochMilli(300)));
+        fileIndex.put(new FileMetadata("100-a.jpg", "a.jpg", 30, "image/jpeg", Instant.ofEpochMilli(100)));
+        fileIndex.put(new FileMetadata("200-b.pdf", "b.pdf", 20, "application/pdf", Instant.ofEpochMilli(200)));
+        fileIndex.put(new FileMetadata("400-a.png", "a.png", 40, "image/png", Instant.ofEpochMilli(400)));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fileIndex.close();
+    }
+
+    @Test
+    void list_ShouldSortByNameAndPaginate() {
+        // Act
+        FileIndex.Page page = fileIndex.list(null, FileIndex.SortField.NAME, false, 1, 2);
+
+        // Assert
+        assertEquals(List.of("200-b.pdf", "300-c.txt"), names(page));
+        assertEquals(4, page.total());
+    }
+
+    @Test
+    void list_ShouldSortBySizeDescending() {
+        // Act
+        FileIndex.Page page = fileIndex.list(null, FileIndex.SortField.SIZE, true, 0, 10);
+
+        // Assert
+        assertEquals(List.of("400-a.png", "100-a.jpg", "200-b.pdf", "300-c.txt"), names(page));
+    }
+
+    @Test
+    void listAfter_ShouldContinueFromName_AndTrackTotalSize() {
+        // Act
+        List<FileMetadata> first = fileIndex.listAfter(null, 2);
+        List<FileMetadata> next = fileIndex.listAfter(first.get(1).getFilename(), 2);
+        fileIndex.remove("400-a.png");
+
+        // Assert
+        assertEquals(List.of("100-a.jpg", "200-b.pdf"), first.stream().map(FileMetadata::getFilename).toList());
+        assertEquals(List.of("300-c.txt", "400-a.png"), next.stream().map(FileMetadata::getFilename).toList());
+        assertEquals(60, fileIndex.totalSize());
+    }
+
+    @Test
+    void list_ShouldFilterByPrefix() {
+        // Act
+        FileIndex.Page byName = fileIndex.list("1", FileIndex.SortField.NAME, false, 0, 10);
+        FileIndex.Page byTime = fileIndex.list("2", FileIndex.SortField.UPLOAD_TIME, true, 0, 10);
+
+        // Assert
+        assertEquals(List.of("100-a.jpg"), names(byName));
+        assertEquals(1, byName.total());
+        assertEquals(List.of("200-b.pdf"), names(byTime));
+    }
+
+    @Test
+    void put_ShouldReplaceExistingEntryInAllOrderings() {
+        // Act
+        fileIndex.put(new FileMetadata("300-c.txt", "c.txt", 50, "text/plain", Instant.ofEpochMilli(300)));
+
+        // Assert
+        assertEquals(4, fileIndex.size());
+        assertEquals("300-c.txt", fileIndex.list(null, FileIndex.SortField.SIZE, true, 0, 1).items().get(0).getFilename());
+        assertEquals(4, fileIndex.list(null, FileIndex.SortField.SIZE, false, 0, 10).items().size());
+    }
+
+    @Test
+    void rebuild_ShouldReflectDirectoryContents() throws IOException {
+        // Arrange
+        Files.writeString(tempDir.resolve("1700000000000-report.pdf"), "pdf");
+        Files.writeString(tempDir.resolve(".hidden"), "internal");
+
+        // Act
+        fileIndex.rebuild();
+
+        // Assert
+        assertEquals(List.of("1700000000000-report.pdf"), names(fileIndex.list(null, FileIndex.SortField.NAME, false, 0, 10)));
+        FileMetadata metadata = fileIndex.get("1700000000000-report.pdf");
+        assertEquals("report.pdf", metadata.getOriginalName());
+        assertEquals("application/pdf", metadata.getMimeType());
+        assertEquals(Instant.ofEpochMilli(1700000000000L), metadata.getUploadTime());
+        assertEquals(3, metadata.getSize());
+    }
+
+    @Test
+    void rebuild_ShouldKeepFilesStoredWhileTheDirectoryIsListed() throws IOException {
+        // Arrange
+        FileIndex[] index = new FileIndex[1];
+        index[0] = new FileIndex(new FlatStorageBackend(tempDir) {
+            @Override
+            public Stream<Path> files() throws IOException {
+                List<Path> listing;
+                try (Stream<Path> files = super.files()) {
+                    listing = files.toList();
+                }
+                // Stored after the listing was taken
+                Files.writeString(tempDir.resolve("500-late.txt"), "late");
+                index[0].put(new FileMetadata("500-late.txt", "late.txt", 4, "text/plain", Instant.ofEpochMilli(500)));
+                return listing.stream();
+            }
+        });
+        index[0].put(new FileMetadata("100-gone.txt", "gone.txt", 4, "text/plain", Instant.ofEpochMilli(100)));
+
+        // Act
+        index[0].rebuild();
+
+        // Assert
+        assertNotNull(index[0].get("500-late.txt"));
+        assertNull(index[0].get("100-gone.txt"));
+    }
+
+    @Test
+    void startWatching_ShouldPickUpOutOfBandChanges() throws Exception {
+        // Arrange
+        FileIndex watchedIndex = new FileIndex(tempDir);
+        watchedIndex.startWatching(3600);
+
+        try {
+            // Act
+            awaitCondition(() -> watchedIndex.getWatchStatus().mode() == FileIndex.WatchMode.EVENTS);
+            Files.writeString(tempDir.resolve("manual.txt"), "added by hand");
+            awaitCondition(() -> watchedIndex.get("manual.txt") != null);
+            Files.delete(tempDir.resolve("manual.txt"));
+            awaitCondition(() -> watchedIndex.get("manual.txt") == null);
+
+            // Assert
+            assertEquals(0, watchedIndex.size());
+        } finally {
+            watchedIndex.close();
+        }
+    }
+
+    @Test
+    void startWatching_ShouldReReadTheShardedLayout_InsteadOfWatchingEveryShard() throws Exception {
+        // Arrange
+        ShardedStorageBackend storage = new ShardedStorageBackend(tempDir);
+        storage.open();
+        FileIndex watchedIndex = new FileIndex(storage);
+        watchedIndex.startWatching(1);
+
+        try {
+            // Act
+            Files.writeString(storage.prepare("1700000000000-sharded.txt"), "sharded");
+            awaitCondition(() -> watchedIndex.get("1700000000000-sharded.txt") != null);
+
+            // Assert
+            assertEquals("sharded.txt", watchedIndex.get("1700000000000-sharded.txt").getOriginalName());
+            assertEquals(FileIndex.WatchMode.RECONCILE, watchedIndex.getWatchStatus().mode());
+            assertNull(watchedIndex.getWatchStatus().fallbackReason());
+        } finally {
+            watchedIndex.close();
+        }
+    }
+
+    @Test
+    void startWatching_ShouldFallBackToReReading_WhenTheDirectoryCannotBeWatched() throws Exception {
+        // Arrange
+        Path missing = tempDir.resolve("missing");
+        FileIndex watchedIndex = new FileIndex(missing);
+        watchedIndex.startWatching(1);
+
+        try {
+            // Act
+            awaitCondition(() -> watchedIndex.getWatchStatus().error() != null);
+            Files.createDirectories(missing);
+            Files.writeString(missing.resolve("manual.txt"), "added by hand");
+            awaitCondition(() -> watchedIndex.get("manual.txt") != null);
+
+            // Assert
+            FileIndex.WatchStatus status = watchedIndex.getWatchStatus();
+            assertEquals(FileIndex.WatchMode.RECONCILE, status.mode());
+            assertNotNull(status.fallbackReason());
+            awaitCondition(() -> watchedIndex.getWatchStatus().error() == null);
+        } finally {
+            watchedIndex.close();
+        }
+    }
+
+    private static List<String> names(FileIndex.Page page) {
+        return page.items().stream().map(FileMetadata::getFilename).toList();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not met within 10 seconds");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -1,24 +1,45 @@
 package com.github.manimovassagh.uploader.service;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
-import org.springframework.core.io.Resource;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.github.manimovassagh.uploader.TestServices;
 import com.github.manimovassagh.uploader.config.FileUploadConfig;
+import com.github.manimovassagh.uploader.exception.BadRequestException;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.exception.ReplicaConflictException;
+import com.github.manimovassagh.uploader.exception.UploadRejectedException;
+import com.github.manimovassagh.uploader.model.FileDetails;
+import com.github.manimovassagh.uploader.model.FileMetadata;
 import com.github.manimovassagh.uploader.model.FileUploadResponse;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 class FileStorageServiceTest {
 
+    private static final String BOUNDARY = "----TestBoundary";
+
     @TempDir
     Path tempDir;
 
@@ -27,7 +48,7 @@ class FileStorageServiceTest {
 
     @BeforeEach
     void setUp() {
-        fileStorageService = new FileStorageService(tempDir);
+        fileStorageService = TestServices.fileStorageService(tempDir);
     }
 
     @Test
@@ -75,6 +96,108 @@ class FileStorageServiceTest {
         assertThrows(RuntimeException.class, () -> fileStorageService.storeFiles(files));
     }
 
+    @Test
+    void storeFiles_ShouldKeepRequestOrder_WhenWritingInParallel() {
+        // Arrange
+        FileStorageService parallelService = TestServices.fileStorageService(parallelConfig());
+        MultipartFile[] files = new MultipartFile[5];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new MockMultipartFile("files", "test" + i + ".txt", "text/plain", ("content " + i).getBytes());
+        }
+
+        // Act
+        FileUploadResponse response = parallelService.storeFiles(files);
+
+        // Assert
+        assertEquals(5, response.getFiles().size());
+        for (int i = 0; i < files.length; i++) {
+            assertEquals("test" + i + ".txt", response.getFiles().get(i).getOriginalName());
+        }
+        assertEquals(5, parallelService.listFiles().size());
+        parallelService.close();
+    }
+
+    @Test
+    void storeFiles_ShouldRemoveWrittenFiles_WhenParallelWriteFails() throws IOException {
+        // Arrange
+        FileStorageService parallelService = TestServices.fileStorageService(parallelConfig());
+        MultipartFile broken = mock(MultipartFile.class);
+        when(broken.getOriginalFilename()).thenReturn("broken.txt");
+        when(broken.getContentType()).thenReturn("text/plain");
+        when(broken.getInputStream()).thenThrow(new IOException("disk error"));
+        MultipartFile[] files = {
+            new MockMultipartFile("files", "ok1.txt", "text/plain", "ok".getBytes()),
+            broken,
+            new MockMultipartFile("files", "ok2.txt", "text/plain", "ok".getBytes())
+        };
+
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> parallelService.storeFiles(files));
+        assertTrue(parallelService.listFiles().isEmpty());
+        parallelService.close();
+    }
+
+    @Test
+    void storeMultipartStream_ShouldStoreFilePartsSuccessfully() throws IOException {
+        // Arrange
+        byte[] body = multipartBody(
+            "files", "test1.txt", "text/plain", "first file",
+            "files", "test2.txt", "text/plain", "second file"
+        );
+
+        // Act
+        FileUploadResponse response = fileStorageService.storeMultipartStream(
+            new ByteArrayInputStream(body), BOUNDARY, 5, 1024);
+
+        // Assert
+        assertEquals("Files uploaded successfully", response.getMessage());
+        assertEquals(2, response.getFiles().size());
+        assertEquals("test1.txt", response.getFiles().get(0).getOriginalName());
+        assertEquals(10, response.getFiles().get(0).getSize());
+        assertEquals("second file", Files.readString(tempDir.resolve(response.getFiles().get(1).getFilename())));
+    }
+
+    @Test
+    void storeMultipartStream_ShouldRemoveStoredFiles_WhenFileIsTooLarge() {
+        // Arrange
+        byte[] body = multipartBody(
+            "files", "small.txt", "text/plain", "ok",
+            "files", "large.txt", "text/plain", "this content is over the limit"
+        );
+
+        // Act & Assert
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class,
+            () -> fileStorageService.storeMultipartStream(new ByteArrayInputStream(body), BOUNDARY, 5, 10));
+        assertTrue(ex.getMessage().startsWith("File too large"));
+        assertTrue(fileStorageService.listFiles().isEmpty());
+    }
+
+    @Test
+    void storeMultipartStream_ShouldRejectTooManyFiles() {
+        // Arrange
+        byte[] body = multipartBody(
+            "files", "test1.txt", "text/plain", "one",
+            "files", "test2.txt", "text/plain", "two"
+        );
+
+        // Act & Assert
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class,
+            () -> fileStorageService.storeMultipartStream(new ByteArrayInputStream(body), BOUNDARY, 1, 1024));
+        assertEquals("Too many files. Maximum is 1 files.", ex.getMessage());
+        assertTrue(fileStorageService.listFiles().isEmpty());
+    }
+
+    @Test
+    void storeMultipartStream_ShouldRejectInvalidFileType() {
+        // Arrange
+        byte[] body = multipartBody("files", "test.js", "application/javascript", "console.log('test')");
+
+        // Act & Assert
+        assertThrows(UploadRejectedException.class,
+            () -> fileStorageService.storeMultipartStream(new ByteArrayInputStream(body), BOUNDARY, 5, 1024));
+        assertTrue(fileStorageService.listFiles().isEmpty());
+    }
+
     @Test
     void listFiles_ShouldReturnEmptyList_WhenNoFiles() {
         // Act
@@ -86,25 +209,25 @@ class FileStorageServiceTest {
     }
 
     @Test
-    void loadFileAsResource_ShouldReturnResource_WhenFileExists() throws IOException {
+    void resolveStoredFile_ShouldReturnPath_WhenFileExists() throws IOException {
         // Arrange
         String filename = "test.txt";
         Path testFile = tempDir.resolve(filename);
         Files.write(testFile, "test content".getBytes());
 
         // Act
-        Resource resource = fileStorageService.loadFileAsResource(filename);
+        Path resolved = fileStorageService.resolveStoredFile(filename);
 
         // Assert
-        assertNotNull(resource);
-        assertTrue(resource.exists());
-        assertEquals(filename, resource.getFilename());
+        assertNotNull(resolved);
+        assertTrue(Files.exists(resolved));
+        assertEquals(filename, resolved.getFileName().toString());
     }
 
     @Test
-    void loadFileAsResource_ShouldThrowException_WhenFileDoesNotExist() {
+    void resolveStoredFile_ShouldThrowException_WhenFileDoesNotExist() {
         // Act & Assert
-        assertThrows(RuntimeException.class, () -> fileStorageService.loadFileAsResource("nonexistent.txt"));
+        assertThrows(RuntimeException.class, () -> fileStorageService.resolveStoredFile("nonexistent.txt"));
     }
 
     @Test
@@ -126,6 +249,502 @@ class FileStorageServiceTest {
         }
     }
 
+    @Test
+    void storeFiles_ShouldGiveDistinctNames_WhenSameNameIsUploadedTwiceInOneRequest() {
+        // Arrange
+        MultipartFile[] files = {
+            new MockMultipartFile("files", "same.txt", "text/plain", "first".getBytes()),
+            new MockMultipartFile("files", "same.txt", "text/plain", "second".getBytes())
+        };
+
+        // Act
+        FileUploadResponse response = fileStorageService.storeFiles(files);
+
+        // Assert
+        assertNotEquals(response.getFiles().get(0).getFilename(), response.getFiles().get(1).getFilename());
+        assertEquals(2, fileStorageService.listFiles().size());
+    }
+
+    @Test
+    void storeFiles_ShouldShareOneBlob_WhenContentIsDuplicated() throws IOException {
+        // Arrange
+        FileStorageService casService = TestServices.fileStorageService(contentAddressedConfig());
+        MultipartFile[] files = {
+            new MockMultipartFile("files", "report.pdf", "application/pdf", "same bytes".getBytes()),
+            new MockMultipartFile("files", "copy.pdf", "application/pdf", "same bytes".getBytes()),
+            new MockMultipartFile("files", "other.pdf", "application/pdf", "other bytes".getBytes())
+        };
+
+        // Act
+        FileUploadResponse response = casService.storeFiles(files);
+
+        // Assert
+        Path first = tempDir.resolve(response.getFiles().get(0).getFilename());
+        Path second = tempDir.resolve(response.getFiles().get(1).getFilename());
+        Path third = tempDir.resolve(response.getFiles().get(2).getFilename());
+        assertTrue(Files.isSameFile(first, second));
+        assertFalse(Files.isSameFile(first, third));
+        assertEquals("same bytes", Files.readString(second));
+        assertEquals(2, countBlobs());
+        assertEquals(3, casService.listFiles().size());
+        casService.close();
+    }
+
+    @Test
+    void storeFiles_ShouldReleaseUnreferencedBlobs_WhenUploadFails() throws IOException {
+        // Arrange
+        FileStorageService casService = TestServices.fileStorageService(contentAddressedConfig());
+        MultipartFile broken = mock(MultipartFile.class);
+        when(broken.getOriginalFilename()).thenReturn("broken.txt");
+        when(broken.getContentType()).thenReturn("text/plain");
+        when(broken.getInputStream()).thenThrow(new IOException("disk error"));
+        MultipartFile[] files = {
+            new MockMultipartFile("files", "ok.txt", "text/plain", "ok".getBytes()),
+            broken
+        };
+
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> casService.storeFiles(files));
+        assertTrue(casService.listFiles().isEmpty());
+        assertEquals(0, countBlobs());
+        casService.close();
+    }
+
+    @Test
+    void constructor_ShouldCollectOrphanBlobs_WhenContentAddressed() throws IOException {
+        // Arrange
+        FileStorageService casService = TestServices.fileStorageService(contentAddressedConfig());
+        FileUploadResponse response = casService.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "gone.txt", "text/plain", "gone".getBytes())
+        });
+        casService.close();
+        Files.delete(tempDir.resolve(response.getFiles().get(0).getFilename()));
+
+        // Act
+        TestServices.fileStorageService(contentAddressedConfig()).close();
+
+        // Assert
+        assertEquals(0, countBlobs());
+    }
+
+    @Test
+    void deleteFile_ShouldRemoveFileAndIndexEntry_AndReleaseBlobWithLastName() throws IOException {
+        // Arrange
+        FileStorageService casService = TestServices.fileStorageService(contentAddressedConfig());
+        FileUploadResponse response = casService.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "a.txt", "text/plain", "same".getBytes()),
+            new MockMultipartFile("files", "b.txt", "text/plain", "same".getBytes())
+        });
+        String first = response.getFiles().get(0).getFilename();
+        String second = response.getFiles().get(1).getFilename();
+
+        // Act
+        boolean deleted = casService.deleteFile(first);
+        long blobsLeft = countBlobs();
+        casService.deleteFile(second);
+
+        // Assert
+        assertTrue(deleted);
+        assertFalse(casService.deleteFile(first));
+        assertFalse(Files.exists(tempDir.resolve(first)));
+        assertNull(casService.getMetadata(first));
+        assertEquals(1, blobsLeft);
+        assertEquals(0, countBlobs());
+        assertEquals(0, casService.getStoredBytes());
+        casService.close();
+    }
+
+    @Test
+    void storeObject_ShouldReplaceContentUnderTheSameKey_AndReleaseTheOldBlob() throws IOException {
+        // Arrange
+        FileStorageService casService = TestServices.fileStorageService(contentAddressedConfig());
+        casService.storeObject("notes.txt", "text/plain", new ByteArrayInputStream("first".getBytes()), 1024, null);
+
+        // Act
+        FileUploadResponse.FileInfo info = casService.storeObject("notes.txt", "text/plain",
+            new ByteArrayInputStream("second version".getBytes()), 1024, null);
+
+        // Assert
+        assertEquals("notes.txt", info.getFilename());
+        assertEquals("second version", Files.readString(tempDir.resolve("notes.txt")));
+        assertEquals(List.of("notes.txt"), casService.listFiles());
+        assertEquals(14, casService.getStoredBytes());
+        assertEquals(1, countBlobs());
+        assertThrows(IllegalArgumentException.class,
+            () -> casService.storeObject(".hidden", "text/plain", new ByteArrayInputStream("x".getBytes()), 1024, null));
+        assertThrows(IllegalArgumentException.class,
+            () -> casService.storeObject("a/b.txt", "text/plain", new ByteArrayInputStream("x".getBytes()), 1024, null));
+        casService.close();
+    }
+
+    @Test
+    void storeObject_ShouldRefuseNamesOfUploadedFiles() throws IOException {
+        // Arrange
+        String filename = fileStorageService.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "notes.txt", "text/plain", "uploaded".getBytes())
+        }).getFiles().get(0).getFilename();
+
+        // Act & Assert
+        assertThrows(BadRequestException.class,
+            () -> fileStorageService.storeObject(filename, "text/plain", new ByteArrayInputStream("x".getBytes()), 1024, null));
+        assertThrows(BadRequestException.class, () -> FileStorageService.checkWritableKey("1700000000000-other.txt"));
+        assertEquals("uploaded", Files.readString(fileStorageService.resolveStoredFile(filename)));
+    }
+
+    @Test
+    void storeFiles_ShouldWriteIntoShards_WhenLayoutIsSharded() {
+        // Arrange
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getUploadDir()).thenReturn(tempDir.toString());
+        when(config.isShardedLayout()).thenReturn(true);
+        FileStorageService shardedService = TestServices.fileStorageService(config);
+
+        // Act
+        FileUploadResponse response = shardedService.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "photo.jpg", "image/jpeg", "jpeg".getBytes())
+        });
+
+        // Assert
+        String filename = response.getFiles().get(0).getFilename();
+        Path stored = shardedService.resolveStoredFile(filename);
+        assertEquals(3, tempDir.relativize(stored).getNameCount());
+        assertEquals(List.of(filename), shardedService.listFiles());
+        shardedService.close();
+    }
+
+    @Test
+    void resolveStoredFile_ShouldRejectInternalPaths() throws IOException {
+        // Arrange
+        Files.createDirectories(tempDir.resolve(".blobs"));
+        Files.writeString(tempDir.resolve(".blobs/blob"), "internal");
+
+        // Act & Assert
+        assertThrows(FileNotFoundException.class,
+            () -> fileStorageService.resolveStoredFile(".blobs/blob"));
+    }
+
+    @Test
+    void storeFiles_ShouldRecordDetectedType_WhenSniffingIsEnabled() {
+        // Arrange
+        FileStorageService sniffingService = TestServices.fileStorageService(sniffingConfig());
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 0x0D};
+
+        // Act
+        FileUploadResponse response = sniffingService.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "image.png", "image/png", png)
+        });
+
+        // Assert
+        assertEquals("image/png", response.getFiles().get(0).getMimeType());
+        assertEquals(png.length, response.getFiles().get(0).getSize());
+        sniffingService.close();
+    }
+
+    @Test
+    void storeMultipartStream_ShouldRejectSpoofedType_BeforeWritingIt() {
+        // Arrange
+        FileStorageService sniffingService = TestServices.fileStorageService(sniffingConfig());
+        byte[] body = multipartBody("files", "photo.jpg", "image/jpeg", "#!/bin/sh echo not a photo");
+
+        // Act & Assert
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class,
+            () -> sniffingService.storeMultipartStream(new ByteArrayInputStream(body), BOUNDARY, 5, 1024));
+        assertTrue(ex.getMessage().contains("declared as image/jpeg"));
+        assertTrue(sniffingService.listFiles().isEmpty());
+        sniffingService.close();
+    }
+
+    @Test
+    void storeFiles_ShouldRecordStageTimings() {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        FileStorageService service = new FileStorageService(sniffingConfig(), new DownloadCache(0, 0), new FileMetrics(registry));
+        MockMultipartFile file = new MockMultipartFile("files", "notes.txt", "text/plain", "plain text".getBytes());
+
+        // Act
+        service.storeFiles(new MultipartFile[]{file});
+
+        // Assert
+        assertEquals(1, registry.get("upload.stage").tag("stage", "validate").timer().count());
+        assertEquals(1, registry.get("upload.stage").tag("stage", "receive").timer().count());
+        assertEquals(1, registry.get("upload.stage").tag("stage", "write").timer().count());
+        assertEquals(10, registry.get("upload.bytes").counter().count());
+    }
+
+    @Test
+    void storeFiles_ShouldSyncFilesAndShareDirectorySyncs_WhenGroupCommitIsEnabled() throws IOException {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        FileUploadConfig config = parallelConfig();
+        when(config.getStorageDurability()).thenReturn("group-commit");
+        FileStorageService service = new FileStorageService(config, new DownloadCache(0, 0), new FileMetrics(registry));
+        MultipartFile[] files = new MultipartFile[8];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new MockMultipartFile("files", "same.txt", "text/plain", ("content " + i).getBytes());
+        }
+
+        // Act
+        FileUploadResponse response = service.storeFiles(files);
+
+        // Assert
+        assertEquals(8, response.getFiles().stream().map(FileUploadResponse.FileInfo::getFilename).distinct().count());
+        assertEquals(16, registry.get("upload.stage").tag("stage", "fsync").timer().count());
+        assertEquals("content 3", Files.readString(tempDir.resolve(response.getFiles().get(3).getFilename())));
+        try (Stream<Path> entries = Files.list(tempDir)) {
+            assertTrue(entries.noneMatch(entry -> entry.getFileName().toString().startsWith(".tmp-")));
+        }
+        service.close();
+    }
+
+    @Test
+    void constructor_ShouldRemoveTempFilesOfInterruptedWrites() throws IOException {
+        // Arrange
+        Path flatTemp = Files.writeString(tempDir.resolve(".tmp-123"), "trunc");
+        Path shardTemp = Files.writeString(Files.createDirectories(tempDir.resolve("ab/cd")).resolve(".tmp-456"), "trunc");
+        Path upload = Files.writeString(Files.createDirectories(tempDir.resolve(".uploads")).resolve(".tmp-789"), "kept");
+
+        // Act
+        FileStorageService service = TestServices.fileStorageService(tempDir);
+
+        // Assert
+        assertFalse(Files.exists(flatTemp));
+        assertFalse(Files.exists(shardTemp));
+        assertTrue(Files.exists(upload));
+        assertTrue(service.listFiles().isEmpty());
+        service.close();
+    }
+
+    @Test
+    void constructor_ShouldRestoreMetadataFromLog_WhenIndexStoreIsLog() throws IOException {
+        // Arrange
+        FileUploadConfig config = contentAddressedConfig();
+        when(config.isIndexLog()).thenReturn(true);
+        FileStorageService service = TestServices.fileStorageService(config);
+        MultipartFile[] files = {new MockMultipartFile("files", "notes.txt", "text/plain", "logged".getBytes())};
+        String filename = service.storeFiles(files).getFiles().get(0).getFilename();
+        service.close();
+
+        // Act
+        FileStorageService restarted = TestServices.fileStorageService(config);
+
+        // Assert
+        FileMetadata metadata = restarted.listFiles(null, FileIndex.SortField.NAME, false, 0, 10).items().get(0);
+        assertEquals(filename, metadata.getFilename());
+        assertEquals("notes.txt", metadata.getOriginalName());
+        assertNotNull(metadata.getChecksum());
+        assertTrue(Files.exists(tempDir.resolve(".meta/metadata.snapshot")));
+        restarted.close();
+    }
+
+    @Test
+    void storeFiles_ShouldCompressOnlyCompressibleTypes_WhenGzipIsEnabled() throws IOException {
+        // Arrange
+        FileStorageService gzipService = TestServices.fileStorageService(gzipConfig());
+        String text = "compressible text ".repeat(100);
+        MultipartFile[] files = {
+            new MockMultipartFile("files", "notes.txt", "text/plain", text.getBytes()),
+            new MockMultipartFile("files", "report.pdf", "application/pdf", "%PDF-1.7 raw".getBytes())
+        };
+
+        // Act
+        FileUploadResponse response = gzipService.storeFiles(files);
+
+        // Assert
+        Path notes = tempDir.resolve(response.getFiles().get(0).getFilename());
+        Path report = tempDir.resolve(response.getFiles().get(1).getFilename());
+        assertEquals(text.length(), response.getFiles().get(0).getSize());
+        assertTrue(ContentCompression.startsWithMagic(notes));
+        assertTrue(Files.size(notes) < text.length());
+        FileMetadata metadata = gzipService.getMetadata(notes.getFileName().toString());
+        assertEquals("gzip", metadata.getEncoding());
+        assertEquals(text.length(), metadata.getSize());
+        assertEquals(Files.size(notes), metadata.getStoredSize());
+        assertEquals("identity", gzipService.getMetadata(report.getFileName().toString()).getEncoding());
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(notes))) {
+            assertEquals(text, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals("%PDF-1.7 raw", Files.readString(report));
+        gzipService.close();
+    }
+
+    @Test
+    void openContent_ShouldReturnUploadAsIs_WhenItOnlyLooksLikeGzip() throws IOException {
+        // Arrange
+        byte[] content = {(byte) 0x1f, (byte) 0x8b, 'n', 'o', 't', ' ', 'g', 'z', 'i', 'p'};
+        MultipartFile[] files = {new MockMultipartFile("files", "notes.txt", "text/plain", content)};
+        String filename = fileStorageService.storeFiles(files).getFiles().get(0).getFilename();
+
+        // Act
+        byte[] read;
+        try (InputStream in = fileStorageService.openContent(filename)) {
+            read = in.readAllBytes();
+        }
+
+        // Assert
+        assertArrayEquals(content, read);
+        assertEquals("identity", fileStorageService.getMetadata(filename).getEncoding());
+    }
+
+    @Test
+    void resolveMetadata_ShouldRecordEncodingOnce_ForFilesIndexedWithoutIt() throws IOException {
+        // Arrange
+        String text = "found on disk ".repeat(50);
+        Path file = tempDir.resolve("1700000000000-found.txt");
+        try (OutputStream out = ContentCompression.encode(Files.newOutputStream(file))) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        FileStorageService scanned = TestServices.fileStorageService(tempDir);
+        assertNull(scanned.getMetadata(file.getFileName().toString()).getEncoding());
+
+        // Act
+        FileMetadata metadata = scanned.resolveMetadata(file.getFileName().toString());
+
+        // Assert
+        assertEquals("gzip", metadata.getEncoding());
+        assertEquals(text.length(), metadata.getSize());
+        assertEquals(Files.size(file), metadata.getStoredSize());
+        assertEquals("gzip", scanned.getMetadata(file.getFileName().toString()).getEncoding());
+        scanned.close();
+    }
+
+    @Test
+    void getDetails_ShouldReportTheSizeTheFileWasUploadedWith_WhenStoredCompressed() throws IOException {
+        // Arrange
+        FileStorageService gzipService = TestServices.fileStorageService(gzipConfig());
+        byte[] content = "a compressible line\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        FileUploadResponse.FileInfo uploaded = gzipService.storeFiles(new MultipartFile[] {
+            new MockMultipartFile("files", "notes.txt", "text/plain", content)
+        }).getFiles().get(0);
+        FileUploadResponse.FileInfo put = gzipService.storeObject("object.txt", "text/plain", new ByteArrayInputStream(content),
+            content.length, null);
+
+        // Act
+        FileDetails details = gzipService.getDetails(uploaded.getFilename());
+        List<FileMetadata> listed = gzipService.listFilesAfter(null, 10);
+
+        // Assert
+        assertEquals(content.length, uploaded.getSize());
+        assertEquals(uploaded.getSize(), details.getSize());
+        assertEquals(put.getSize(), gzipService.getMetadata("object.txt").getSize());
+        assertEquals(List.of((long) content.length, (long) content.length), listed.stream().map(FileMetadata::getSize).toList());
+        assertTrue(gzipService.getMetadata(uploaded.getFilename()).getStoredSize() < content.length);
+        assertEquals(2 * Files.size(tempDir.resolve(uploaded.getFilename())), gzipService.getStoredBytes());
+        gzipService.close();
+    }
+
+    @Test
+    void getDigest_ShouldReturnHashOfUploadedContent_WhetherOrNotStoredCompressed() throws IOException, NoSuchAlgorithmException {
+        // Arrange
+        FileStorageService gzipService = TestServices.fileStorageService(gzipConfig());
+        byte[] content = "a compressible line\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        MultipartFile[] files = {new MockMultipartFile("files", "notes.txt", "text/plain", content)};
+
+        // Act
+        String plain = fileStorageService.getDigest(fileStorageService.storeFiles(files).getFiles().get(0).getFilename()).getSha256();
+        String compressed = gzipService.getDigest(gzipService.storeFiles(files).getFiles().get(0).getFilename()).getSha256();
+
+        // Assert
+        assertEquals(expected, plain);
+        assertEquals(expected, compressed);
+        gzipService.close();
+    }
+
+    @Test
+    void storeFiles_ShouldReturnConfiguredDigests_AndRejectContentThatDoesNotMatchReprDigest() throws IOException {
+        // Arrange
+        FileUploadConfig config = contentAddressedConfig();
+        when(config.getDigests()).thenReturn(new String[] {"sha-256", "crc32c"});
+        FileStorageService service = TestServices.fileStorageService(config);
+        MultipartFile[] files = {new MockMultipartFile("files", "abc.txt", "text/plain", "abc".getBytes())};
+
+        // Act
+        FileUploadResponse response = service.storeFiles(files, new String[] {"crc32c=:Nks/tw==:"});
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class,
+            () -> service.storeFiles(files, new String[] {"sha-256=:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=:"}));
+
+        // Assert
+        assertEquals(UploadRejectedException.Reason.DIGEST_MISMATCH, ex.getReason());
+        assertEquals(Map.of("sha-256", "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", "crc32c", "364b3fb7"),
+            response.getFiles().get(0).getDigests());
+        assertEquals(1, service.listFiles().size());
+        assertEquals(1, countBlobs());
+        assertEquals("364b3fb7", service.getDigest(response.getFiles().get(0).getFilename()).getCrc32c());
+        service.close();
+    }
+
+    @Test
+    void storeMultipartStream_ShouldCheckReprDigestOfEachPart() {
+        // Arrange
+        byte[] body = ("--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"abc.txt\"\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Repr-Digest: crc32c=:AAAAAA==:\r\n\r\n"
+            + "abc\r\n"
+            + "--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        UploadRejectedException ex = assertThrows(UploadRejectedException.class,
+            () -> fileStorageService.storeMultipartStream(new ByteArrayInputStream(body), BOUNDARY, 5, 1024));
+
+        // Assert
+        assertEquals(UploadRejectedException.Reason.DIGEST_MISMATCH, ex.getReason());
+        assertTrue(fileStorageService.listFiles().isEmpty());
+    }
+
+    @Test
+    void storeReplica_ShouldKeepTheSameCopy_AndRefuseOtherContentUnderAStoredName() throws IOException {
+        // Arrange
+        String filename = "1700000000000-abc.txt";
+        String abcDigest = "sha-256=:ungWv48Bz+pBQUDeXa4iI7ADYaOWF3qctBD/YfIAFa0=:";
+        assertNotNull(fileStorageService.storeReplica(filename, "text/plain", new ByteArrayInputStream("abc".getBytes()), 1024, abcDigest));
+
+        // Act
+        FileUploadResponse.FileInfo again = fileStorageService.storeReplica(filename, "text/plain",
+            new ByteArrayInputStream("abc".getBytes()), 1024, abcDigest);
+
+        // Assert
+        assertNull(again);
+        assertThrows(ReplicaConflictException.class, () -> fileStorageService.storeReplica(filename, "text/plain",
+            new ByteArrayInputStream("xyz".getBytes()), 1024, "sha-256=:Ngi8oeROpsTSaOttsCJgJpiSwLQrhrvx53pvoWw8koI=:"));
+        assertEquals("abc", Files.readString(tempDir.resolve(filename)));
+    }
+
+    @Test
+    void storeReplica_ShouldCheckTypeAndSize_AsForAnyOtherUpload() {
+        // Act
+        UploadRejectedException wrongType = assertThrows(UploadRejectedException.class, () -> fileStorageService.storeReplica(
+            "1700000000000-run.sh", "application/x-sh", new ByteArrayInputStream("#!/bin/sh".getBytes()), 1024, null));
+        UploadRejectedException tooLarge = assertThrows(UploadRejectedException.class, () -> fileStorageService.storeReplica(
+            "1700000000000-big.txt", "text/plain", new ByteArrayInputStream(new byte[2048]), 1024, null));
+
+        // Assert
+        assertEquals(UploadRejectedException.Reason.INVALID_TYPE, wrongType.getReason());
+        assertEquals(UploadRejectedException.Reason.TOO_LARGE, tooLarge.getReason());
+        assertTrue(fileStorageService.listFiles().isEmpty());
+    }
+
+    @Test
+    void storeFiles_ShouldOnlyUseUploadTimesInTheSlotOfThisNode() {
+        // Arrange
+        fileStorageService.setUploadTimeSlot(2, 3);
+        MultipartFile[] files = new MultipartFile[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new MockMultipartFile("files", "file" + i + ".txt", "text/plain", ("content " + i).getBytes());
+        }
+
+        // Act
+        List<String> stored = fileStorageService.storeFiles(files).getFiles().stream()
+            .map(FileUploadResponse.FileInfo::getFilename)
+            .toList();
+
+        // Assert
+        assertEquals(4, stored.stream().distinct().count());
+        for (String filename : stored) {
+            assertEquals(2, Long.parseLong(filename.substring(0, filename.indexOf('-'))) % 3, filename);
+        }
+    }
+
     @Test
     void isValidFileType_ShouldReturnFalse_ForInvalidFileTypes() {
         // Arrange
@@ -141,4 +760,52 @@ class FileStorageServiceTest {
             assertFalse(fileStorageService.isValidFileType(type));
         }
     }
-} 
\ No newline at end of file
+
+    private static byte[] multipartBody(String... fields) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < fields.length; i += 4) {
+            body.append("--").append(BOUNDARY).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(fields[i])
+                .append("\"; filename=\"").append(fields[i + 1]).append("\"\r\n")
+                .append("Content-Type: ").append(fields[i + 2]).append("\r\n\r\n")
+                .append(fields[i + 3]).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private long countBlobs() throws IOException {
+        try (Stream<Path> files = Files.walk(tempDir.resolve(".blobs"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private FileUploadConfig contentAddressedConfig() {
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getUploadDir()).thenReturn(tempDir.toString());
+        when(config.isContentAddressed()).thenReturn(true);
+        return config;
+    }
+
+    private FileUploadConfig gzipConfig() {
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getUploadDir()).thenReturn(tempDir.toString());
+        when(config.isGzipCompression()).thenReturn(true);
+        return config;
+    }
+
+    private FileUploadConfig sniffingConfig() {
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getUploadDir()).thenReturn(tempDir.toString());
+        when(config.isContentSniffing()).thenReturn(true);
+        return config;
+    }
+
+    private FileUploadConfig parallelConfig() {
+        FileUploadConfig config = mock(FileUploadConfig.class);
+        when(config.getUploadDir()).thenReturn(tempDir.toString());
+        when(config.isParallelWrites()).thenReturn(true);
+        when(config.getWriteConcurrency()).thenReturn(4);
+        return config;
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+
+    private static final List<String> NODES = List.of("http://a:8080", "http://b:8080", "http://c:8080");
+
+    @Test
+    void owners_ShouldBeDistinctAndAgreeBetweenRingsWithTheSameMembers() {
+        // Arrange
+        HashRing ring = new HashRing(NODES, 64);
+        HashRing other = new HashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080"), 64);
+
+        // Act
+        List<String> owners = ring.owners("1700000000000-photo.jpg", 2);
+
+        // Assert
+        assertEquals(2, owners.size());
+        assertNotEquals(owners.get(0), owners.get(1));
+        assertEquals(owners, other.owners("1700000000000-photo.jpg", 2));
+        assertEquals(3, ring.owners("1700000000000-photo.jpg", 5).size());
+    }
+
+    @Test
+    void owners_ShouldOnlyMoveKeysToANodeThatJoins() {
+        // Arrange
+        HashRing before = new HashRing(NODES, 128);
+        HashRing after = new HashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080", "http://d:8080"), 128);
+        int keys = 10_000;
+        int moved = 0;
+
+        // Act
+        for (int i = 0; i < keys; i++) {
+            String key = i + "-file.txt";
+            String owner = after.owners(key, 1).get(0);
+            if (!owner.equals(before.owners(key, 1).get(0))) {
+                assertEquals("http://d:8080", owner);
+                moved++;
+            }
+        }
+
+        // Assert
+        assertTrue(moved > keys / 8 && moved < keys / 3, "moved " + moved);
+    }
+}
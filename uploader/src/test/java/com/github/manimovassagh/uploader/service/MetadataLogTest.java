@@ -0,0 +1,114 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.manimovassagh.uploader.model.FileMetadata;
+
+class MetadataLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void load_ShouldReplayChanges_WhenNotClosedCleanly() throws IOException {
+        // Arrange
+        MetadataLog metadataLog = new MetadataLog(tempDir.resolve(".meta"));
+        FileIndex fileIndex = new FileIndex(new FlatStorageBackend(tempDir), metadataLog);
+        assertFalse(metadataLog.load(fileIndex));
+        fileIndex.put(new FileMetadata("100-a.txt", "a.txt", 10, "text/plain", Instant.ofEpochMilli(100), "abc"));
+        fileIndex.put(new FileMetadata("200-b.jpg", "b.jpg", 20, null, Instant.ofEpochMilli(200)));
+        fileIndex.put(new FileMetadata("300-ü.txt", "ü.txt", 30, "text/plain", Instant.ofEpochMilli(300), null, null, 12, "gzip"));
+        fileIndex.remove("200-b.jpg");
+
+        // Act
+        FileIndex restored = new FileIndex(tempDir);
+        boolean loaded = new MetadataLog(tempDir.resolve(".meta")).load(restored);
+
+        // Assert
+        assertTrue(loaded);
+        assertEquals(2, restored.size());
+        assertNull(restored.get("200-b.jpg"));
+        FileMetadata first = restored.get("100-a.txt");
+        assertEquals("a.txt", first.getOriginalName());
+        assertEquals(10, first.getSize());
+        assertEquals("text/plain", first.getMimeType());
+        assertEquals(Instant.ofEpochMilli(100), first.getUploadTime());
+        assertEquals("abc", first.getChecksum());
+        assertEquals("ü.txt", restored.get("300-ü.txt").getOriginalName());
+        assertEquals(30, restored.get("300-ü.txt").getSize());
+        assertEquals(12, restored.get("300-ü.txt").getStoredSize());
+        assertEquals("gzip", restored.get("300-ü.txt").getEncoding());
+        assertNull(first.getEncoding());
+    }
+
+    @Test
+    void load_ShouldCutOffTornRecord() throws IOException {
+        // Arrange
+        MetadataLog metadataLog = new MetadataLog(tempDir.resolve(".meta"));
+        FileIndex fileIndex = new FileIndex(new FlatStorageBackend(tempDir), metadataLog);
+        metadataLog.load(fileIndex);
+        fileIndex.put(new FileMetadata("100-a.txt", "a.txt", 10, "text/plain", Instant.ofEpochMilli(100)));
+        fileIndex.put(new FileMetadata("200-b.txt", "b.txt", 20, "text/plain", Instant.ofEpochMilli(200)));
+        Path segment = metadataLog.currentSegment();
+        long complete = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(complete - 3);
+        }
+
+        // Act
+        FileIndex restored = new FileIndex(tempDir);
+        MetadataLog reopened = new MetadataLog(tempDir.resolve(".meta"));
+        reopened.load(restored);
+
+        // Assert
+        assertEquals(1, restored.size());
+        assertNotNull(restored.get("100-a.txt"));
+        assertTrue(Files.size(segment) < complete - 3);
+        new FileIndex(new FlatStorageBackend(tempDir), reopened)
+            .put(new FileMetadata("300-c.txt", "c.txt", 30, "text/plain", Instant.ofEpochMilli(300)));
+        FileIndex again = new FileIndex(tempDir);
+        new MetadataLog(tempDir.resolve(".meta")).load(again);
+        assertNotNull(again.get("300-c.txt"));
+    }
+
+    @Test
+    void compact_ShouldReplaceSegmentsWithSnapshot() throws IOException {
+        // Arrange
+        MetadataLog metadataLog = new MetadataLog(tempDir.resolve(".meta"));
+        FileIndex fileIndex = new FileIndex(new FlatStorageBackend(tempDir), metadataLog);
+        metadataLog.load(fileIndex);
+        for (int i = 0; i < 100; i++) {
+            fileIndex.put(new FileMetadata(i + "-f.txt", "f.txt", i, "text/plain", Instant.ofEpochMilli(i)));
+        }
+
+        // Act
+        metadataLog.compact();
+        fileIndex.remove("0-f.txt");
+        metadataLog.close();
+
+        // Assert
+        assertEquals(List.of("metadata-2.log", "metadata.snapshot"), files(tempDir.resolve(".meta")));
+        FileIndex restored = new FileIndex(tempDir);
+        assertTrue(new MetadataLog(tempDir.resolve(".meta")).load(restored));
+        assertEquals(99, restored.size());
+        assertEquals(99, restored.get("99-f.txt").getSize());
+    }
+
+    private static List<String> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class MultipartStreamParserTest {
+
+    private static final String BOUNDARY = "----TestBoundary";
+
+    @Test
+    void nextPart_ShouldReadAllPartsInOrder() throws IOException {
+        // Arrange
+        String body = "preamble\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"description\"\r\n"
+            + "\r\n"
+            + "holiday photos\r\n"
+            + "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"test.txt\"\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "Hello, World!\r\n"
+            + "--" + BOUNDARY + "--\r\n";
+        MultipartStreamParser parser = parser(body.getBytes(StandardCharsets.UTF_8));
+
+        // Act
+        MultipartStreamParser.Part field = parser.nextPart();
+        String fieldValue = new String(field.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        MultipartStreamParser.Part file = parser.nextPart();
+        String fileContent = new String(file.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        // Assert
+        assertEquals("description", field.getName());
+        assertNull(field.getFilename());
+        assertEquals("holiday photos", fieldValue);
+        assertEquals("files", file.getName());
+        assertEquals("test.txt", file.getFilename());
+        assertEquals("text/plain", file.getContentType());
+        assertEquals("Hello, World!", fileContent);
+        assertNull(parser.nextPart());
+    }
+
+    @Test
+    void nextPart_ShouldSkipUnreadContent() throws IOException {
+        // Arrange
+        byte[] large = new byte[200_000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ('a' + i % 26);
+        }
+        String head = "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"large.txt\"\r\n"
+            + "\r\n";
+        String tail = "\r\n--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"small.txt\"\r\n"
+            + "\r\n"
+            + "small\r\n"
+            + "--" + BOUNDARY + "--";
+        MultipartStreamParser parser = parser(concat(head.getBytes(), large, tail.getBytes()));
+
+        // Act
+        MultipartStreamParser.Part first = parser.nextPart();
+        MultipartStreamParser.Part second = parser.nextPart();
+
+        // Assert
+        assertEquals("large.txt", first.getFilename());
+        assertEquals("small.txt", second.getFilename());
+        assertEquals("small", new String(second.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        assertEquals(-1, first.getInputStream().read());
+    }
+
+    @Test
+    void nextPart_ShouldPreserveBinaryContentAcrossBufferBoundaries() throws IOException {
+        // Arrange
+        byte[] content = new byte[150_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        // A near-miss of the delimiter inside the payload must not end the part
+        byte[] nearMiss = ("\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "X").getBytes();
+        System.arraycopy(nearMiss, 0, content, 65_530, nearMiss.length);
+        String head = "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"data.bin\"\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "\r\n";
+        String tail = "\r\n--" + BOUNDARY + "--\r\n";
+        MultipartStreamParser parser = parser(concat(head.getBytes(), content, tail.getBytes()));
+
+        // Act
+        byte[] read = parser.nextPart().getInputStream().readAllBytes();
+
+        // Assert
+        assertArrayEquals(content, read);
+        assertNull(parser.nextPart());
+    }
+
+    @Test
+    void nextPart_ShouldThrowException_WhenStreamIsTruncated() throws IOException {
+        // Arrange
+        String body = "--" + BOUNDARY + "\r\n"
+            + "Content-Disposition: form-data; name=\"files\"; filename=\"test.txt\"\r\n"
+            + "\r\n"
+            + "truncated";
+        MultipartStreamParser parser = parser(body.getBytes(StandardCharsets.UTF_8));
+        InputStream part = parser.nextPart().getInputStream();
+
+        // Act & Assert
+        assertThrows(IOException.class, part::readAllBytes);
+    }
+
+    private MultipartStreamParser parser(byte[] body) {
+        // Deliver the body in small reads to exercise buffer refills
+        InputStream in = new ByteArrayInputStream(body) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7_919));
+            }
+        };
+        return new MultipartStreamParser(in, BOUNDARY);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+class S3ObjectServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageService fileStorageService;
+    private S3ObjectService s3ObjectService;
+
+    @BeforeEach
+    void setUp() {
+        fileStorageService = TestServices.fileStorageService(tempDir);
+        s3ObjectService = new S3ObjectService(fileStorageService, 1024, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileStorageService.close();
+    }
+
+    @Test
+    void completeMultipart_ShouldStorePartsInOrder_AndRemoveTheUpload() throws IOException {
+        // Arrange
+        String uploadId = s3ObjectService.initiateMultipart("notes.txt", "text/plain");
+        String second = s3ObjectService.uploadPart(uploadId, 2, stream("world"));
+        String first = s3ObjectService.uploadPart(uploadId, 1, stream("hello "));
+
+        // Act
+        FileUploadResponse.FileInfo info = s3ObjectService.completeMultipart(uploadId,
+            List.of(new S3ObjectService.Part(1, "\"" + first + "\""), new S3ObjectService.Part(2, second)));
+
+        // Assert
+        assertEquals("notes.txt", info.getFilename());
+        assertEquals("hello world", Files.readString(tempDir.resolve("notes.txt")));
+        assertThrows(FileNotFoundException.class, () -> s3ObjectService.abortMultipart(uploadId));
+        try (Stream<Path> uploads = Files.list(tempDir.resolve(".s3-multipart"))) {
+            assertEquals(0, uploads.count());
+        }
+    }
+
+    @Test
+    void completeMultipart_ShouldReject_WhenPartsAreOutOfOrderOrDoNotMatch() throws IOException {
+        // Arrange
+        String uploadId = s3ObjectService.initiateMultipart("notes.txt", "text/plain");
+        String first = s3ObjectService.uploadPart(uploadId, 1, stream("hello "));
+        String second = s3ObjectService.uploadPart(uploadId, 2, stream("world"));
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> s3ObjectService.completeMultipart(uploadId,
+            List.of(new S3ObjectService.Part(2, second), new S3ObjectService.Part(1, first))));
+        assertThrows(IllegalArgumentException.class, () -> s3ObjectService.completeMultipart(uploadId,
+            List.of(new S3ObjectService.Part(1, second))));
+        assertThrows(IllegalArgumentException.class, () -> s3ObjectService.completeMultipart(uploadId,
+            List.of(new S3ObjectService.Part(3, null))));
+        assertThrows(FileNotFoundException.class, () -> s3ObjectService.uploadPart("../etc", 1, stream("x")));
+        assertTrue(fileStorageService.listFiles().isEmpty());
+    }
+
+    @Test
+    void initiateMultipart_ShouldRefuseNamesOfUploadedFiles() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+            () -> s3ObjectService.initiateMultipart("1700000000000-notes.txt", "text/plain"));
+    }
+
+    @Test
+    void list_ShouldPageThroughKeys_AndRollUpCommonPrefixes() throws IOException {
+        // Arrange
+        for (String key : List.of("a.txt", "b-1.txt", "b-2.txt", "c.txt", "d.txt")) {
+            fileStorageService.storeObject(key, "text/plain", stream(key), 1024, null);
+        }
+
+        // Act
+        List<String> pages = new ArrayList<>();
+        String after = null;
+        do {
+            S3ObjectService.Listing listing = s3ObjectService.list("", "-", after, 2);
+            pages.add(String.join(",", keys(listing)));
+            after = listing.nextAfter();
+        } while (after != null);
+        S3ObjectService.Listing prefixed = s3ObjectService.list("b-", "-", null, 10);
+
+        // Assert
+        assertEquals(List.of("a.txt,b-", "c.txt,d.txt"), pages);
+        assertEquals(List.of("b-1.txt", "b-2.txt"), keys(prefixed));
+        assertFalse(prefixed.truncated());
+    }
+
+    private static List<String> keys(S3ObjectService.Listing listing) {
+        List<String> keys = new ArrayList<>(listing.contents().stream().map(FileMetadata::getFilename).toList());
+        keys.addAll(listing.commonPrefixes());
+        return keys;
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
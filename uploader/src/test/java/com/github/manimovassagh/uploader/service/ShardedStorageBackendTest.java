@@ -0,0 +1,90 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShardedStorageBackendTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ShardedStorageBackend storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storage = new ShardedStorageBackend(tempDir);
+        storage.open();
+    }
+
+    @Test
+    void prepare_ShouldPlaceFileTwoShardLevelsDeep() throws IOException {
+        // Act
+        Path path = storage.prepare("1700000000000-photo.jpg");
+
+        // Assert
+        Path relative = tempDir.relativize(path);
+        assertEquals(3, relative.getNameCount());
+        assertTrue(relative.getName(0).toString().matches("[0-9a-f]{2}"));
+        assertTrue(relative.getName(1).toString().matches("[0-9a-f]{2}"));
+        assertTrue(Files.isDirectory(path.getParent()));
+        assertEquals(path, storage.resolve("1700000000000-photo.jpg"));
+    }
+
+    @Test
+    void open_ShouldMigrateFlatFilesIntoShards() throws IOException {
+        // Arrange
+        Files.writeString(tempDir.resolve("1-a.txt"), "a");
+        Files.writeString(tempDir.resolve("2-b.txt"), "b");
+        Files.createDirectories(tempDir.resolve(".blobs"));
+        Files.writeString(tempDir.resolve(".hidden"), "internal");
+
+        // Act
+        storage.open();
+
+        // Assert
+        assertFalse(Files.exists(tempDir.resolve("1-a.txt")));
+        assertEquals("a", Files.readString(storage.resolve("1-a.txt")));
+        assertEquals(storage.shardPath("2-b.txt"), storage.resolve("2-b.txt"));
+        assertTrue(Files.exists(tempDir.resolve(".hidden")));
+    }
+
+    @Test
+    void resolve_ShouldFindFileStillInFlatLocation() throws IOException {
+        // Arrange
+        Files.writeString(tempDir.resolve("3-late.txt"), "late");
+
+        // Act
+        Path path = storage.resolve("3-late.txt");
+
+        // Assert
+        assertEquals(tempDir.resolve("3-late.txt"), path);
+    }
+
+    @Test
+    void files_ShouldListShardedAndFlatFiles() throws IOException {
+        // Arrange
+        Files.writeString(storage.prepare("1-a.txt"), "a");
+        Files.writeString(storage.prepare("2-b.txt"), "b");
+        Files.writeString(tempDir.resolve("3-c.txt"), "c");
+        Files.createDirectories(tempDir.resolve(".blobs/ab/cd"));
+        Files.writeString(tempDir.resolve(".blobs/ab/cd/blob"), "blob");
+
+        // Act
+        List<String> names;
+        try (Stream<Path> files = storage.files()) {
+            names = files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+
+        // Assert
+        assertEquals(List.of("1-a.txt", "2-b.txt", "3-c.txt"), names);
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.model.FileMetadata;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+class StorageScrubberTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageService fileStorageService;
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() {
+        fileStorageService = TestServices.fileStorageService(tempDir);
+        thumbnailService = mock(ThumbnailService.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileStorageService.close();
+    }
+
+    @Test
+    void runPass_ShouldExpireFilesPastTheirAge() throws IOException {
+        // Arrange
+        List<String> stored = store("a.txt", "b.txt", "c.txt");
+        long later = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(2);
+        StorageScrubber scrubber = new StorageScrubber(fileStorageService, thumbnailService, 3600, 0, false, 0, 2, 0, 0, () -> later);
+
+        // Act
+        scrubber.runPass();
+
+        // Assert
+        assertTrue(fileStorageService.listFiles().isEmpty());
+        assertEquals(3, scrubber.status().expiredFiles());
+        assertEquals(30, scrubber.status().expiredBytes());
+        assertNotNull(scrubber.status().lastPassFinished());
+        verify(thumbnailService).deleteThumbnails(stored.get(0));
+        scrubber.close();
+    }
+
+    @Test
+    void runPass_ShouldEvictOldestFilesOverQuota() throws IOException {
+        // Arrange
+        List<String> stored = store("a.txt", "b.txt", "c.txt");
+        StorageScrubber scrubber = new StorageScrubber(fileStorageService, thumbnailService, 0, 15, false, 0, 1, 0, 0,
+            System::currentTimeMillis);
+
+        // Act
+        scrubber.runPass();
+
+        // Assert
+        assertEquals(List.of(stored.get(2)), fileStorageService.listFiles());
+        assertEquals(2, scrubber.status().evictedFiles());
+        assertEquals(10, fileStorageService.getStoredBytes());
+        scrubber.close();
+    }
+
+    @Test
+    void runPass_ShouldReportFilesWhoseContentNoLongerMatchesTheirDigest() throws IOException {
+        // Arrange
+        List<String> stored = store("a.txt", "b.txt", "c.txt");
+        Files.writeString(tempDir.resolve(stored.get(1)), "0123456789");
+        StorageScrubber scrubber = new StorageScrubber(fileStorageService, thumbnailService, 0, 0, true, 0, 2, 0, 0,
+            System::currentTimeMillis);
+
+        // Act
+        scrubber.runPass();
+
+        // Assert
+        StorageScrubber.Status status = scrubber.status();
+        assertEquals(List.of(stored.get(1)), status.corruptFiles());
+        assertEquals(3, status.verifiedFiles());
+        assertEquals(stored.get(2), status.verifyCursor());
+        assertEquals(3, fileStorageService.listFiles().size());
+        scrubber.close();
+    }
+
+    @Test
+    void runPass_ShouldNotReportFilesDeletedAfterTheirBatchWasListed() throws IOException {
+        // Arrange
+        List<String> stored = store("a.txt", "b.txt");
+        FileStorageService deleting = spy(fileStorageService);
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<FileMetadata> batch = (List<FileMetadata>) invocation.callRealMethod();
+            if (!batch.isEmpty()) {
+                fileStorageService.deleteFile(stored.get(0));
+            }
+            return batch;
+        }).when(deleting).listFilesAfter(any(), anyInt());
+        StorageScrubber scrubber = new StorageScrubber(deleting, thumbnailService, 0, 0, true, 0, 2, 0, 0,
+            System::currentTimeMillis);
+
+        // Act
+        scrubber.runPass();
+
+        // Assert
+        assertEquals(List.of(), scrubber.status().corruptFiles());
+        assertEquals(1, scrubber.status().verifiedFiles());
+        scrubber.close();
+    }
+
+    @Test
+    void runPass_ShouldNotReportFilesReplacedAfterTheirBatchWasListed() throws IOException {
+        // Arrange
+        fileStorageService.storeObject("notes.txt", "text/plain", new ByteArrayInputStream("old content".getBytes()), 1024, null);
+        FileStorageService replacing = spy(fileStorageService);
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<FileMetadata> batch = (List<FileMetadata>) invocation.callRealMethod();
+            if (!batch.isEmpty()) {
+                fileStorageService.storeObject("notes.txt", "text/plain", new ByteArrayInputStream("new content".getBytes()), 1024, null);
+            }
+            return batch;
+        }).when(replacing).listFilesAfter(any(), anyInt());
+        StorageScrubber scrubber = new StorageScrubber(replacing, thumbnailService, 0, 0, true, 0, 2, 0, 0,
+            System::currentTimeMillis);
+
+        // Act
+        scrubber.runPass();
+
+        // Assert
+        assertEquals(List.of(), scrubber.status().corruptFiles());
+        assertEquals(1, scrubber.status().verifiedFiles());
+        scrubber.close();
+    }
+
+    private List<String> store(String... names) {
+        MultipartFile[] files = new MultipartFile[names.length];
+        for (int i = 0; i < names.length; i++) {
+            files[i] = new MockMultipartFile("files", names[i], "text/plain", ("content-" + i + "!").getBytes());
+        }
+        FileUploadResponse response = fileStorageService.storeFiles(files);
+        return response.getFiles().stream().map(FileUploadResponse.FileInfo::getFilename).toList();
+    }
+}
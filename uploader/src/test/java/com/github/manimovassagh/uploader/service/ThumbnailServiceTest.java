@@ -0,0 +1,163 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.model.FileUploadResponse;
+
+class ThumbnailServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageService fileStorageService;
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() {
+        fileStorageService = TestServices.fileStorageService(tempDir);
+        thumbnailService = new ThumbnailService(fileStorageService, new int[] {64, 16}, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        thumbnailService.close();
+        fileStorageService.close();
+    }
+
+    @Test
+    void getThumbnail_ShouldScaleLongestSideAndKeepFormat() throws IOException {
+        // Arrange
+        String filename = store("photo.png", "image/png", image(400, 200, "png"));
+
+        // Act
+        Path thumbnail = thumbnailService.getThumbnail(filename, 64);
+
+        // Assert
+        BufferedImage result = ImageIO.read(thumbnail.toFile());
+        assertEquals(64, result.getWidth());
+        assertEquals(32, result.getHeight());
+        assertEquals(filename, thumbnail.getFileName().toString());
+        assertTrue(fileStorageService.listFiles().stream().noneMatch(name -> name.startsWith(".")));
+    }
+
+    @Test
+    void getThumbnail_ShouldNotUpscaleSmallImages() throws IOException {
+        // Arrange
+        String filename = store("small.jpg", "image/jpeg", image(10, 8, "jpeg"));
+
+        // Act
+        BufferedImage result = ImageIO.read(thumbnailService.getThumbnail(filename, 64).toFile());
+
+        // Assert
+        assertEquals(10, result.getWidth());
+        assertEquals(8, result.getHeight());
+    }
+
+    @Test
+    void getThumbnail_ShouldRejectUnconfiguredSizeAndNonImages() throws IOException {
+        // Arrange
+        String image = store("photo.png", "image/png", image(100, 100, "png"));
+        String text = store("notes.txt", "text/plain", "not an image".getBytes());
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> thumbnailService.getThumbnail(image, 100));
+        assertThrows(IllegalArgumentException.class, () -> thumbnailService.getThumbnail(text, 64));
+    }
+
+    @Test
+    void getThumbnail_ShouldGenerateOnce_WhenRequestedConcurrently() throws Exception {
+        // Arrange
+        String filename = store("photo.png", "image/png", image(800, 600, "png"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Path>> results = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> thumbnailService.getThumbnail(filename, 16)));
+        }
+
+        // Assert
+        Path first = results.get(0).get();
+        for (Future<Path> result : results) {
+            assertEquals(first, result.get());
+        }
+        executor.shutdown();
+        assertEquals(16, ImageIO.read(first.toFile()).getWidth());
+    }
+
+    @Test
+    void enqueue_ShouldGenerateAllSizesInBackground() throws Exception {
+        // Arrange
+        MultipartFile[] files = {new MockMultipartFile("files", "photo.gif", "image/gif", image(300, 300, "gif"))};
+        FileUploadResponse response = fileStorageService.storeFiles(files);
+        String filename = response.getFiles().get(0).getFilename();
+
+        // Act
+        thumbnailService.enqueue(response);
+
+        // Assert
+        Path queued = tempDir.resolve(".thumbnails/.queue").resolve(filename);
+        for (int i = 0; i < 200 && Files.exists(queued); i++) {
+            Thread.sleep(25);
+        }
+        assertFalse(Files.exists(queued));
+        assertTrue(Files.exists(tempDir.resolve(".thumbnails/16").resolve(filename)));
+        assertTrue(Files.exists(tempDir.resolve(".thumbnails/64").resolve(filename)));
+    }
+
+    @Test
+    void constructor_ShouldResumeQueuedWork() throws Exception {
+        // Arrange
+        String filename = store("photo.png", "image/png", image(200, 100, "png"));
+        Path queued = Files.createFile(tempDir.resolve(".thumbnails/.queue").resolve(filename));
+        thumbnailService.close();
+
+        // Act
+        thumbnailService = new ThumbnailService(fileStorageService, new int[] {32}, 1);
+
+        // Assert
+        for (int i = 0; i < 200 && Files.exists(queued); i++) {
+            Thread.sleep(25);
+        }
+        assertFalse(Files.exists(queued));
+        assertEquals(32, ImageIO.read(tempDir.resolve(".thumbnails/32").resolve(filename).toFile()).getWidth());
+    }
+
+    private String store(String name, String type, byte[] content) {
+        MultipartFile[] files = {new MockMultipartFile("files", name, type, content)};
+        return fileStorageService.storeFiles(files).getFiles().get(0).getFilename();
+    }
+
+    private static byte[] image(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.manimovassagh.uploader.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.manimovassagh.uploader.TestServices;
+import com.github.manimovassagh.uploader.exception.FileNotFoundException;
+
+class ZipArchiveServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FileStorageService fileStorageService;
+    private ZipArchiveService zipArchiveService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.writeString(tempDir.resolve("notes.txt"), "some notes ".repeat(50));
+        Files.write(tempDir.resolve("photo.jpg"), new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3});
+        Files.write(tempDir.resolve("raw.bin"), new byte[4096]);
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempDir.resolve("packed.txt")))) {
+            out.write("stored compressed".getBytes(StandardCharsets.UTF_8));
+        }
+        fileStorageService = TestServices.fileStorageService(tempDir);
+        zipArchiveService = new ZipArchiveService(fileStorageService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileStorageService.close();
+    }
+
+    @Test
+    void write_ShouldDeflateEverythingButCompressedFormats() throws IOException {
+        // Arrange
+        List<Path> files = zipArchiveService.resolve(List.of("notes.txt", "photo.jpg", "packed.txt", "raw.bin", "notes.txt"), null);
+        Path archive = tempDir.resolve(".archive.zip");
+
+        // Act
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            zipArchiveService.write(files, out);
+        }
+
+        // Assert
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                entries.put(entry.getName(), entry);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    contents.put(entry.getName(), in.readAllBytes());
+                }
+            }
+        }
+        assertEquals(List.of("notes.txt", "photo.jpg", "packed.txt", "raw.bin"), List.copyOf(entries.keySet()));
+        assertTrue(entries.values().stream().allMatch(entry -> entry.getMethod() == ZipEntry.DEFLATED));
+        assertTrue(entries.get("notes.txt").getCompressedSize() < entries.get("notes.txt").getSize());
+        assertTrue(entries.get("raw.bin").getCompressedSize() < entries.get("raw.bin").getSize());
+        assertTrue(entries.get("photo.jpg").getCompressedSize() > entries.get("photo.jpg").getSize());
+        assertEquals("some notes ".repeat(50), new String(contents.get("notes.txt"), StandardCharsets.UTF_8));
+        assertArrayEquals(Files.readAllBytes(tempDir.resolve("photo.jpg")), contents.get("photo.jpg"));
+        assertEquals("stored compressed", new String(contents.get("packed.txt"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void resolve_ShouldSelectFilesByPrefix() {
+        // Act
+        List<Path> files = zipArchiveService.resolve(null, "p");
+
+        // Assert
+        assertEquals(List.of(tempDir.resolve("packed.txt"), tempDir.resolve("photo.jpg")), files);
+    }
+
+    @Test
+    void resolve_ShouldFailBeforeWriting_WhenAFileIsMissing() {
+        // Act & Assert
+        assertThrows(FileNotFoundException.class, () -> zipArchiveService.resolve(List.of("notes.txt", "missing.txt"), null));
+        assertThrows(FileNotFoundException.class, () -> zipArchiveService.resolve(List.of(".blobs"), null));
+        assertThrows(IllegalArgumentException.class, () -> zipArchiveService.resolve(List.of(), null));
+        assertThrows(IllegalArgumentException.class, () -> zipArchiveService.resolve(List.of("notes.txt"), "n"));
+    }
+}